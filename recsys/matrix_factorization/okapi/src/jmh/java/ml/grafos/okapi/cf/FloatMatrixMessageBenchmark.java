@@ -0,0 +1,89 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmh.java.ml.grafos.okapi.cf;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import ml.grafos.okapi.cf.CfLongId;
+import ml.grafos.okapi.cf.FloatMatrixMessage;
+import ml.grafos.okapi.common.jblas.FloatMatrixWritable;
+
+import org.apache.giraph.utils.UnsafeByteArrayInputStream;
+import org.apache.giraph.utils.UnsafeByteArrayOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Round-trip of the messages of the factorization algorithms: a vertex with
+ * the given degree writes one message per neighbor, and they are read back
+ * into a reused message, as Giraph does when it iterates over the messages.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FloatMatrixMessageBenchmark {
+
+  @Param({"10", "50", "100"})
+  int dim;
+
+  @Param({"10", "1000"})
+  int degree;
+
+  private FloatMatrixMessage message;
+  private FloatMatrixMessage target;
+  private UnsafeByteArrayOutputStream output;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(0);
+    FloatMatrixWritable factors = new FloatMatrixWritable(dim);
+    for (int f=0; f<dim; f++) {
+      factors.put(f, random.nextFloat());
+    }
+    message = new FloatMatrixMessage(new CfLongId((byte)0, 42), factors, 0f);
+    target = new FloatMatrixMessage();
+    output = new UnsafeByteArrayOutputStream();
+  }
+
+  @Benchmark
+  public void roundTrip(Blackhole bh) throws IOException {
+    output.reset();
+    for (int k=0; k<degree; k++) {
+      message.write(output);
+    }
+    UnsafeByteArrayInputStream input = new UnsafeByteArrayInputStream(
+        output.getByteArray(), 0, output.getPos());
+    for (int k=0; k<degree; k++) {
+      target.readFields(input);
+      bh.consume(target.getFactors());
+    }
+  }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmh.java.ml.grafos.okapi.cf.als;
+
+import java.util.concurrent.TimeUnit;
+
+import ml.grafos.okapi.cf.als.Als;
+import ml.grafos.okapi.common.jblas.FloatMatrixWritable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.jblas.FloatMatrix;
+
+/**
+ * The least squares solve of ALS for one vertex: the factors of the neighbors
+ * are the columns of M and their ratings form R, as in Als.compute.
+ *
+ * The solver goes through the native jblas library, which must be loadable
+ * on the machine that runs the benchmark.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AlsBenchmark {
+
+  @Param({"10", "50", "100"})
+  int dim;
+
+  @Param({"10", "1000"})
+  int degree;
+
+  private Als als;
+  private FloatMatrixWritable value;
+  private FloatMatrix matM;
+  private FloatMatrix matR;
+
+  @Setup
+  public void setup() {
+    org.jblas.util.Random.seed(0);
+    als = new Als();
+    value = new FloatMatrixWritable(dim);
+    matM = FloatMatrix.rand(dim, degree);
+    matR = FloatMatrix.rand(degree, 1).muli(4f).addi(1f);
+  }
+
+  @Benchmark
+  public FloatMatrix updateValue() {
+    als.updateValue(value, matM, matR, 0.01f);
+    return value;
+  }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmh.java.ml.grafos.okapi.cf.ranking;
+
+import java.util.concurrent.TimeUnit;
+
+import ml.grafos.okapi.cf.ranking.BPRRankingComputation;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.jblas.FloatMatrix;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The BPR update of one user, for one sampled pair of a relevant and an
+ * irrelevant item per neighbor, as in BPRRankingComputation.compute. Index 0
+ * holds the item biases, so the vectors have dim+1 entries.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BPRRankingBenchmark {
+
+  @Param({"10", "50", "100"})
+  int dim;
+
+  @Param({"10", "1000"})
+  int degree;
+
+  private BPRRankingComputation bpr;
+  private FloatMatrix user;
+  private FloatMatrix[] relevant;
+  private FloatMatrix[] irrelevant;
+  private FloatMatrix uDelta;
+  private FloatMatrix iDelta;
+  private FloatMatrix jDelta;
+
+  @Setup
+  public void setup() {
+    org.jblas.util.Random.seed(0);
+    bpr = new BPRRankingComputation();
+    bpr.d = dim;
+    bpr.learnRate = 0.01f;
+    bpr.reg = 0.01f;
+    user = FloatMatrix.rand(dim+1);
+    user.put(0, 1f);
+    relevant = new FloatMatrix[degree];
+    irrelevant = new FloatMatrix[degree];
+    for (int k=0; k<degree; k++) {
+      relevant[k] = FloatMatrix.rand(dim+1);
+      irrelevant[k] = FloatMatrix.rand(dim+1);
+    }
+    uDelta = new FloatMatrix(dim+1);
+    iDelta = new FloatMatrix(dim+1);
+    jDelta = new FloatMatrix(dim+1);
+  }
+
+  @Benchmark
+  public void updateModel(Blackhole bh) {
+    for (int k=0; k<degree; k++) {
+      uDelta.fill(0f);
+      iDelta.fill(0f);
+      jDelta.fill(0f);
+      bpr.computeUpdates(user, relevant[k], irrelevant[k],
+          uDelta, iDelta, jDelta);
+      bh.consume(uDelta);
+      bh.consume(iDelta);
+      bh.consume(jDelta);
+    }
+  }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmh.java.ml.grafos.okapi.cf.sgd;
+
+import java.util.concurrent.TimeUnit;
+
+import ml.grafos.okapi.cf.sgd.Sgd;
+import ml.grafos.okapi.common.jblas.FloatMatrixWritable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.jblas.FloatMatrix;
+
+/**
+ * The SGD update of one vertex with the factors of all its neighbors, as in
+ * Sgd.compute. The value is reset before every invocation is measured, so
+ * that it does not drift over the run.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SgdBenchmark {
+
+  @Param({"10", "50", "100"})
+  int dim;
+
+  @Param({"10", "1000"})
+  int degree;
+
+  private Sgd sgd;
+  private FloatMatrix initial;
+  private FloatMatrixWritable value;
+  private FloatMatrix[] neighbors;
+  private float[] ratings;
+
+  @Setup
+  public void setup() {
+    org.jblas.util.Random.seed(0);
+    sgd = new Sgd();
+    initial = FloatMatrix.rand(dim).muli(0.1f);
+    value = new FloatMatrixWritable(dim);
+    neighbors = new FloatMatrix[degree];
+    ratings = new float[degree];
+    java.util.Random random = new java.util.Random(0);
+    for (int k=0; k<degree; k++) {
+      neighbors[k] = FloatMatrix.rand(dim).muli(0.1f);
+      ratings[k] = 1 + random.nextInt(5);
+    }
+  }
+
+  @Benchmark
+  public FloatMatrix updateValue() {
+    System.arraycopy(initial.data, 0, value.data, 0, dim);
+    for (int k=0; k<degree; k++) {
+      sgd.updateValue(value, neighbors[k], ratings[k], 0f, 5f, 0.01f, 0.005f);
+    }
+    return value;
+  }
+}
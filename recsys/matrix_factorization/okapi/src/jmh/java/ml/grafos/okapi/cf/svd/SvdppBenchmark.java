@@ -0,0 +1,77 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmh.java.ml.grafos.okapi.cf.svd;
+
+import java.util.concurrent.TimeUnit;
+
+import ml.grafos.okapi.cf.svd.Svdpp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.jblas.FloatMatrix;
+
+/**
+ * The prediction of SVD++ for every rating of a user, as in the user
+ * computation of Svdpp, with the number of ratings equal to the degree.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SvdppBenchmark {
+
+  @Param({"10", "50", "100"})
+  int dim;
+
+  @Param({"10", "1000"})
+  int degree;
+
+  private FloatMatrix user;
+  private FloatMatrix sumWeights;
+  private FloatMatrix[] items;
+
+  @Setup
+  public void setup() {
+    org.jblas.util.Random.seed(0);
+    user = FloatMatrix.rand(dim).muli(0.1f);
+    sumWeights = FloatMatrix.rand(dim).muli(0.1f);
+    items = new FloatMatrix[degree];
+    for (int k=0; k<degree; k++) {
+      items[k] = FloatMatrix.rand(dim).muli(0.1f);
+    }
+  }
+
+  @Benchmark
+  public float computePredictedRating() {
+    float sum = 0f;
+    for (int k=0; k<degree; k++) {
+      sum += Svdpp.computePredictedRating(3.5f, 0.1f, -0.1f, user, items[k],
+          degree, sumWeights, 0f, 5f);
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmh.java.ml.grafos.okapi.common.graph;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import ml.grafos.okapi.common.graph.SortedOutEdges;
+
+import org.apache.giraph.edge.Edge;
+import org.apache.giraph.edge.EdgeFactory;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Iteration over edges kept in value order. Every iteration sorts the
+ * entries, so the cost grows as degree*log(degree). The edge values are
+ * scalars, so the suite has no dim parameter.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SortedOutEdgesBenchmark {
+
+  @Param({"10", "1000", "100000"})
+  int degree;
+
+  private SortedOutEdges<LongWritable, DoubleWritable> edges;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(0);
+    edges = new SortedOutEdges<LongWritable, DoubleWritable>();
+    edges.initialize(degree);
+    for (int k=0; k<degree; k++) {
+      edges.add(EdgeFactory.create(new LongWritable(random.nextLong()),
+          new DoubleWritable(random.nextDouble())));
+    }
+  }
+
+  @Benchmark
+  public double iterate() {
+    double sum = 0d;
+    for (Edge<LongWritable, DoubleWritable> edge : edges) {
+      sum += edge.getValue().get();
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmh.java.ml.grafos.okapi.common.jblas;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import ml.grafos.okapi.common.jblas.FloatKernels;
+
+import org.jblas.JavaBlas;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The vector kernels of the CF trainers, against the pure Java loops of jblas
+ * that they replace. Every invocation applies a kernel between one vector and
+ * the vectors of NEIGHBORS neighbors, as a vertex does with its messages.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FloatKernelsBenchmark {
+
+  private static final int NEIGHBORS = 100;
+
+  @Param({"16", "32", "64", "128", "256"})
+  int dim;
+
+  private float[] value;
+  private float[][] neighbors;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(0);
+    value = new float[dim];
+    for (int f=0; f<dim; f++) {
+      value[f] = 0.1f*random.nextFloat();
+    }
+    neighbors = new float[NEIGHBORS][dim];
+    for (int k=0; k<NEIGHBORS; k++) {
+      for (int f=0; f<dim; f++) {
+        neighbors[k][f] = 0.1f*random.nextFloat();
+      }
+    }
+  }
+
+  @Benchmark
+  public float dot() {
+    float sum = 0f;
+    for (int k=0; k<NEIGHBORS; k++) {
+      sum += FloatKernels.dot(value, neighbors[k], dim);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public float javaBlasDot() {
+    float sum = 0f;
+    for (int k=0; k<NEIGHBORS; k++) {
+      sum += JavaBlas.rdot(dim, value, 0, 1, neighbors[k], 0, 1);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public float[] axpy() {
+    for (int k=0; k<NEIGHBORS; k++) {
+      FloatKernels.axpy(1e-6f, neighbors[k], value, dim);
+    }
+    return value;
+  }
+
+  @Benchmark
+  public float[] javaBlasAxpy() {
+    for (int k=0; k<NEIGHBORS; k++) {
+      JavaBlas.raxpy(dim, 1e-6f, neighbors[k], 0, 1, value, 0, 1);
+    }
+    return value;
+  }
+
+  @Benchmark
+  public float[] scaledAdd() {
+    for (int k=0; k<NEIGHBORS; k++) {
+      FloatKernels.scaledAdd(0.999f, value, 1e-3f, neighbors[k], dim);
+    }
+    return value;
+  }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmh.java.ml.grafos.okapi.common.jblas;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import ml.grafos.okapi.common.jblas.FloatMatrixWritable;
+
+import org.apache.giraph.utils.UnsafeByteArrayInputStream;
+import org.apache.giraph.utils.UnsafeByteArrayOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Serialization of the factor vectors, as done for every message and every
+ * vertex value. Every invocation writes, or reads back, the vectors sent by a
+ * vertex with the given degree.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FloatMatrixWritableBenchmark {
+
+  @Param({"10", "50", "100"})
+  int dim;
+
+  @Param({"10", "1000"})
+  int degree;
+
+  private FloatMatrixWritable[] vectors;
+  private FloatMatrixWritable target;
+  private UnsafeByteArrayOutputStream output;
+  private byte[] serialized;
+  private int serializedLength;
+
+  @Setup
+  public void setup() throws IOException {
+    Random random = new Random(0);
+    vectors = new FloatMatrixWritable[degree];
+    for (int k=0; k<degree; k++) {
+      vectors[k] = new FloatMatrixWritable(dim);
+      for (int f=0; f<dim; f++) {
+        vectors[k].put(f, random.nextFloat());
+      }
+    }
+    target = new FloatMatrixWritable();
+    output = new UnsafeByteArrayOutputStream();
+    for (FloatMatrixWritable vector : vectors) {
+      vector.write(output);
+    }
+    serialized = output.toByteArray();
+    serializedLength = output.getPos();
+  }
+
+  @Benchmark
+  public int write() throws IOException {
+    output.reset();
+    for (FloatMatrixWritable vector : vectors) {
+      vector.write(output);
+    }
+    return output.getPos();
+  }
+
+  @Benchmark
+  public void readFields(Blackhole bh) throws IOException {
+    UnsafeByteArrayInputStream input =
+        new UnsafeByteArrayInputStream(serialized, 0, serializedLength);
+    for (int k=0; k<degree; k++) {
+      target.readFields(input);
+      bh.consume(target.data);
+    }
+  }
+}
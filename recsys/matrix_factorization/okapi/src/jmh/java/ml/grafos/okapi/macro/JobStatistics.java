@@ -0,0 +1,93 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmh.java.ml.grafos.okapi.macro;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+import org.apache.giraph.job.GiraphJobObserver;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
+
+/**
+ * Keeps the counters and the peak heap of the last job run in this JVM.
+ *
+ * Giraph creates the observer from the configuration, so the statistics are
+ * handed to the runner through static fields, which is fine as long as the
+ * jobs run one after the other. The peak heap is read when the job finishes,
+ * before {@link org.apache.giraph.utils.InternalVertexRunner} reads the
+ * output back.
+ */
+public class JobStatistics implements GiraphJobObserver {
+
+  private static volatile Counters counters;
+  private static volatile long peakHeap;
+
+  /**
+   * Forgets the last job and resets the peak usage of the heap pools, to be
+   * called right before a job is started.
+   */
+  public static void reset() {
+    counters = null;
+    peakHeap = 0;
+    System.gc();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        pool.resetPeakUsage();
+      }
+    }
+  }
+
+  /**
+   * @return the counters of the last job, or null if it did not finish
+   */
+  public static Counters getCounters() {
+    return counters;
+  }
+
+  /**
+   * @return the sum of the peak usages of the heap pools during the last
+   * job, an upper bound of the peak heap since the pools do not peak together
+   */
+  public static long getPeakHeap() {
+    return peakHeap;
+  }
+
+  @Override
+  public void launchingJob(Job jobToSubmit) { }
+
+  @Override
+  public void jobRunning(Job submittedJob) { }
+
+  @Override
+  public void jobFinished(Job submittedJob, boolean passed) {
+    long peak = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        peak += pool.getPeakUsage().getUsed();
+      }
+    }
+    peakHeap = peak;
+    try {
+      counters = submittedJob.getCounters();
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot read the counters of the job",
+          e);
+    }
+  }
+}
@@ -0,0 +1,915 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmh.java.ml.grafos.okapi.macro;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import ml.grafos.okapi.cf.AdaptiveRate;
+import ml.grafos.okapi.cf.PowerLawRatingEdgeInputFormat;
+import ml.grafos.okapi.cf.PowerLawRatings;
+import ml.grafos.okapi.cf.als.Als;
+import ml.grafos.okapi.cf.ranking.BPRRankingComputation;
+import ml.grafos.okapi.cf.sgd.AsyncSgd;
+import ml.grafos.okapi.cf.sgd.Sgd;
+import ml.grafos.okapi.cf.svd.Svdpp;
+import ml.grafos.okapi.clustering.kmeans.ArrayListOfDoubleArrayListWritableAggregator;
+import ml.grafos.okapi.clustering.kmeans.KMeansClustering;
+import ml.grafos.okapi.clustering.kmeans.KMeansTextInputFormat;
+import ml.grafos.okapi.clustering.kmeans.KMeansTextOutputFormat;
+import ml.grafos.okapi.common.Parameters;
+import ml.grafos.okapi.common.graph.NullOutEdges;
+import ml.grafos.okapi.common.graph.PowerLawGraph;
+import ml.grafos.okapi.common.graph.PowerLawGraphEdgeInputFormat;
+import ml.grafos.okapi.graphs.ConnectedComponents;
+import ml.grafos.okapi.graphs.KCore;
+import ml.grafos.okapi.graphs.MultipleSourceShortestPaths;
+import ml.grafos.okapi.graphs.SemiClustering;
+import ml.grafos.okapi.graphs.SimplePageRank;
+import ml.grafos.okapi.graphs.SingleSourceShortestPaths;
+import ml.grafos.okapi.graphs.Triangles;
+import ml.grafos.okapi.graphs.similarity.AdamicAdar;
+import ml.grafos.okapi.graphs.similarity.Jaccard;
+import ml.grafos.okapi.spinner.LoadDimensions;
+import ml.grafos.okapi.spinner.SortedArrayEdges;
+import ml.grafos.okapi.spinner.Spinner;
+import ml.grafos.okapi.spinner.StreamingPlacement;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.counters.GiraphStats;
+import org.apache.giraph.counters.GiraphTimers;
+import org.apache.giraph.edge.HashMapEdges;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.io.formats.AdjacencyListTextVertexOutputFormat;
+import org.apache.giraph.io.formats.IdWithValueTextOutputFormat;
+import org.apache.giraph.utils.InternalVertexRunner;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.CounterGroup;
+import org.apache.hadoop.mapreduce.Counters;
+
+/**
+ * Runs the okapi algorithms end to end with the local Giraph engine, on
+ * generated inputs of several sizes, and writes what every run cost to a
+ * report that can be diffed between commits.
+ *
+ * The graph algorithms read a {@link PowerLawGraph}, the CF algorithms a
+ * {@link PowerLawRatings} graph and KMeans points drawn around random
+ * centers. A scale is the number of edges of the input: undirected edges for
+ * the graphs, ratings for CF, and ten coordinates per point for KMeans.
+ *
+ * For every run the report holds the wall time of every superstep, the
+ * messages and message bytes sent, the peak heap and a quality metric, which
+ * is a counter of the algorithm or is computed from its output. The CF
+ * algorithms also give their training RMSE after every iteration, with the
+ * time spent until then, to compare their convergence in time, for instance
+ * AsyncSgd against Sgd, or Sgd with AdaGrad and Adam against a fixed rate.
+ * Every run has its own JVM, started with the options of this one, so that a
+ * failed job, which exits its JVM, is reported with its error and the next
+ * one goes on, and the peak heap is that of the run.
+ *
+ * Usage:
+ * <pre>
+ * MacroBenchmark &lt;report file&gt; [scales] [algorithms]
+ * </pre>
+ * where scales and algorithms are comma separated, by default
+ * 100000,1000000,10000000 and every algorithm. The largest scales need a
+ * large heap, given with the options of this JVM. A run is stopped after
+ * -Dmacro.timeout minutes, 60 by default.
+ */
+public class MacroBenchmark {
+
+  /** Iterations or supersteps given to the iterative algorithms. */
+  private static final int ITERATIONS = 10;
+  /** Mean number of edges drawn by a vertex of the generated graphs. */
+  private static final int EDGES_PER_VERTEX = 5;
+  private static final int RATINGS_PER_USER = 20;
+  private static final int KMEANS_DIMENSIONS = 10;
+  private static final int KMEANS_CLUSTERS = 10;
+  private static final long SEED = 42;
+  /**
+   * Learning rate of the adaptive optimizers, which scale the step of a
+   * coordinate by its past gradients and need a larger base rate than SGD.
+   */
+  private static final float ADAPTIVE_GAMMA = 0.05f;
+
+  private static final Pattern SUPERSTEP_TIMER =
+      Pattern.compile("^Superstep (\\d+) .*\\(ms\\)$");
+  private static final Pattern ITERATION_COUNTER =
+      Pattern.compile("^Iteration (\\d+)$");
+  private static final Pattern TAB = Pattern.compile("\t");
+  /** Argument of the JVM that runs one case. */
+  private static final String RUN = "-run";
+  /** System property with the time limit of a run, in minutes. */
+  public static final String TIMEOUT = "macro.timeout";
+  /** Default value for TIMEOUT. */
+  public static final long TIMEOUT_DEFAULT = 60;
+
+  /**
+   * An algorithm, with the configuration of its job and its quality metric.
+   */
+  abstract static class Case {
+    final String name;
+    final String metric;
+
+    Case(String name, String metric) {
+      this.name = name;
+      this.metric = metric;
+    }
+
+    /**
+     * Sets the classes and the parameters of the job.
+     *
+     * @param conf
+     * @param scale number of edges of the input
+     */
+    abstract void configure(GiraphConfiguration conf, long scale);
+
+    /**
+     * @param scale
+     * @return the lines of the vertex input, or null if the input is
+     * generated by the edge input format
+     */
+    String[] vertexInput(long scale) {
+      return null;
+    }
+
+    /**
+     * @param output lines written by the vertex output format
+     * @param counters
+     * @return the quality metric of the run
+     */
+    abstract double quality(Iterable<String> output, Counters counters);
+  }
+
+  /**
+   * Connected components expects the value of a vertex to be its id, as the
+   * text formats set it, while the generated input gives it the default
+   * value.
+   */
+  public static class IdConnectedComponents extends ConnectedComponents {
+    @Override
+    public void compute(Vertex<LongWritable, LongWritable, NullWritable> vertex,
+        Iterable<LongWritable> messages) throws IOException {
+      if (getSuperstep() == 0) {
+        vertex.getValue().set(vertex.getId().get());
+      }
+      super.compute(vertex, messages);
+    }
+  }
+
+  private static final List<Case> CASES = new ArrayList<Case>();
+
+  static {
+    CASES.add(new RatingCase("als") {
+      @Override
+      void configure(GiraphConfiguration conf, long scale) {
+        super.configure(conf, scale);
+        conf.setComputationClass(Als.InitUsersComputation.class);
+        conf.setMasterComputeClass(Als.MasterCompute.class);
+        conf.setInt(Als.ITERATIONS, ITERATIONS);
+      }
+    });
+    CASES.add(new RatingCase("sgd") {
+      @Override
+      void configure(GiraphConfiguration conf, long scale) {
+        super.configure(conf, scale);
+        conf.setComputationClass(Sgd.InitUsersComputation.class);
+        conf.setMasterComputeClass(Sgd.MasterCompute.class);
+        conf.setInt(Sgd.ITERATIONS, ITERATIONS);
+      }
+    });
+    for (final String optimizer : new String[] {"adagrad", "adam"}) {
+      CASES.add(new RatingCase("sgd-" + optimizer) {
+        @Override
+        void configure(GiraphConfiguration conf, long scale) {
+          super.configure(conf, scale);
+          conf.setComputationClass(Sgd.InitUsersComputation.class);
+          conf.setMasterComputeClass(Sgd.MasterCompute.class);
+          conf.setInt(Sgd.ITERATIONS, ITERATIONS);
+          conf.set(AdaptiveRate.OPTIMIZER, optimizer);
+          conf.setFloat(Sgd.GAMMA, ADAPTIVE_GAMMA);
+        }
+      });
+    }
+    CASES.add(new RatingCase("asyncsgd") {
+      @Override
+      void configure(GiraphConfiguration conf, long scale) {
+        super.configure(conf, scale);
+        conf.setComputationClass(AsyncSgd.InitUsersComputation.class);
+        conf.setMasterComputeClass(AsyncSgd.MasterCompute.class);
+        conf.setInt(Sgd.ITERATIONS, ITERATIONS);
+      }
+    });
+    CASES.add(new RatingCase("svdpp") {
+      @Override
+      void configure(GiraphConfiguration conf, long scale) {
+        super.configure(conf, scale);
+        conf.setComputationClass(Svdpp.InitUsersComputation.class);
+        conf.setMasterComputeClass(Svdpp.MasterCompute.class);
+        conf.setInt(Svdpp.ITERATIONS, ITERATIONS);
+      }
+    });
+    CASES.add(new RatingCase("bpr") {
+      @Override
+      void configure(GiraphConfiguration conf, long scale) {
+        super.configure(conf, scale);
+        conf.setComputationClass(BPRRankingComputation.class);
+        // BPR samples as many unrated items as a user rated, so no user may
+        // rate half of the items
+        conf.setLong(PowerLawRatings.ITEMS,
+            Math.max(1000, conf.getLong(PowerLawRatings.USERS, 0)));
+        conf.setFloat(PowerLawRatings.ACTIVITY_SIGMA, 0.5f);
+        conf.setInt("minItemId", 0);
+        conf.setLong("maxItemId", conf.getLong(PowerLawRatings.ITEMS, 0)-1);
+        conf.setInt("iter", ITERATIONS);
+      }
+
+      @Override
+      double quality(Iterable<String> output, Counters counters) {
+        // BPR reports no loss, and it would take held-out items to compute
+        // its AUC
+        return Double.NaN;
+      }
+    });
+    CASES.add(new GraphCase("pagerank", "rank sum") {
+      @Override
+      void configure(GiraphConfiguration conf, long scale) {
+        super.configure(conf, scale);
+        conf.setComputationClass(SimplePageRank.class);
+        conf.setVertexOutputFormatClass(IdWithValueTextOutputFormat.class);
+        conf.setInt(SimplePageRank.MAX_SUPERSTEPS, ITERATIONS);
+      }
+
+      @Override
+      double quality(Iterable<String> output, Counters counters) {
+        double sum = 0;
+        for (String line : output) {
+          sum += Double.parseDouble(TAB.split(line)[1]);
+        }
+        return sum;
+      }
+    });
+    CASES.add(new GraphCase("sssp", "reached vertices") {
+      @Override
+      void configure(GiraphConfiguration conf, long scale) {
+        super.configure(conf, scale);
+        conf.setComputationClass(SingleSourceShortestPaths.class);
+        conf.setVertexOutputFormatClass(IdWithValueTextOutputFormat.class);
+        // Vertex 0 is the best connected one
+        conf.setLong(SingleSourceShortestPaths.SOURCE_ID, 0);
+      }
+
+      @Override
+      double quality(Iterable<String> output, Counters counters) {
+        long reached = 0;
+        for (String line : output) {
+          if (Double.parseDouble(TAB.split(line)[1]) < Double.MAX_VALUE) {
+            reached++;
+          }
+        }
+        return reached;
+      }
+    });
+    CASES.add(new GraphCase("mssp", "mean distances per vertex") {
+      @Override
+      void configure(GiraphConfiguration conf, long scale) {
+        super.configure(conf, scale);
+        conf.setComputationClass(MultipleSourceShortestPaths.InitSources.class);
+        conf.setMasterComputeClass(
+            MultipleSourceShortestPaths.MasterCompute.class);
+        conf.setVertexOutputFormatClass(IdWithValueTextOutputFormat.class);
+        // With a random seed, SOURCES_FRACTION picks all or none of the
+        // vertices, so the sources are the ten best connected ones
+        StringBuilder sources = new StringBuilder("0");
+        for (int i=1; i<10; i++) {
+          sources.append(':').append(i);
+        }
+        conf.set(MultipleSourceShortestPaths.SOURCES_LIST, sources.toString());
+      }
+
+      @Override
+      double quality(Iterable<String> output, Counters counters) {
+        long vertices = 0;
+        long distances = 0;
+        for (String line : output) {
+          vertices++;
+          // A MapWritable prints its entries as (key,value)
+          for (int i = line.indexOf('('); i >= 0;
+              i = line.indexOf('(', i+1)) {
+            distances++;
+          }
+        }
+        return vertices == 0 ? 0 : (double) distances / vertices;
+      }
+    });
+    CASES.add(new GraphCase("cc", "components") {
+      @Override
+      void configure(GiraphConfiguration conf, long scale) {
+        super.configure(conf, scale);
+        conf.setComputationClass(IdConnectedComponents.class);
+        conf.setVertexOutputFormatClass(IdWithValueTextOutputFormat.class);
+      }
+
+      @Override
+      double quality(Iterable<String> output, Counters counters) {
+        Set<String> components = new HashSet<String>();
+        for (String line : output) {
+          components.add(TAB.split(line)[1]);
+        }
+        return components.size();
+      }
+    });
+    CASES.add(new GraphCase("triangles", "triangles") {
+      @Override
+      void configure(GiraphConfiguration conf, long scale) {
+        super.configure(conf, scale);
+        conf.setComputationClass(Triangles.Initialize.class);
+        conf.setMasterComputeClass(Triangles.TriangleCount.class);
+        conf.setOutEdgesClass(HashMapEdges.class);
+        conf.setVertexOutputFormatClass(
+            Triangles.TriangleOutputFormat.class);
+      }
+
+      @Override
+      double quality(Iterable<String> output, Counters counters) {
+        long triangles = 0;
+        for (String line : output) {
+          triangles += Long.parseLong(TAB.split(line)[1]);
+        }
+        return triangles;
+      }
+    });
+    CASES.add(new SimilarityCase("jaccard") {
+      @Override
+      void configure(GiraphConfiguration conf, long scale) {
+        super.configure(conf, scale);
+        conf.setComputationClass(Jaccard.SendFriendsList.class);
+        conf.setMasterComputeClass(Jaccard.MasterCompute.class);
+      }
+    });
+    CASES.add(new SimilarityCase("adamicadar") {
+      @Override
+      void configure(GiraphConfiguration conf, long scale) {
+        super.configure(conf, scale);
+        conf.setComputationClass(AdamicAdar.SendFriendsListAndValue.class);
+        conf.setMasterComputeClass(AdamicAdar.MasterCompute.class);
+      }
+    });
+    CASES.add(new GraphCase("kcore", "core size") {
+      @Override
+      void configure(GiraphConfiguration conf, long scale) {
+        super.configure(conf, scale);
+        conf.setComputationClass(KCore.KCoreComputation.class);
+        conf.setVertexResolverClass(KCore.KCoreVertexResolver.class);
+        conf.setVertexOutputFormatClass(IdWithValueTextOutputFormat.class);
+        conf.setInt(KCore.K_VALUE, 2*EDGES_PER_VERTEX);
+      }
+
+      @Override
+      double quality(Iterable<String> output, Counters counters) {
+        long size = 0;
+        for (@SuppressWarnings("unused") String line : output) {
+          size++;
+        }
+        return size;
+      }
+    });
+    CASES.add(new GraphCase("semiclustering", "mean best score") {
+      @Override
+      void configure(GiraphConfiguration conf, long scale) {
+        super.configure(conf, scale);
+        conf.setComputationClass(SemiClustering.class);
+        conf.setVertexOutputFormatClass(IdWithValueTextOutputFormat.class);
+        conf.setInt(SemiClustering.ITERATIONS, ITERATIONS/2);
+        // A vertex scans its edges for every cluster of every neighbor, which
+        // does not end in time on the hubs of a power-law graph, so the
+        // targets are drawn uniformly
+        conf.setFloat(PowerLawGraph.ATTACHMENT_EXPONENT, 0f);
+      }
+
+      @Override
+      double quality(Iterable<String> output, Counters counters) {
+        // The clusters print as [ v1 v2 ... | score, inner, boundary ], the
+        // best one first
+        long vertices = 0;
+        double sum = 0;
+        for (String line : output) {
+          int bar = line.indexOf('|');
+          if (bar >= 0) {
+            sum += Double.parseDouble(
+                line.substring(bar+1, line.indexOf(',', bar)).trim());
+            vertices++;
+          }
+        }
+        return vertices == 0 ? 0 : sum / vertices;
+      }
+    });
+    CASES.add(new SpinnerCase("spinner", "random", "edges"));
+    CASES.add(new SpinnerCase("spinner-ldg", "ldg", "edges"));
+    CASES.add(new SpinnerCase("spinner-fennel", "fennel", "edges"));
+    CASES.add(new SpinnerCase("spinner-vertices", "random", "edges,vertices"));
+    CASES.add(new Case("kmeans", "within-cluster sse") {
+      @Override
+      void configure(GiraphConfiguration conf, long scale) {
+        long points = getNumPoints(scale);
+        conf.setComputationClass(
+            KMeansClustering.RandomCentersInitialization.class);
+        conf.setMasterComputeClass(KMeansClustering.KMeansMasterCompute.class);
+        conf.setVertexInputFormatClass(KMeansTextInputFormat.class);
+        conf.setOutEdgesClass(NullOutEdges.class);
+        conf.setVertexOutputFormatClass(KMeansTextOutputFormat.class);
+        conf.setInt(KMeansClustering.CLUSTER_CENTERS_COUNT, KMEANS_CLUSTERS);
+        conf.setInt(KMeansClustering.DIMENSIONS, KMEANS_DIMENSIONS);
+        conf.setLong(KMeansClustering.POINTS_COUNT, points);
+        conf.setInt(KMeansClustering.MAX_ITERATIONS, ITERATIONS);
+        conf.setInt(
+            ArrayListOfDoubleArrayListWritableAggregator.CLUSTER_CENTERS_COUNT,
+            KMEANS_CLUSTERS);
+        conf.setLong(ArrayListOfDoubleArrayListWritableAggregator.POINTS_COUNT,
+            points);
+      }
+
+      @Override
+      String[] vertexInput(long scale) {
+        return kmeansPoints(getNumPoints(scale));
+      }
+
+      @Override
+      double quality(Iterable<String> output, Counters counters) {
+        return kmeansSse(lastPoints, output);
+      }
+    });
+  }
+
+  /** The points of the last KMeans input, to compute the SSE. */
+  private static double[][] lastPoints;
+
+  /**
+   * A CF algorithm on a power-law rating graph, the quality is its RMSE.
+   */
+  static class RatingCase extends Case {
+    RatingCase(String name) {
+      super(name, "rmse");
+    }
+
+    @Override
+    void configure(GiraphConfiguration conf, long scale) {
+      long users = Math.max(1, scale / RATINGS_PER_USER);
+      conf.setEdgeInputFormatClass(PowerLawRatingEdgeInputFormat.class);
+      conf.setLong(PowerLawRatings.USERS, users);
+      conf.setLong(PowerLawRatings.ITEMS, Math.max(100, users / 10));
+      conf.setFloat(PowerLawRatings.RATINGS_PER_USER, RATINGS_PER_USER);
+      // The RMSE of every iteration
+      Parameters.DEBUG.set(conf, true);
+    }
+
+    @Override
+    double quality(Iterable<String> output, Counters counters) {
+      return counter(counters, "RMSE (x1000)") / 1000d;
+    }
+  }
+
+  /**
+   * A graph algorithm on a power-law graph.
+   */
+  abstract static class GraphCase extends Case {
+    GraphCase(String name, String metric) {
+      super(name, metric);
+    }
+
+    @Override
+    void configure(GiraphConfiguration conf, long scale) {
+      conf.setEdgeInputFormatClass(PowerLawGraphEdgeInputFormat.class);
+      conf.setLong(PowerLawGraph.VERTICES, getNumVertices(scale));
+      conf.setFloat(PowerLawGraph.EDGES_PER_VERTEX, EDGES_PER_VERTEX);
+    }
+  }
+
+  /**
+   * Spinner with one of its initial placements and load dimensions.
+   */
+  static class SpinnerCase extends GraphCase {
+    private final String initialization;
+    private final String balance;
+
+    SpinnerCase(String name, String initialization, String balance) {
+      super(name, "local edges (%)");
+      this.initialization = initialization;
+      this.balance = balance;
+    }
+
+    @Override
+    void configure(GiraphConfiguration conf, long scale) {
+      super.configure(conf, scale);
+      // Spinner makes the graph undirected itself
+      conf.setBoolean(PowerLawGraph.UNDIRECTED, false);
+      conf.setComputationClass(Spinner.ConverterPropagate.class);
+      conf.setMasterComputeClass(Spinner.PartitionerMasterCompute.class);
+      conf.setOutEdgesClass(SortedArrayEdges.class);
+      conf.setInt("spinner.numberOfPartitions", 8);
+      conf.setInt("spinner.maxIterations", 2*ITERATIONS);
+      conf.set(StreamingPlacement.INITIALIZATION, initialization);
+      conf.set(LoadDimensions.BALANCE, balance);
+    }
+
+    @Override
+    double quality(Iterable<String> output, Counters counters) {
+      return counter(counters, "Local edges (%)");
+    }
+  }
+
+  /**
+   * Jaccard or Adamic-Adar, the quality is the mean similarity of the edges.
+   */
+  abstract static class SimilarityCase extends GraphCase {
+    SimilarityCase(String name) {
+      super(name, "mean similarity");
+    }
+
+    @Override
+    void configure(GiraphConfiguration conf, long scale) {
+      super.configure(conf, scale);
+      conf.setOutEdgesClass(HashMapEdges.class);
+      conf.setVertexOutputFormatClass(
+          AdjacencyListTextVertexOutputFormat.class);
+      conf.set("distance.conversion.enabled", "false");
+    }
+
+    @Override
+    double quality(Iterable<String> output, Counters counters) {
+      // id, value, then pairs of target and similarity
+      long edges = 0;
+      double sum = 0;
+      for (String line : output) {
+        String[] tokens = TAB.split(line);
+        for (int i=3; i<tokens.length; i+=2) {
+          sum += Double.parseDouble(tokens[i]);
+          edges++;
+        }
+      }
+      return edges == 0 ? 0 : sum / edges;
+    }
+  }
+
+  private static long getNumVertices(long scale) {
+    return Math.max(2, scale / EDGES_PER_VERTEX);
+  }
+
+  private static long getNumPoints(long scale) {
+    return Math.max(KMEANS_CLUSTERS, scale / KMEANS_DIMENSIONS);
+  }
+
+  /**
+   * Draws points around KMEANS_CLUSTERS random centers, with a unit
+   * deviation around a center.
+   */
+  private static String[] kmeansPoints(long numPoints) {
+    Random random = new Random(SEED);
+    double[][] centers = new double[KMEANS_CLUSTERS][KMEANS_DIMENSIONS];
+    for (double[] center : centers) {
+      for (int d=0; d<KMEANS_DIMENSIONS; d++) {
+        center[d] = 10*random.nextDouble();
+      }
+    }
+    lastPoints = new double[(int) numPoints][KMEANS_DIMENSIONS];
+    String[] lines = new String[(int) numPoints];
+    for (int p=0; p<numPoints; p++) {
+      double[] center = centers[random.nextInt(KMEANS_CLUSTERS)];
+      StringBuilder line = new StringBuilder();
+      line.append(p).append(',');
+      for (int d=0; d<KMEANS_DIMENSIONS; d++) {
+        lastPoints[p][d] = center[d] + random.nextGaussian();
+        line.append(d == 0 ? "" : "\t").append(lastPoints[p][d]);
+      }
+      lines[p] = line.toString();
+    }
+    return lines;
+  }
+
+  /**
+   * @return the sum of the squared distances of the points to the mean of
+   * their cluster
+   */
+  private static double kmeansSse(double[][] points, Iterable<String> output) {
+    Map<Integer, double[]> sums = new HashMap<Integer, double[]>();
+    Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+    int[] assignment = new int[points.length];
+    for (String line : output) {
+      String[] tokens = line.split(",");
+      int point = Integer.parseInt(tokens[0]);
+      int cluster = Integer.parseInt(tokens[1]);
+      assignment[point] = cluster;
+      double[] sum = sums.get(cluster);
+      if (sum == null) {
+        sum = new double[KMEANS_DIMENSIONS];
+        sums.put(cluster, sum);
+        counts.put(cluster, 0);
+      }
+      for (int d=0; d<KMEANS_DIMENSIONS; d++) {
+        sum[d] += points[point][d];
+      }
+      counts.put(cluster, counts.get(cluster)+1);
+    }
+    double sse = 0;
+    for (int p=0; p<points.length; p++) {
+      double[] sum = sums.get(assignment[p]);
+      if (sum == null) {
+        continue;
+      }
+      int count = counts.get(assignment[p]);
+      for (int d=0; d<KMEANS_DIMENSIONS; d++) {
+        double diff = points[p][d] - sum[d]/count;
+        sse += diff*diff;
+      }
+    }
+    return sse;
+  }
+
+  /**
+   * @return the value of the first counter with this name, in any group, or
+   * NaN if there is none
+   */
+  private static double counter(Counters counters, String name) {
+    for (CounterGroup group : counters) {
+      for (Counter counter : group) {
+        if (counter.getName().equals(name)) {
+          return counter.getValue();
+        }
+      }
+    }
+    return Double.NaN;
+  }
+
+  /**
+   * Runs a case at a scale and writes its entry of the report.
+   */
+  private static void run(Case c, long scale, PrintWriter report) {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setLong(Parameters.RANDOM_SEED.getKey(), SEED);
+    GiraphConstants.JOB_OBSERVER_CLASS.set(conf, JobStatistics.class);
+    c.configure(conf, scale);
+
+    Map<String, Object> entry = new LinkedHashMap<String, Object>();
+    entry.put("algorithm", c.name);
+    entry.put("scale", scale);
+    Iterable<String> output = null;
+    long start = System.nanoTime();
+    try {
+      String[] vertexInput = c.vertexInput(scale);
+      JobStatistics.reset();
+      start = System.nanoTime();
+      output = InternalVertexRunner.run(conf, vertexInput,
+          vertexInput == null ? new String[0] : null);
+      if (output == null) {
+        entry.put("error", "job failed");
+      }
+    } catch (Exception e) {
+      entry.put("error", String.valueOf(e));
+    }
+    entry.put("wallMs", (System.nanoTime() - start) / 1000000);
+
+    Counters counters = JobStatistics.getCounters();
+    if (counters != null) {
+      List<Long> supersteps = new ArrayList<Long>();
+      Map<Integer, Long> iterations = new TreeMap<Integer, Long>();
+      for (CounterGroup group : counters) {
+        for (Counter counter : group) {
+          Matcher timer = SUPERSTEP_TIMER.matcher(counter.getName());
+          Matcher iteration = ITERATION_COUNTER.matcher(counter.getName());
+          if (group.getName().equals(GiraphTimers.GROUP_NAME) &&
+              timer.matches()) {
+            int superstep = Integer.parseInt(timer.group(1));
+            while (supersteps.size() <= superstep) {
+              supersteps.add(0L);
+            }
+            supersteps.set(superstep, counter.getValue());
+          } else if (iteration.matches()) {
+            iterations.put(Integer.parseInt(iteration.group(1)),
+                counter.getValue());
+          }
+        }
+      }
+      entry.put("vertices", counters.findCounter(GiraphStats.GROUP_NAME,
+          GiraphStats.VERTICES_NAME).getValue());
+      entry.put("edges", counters.findCounter(GiraphStats.GROUP_NAME,
+          GiraphStats.EDGES_NAME).getValue());
+      entry.put("inputMs", counters.findCounter(GiraphTimers.GROUP_NAME,
+          "Input superstep (ms)").getValue());
+      entry.put("totalMs", counters.findCounter(GiraphTimers.GROUP_NAME,
+          GiraphTimers.TOTAL_MS_NAME).getValue());
+      entry.put("superstepMs", supersteps);
+      entry.put("messages", counters.findCounter(GiraphStats.GROUP_NAME,
+          GiraphStats.AGGREGATE_SENT_MESSAGES_NAME).getValue());
+      entry.put("messageBytes", counters.findCounter(GiraphStats.GROUP_NAME,
+          GiraphStats.AGGREGATE_SENT_MESSAGE_BYTES_NAME).getValue());
+      entry.put("peakHeapBytes", JobStatistics.getPeakHeap());
+      entry.put("metric", c.metric);
+      if (output != null) {
+        try {
+          entry.put("quality", c.quality(output, counters));
+        } catch (RuntimeException e) {
+          entry.put("error", "quality: " + e);
+        }
+      }
+      if (!iterations.isEmpty()) {
+        // The master computes the RMSE of iteration i in superstep i+2,
+        // from the errors of the supersteps before it
+        List<Object> curve = new ArrayList<Object>();
+        for (Map.Entry<Integer, Long> iteration : iterations.entrySet()) {
+          long elapsed = 0;
+          for (int s=0; s<iteration.getKey()+2 && s<supersteps.size(); s++) {
+            elapsed += supersteps.get(s);
+          }
+          curve.add(Arrays.<Object>asList(iteration.getKey(), elapsed,
+              iteration.getValue() / 1000d));
+        }
+        entry.put("qualityByIteration", curve);
+      }
+    }
+    writeJson(report, entry);
+  }
+
+  /**
+   * Writes an entry with one field per line, so that two reports diff line
+   * by line.
+   */
+  private static void writeJson(PrintWriter out, Map<String, Object> entry) {
+    out.println("  {");
+    int i = 0;
+    for (Map.Entry<String, Object> field : entry.entrySet()) {
+      out.print("    \"" + field.getKey() + "\": ");
+      out.print(toJson(field.getValue()));
+      out.println(++i < entry.size() ? "," : "");
+    }
+    out.print("  }");
+  }
+
+  private static String toJson(Object value) {
+    if (value instanceof String) {
+      return "\"" + ((String) value).replace("\\", "\\\\")
+          .replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    } else if (value instanceof Double) {
+      double d = (Double) value;
+      return Double.isNaN(d) || Double.isInfinite(d) ? "null" :
+        String.format(Locale.ROOT, "%.6g", d);
+    } else if (value instanceof List) {
+      StringBuilder s = new StringBuilder("[");
+      for (Object element : (List<?>) value) {
+        s.append(s.length() > 1 ? ", " : "").append(toJson(element));
+      }
+      return s.append("]").toString();
+    }
+    return String.valueOf(value);
+  }
+
+  /**
+   * Runs a case at a scale in a new JVM, with the class path and the options
+   * of this one, since Giraph exits the JVM when a job fails.
+   *
+   * @return the entry of the report
+   */
+  private static String fork(Case c, long scale) throws IOException,
+      InterruptedException {
+    File entry = File.createTempFile("macro-" + c.name, ".json");
+    try {
+      List<String> command = new ArrayList<String>();
+      command.add(System.getProperty("java.home") + File.separator + "bin" +
+          File.separator + "java");
+      command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+      command.add("-cp");
+      command.add(System.getProperty("java.class.path"));
+      command.add(MacroBenchmark.class.getName());
+      command.add(RUN);
+      command.add(c.name);
+      command.add(String.valueOf(scale));
+      command.add(entry.getPath());
+      Process process = new ProcessBuilder(command).inheritIO().start();
+      long deadline = System.currentTimeMillis() +
+          Long.getLong(TIMEOUT, TIMEOUT_DEFAULT) * 60000;
+      String error = null;
+      while (error == null) {
+        try {
+          error = "exit code " + process.exitValue();
+        } catch (IllegalThreadStateException e) {
+          if (System.currentTimeMillis() > deadline) {
+            process.destroy();
+            process.waitFor();
+            error = "timed out";
+          } else {
+            Thread.sleep(1000);
+          }
+        }
+      }
+      String json = new String(Files.readAllBytes(entry.toPath()), "UTF-8");
+      if (json.isEmpty()) {
+        Map<String, Object> failure = new LinkedHashMap<String, Object>();
+        failure.put("algorithm", c.name);
+        failure.put("scale", scale);
+        failure.put("error", error);
+        StringWriter out = new StringWriter();
+        writeJson(new PrintWriter(out), failure);
+        json = out.toString();
+      }
+      return json;
+    } finally {
+      entry.delete();
+    }
+  }
+
+  private static Case getCase(String name) {
+    for (Case c : CASES) {
+      if (c.name.equals(name.trim())) {
+        return c;
+      }
+    }
+    throw new IllegalArgumentException("Unknown algorithm " + name);
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length == 4 && args[0].equals(RUN)) {
+      PrintWriter entry = new PrintWriter(new OutputStreamWriter(
+          new FileOutputStream(new File(args[3])), "UTF-8"));
+      try {
+        run(getCase(args[1]), Long.parseLong(args[2]), entry);
+      } finally {
+        entry.close();
+      }
+      // The threads of the local job may still be running
+      System.exit(0);
+    }
+    if (args.length < 1 || args.length > 3) {
+      System.err.println("Usage: MacroBenchmark <report file> [scales] "
+          + "[algorithms]");
+      System.exit(1);
+    }
+    List<Long> scales = new ArrayList<Long>();
+    for (String scale : (args.length > 1 ? args[1] :
+        "100000,1000000,10000000").split(",")) {
+      scales.add(Long.parseLong(scale.trim()));
+    }
+    List<Case> cases = new ArrayList<Case>();
+    if (args.length > 2) {
+      for (String name : args[2].split(",")) {
+        cases.add(getCase(name));
+      }
+    } else {
+      cases.addAll(CASES);
+    }
+
+    PrintWriter report = new PrintWriter(new OutputStreamWriter(
+        new FileOutputStream(new File(args[0])), "UTF-8"));
+    try {
+      report.println("[");
+      boolean first = true;
+      for (long scale : scales) {
+        for (Case c : cases) {
+          if (!first) {
+            report.println(",");
+          }
+          report.print(fork(c, scale));
+          report.flush();
+          first = false;
+        }
+      }
+      report.println();
+      report.println("]");
+    } finally {
+      report.close();
+    }
+  }
+}
@@ -0,0 +1,345 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmh.java.ml.grafos.okapi.macro;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import ml.grafos.okapi.cf.CfLongId;
+import ml.grafos.okapi.cf.PowerLawRatings;
+import ml.grafos.okapi.common.Parameters;
+import ml.grafos.okapi.common.graph.PowerLawGraph;
+import ml.grafos.okapi.spinner.PrefixHashWorkerPartitioner;
+import ml.grafos.okapi.spinner.SortedArrayEdges;
+import ml.grafos.okapi.spinner.Spinner;
+import ml.grafos.okapi.spinner.SpinnerOutputConverter;
+import ml.grafos.okapi.spinner.StreamingPlacement;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.utils.InternalVertexRunner;
+import org.apache.hadoop.io.LongWritable;
+
+/**
+ * Counts the messages that cross workers when PageRank, ConnectedComponents
+ * and ALS run on the default hash placement of Giraph, and on the placement
+ * of {@link PrefixHashWorkerPartitioner} by Spinner partition.
+ *
+ * The graphs are those of {@link MacroBenchmark}, a power-law graph for
+ * PageRank and ConnectedComponents and a rating graph for ALS. Spinner
+ * partitions each of them, and the messages of every algorithm are replayed
+ * on the graph with the worker of every vertex under both placements:
+ * PageRank sends along every edge in every superstep, ConnectedComponents is
+ * simulated as implemented, and ALS sends along every rating in both
+ * directions in every iteration. Giraph gives workers*workers partitions to a
+ * job by default, the hash placement uses the hash codes of the ids of the
+ * jobs, LongWritable and CfLongId.
+ *
+ * Usage:
+ * <pre>
+ * PlacementBenchmark [edges] [workers] [spinner partitions]
+ * </pre>
+ * with 100000 edges and the workers 2,4,8,16 by default. Without a number of
+ * Spinner partitions, Spinner runs once per number of workers, with one
+ * partition per worker, otherwise the partitions are shared out to the
+ * workers. It prints one line per algorithm and number of workers.
+ */
+public class PlacementBenchmark {
+
+  private static final int ITERATIONS = 10;
+  private static final int EDGES_PER_VERTEX = 5;
+  private static final int RATINGS_PER_USER = 20;
+  private static final long SEED = 42;
+  private static final int SPINNER_ITERATIONS = 40;
+
+  /**
+   * An undirected graph in compressed rows, with the vertices 0 to n-1.
+   */
+  static class Graph {
+    final int n;
+    final int[] offsets;
+    final int[] targets;
+
+    Graph(int n, IntArrayList sources, IntArrayList targetList) {
+      this.n = n;
+      offsets = new int[n+1];
+      for (int i=0; i<sources.size(); i++) {
+        offsets[sources.getInt(i)+1]++;
+        offsets[targetList.getInt(i)+1]++;
+      }
+      for (int v=0; v<n; v++) {
+        offsets[v+1] += offsets[v];
+      }
+      targets = new int[offsets[n]];
+      int[] next = Arrays.copyOf(offsets, n);
+      for (int i=0; i<sources.size(); i++) {
+        int u = sources.getInt(i);
+        int v = targetList.getInt(i);
+        targets[next[u]++] = v;
+        targets[next[v]++] = u;
+      }
+    }
+
+    /**
+     * @return every edge once, as the lines of the Spinner input
+     */
+    String[] lines() {
+      String[] lines = new String[offsets[n]/2];
+      int k = 0;
+      for (int u=0; u<n; u++) {
+        for (int e=offsets[u]; e<offsets[u+1]; e++) {
+          if (u < targets[e]) {
+            lines[k++] = u + " " + targets[e];
+          }
+        }
+      }
+      return Arrays.copyOf(lines, k);
+    }
+  }
+
+  private static Graph powerLawGraph(long scale) {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setLong(Parameters.RANDOM_SEED.getKey(), SEED);
+    conf.setLong(PowerLawGraph.VERTICES,
+        Math.max(2, scale / EDGES_PER_VERTEX));
+    conf.setFloat(PowerLawGraph.EDGES_PER_VERTEX, EDGES_PER_VERTEX);
+    PowerLawGraph graph = new PowerLawGraph(conf);
+    IntArrayList sources = new IntArrayList();
+    IntArrayList targets = new IntArrayList();
+    for (long v=0; v<graph.getNumVertices(); v++) {
+      int k = graph.generate(v);
+      for (int e=0; e<k; e++) {
+        sources.add((int)v);
+        targets.add((int)graph.getTargets()[e]);
+      }
+    }
+    return new Graph((int)graph.getNumVertices(), sources, targets);
+  }
+
+  /**
+   * @return the rating graph, with the users first and then the items
+   */
+  private static Graph ratingGraph(long scale, long[] numUsers) {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setLong(Parameters.RANDOM_SEED.getKey(), SEED);
+    long users = Math.max(1, scale / RATINGS_PER_USER);
+    conf.setLong(PowerLawRatings.USERS, users);
+    conf.setLong(PowerLawRatings.ITEMS, Math.max(100, users / 10));
+    conf.setFloat(PowerLawRatings.RATINGS_PER_USER, RATINGS_PER_USER);
+    PowerLawRatings ratings = new PowerLawRatings(conf);
+    IntArrayList sources = new IntArrayList();
+    IntArrayList targets = new IntArrayList();
+    for (long u=0; u<ratings.getNumUsers(); u++) {
+      int k = ratings.generate(u);
+      for (int e=0; e<k; e++) {
+        sources.add((int)u);
+        targets.add((int)(users + ratings.getItems()[e]));
+      }
+    }
+    numUsers[0] = users;
+    return new Graph((int)(users + ratings.getNumItems()), sources, targets);
+  }
+
+  /**
+   * @return the Spinner partition of every vertex
+   */
+  private static short[] spinner(Graph graph, int partitions)
+      throws Exception {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(Spinner.ConverterPropagate.class);
+    conf.setMasterComputeClass(Spinner.PartitionerMasterCompute.class);
+    conf.setEdgeInputFormatClass(Spinner.SpinnerEdgeInputFormat.class);
+    conf.setVertexOutputFormatClass(
+        Spinner.SpinnerVertexValueOutputFormat.class);
+    conf.setOutEdgesClass(SortedArrayEdges.class);
+    conf.setInt("spinner.numberOfPartitions", partitions);
+    conf.setInt("spinner.maxIterations", SPINNER_ITERATIONS);
+    conf.set(StreamingPlacement.INITIALIZATION, "ldg");
+    Iterable<String> output = InternalVertexRunner.run(conf, null,
+        graph.lines());
+    if (output == null) {
+      throw new IllegalStateException("Spinner failed");
+    }
+    SpinnerOutputConverter converter = new SpinnerOutputConverter();
+    for (String line : output) {
+      converter.addPartition(line);
+    }
+    short[] labels = new short[graph.n];
+    for (int v=0; v<graph.n; v++) {
+      labels[v] = converter.getPartition(v);
+    }
+    return labels;
+  }
+
+  /**
+   * @return the worker of every vertex by Spinner partition
+   */
+  private static int[] spinnerWorkers(short[] labels, int workers) {
+    int partitions = workers * workers;
+    int[] placement = new int[labels.length];
+    for (int v=0; v<labels.length; v++) {
+      placement[v] = PrefixHashWorkerPartitioner.getPartitionIndex(
+          labels[v], partitions) % workers;
+    }
+    return placement;
+  }
+
+  /**
+   * @return the worker of a vertex by the hash code of its id
+   */
+  private static int hashWorker(int hashCode, int workers) {
+    int partitions = workers * workers;
+    return Math.abs(hashCode % partitions) % workers;
+  }
+
+  /**
+   * @return the messages of one pass over all the edges that cross workers
+   */
+  private static long crossEdges(Graph graph, int[] placement) {
+    long cross = 0;
+    for (int u=0; u<graph.n; u++) {
+      for (int e=graph.offsets[u]; e<graph.offsets[u+1]; e++) {
+        if (placement[u] != placement[graph.targets[e]]) {
+          cross++;
+        }
+      }
+    }
+    return cross;
+  }
+
+  /**
+   * Replays ConnectedComponents.
+   *
+   * @return the messages, and the messages that cross workers
+   */
+  private static long[] connectedComponents(Graph graph, int[] placement) {
+    long[] component = new long[graph.n];
+    long[] inbox = new long[graph.n];
+    boolean[] changed = new boolean[graph.n];
+    long messages = 0;
+    long cross = 0;
+    Arrays.fill(inbox, Long.MAX_VALUE);
+    // superstep 0 looks at the neighbors and sends to the larger ones
+    for (int u=0; u<graph.n; u++) {
+      long min = u;
+      for (int e=graph.offsets[u]; e<graph.offsets[u+1]; e++) {
+        min = Math.min(min, graph.targets[e]);
+      }
+      component[u] = min;
+      if (min != u) {
+        for (int e=graph.offsets[u]; e<graph.offsets[u+1]; e++) {
+          int v = graph.targets[e];
+          if (v > min) {
+            inbox[v] = Math.min(inbox[v], min);
+            messages++;
+            cross += placement[u] != placement[v] ? 1 : 0;
+          }
+        }
+      }
+    }
+    boolean active = true;
+    while (active) {
+      active = false;
+      for (int u=0; u<graph.n; u++) {
+        changed[u] = inbox[u] < component[u];
+        if (changed[u]) {
+          component[u] = inbox[u];
+        }
+        inbox[u] = Long.MAX_VALUE;
+      }
+      for (int u=0; u<graph.n; u++) {
+        if (!changed[u]) {
+          continue;
+        }
+        active = true;
+        for (int e=graph.offsets[u]; e<graph.offsets[u+1]; e++) {
+          int v = graph.targets[e];
+          inbox[v] = Math.min(inbox[v], component[u]);
+          messages++;
+          cross += placement[u] != placement[v] ? 1 : 0;
+        }
+      }
+    }
+    return new long[] {messages, cross};
+  }
+
+  private static void print(String algorithm, int workers, long messages,
+      long hashCross, long spinnerCross) {
+    System.out.println(String.format(Locale.ROOT,
+        "%s\t%d\t%d\t%.4f\t%.4f\t%.1fx", algorithm, workers, messages,
+        ((double) hashCross) / messages, ((double) spinnerCross) / messages,
+        spinnerCross == 0 ? Double.POSITIVE_INFINITY :
+          ((double) hashCross) / spinnerCross));
+  }
+
+  public static void main(String[] args) throws Exception {
+    long scale = args.length > 0 ? Long.parseLong(args[0]) : 100000;
+    List<Integer> workerCounts = new ArrayList<Integer>();
+    for (String w : (args.length > 1 ? args[1] : "2,4,8,16").split(",")) {
+      workerCounts.add(Integer.parseInt(w));
+    }
+    int partitions = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+
+    Graph graph = powerLawGraph(scale);
+    long[] numUsers = new long[1];
+    Graph ratings = ratingGraph(scale, numUsers);
+    short[] graphLabels = null;
+    short[] ratingLabels = null;
+    if (partitions > 0) {
+      graphLabels = spinner(graph, partitions);
+      ratingLabels = spinner(ratings, partitions);
+    }
+
+    System.out.println("algorithm\tworkers\tmessages\thash cross\t"
+        + "spinner cross\treduction");
+    for (int workers : workerCounts) {
+      if (partitions == 0) {
+        graphLabels = spinner(graph, workers);
+        ratingLabels = spinner(ratings, workers);
+      }
+      int[] hash = new int[graph.n];
+      for (int v=0; v<graph.n; v++) {
+        hash[v] = hashWorker(new LongWritable(v).hashCode(), workers);
+      }
+      int[] placed = spinnerWorkers(graphLabels, workers);
+
+      long edges = graph.offsets[graph.n];
+      print("pagerank", workers, ITERATIONS * edges,
+          ITERATIONS * crossEdges(graph, hash),
+          ITERATIONS * crossEdges(graph, placed));
+
+      long[] hashCc = connectedComponents(graph, hash);
+      long[] placedCc = connectedComponents(graph, placed);
+      print("connectedcomponents", workers, hashCc[0], hashCc[1],
+          placedCc[1]);
+
+      int[] ratingHash = new int[ratings.n];
+      for (int v=0; v<ratings.n; v++) {
+        ratingHash[v] = hashWorker(v < numUsers[0] ?
+            new CfLongId((byte)0, v).hashCode() :
+            new CfLongId((byte)1, v - numUsers[0]).hashCode(), workers);
+      }
+      int[] ratingPlaced = spinnerWorkers(ratingLabels, workers);
+      long ratingEdges = ratings.offsets[ratings.n];
+      print("als", workers, ITERATIONS * ratingEdges,
+          ITERATIONS * crossEdges(ratings, ratingHash),
+          ITERATIONS * crossEdges(ratings, ratingPlaced));
+    }
+  }
+}
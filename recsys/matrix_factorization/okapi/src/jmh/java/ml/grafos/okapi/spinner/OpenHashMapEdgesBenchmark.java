@@ -0,0 +1,80 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmh.java.ml.grafos.okapi.spinner;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import ml.grafos.okapi.spinner.OpenHashMapEdges;
+import ml.grafos.okapi.spinner.Spinner.EdgeValue;
+
+import org.apache.giraph.edge.Edge;
+import org.apache.giraph.edge.EdgeFactory;
+import org.apache.hadoop.io.LongWritable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Iteration over the edges of a Spinner vertex, done in every superstep to
+ * count the labels of the neighbors. The edges carry no vector, so the suite
+ * has no dim parameter.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OpenHashMapEdgesBenchmark {
+
+  @Param({"10", "1000", "100000"})
+  int degree;
+
+  @Param({"2", "32"})
+  int partitions;
+
+  private OpenHashMapEdges edges;
+  private long[] counts;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(0);
+    edges = new OpenHashMapEdges();
+    edges.initialize(degree);
+    for (int k=0; k<degree; k++) {
+      edges.add(EdgeFactory.create(new LongWritable(random.nextLong()),
+          new EdgeValue((short)random.nextInt(partitions), (byte)1)));
+    }
+    counts = new long[partitions];
+  }
+
+  @Benchmark
+  public long[] iterate() {
+    for (Edge<LongWritable, EdgeValue> edge : edges) {
+      counts[edge.getValue().getPartition()] += edge.getValue().getWeight();
+    }
+    return counts;
+  }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jmh.java.ml.grafos.okapi.spinner;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import ml.grafos.okapi.spinner.OpenHashMapEdges;
+import ml.grafos.okapi.spinner.SortedArrayEdges;
+import ml.grafos.okapi.spinner.Spinner.EdgeValue;
+
+import org.apache.giraph.edge.ConfigurableOutEdges;
+import org.apache.giraph.edge.Edge;
+import org.apache.giraph.edge.EdgeFactory;
+import org.apache.giraph.edge.StrictRandomAccessOutEdges;
+import org.apache.hadoop.io.LongWritable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The two Spinner edge stores side by side: the iteration that counts the
+ * labels of the neighbors, and the random access that updates the label of a
+ * neighbor after a migration message.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SortedArrayEdgesBenchmark {
+
+  @Param({"10", "1000", "100000"})
+  int degree;
+
+  @Param({"openhash", "sortedarray"})
+  String store;
+
+  private ConfigurableOutEdges<LongWritable, EdgeValue> edges;
+  private StrictRandomAccessOutEdges<LongWritable, EdgeValue> randomAccess;
+  private long[] targets;
+  private long[] counts;
+  private final LongWritable target = new LongWritable();
+
+  @Setup
+  public void setup() {
+    Random random = new Random(0);
+    if (store.equals("openhash")) {
+      OpenHashMapEdges hashEdges = new OpenHashMapEdges();
+      edges = hashEdges;
+      randomAccess = hashEdges;
+    } else {
+      SortedArrayEdges arrayEdges = new SortedArrayEdges();
+      edges = arrayEdges;
+      randomAccess = arrayEdges;
+    }
+    edges.initialize(degree);
+    targets = new long[degree];
+    for (int k=0; k<degree; k++) {
+      targets[k] = random.nextLong();
+      edges.add(EdgeFactory.create(new LongWritable(targets[k]),
+          new EdgeValue((short)random.nextInt(32), (byte)1)));
+    }
+    counts = new long[32];
+  }
+
+  @Benchmark
+  public long[] iterate() {
+    for (Edge<LongWritable, EdgeValue> edge : edges) {
+      counts[edge.getValue().getPartition()] += edge.getValue().getWeight();
+    }
+    return counts;
+  }
+
+  @Benchmark
+  public long setEdgeValue() {
+    long sum = 0;
+    for (int k=0; k<targets.length; k++) {
+      target.set(targets[k]);
+      EdgeValue value = randomAccess.getEdgeValue(target);
+      value.setPartition((short)(k & 31));
+      randomAccess.setEdgeValue(target, value);
+      sum += value.getWeight();
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,203 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package main.okapi.aggregators;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Turns the file of a {@link BinaryAggregatorWriter} back into CSV, with the
+ * columns superstep, aggregator and value. The values of the Writables the
+ * writer does not know are read with the class of the value, and given with
+ * their toString(), or in hex if that class is not on the class path.
+ *
+ * Usage: BinaryAggregatorReader &lt;input&gt; [&lt;output&gt;], the CSV is
+ * printed if there is no output.
+ */
+public class BinaryAggregatorReader {
+
+  private final Configuration conf;
+  /** Names of the aggregators, by id. */
+  private final List<String> names = new ArrayList<String>();
+  /** Values of the aggregators, by id, null if unknown. */
+  private final List<Writable> values = new ArrayList<Writable>();
+
+  public BinaryAggregatorReader(Configuration conf) {
+    this.conf = conf;
+  }
+
+  /**
+   * Converts a file into CSV.
+   *
+   * @param in the file of a {@link BinaryAggregatorWriter}
+   * @param out
+   * @throws IOException if the file is not in the format of the writer
+   */
+  public void toCsv(DataInputStream in, Writer out) throws IOException {
+    if (in.readInt() != BinaryAggregatorWriter.MAGIC) {
+      throw new IOException("Not a binary aggregator file");
+    }
+    byte version = in.readByte();
+    if (version != BinaryAggregatorWriter.VERSION) {
+      throw new IOException("Unknown version " + version);
+    }
+    names.clear();
+    values.clear();
+
+    PrintWriter csv = new PrintWriter(out);
+    csv.println("superstep,aggregator,value");
+    DataInputBuffer record = new DataInputBuffer();
+    long superstep = -1;
+    while (true) {
+      int length;
+      try {
+        length = (int)WritableUtils.readVLong(in);
+      } catch (EOFException e) {
+        break;
+      }
+      byte[] bytes = new byte[length];
+      in.readFully(bytes);
+      record.reset(bytes, length);
+
+      byte type = record.readByte();
+      if (type == BinaryAggregatorWriter.NAME) {
+        int id = (int)WritableUtils.readVLong(record);
+        if (id != names.size()) {
+          throw new IOException("Unexpected aggregator id " + id);
+        }
+        names.add(record.readUTF());
+        values.add(newValue(record.readUTF()));
+      } else if (type == BinaryAggregatorWriter.SUPERSTEP) {
+        superstep = WritableUtils.readVLong(record);
+      } else if (type == BinaryAggregatorWriter.VALUE) {
+        int id = (int)WritableUtils.readVLong(record);
+        if (id >= names.size()) {
+          throw new IOException("Unknown aggregator id " + id);
+        }
+        csv.print(superstep);
+        csv.print(',');
+        csv.print(escape(names.get(id)));
+        csv.print(',');
+        csv.println(escape(readValue(record, values.get(id), bytes)));
+      }
+      // Records of unknown types are skipped
+    }
+    csv.flush();
+  }
+
+  /**
+   * @param record
+   * @param value the value of the aggregator, or null if unknown
+   * @param bytes the record
+   * @return the value as a string
+   */
+  private String readValue(DataInputBuffer record, Writable value,
+      byte[] bytes) throws IOException {
+    byte type = record.readByte();
+    switch (type) {
+    case BinaryAggregatorWriter.LONG:
+      return Long.toString(WritableUtils.readVLong(record));
+    case BinaryAggregatorWriter.DOUBLE:
+      return Double.toString(record.readDouble());
+    case BinaryAggregatorWriter.BOOLEAN:
+      return Boolean.toString(record.readBoolean());
+    case BinaryAggregatorWriter.TEXT:
+      return record.readUTF();
+    case BinaryAggregatorWriter.WRITABLE:
+      if (value != null) {
+        value.readFields(record);
+        return value.toString();
+      }
+      StringBuilder hex = new StringBuilder();
+      for (int i=record.getPosition(); i<record.getLength(); i++) {
+        hex.append(String.format("%02x", bytes[i]));
+      }
+      return hex.toString();
+    default:
+      throw new IOException("Unknown value type " + type);
+    }
+  }
+
+  /**
+   * @param className
+   * @return a new value of the class, or null if it cannot be created
+   */
+  private Writable newValue(String className) {
+    try {
+      Class<?> c = conf.getClassByName(className);
+      return (Writable)ReflectionUtils.newInstance(c, conf);
+    } catch (Exception e) {
+      return null;
+    } catch (LinkageError e) {
+      return null;
+    }
+  }
+
+  /**
+   * @param s
+   * @return the string quoted as a CSV field if it needs to be
+   */
+  static String escape(String s) {
+    if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0 &&
+        s.indexOf('\r') < 0) {
+      return s;
+    }
+    return '"' + s.replace("\"", "\"\"") + '"';
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1 || args.length > 2) {
+      System.err.println(
+          "Usage: BinaryAggregatorReader <input> [<output>]");
+      System.exit(1);
+    }
+    Configuration conf = new Configuration();
+    Path input = new Path(args[0]);
+    FileSystem fs = input.getFileSystem(conf);
+    DataInputStream in = fs.open(input);
+    Writer out;
+    if (args.length == 2) {
+      Path output = new Path(args[1]);
+      out = new OutputStreamWriter(output.getFileSystem(conf).create(output),
+          "UTF-8");
+    } else {
+      out = new OutputStreamWriter(System.out, "UTF-8");
+    }
+    try {
+      new BinaryAggregatorReader(conf).toCsv(in, out);
+    } finally {
+      in.close();
+      out.flush();
+      if (args.length == 2) {
+        out.close();
+      }
+    }
+  }
+}
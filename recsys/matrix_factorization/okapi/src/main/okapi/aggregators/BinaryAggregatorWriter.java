@@ -0,0 +1,271 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package main.okapi.aggregators;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.giraph.aggregators.AggregatorWriter;
+import org.apache.giraph.conf.DefaultImmutableClassesGiraphConfigurable;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.Mapper.Context;
+
+/**
+ * An {@link AggregatorWriter} that writes compact binary records instead of
+ * a line of text per aggregator, for jobs with many aggregators such as
+ * Spinner with many partitions. {@link BinaryAggregatorReader} turns the file
+ * back into CSV.
+ *
+ * The file starts with {@link #MAGIC} and {@link #VERSION}, followed by
+ * records that are each prefixed by their length, a vlong:
+ * <ul>
+ * <li>NAME: a vlong id, the name of an aggregator and the class of its
+ * value, written the first time the aggregator is written,</li>
+ * <li>SUPERSTEP: a vlong superstep, before the values of that superstep,</li>
+ * <li>VALUE: the vlong id of the aggregator, a type byte and the value. Long
+ * and int values are written as vlongs, double and float values as doubles,
+ * booleans as a byte, text as a string and any other Writable as its own
+ * serialization.</li>
+ * </ul>
+ *
+ * The records of a superstep are serialized in memory by the master and
+ * written and flushed by a background thread, so the master does not wait for
+ * the file system. An error of the background thread is thrown by the next
+ * call.
+ *
+ * The frequency has the same meaning as in {@link TextAggregatorWriter}.
+ */
+public class BinaryAggregatorWriter
+    extends DefaultImmutableClassesGiraphConfigurable
+    implements AggregatorWriter {
+  /** The filename of the outputfile */
+  public static final String FILENAME = "binaryAggregatorWriter.filename";
+  /** The frequency of writing, see {@link TextAggregatorWriter#FREQUENCY} */
+  public static final String FREQUENCY = "binaryAggregatorWriter.frequency";
+  /** Default filename for dumping aggregator values */
+  private static final String DEFAULT_FILENAME = "aggregatorValues.bin";
+
+  /** First bytes of the file. */
+  public static final int MAGIC = 0x4f4b4147;
+  /** Version of the format. */
+  public static final byte VERSION = 1;
+
+  /** Record types. */
+  public static final byte NAME = 0;
+  public static final byte SUPERSTEP = 1;
+  public static final byte VALUE = 2;
+
+  /** Value types. */
+  public static final byte LONG = 0;
+  public static final byte DOUBLE = 1;
+  public static final byte BOOLEAN = 2;
+  public static final byte TEXT = 3;
+  public static final byte WRITABLE = 4;
+
+  /** Handle to the outputfile */
+  private FSDataOutputStream output;
+  /** Write every "frequency" supersteps */
+  private int frequency;
+  /** Ids of the aggregators already written. */
+  private final Map<String, Integer> ids = new HashMap<String, Integer>();
+  /** Records of the current superstep. */
+  private final ByteArrayOutputStream records = new ByteArrayOutputStream();
+  /** A single record. */
+  private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+  private final DataOutputStream recordOutput = new DataOutputStream(record);
+  /** Writes the records to the file. */
+  private ExecutorService flusher;
+  /** The last write of the flusher. */
+  private Future<?> lastWrite;
+
+  @Override
+  @SuppressWarnings("rawtypes")
+  public void initialize(Context context, long attempt) throws IOException {
+    String s_frequency = getConf().get(FREQUENCY);
+    if (s_frequency==null) {
+      frequency = TextAggregatorWriter.NEVER;
+    } else if (s_frequency.toLowerCase().trim().equals("always")) {
+      frequency = TextAggregatorWriter.ALWAYS;
+    } else if (s_frequency.toLowerCase().trim().equals("never")) {
+      frequency = TextAggregatorWriter.NEVER;
+    } else if (s_frequency.toLowerCase().trim().equals("end")) {
+      frequency = TextAggregatorWriter.AT_THE_END;
+    } else {
+      frequency = getConf().getInt(FREQUENCY, TextAggregatorWriter.NEVER);
+    }
+    String filename  = getConf().get(FILENAME, DEFAULT_FILENAME);
+    if (frequency != TextAggregatorWriter.NEVER) {
+      Path p = new Path(filename + "_" + attempt);
+      FileSystem fs = FileSystem.get(getConf());
+      if (fs.exists(p)) {
+        throw new RuntimeException("aggregatorWriter file already" +
+            " exists: " + p.getName());
+      }
+      output = fs.create(p);
+      output.writeInt(MAGIC);
+      output.writeByte(VERSION);
+      flusher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "binary-aggregator-writer");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+  }
+
+  @Override
+  public void writeAggregator(
+      Iterable<Entry<String, Writable>> aggregatorMap,
+      long superstep) throws IOException {
+    if (!shouldWrite(superstep)) {
+      return;
+    }
+    checkLastWrite();
+    recordOutput.writeByte(SUPERSTEP);
+    WritableUtils.writeVLong(recordOutput, superstep);
+    endRecord();
+    for (Entry<String, Writable> entry : aggregatorMap) {
+      Writable value = entry.getValue();
+      Integer id = ids.get(entry.getKey());
+      if (id == null) {
+        id = ids.size();
+        ids.put(entry.getKey(), id);
+        recordOutput.writeByte(NAME);
+        WritableUtils.writeVLong(recordOutput, id);
+        recordOutput.writeUTF(entry.getKey());
+        recordOutput.writeUTF(value.getClass().getName());
+        endRecord();
+      }
+      recordOutput.writeByte(VALUE);
+      WritableUtils.writeVLong(recordOutput, id);
+      writeValue(value);
+      endRecord();
+    }
+
+    final byte[] bytes = records.toByteArray();
+    records.reset();
+    lastWrite = flusher.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws IOException {
+        output.write(bytes);
+        output.flush();
+        return null;
+      }
+    });
+  }
+
+  private void writeValue(Writable value) throws IOException {
+    if (value instanceof LongWritable) {
+      recordOutput.writeByte(LONG);
+      WritableUtils.writeVLong(recordOutput, ((LongWritable) value).get());
+    } else if (value instanceof IntWritable) {
+      recordOutput.writeByte(LONG);
+      WritableUtils.writeVLong(recordOutput, ((IntWritable) value).get());
+    } else if (value instanceof DoubleWritable) {
+      recordOutput.writeByte(DOUBLE);
+      recordOutput.writeDouble(((DoubleWritable) value).get());
+    } else if (value instanceof FloatWritable) {
+      recordOutput.writeByte(DOUBLE);
+      recordOutput.writeDouble(((FloatWritable) value).get());
+    } else if (value instanceof BooleanWritable) {
+      recordOutput.writeByte(BOOLEAN);
+      recordOutput.writeBoolean(((BooleanWritable) value).get());
+    } else if (value instanceof Text) {
+      recordOutput.writeByte(TEXT);
+      recordOutput.writeUTF(value.toString());
+    } else {
+      recordOutput.writeByte(WRITABLE);
+      value.write(recordOutput);
+    }
+  }
+
+  /**
+   * Appends the current record, prefixed by its length, to the records of
+   * the superstep.
+   */
+  private void endRecord() throws IOException {
+    recordOutput.flush();
+    DataOutputStream out = new DataOutputStream(records);
+    WritableUtils.writeVLong(out, record.size());
+    record.writeTo(out);
+    out.flush();
+    record.reset();
+  }
+
+  /**
+   * Waits for the previous write, and throws its error.
+   */
+  private void checkLastWrite() throws IOException {
+    if (lastWrite == null) {
+      return;
+    }
+    try {
+      lastWrite.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /**
+   * Should write this superstep?
+   *
+   * @param superstep Superstep to check
+   * @return True if should write, false otherwise
+   */
+  protected boolean shouldWrite(long superstep) {
+    return (frequency == TextAggregatorWriter.AT_THE_END &&
+        superstep == LAST_SUPERSTEP) ||
+        (frequency != TextAggregatorWriter.NEVER && superstep % frequency == 0 &&
+        frequency>0);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (output != null) {
+      try {
+        checkLastWrite();
+      } finally {
+        flusher.shutdown();
+        output.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package main.okapi.aggregators;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import ml.grafos.okapi.aggregators.LongArraySumAggregator.LongVector;
+
+import org.apache.giraph.aggregators.BasicAggregator;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Sums vectors of longs element by element, so that a job keeps one value per
+ * partition, label or bucket in a single aggregator instead of one aggregator
+ * per element. A vector grows to the longest vector aggregated into it, and
+ * the missing elements count as 0, so the workers do not need to know the
+ * length in advance.
+ */
+public class LongArraySumAggregator extends BasicAggregator<LongVector> {
+
+  @Override
+  public void aggregate(LongVector value) {
+    getAggregatedValue().add(value);
+  }
+
+  @Override
+  public LongVector createInitialValue() {
+    return new LongVector();
+  }
+
+  /**
+   * A vector of longs, written with variable-length longs so that the zeros
+   * take one byte each.
+   */
+  public static class LongVector implements Writable {
+    private long[] values;
+    private int size;
+
+    public LongVector() {
+      this(0);
+    }
+
+    /**
+     * @param size the initial size, with all the elements 0
+     */
+    public LongVector(int size) {
+      values = new long[size];
+      this.size = size;
+    }
+
+    public int size() {
+      return size;
+    }
+
+    /**
+     * @param i
+     * @return the element i, 0 past the end of the vector
+     */
+    public long get(int i) {
+      return i < size ? values[i] : 0;
+    }
+
+    /**
+     * Adds to the element i, and grows the vector if it is shorter.
+     *
+     * @param i
+     * @param value
+     */
+    public void add(int i, long value) {
+      ensureSize(i+1);
+      values[i] += value;
+    }
+
+    /**
+     * Adds another vector element by element.
+     *
+     * @param other
+     */
+    public void add(LongVector other) {
+      ensureSize(other.size);
+      for (int i=0; i<other.size; i++) {
+        values[i] += other.values[i];
+      }
+    }
+
+    /**
+     * Copies the vector into an array, 0 past the end of the vector.
+     *
+     * @param array
+     */
+    public void copyTo(long[] array) {
+      int n = Math.min(size, array.length);
+      System.arraycopy(values, 0, array, 0, n);
+      Arrays.fill(array, n, array.length, 0);
+    }
+
+    /**
+     * Sets all the elements to 0, keeping the size.
+     */
+    public void clear() {
+      Arrays.fill(values, 0, size, 0);
+    }
+
+    private void ensureSize(int n) {
+      if (n > values.length) {
+        values = Arrays.copyOf(values, Math.max(n, 2*values.length));
+      }
+      if (n > size) {
+        // A shorter vector read into this one leaves its old elements behind
+        Arrays.fill(values, size, n, 0L);
+        size = n;
+      }
+    }
+
+    @Override
+    public void readFields(DataInput input) throws IOException {
+      size = WritableUtils.readVInt(input);
+      if (values.length < size) {
+        values = new long[size];
+      }
+      for (int i=0; i<size; i++) {
+        values[i] = WritableUtils.readVLong(input);
+      }
+    }
+
+    @Override
+    public void write(DataOutput output) throws IOException {
+      WritableUtils.writeVInt(output, size);
+      for (int i=0; i<size; i++) {
+        WritableUtils.writeVLong(output, values[i]);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return Arrays.toString(Arrays.copyOf(values, size));
+    }
+  }
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package main.okapi.aggregators;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import ml.grafos.okapi.aggregators.SlowVerticesAggregator.SlowVertices;
+
+import org.apache.giraph.aggregators.BasicAggregator;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * Keeps the vertices with the longest compute times, at most
+ * {@link #SIZE} of them.
+ */
+public class SlowVerticesAggregator extends BasicAggregator<SlowVertices> {
+
+  /** Number of vertices kept. */
+  public static final int SIZE = 10;
+
+  @Override
+  public void aggregate(SlowVertices value) {
+    SlowVertices aggregated = getAggregatedValue();
+    for (int i=0; i<value.size; i++) {
+      aggregated.add(value.ids[i], value.times[i]);
+    }
+  }
+
+  @Override
+  public SlowVertices createInitialValue() {
+    return new SlowVertices();
+  }
+
+  /**
+   * The ids of the slowest vertices, as text, with their compute times,
+   * slowest first.
+   */
+  public static class SlowVertices implements Writable {
+    private final String[] ids = new String[SIZE];
+    private final long[] times = new long[SIZE];
+    private int size;
+
+    /**
+     * @param time
+     * @return whether a vertex with this time would be kept
+     */
+    public boolean accepts(long time) {
+      return size < SIZE || time > times[size-1];
+    }
+
+    /**
+     * Keeps a vertex if it is one of the slowest.
+     *
+     * @param id
+     * @param time
+     */
+    public void add(String id, long time) {
+      if (!accepts(time)) {
+        return;
+      }
+      int i = size < SIZE ? size++ : size-1;
+      while (i > 0 && times[i-1] < time) {
+        ids[i] = ids[i-1];
+        times[i] = times[i-1];
+        i--;
+      }
+      ids[i] = id;
+      times[i] = time;
+    }
+
+    public int size() {
+      return size;
+    }
+
+    public String getId(int i) {
+      return ids[i];
+    }
+
+    public long getTime(int i) {
+      return times[i];
+    }
+
+    public void clear() {
+      size = 0;
+    }
+
+    @Override
+    public void readFields(DataInput input) throws IOException {
+      size = input.readInt();
+      for (int i=0; i<size; i++) {
+        ids[i] = input.readUTF();
+        times[i] = input.readLong();
+      }
+    }
+
+    @Override
+    public void write(DataOutput output) throws IOException {
+      output.writeInt(size);
+      for (int i=0; i<size; i++) {
+        output.writeUTF(ids[i]);
+        output.writeLong(times[i]);
+      }
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      for (int i=0; i<size; i++) {
+        sb.append(i == 0 ? "" : " ").append(ids[i]).append(':')
+          .append(times[i]);
+      }
+      return sb.toString();
+    }
+  }
+}
@@ -0,0 +1,219 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package main.okapi.cf;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ml.grafos.okapi.common.jblas.FloatMatrixWritable;
+import ml.grafos.okapi.utils.Counters;
+
+import org.apache.giraph.aggregators.DoubleSumAggregator;
+import org.apache.giraph.aggregators.LongSumAggregator;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.graph.AbstractComputation;
+import org.apache.giraph.master.MasterCompute;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.LongWritable;
+
+/**
+ * Runs a rating trainer only on the vertices whose neighbors changed.
+ *
+ * A vertex broadcasts its factors only when they moved by more than the
+ * tolerance in its update. Every vertex keeps the factors it last received
+ * from each neighbor, so when it wakes up it still updates over all its
+ * ratings, using the cached factors of the neighbors that did not change.
+ * A vertex that receives no message does not compute at all, so the late
+ * iterations, where few vertices still move, cost a fraction of the early
+ * ones.
+ *
+ * The sleeping vertices do not aggregate their error any more, so every
+ * vertex aggregates the change of its squared error into a persistent
+ * aggregator of its side, which then holds the error of the whole side. The
+ * master reports the number of active and changed vertices, and stops when
+ * no vertex changed.
+ *
+ * The caches are kept in the memory of the workers, so this assumes that the
+ * vertices do not move between workers during the job. They are not part of
+ * the checkpoints either, so the master rejects checkpointing.
+ */
+public class ActiveSet {
+
+  /** Number of vertices that computed in a superstep. */
+  public static final String ACTIVE_AGGREGATOR = "cf.active.vertices";
+  /** Number of vertices that broadcast their factors in a superstep. */
+  public static final String CHANGED_AGGREGATOR = "cf.active.changed";
+  /** Sum of the squared errors of a side, followed by the vertex type. */
+  public static final String ERROR_AGGREGATOR = "cf.active.sse.";
+
+  private static final String ACTIVE_COUNTER = "Active vertices";
+  private static final String CHANGED_COUNTER = "Changed vertices";
+
+  /** Caches of the vertices of this worker. */
+  private static final Map<CfLongId, NeighborCache> CACHES =
+      new ConcurrentHashMap<CfLongId, NeighborCache>();
+
+  private final float tolerance;
+
+  private ActiveSet(float tolerance) {
+    this.tolerance = tolerance;
+  }
+
+  /**
+   * @param tolerance the tolerance of the job
+   * @return the active set of the job, or null if the tolerance is not
+   * positive
+   */
+  public static ActiveSet get(float tolerance) {
+    return tolerance > 0f ? new ActiveSet(tolerance) : null;
+  }
+
+  /**
+   * The factors last received from the neighbors of a vertex, and the squared
+   * error the vertex last aggregated.
+   */
+  public static class NeighborCache {
+    private final Map<CfLongId, FloatMatrixWritable> factors =
+        new LinkedHashMap<CfLongId, FloatMatrixWritable>();
+    private double error;
+
+    public Iterable<Map.Entry<CfLongId, FloatMatrixWritable>> getFactors() {
+      return factors.entrySet();
+    }
+
+    public int size() {
+      return factors.size();
+    }
+
+    /**
+     * Replaces the factors of the senders of the messages.
+     *
+     * @param messages
+     */
+    public void receive(Iterable<FloatMatrixMessage> messages) {
+      for (FloatMatrixMessage msg : messages) {
+        factors.put(new CfLongId(msg.getSenderId().getType(),
+            msg.getSenderId().getId()), msg.getFactors());
+      }
+    }
+  }
+
+  /**
+   * Drops the caches of a previous job that ran in the same JVM.
+   */
+  public static void clear() {
+    CACHES.clear();
+  }
+
+  /**
+   * @param vertex
+   * @return the cache of a vertex of this worker, created empty
+   */
+  public static NeighborCache getCache(CfLongId vertex) {
+    NeighborCache cache = CACHES.get(vertex);
+    if (cache == null) {
+      cache = new NeighborCache();
+      CACHES.put(new CfLongId(vertex.getType(), vertex.getId()), cache);
+    }
+    return cache;
+  }
+
+  /**
+   * @param before
+   * @param after
+   * @param n number of factors
+   * @return whether the factors moved by more than the tolerance
+   */
+  public boolean isChanged(float[] before, float[] after, int n) {
+    float sum = 0f;
+    for (int f=0; f<n; f++) {
+      float d = after[f] - before[f];
+      sum += d*d;
+    }
+    return (float)Math.sqrt(sum) > tolerance;
+  }
+
+  /**
+   * Aggregates the activity of a vertex and the change of its error.
+   *
+   * @param computation
+   * @param vertex
+   * @param cache
+   * @param error squared error of the vertex over all its ratings
+   * @param changed whether the vertex broadcasts its factors
+   */
+  public static void aggregate(AbstractComputation<?, ?, ?, ?, ?> computation,
+      CfLongId vertex, NeighborCache cache, double error, boolean changed) {
+    computation.aggregate(ERROR_AGGREGATOR+vertex.getType(),
+        new DoubleWritable(error - cache.error));
+    cache.error = error;
+    computation.aggregate(ACTIVE_AGGREGATOR, new LongWritable(1));
+    if (changed) {
+      computation.aggregate(CHANGED_AGGREGATOR, new LongWritable(1));
+    }
+  }
+
+  /**
+   * Registers the activity counts and the error of the user and item sides.
+   *
+   * @param master
+   */
+  public void registerAggregators(MasterCompute master)
+      throws InstantiationException, IllegalAccessException {
+    if (GiraphConstants.CHECKPOINT_FREQUENCY.get(master.getConf()) > 0) {
+      throw new IllegalArgumentException(ActiveSet.class.getSimpleName() +
+          " cannot be combined with " +
+          GiraphConstants.CHECKPOINT_FREQUENCY.getKey());
+    }
+    master.registerAggregator(ACTIVE_AGGREGATOR, LongSumAggregator.class);
+    master.registerAggregator(CHANGED_AGGREGATOR, LongSumAggregator.class);
+    // users have the type 0, items 1
+    for (int type=0; type<2; type++) {
+      master.registerPersistentAggregator(ERROR_AGGREGATOR+type,
+          DoubleSumAggregator.class);
+    }
+  }
+
+  /**
+   * @param master
+   * @param type type of the vertices that computed in the previous superstep
+   * @return the sum of the squared errors of all the vertices of a side
+   */
+  public double getError(MasterCompute master, int type) {
+    return ((DoubleWritable)master.getAggregatedValue(ERROR_AGGREGATOR+type))
+        .get();
+  }
+
+  /**
+   * Updates the activity counters with the previous superstep.
+   *
+   * @param master
+   * @param counterGroup
+   * @return true if no vertex changed, so the active set is empty
+   */
+  public boolean update(MasterCompute master, String counterGroup) {
+    long active = ((LongWritable)master.getAggregatedValue(ACTIVE_AGGREGATOR))
+        .get();
+    long changed = ((LongWritable)master.getAggregatedValue(
+        CHANGED_AGGREGATOR)).get();
+    Counters.updateCounter(master.getContext(), counterGroup, ACTIVE_COUNTER,
+        active);
+    Counters.updateCounter(master.getContext(), counterGroup, CHANGED_COUNTER,
+        changed);
+    return changed == 0;
+  }
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package main.okapi.cf;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Per-coordinate learning rates for the SGD style trainers.
+ *
+ * With AdaGrad every coordinate keeps the sum of its squared gradients G, and
+ * moves by gamma*g/(sqrt(G)+epsilon). With Adam it keeps the running means of
+ * the gradient m and of its square v, and moves by
+ * gamma*m'/(sqrt(v')+epsilon), where m' and v' are corrected for their bias
+ * towards zero with the number of steps t of the vector.
+ *
+ * The state of a vector of n coordinates is stored in a float array next to
+ * it, {@link #getStateSize(int)} floats: G for AdaGrad, m, v and t for Adam.
+ * The update is done in place in a single loop over the coordinates.
+ */
+public class AdaptiveRate {
+
+  /** Keyword for the optimizer: sgd, adagrad or adam. */
+  public static final String OPTIMIZER = "cf.optimizer";
+  /** Default value for OPTIMIZER, plain SGD with a fixed rate. */
+  public static final String OPTIMIZER_DEFAULT = "sgd";
+  /** Decay of the mean of the gradient in Adam. */
+  public static final String BETA1 = "cf.adam.beta1";
+  public static final float BETA1_DEFAULT = 0.9f;
+  /** Decay of the mean of the squared gradient in Adam. */
+  public static final String BETA2 = "cf.adam.beta2";
+  public static final float BETA2_DEFAULT = 0.999f;
+  /** Added to the denominator of the rates. */
+  public static final String EPSILON = "cf.optimizer.epsilon";
+  public static final float EPSILON_DEFAULT = 1e-6f;
+
+  private final boolean adam;
+  private final float beta1;
+  private final float beta2;
+  private final float epsilon;
+
+  AdaptiveRate(boolean adam, float beta1, float beta2, float epsilon) {
+    this.adam = adam;
+    this.beta1 = beta1;
+    this.beta2 = beta2;
+    this.epsilon = epsilon;
+  }
+
+  /**
+   * @param conf
+   * @return the optimizer of the job, or null for plain SGD
+   */
+  public static AdaptiveRate get(Configuration conf) {
+    String optimizer = conf.get(OPTIMIZER, OPTIMIZER_DEFAULT).trim()
+        .toLowerCase();
+    if (optimizer.equals("sgd")) {
+      return null;
+    }
+    if (!optimizer.equals("adagrad") && !optimizer.equals("adam")) {
+      throw new IllegalArgumentException("Unknown "+OPTIMIZER+" "+optimizer);
+    }
+    return new AdaptiveRate(optimizer.equals("adam"),
+        conf.getFloat(BETA1, BETA1_DEFAULT),
+        conf.getFloat(BETA2, BETA2_DEFAULT),
+        conf.getFloat(EPSILON, EPSILON_DEFAULT));
+  }
+
+  /**
+   * @param n number of coordinates of the vector
+   * @return the number of floats of state of the vector
+   */
+  public int getStateSize(int n) {
+    return adam ? 2*n+1 : n;
+  }
+
+  /**
+   * Makes a step on x[xOff..xOff+n) along the gradient
+   * g = lambda*x + a*u.
+   *
+   * @param x the vector to update
+   * @param xOff
+   * @param a weight of u in the gradient, the error for instance
+   * @param u
+   * @param uOff
+   * @param lambda regularization
+   * @param state the state of x
+   * @param sOff
+   * @param n
+   * @param gamma base learning rate
+   */
+  public void update(float[] x, int xOff, float a, float[] u, int uOff,
+      float lambda, float[] state, int sOff, int n, float gamma) {
+    if (!adam) {
+      for (int f=0; f<n; f++) {
+        float g = lambda*x[xOff+f] + a*u[uOff+f];
+        float sum = state[sOff+f] + g*g;
+        state[sOff+f] = sum;
+        x[xOff+f] -= gamma*g/((float)Math.sqrt(sum) + epsilon);
+      }
+      return;
+    }
+    int t = (int)(state[sOff+2*n]) + 1;
+    state[sOff+2*n] = t;
+    float c1 = 1f/(1f - (float)Math.pow(beta1, t));
+    float c2 = 1f/(1f - (float)Math.pow(beta2, t));
+    for (int f=0; f<n; f++) {
+      float g = lambda*x[xOff+f] + a*u[uOff+f];
+      float m = beta1*state[sOff+f] + (1f-beta1)*g;
+      float v = beta2*state[sOff+n+f] + (1f-beta2)*g*g;
+      state[sOff+f] = m;
+      state[sOff+n+f] = v;
+      x[xOff+f] -= gamma*(m*c1)/((float)Math.sqrt(v*c2) + epsilon);
+    }
+  }
+}
@@ -0,0 +1,334 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package main.okapi.cf;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ml.grafos.okapi.common.CounterRandom;
+import ml.grafos.okapi.common.jblas.FactorHandleWritable;
+import ml.grafos.okapi.utils.Counters;
+
+import org.apache.giraph.aggregators.AggregatorUsage;
+import org.apache.giraph.aggregators.DoubleSumAggregator;
+import org.apache.giraph.aggregators.LongOverwriteAggregator;
+import org.apache.giraph.aggregators.LongSumAggregator;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.graph.AbstractComputation;
+import org.apache.giraph.graph.BasicComputation;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.master.MasterCompute;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Stops a rating trainer when the error on a held-out set of ratings stops
+ * improving, and gives back the factors of the best iteration.
+ *
+ * A fraction VALIDATION_FRACTION of the ratings is held out, chosen by
+ * hashing the (user, item) pair with the random seed of the job, so both
+ * ends of an edge agree without any extra state. The held-out ratings are
+ * not used in the updates, their squared error is aggregated separately in
+ * every superstep. The master keeps the superstep of the lowest validation
+ * RMSE, and stops after PATIENCE evaluations without improvement, or on the
+ * usual iterations and rmse target.
+ *
+ * The vertices of the two sides update in alternate supersteps, so the model
+ * of superstep s is made of the factors of the side that computed in s and
+ * those of the other side from s-1. A vertex that computes in superstep t
+ * still holds the factors it set in t-2, part of the models of t-2 and t-1,
+ * so it copies them before its update if the best superstep is at least t-2.
+ * When the master stops, the vertices put the copy back in two supersteps of
+ * {@link RestoreComputation}.
+ *
+ * The copies are kept in the memory of the workers, so this assumes that the
+ * vertices do not move between workers during the job. The trainers drop the
+ * copies of an earlier job in their first superstep. The copies are not part
+ * of the checkpoints, so the master rejects checkpointing, and a vertex that
+ * must be put back but finds no copy fails the job rather than give out the
+ * factors of its last superstep.
+ */
+public class EarlyStopping {
+
+  /** Fraction of the ratings held out, non-positive disables it. */
+  public static final String VALIDATION_FRACTION = "cf.validation.fraction";
+  /** Default value for VALIDATION_FRACTION. */
+  public static final float VALIDATION_FRACTION_DEFAULT = 0f;
+  /** Number of evaluations without improvement before stopping. */
+  public static final String PATIENCE = "cf.validation.patience";
+  /** Default value for PATIENCE. */
+  public static final int PATIENCE_DEFAULT = 4;
+
+  /** Sum of the squared errors on the held-out ratings. */
+  public static final String VALIDATION_AGGREGATOR = "cf.validation.sse";
+  /** Number of held-out ratings scored in a superstep. */
+  public static final String VALIDATION_COUNT_AGGREGATOR =
+      "cf.validation.count";
+  /** Superstep of the best model so far. */
+  public static final String BEST_AGGREGATOR = "cf.validation.best";
+  /** First superstep of the restore phase. */
+  public static final String RESTORE_AGGREGATOR = "cf.validation.restore";
+
+  private static final String VALIDATION_RMSE_COUNTER =
+      "Validation RMSE (x1000)";
+  private static final String BEST_COUNTER = "Best superstep";
+
+  /** Copies of the best factors of the vertices of this worker. */
+  private static final Map<CfLongId, Writable> SNAPSHOTS =
+      new ConcurrentHashMap<CfLongId, Writable>();
+
+  private final long seed;
+  private final float fraction;
+  private final int patience;
+
+  private double bestRmse = Double.MAX_VALUE;
+  private long bestSuperstep = -1;
+  private int evaluationsSinceBest = 0;
+  private long numHeldOut = 0;
+  private long restoreSuperstep = -1;
+
+  private EarlyStopping(Configuration conf, float fraction) {
+    this.seed = CounterRandom.getSeed(conf);
+    this.fraction = fraction;
+    this.patience = conf.getInt(PATIENCE, PATIENCE_DEFAULT);
+  }
+
+  /**
+   * @param conf
+   * @return the early stopping of the job, or null if VALIDATION_FRACTION is
+   * not set
+   */
+  public static EarlyStopping get(Configuration conf) {
+    float fraction = conf.getFloat(VALIDATION_FRACTION,
+        VALIDATION_FRACTION_DEFAULT);
+    return fraction > 0f ? new EarlyStopping(conf, fraction) : null;
+  }
+
+  /**
+   * Drops the copies of a previous job that ran in the same JVM.
+   */
+  public static void clear() {
+    SNAPSHOTS.clear();
+  }
+
+  /**
+   * @param vertex
+   * @param neighbor
+   * @return whether the rating between a vertex and its neighbor is held out
+   */
+  public boolean isHeldOut(CfLongId vertex, CfLongId neighbor) {
+    CfLongId user = vertex.isUser() ? vertex : neighbor;
+    CfLongId item = vertex.isUser() ? neighbor : vertex;
+    return CounterRandom.uniform(seed, CounterRandom.key(user.getId(), 0),
+        item.getId()) < fraction;
+  }
+
+  /**
+   * Copies the value of a vertex before its update, if it belongs to the
+   * best model so far.
+   *
+   * @param computation
+   * @param vertex
+   */
+  public static <V extends Writable> void snapshotIfBest(
+      AbstractComputation<CfLongId, V, FloatWritable, ?, ?> computation,
+      Vertex<CfLongId, V, FloatWritable> vertex) {
+    if (isBest(computation, computation.getSuperstep())) {
+      SNAPSHOTS.put(new CfLongId(vertex.getId().getType(),
+          vertex.getId().getId()),
+          WritableUtils.clone(vertex.getValue(), computation.getConf()));
+    }
+  }
+
+  /**
+   * @return whether the value a vertex holds in a superstep, set two
+   * supersteps before, belongs to the best model so far
+   */
+  private static boolean isBest(AggregatorUsage usage, long superstep) {
+    long best = getBestSuperstep(usage);
+    return best >= 0 && best >= superstep-2;
+  }
+
+  /**
+   * @return the superstep of the best model so far, -1 if there is none
+   */
+  private static long getBestSuperstep(AggregatorUsage usage) {
+    return ((LongWritable)usage.getAggregatedValue(BEST_AGGREGATOR)).get();
+  }
+
+  /**
+   * Registers the validation aggregators. The copies of the best values are
+   * not in the checkpoints, so checkpointing must be disabled.
+   *
+   * @param master
+   */
+  public void registerAggregators(MasterCompute master)
+      throws InstantiationException, IllegalAccessException {
+    if (GiraphConstants.CHECKPOINT_FREQUENCY.get(master.getConf()) > 0) {
+      throw new IllegalArgumentException(VALIDATION_FRACTION +
+          " cannot be combined with " +
+          GiraphConstants.CHECKPOINT_FREQUENCY.getKey());
+    }
+    master.registerAggregator(VALIDATION_AGGREGATOR,
+        DoubleSumAggregator.class);
+    master.registerAggregator(VALIDATION_COUNT_AGGREGATOR,
+        LongSumAggregator.class);
+    master.registerPersistentAggregator(BEST_AGGREGATOR,
+        LongOverwriteAggregator.class);
+    master.registerPersistentAggregator(RESTORE_AGGREGATOR,
+        LongOverwriteAggregator.class);
+  }
+
+  /**
+   * Scores the model of the previous superstep, if the workers held out any
+   * rating in it.
+   *
+   * @param master
+   * @param counterGroup
+   * @return true if the validation error did not improve for PATIENCE
+   * evaluations
+   */
+  public boolean update(MasterCompute master, String counterGroup) {
+    publish(master);
+    if (master.getSuperstep() == 0) {
+      return false;
+    }
+    long count = ((LongWritable)master.getAggregatedValue(
+        VALIDATION_COUNT_AGGREGATOR)).get();
+    if (count == 0) {
+      return false;
+    }
+    numHeldOut = count;
+    double rmse = Math.sqrt(((DoubleWritable)master.getAggregatedValue(
+        VALIDATION_AGGREGATOR)).get() / count);
+    Counters.updateCounter(master.getContext(), counterGroup,
+        VALIDATION_RMSE_COUNTER, (long)(1000*rmse));
+
+    if (rmse < bestRmse) {
+      bestRmse = rmse;
+      bestSuperstep = master.getSuperstep()-1;
+      evaluationsSinceBest = 0;
+      publish(master);
+      Counters.updateCounter(master.getContext(), counterGroup,
+          BEST_COUNTER, bestSuperstep);
+    } else {
+      evaluationsSinceBest++;
+    }
+    return evaluationsSinceBest >= patience;
+  }
+
+  /**
+   * @return the number of held-out ratings seen in the last evaluation
+   */
+  public long getNumHeldOut() {
+    return numHeldOut;
+  }
+
+  public boolean isRestoring() {
+    return restoreSuperstep >= 0;
+  }
+
+  /**
+   * Starts the two supersteps of the restore phase instead of halting.
+   *
+   * @param master
+   */
+  public void startRestore(MasterCompute master) {
+    restoreSuperstep = master.getSuperstep();
+    publish(master);
+  }
+
+  /**
+   * @param master
+   * @return true once the restore phase is over
+   */
+  public boolean isRestored(MasterCompute master) {
+    publish(master);
+    return master.getSuperstep() >= restoreSuperstep+2;
+  }
+
+  /**
+   * Sets the best and restore supersteps in every superstep: an overwrite
+   * aggregator the master does not set takes the initial value of the
+   * workers.
+   *
+   * @param master
+   */
+  private void publish(MasterCompute master) {
+    master.setAggregatedValue(BEST_AGGREGATOR, new LongWritable(bestSuperstep));
+    master.setAggregatedValue(RESTORE_AGGREGATOR,
+        new LongWritable(restoreSuperstep));
+  }
+
+  /**
+   * Puts back the best factors of the vertices. The vertices of the side
+   * that computed last are woken up by messages, restore themselves and wake
+   * up the other side in the next superstep.
+   *
+   * @param <V> vertex value
+   * @param <M> message
+   */
+  public abstract static class RestoreComputation<V extends Writable,
+      M extends Writable> extends BasicComputation<CfLongId, V,
+      FloatWritable, M> {
+
+    /**
+     * @param vertex
+     * @return any message, its content is ignored
+     */
+    protected abstract M wakeUpMessage(
+        Vertex<CfLongId, V, FloatWritable> vertex);
+
+    /**
+     * Called on every vertex once its value is restored, for instance to drop
+     * the state that is only needed during the training.
+     *
+     * @param vertex
+     */
+    protected void finish(Vertex<CfLongId, V, FloatWritable> vertex) {
+    }
+
+    @Override
+    public void compute(Vertex<CfLongId, V, FloatWritable> vertex,
+        Iterable<M> messages) throws IOException {
+      // Factors kept off the heap give their slot back
+      FactorHandleWritable.release(vertex);
+      @SuppressWarnings("unchecked")
+      V best = (V)SNAPSHOTS.remove(vertex.getId());
+      if (!isBest(this, getSuperstep()) && getBestSuperstep(this) >= 0) {
+        if (best == null) {
+          // Every vertex copied its value after the best superstep
+          throw new IllegalStateException("No copy of the best value of " +
+              vertex.getId() + " from superstep " + getBestSuperstep(this) +
+              ", the copies were lost");
+        }
+        vertex.setValue(best);
+      }
+      finish(vertex);
+      long restoreSuperstep = ((LongWritable)getAggregatedValue(
+          RESTORE_AGGREGATOR)).get();
+      if (getSuperstep() == restoreSuperstep) {
+        sendMessageToAllEdges(vertex, wakeUpMessage(vertex));
+      }
+      vertex.voteToHalt();
+    }
+  }
+}
@@ -0,0 +1,288 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package main.okapi.cf;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import ml.grafos.okapi.common.jblas.FloatMatrixWritable;
+
+import org.apache.giraph.aggregators.LongSumAggregator;
+import org.apache.giraph.edge.Edge;
+import org.apache.giraph.edge.EdgeFactory;
+import org.apache.giraph.edge.OutEdges;
+import org.apache.giraph.graph.AbstractComputation;
+import org.apache.giraph.graph.BasicComputation;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.master.MasterCompute;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Splits the items with a very high degree into mirrors, in the style of the
+ * PowerGraph vertex-cut, so that a single vertex does not make one worker
+ * straggle in every superstep.
+ *
+ * When an item has more than HOT_DEGREE ratings, it creates
+ * ceil(degree/HOT_DEGREE) mirror vertices (at most MAX_MIRRORS), and every
+ * mirror gets the edges of a share of the users, chosen by hashing the user
+ * id. The item itself, the master, keeps only edges to its mirrors. In every
+ * round:
+ * <ol>
+ * <li>the users send their factors to the mirrors instead of the item,</li>
+ * <li>every mirror computes the partial sums of the update over its users and
+ * sends them to the master, and forwards the current item value to its
+ * users,</li>
+ * <li>the master combines the partial sums and sends the new value to the
+ * mirrors.</li>
+ * </ol>
+ * The masters compute in the same supersteps as the users, so the rounds of
+ * the algorithm keep their length, but the users see the value of a hot item
+ * one round late.
+ *
+ * A mirror has the type 16+2*r+t, where r is the index of the mirror and t the
+ * type of the master, and the id of the master. The edges from the masters to
+ * their mirrors are not ratings, their number is aggregated so that the
+ * master compute can leave them out of the number of ratings. When the
+ * training stops, the mirrors are removed, so that only the masters appear in
+ * the output of the job.
+ */
+public class HotVertices {
+
+  /** Degree above which an item is split, non-positive disables splitting. */
+  public static final String HOT_DEGREE = "cf.hot.degree";
+  /** Default value for HOT_DEGREE. */
+  public static final int HOT_DEGREE_DEFAULT = -1;
+  /** Maximum number of mirrors of a vertex, bounded by the type byte. */
+  public static final int MAX_MIRRORS = 55;
+
+  /** Number of edges from the masters to their mirrors. */
+  public static final String MIRROR_EDGES_AGGREGATOR = "cf.hot.mirror.edges";
+
+  private static final int MIRROR_TYPE = 16;
+
+  public static int getHotDegree(Configuration conf) {
+    return conf.getInt(HOT_DEGREE, HOT_DEGREE_DEFAULT);
+  }
+
+  /**
+   * Registers the aggregators used by the split, when it is enabled.
+   *
+   * @param master
+   * @throws InstantiationException
+   * @throws IllegalAccessException
+   */
+  public static void registerAggregators(MasterCompute master)
+      throws InstantiationException, IllegalAccessException {
+    if (getHotDegree(master.getConf()) > 0) {
+      master.registerPersistentAggregator(MIRROR_EDGES_AGGREGATOR,
+          LongSumAggregator.class);
+    }
+  }
+
+  /**
+   * @param master
+   * @return the number of ratings, once both the users and the items have
+   * their edges: every rating is an edge in both directions, and the edges
+   * from the masters to their mirrors are not ratings
+   */
+  public static long getNumRatings(MasterCompute master) {
+    long numEdges = master.getTotalNumEdges();
+    if (getHotDegree(master.getConf()) > 0) {
+      numEdges -= ((LongWritable)master.getAggregatedValue(
+          MIRROR_EDGES_AGGREGATOR)).get();
+    }
+    return numEdges / 2;
+  }
+
+  public static boolean isMirror(CfLongId id) {
+    return id.getType() >= MIRROR_TYPE;
+  }
+
+  /**
+   * @param master
+   * @param mirror index of the mirror
+   * @return the id of the mirror
+   */
+  public static CfLongId mirrorId(CfLongId master, int mirror) {
+    return new CfLongId((byte)(MIRROR_TYPE + 2*mirror + master.getType()),
+        master.getId());
+  }
+
+  /**
+   * @param mirror
+   * @return the id of the master of a mirror
+   */
+  public static CfLongId masterId(CfLongId mirror) {
+    return new CfLongId((byte)((mirror.getType() - MIRROR_TYPE) % 2),
+        mirror.getId());
+  }
+
+  /**
+   * @param degree
+   * @param hotDegree
+   * @return the number of mirrors of a vertex with the given degree
+   */
+  public static int getNumMirrors(int degree, int hotDegree) {
+    return Math.min(MAX_MIRRORS, (degree + hotDegree - 1) / hotDegree);
+  }
+
+  /**
+   * @param neighbor
+   * @param numMirrors
+   * @return the mirror that holds the edge to a neighbor
+   */
+  public static int mirrorOf(CfLongId neighbor, int numMirrors) {
+    long h = neighbor.getId() * 0x9E3779B97F4A7C15L;
+    return (int)((h >>> 33) % numMirrors);
+  }
+
+  /**
+   * @param vertex
+   * @return whether the vertex was split, its edges then point to its own
+   * mirrors
+   */
+  public static boolean isMaster(Vertex<CfLongId, ?, FloatWritable> vertex) {
+    if (isMirror(vertex.getId()) || vertex.getNumEdges() == 0) {
+      return false;
+    }
+    CfLongId target = vertex.getEdges().iterator().next().getTargetVertexId();
+    return isMirror(target) && masterId(target).equals(vertex.getId());
+  }
+
+  /**
+   * Splits a vertex in the superstep where it created its edges. The mirrors
+   * are created with a copy of the value of the vertex and their share of the
+   * edges. Every neighbor receives the payload from its mirror, so that it
+   * knows where to send its next messages.
+   *
+   * @param computation
+   * @param vertex
+   * @param hotDegree
+   * @param payload the factors the vertex would send to its neighbors
+   * @param score the score the vertex would send to its neighbors
+   * @throws IOException
+   */
+  public static <V extends Writable> void split(
+      AbstractComputation<CfLongId, V, FloatWritable, ?, FloatMatrixMessage>
+      computation, Vertex<CfLongId, V, FloatWritable> vertex, int hotDegree,
+      FloatMatrixWritable payload, float score) throws IOException {
+    int numMirrors = getNumMirrors(vertex.getNumEdges(), hotDegree);
+    @SuppressWarnings("unchecked")
+    OutEdges<CfLongId, FloatWritable>[] mirrorEdges = new OutEdges[numMirrors];
+    int[] shares = new int[numMirrors];
+    for (int r=0; r<numMirrors; r++) {
+      mirrorEdges[r] = computation.getConf().createOutEdges();
+      mirrorEdges[r].initialize(vertex.getNumEdges()/numMirrors + 1);
+    }
+
+    for (Edge<CfLongId, FloatWritable> edge : vertex.getEdges()) {
+      CfLongId neighbor = new CfLongId(edge.getTargetVertexId().getType(),
+          edge.getTargetVertexId().getId());
+      int r = mirrorOf(neighbor, numMirrors);
+      mirrorEdges[r].add(EdgeFactory.create(neighbor,
+          new FloatWritable(edge.getValue().get())));
+      shares[r]++;
+      computation.sendMessage(neighbor, new FloatMatrixMessage(
+          mirrorId(vertex.getId(), r), payload, score));
+    }
+
+    OutEdges<CfLongId, FloatWritable> masterEdges =
+        computation.getConf().createOutEdges();
+    masterEdges.initialize(numMirrors);
+    for (int r=0; r<numMirrors; r++) {
+      CfLongId mirror = mirrorId(vertex.getId(), r);
+      computation.addVertexRequest(mirror,
+          WritableUtils.clone(vertex.getValue(), computation.getConf()),
+          mirrorEdges[r]);
+      masterEdges.add(EdgeFactory.create(mirror, new FloatWritable(shares[r])));
+    }
+    vertex.setEdges(masterEdges);
+    computation.aggregate(MIRROR_EDGES_AGGREGATOR,
+        new LongWritable(numMirrors));
+  }
+
+  /**
+   * Points the edges of a vertex to the mirrors that sent it messages, instead
+   * of their masters. It is called on the neighbors of the split vertices in
+   * the superstep after the split.
+   *
+   * @param vertex
+   * @param messages
+   */
+  public static <V extends Writable> void retargetEdges(
+      Vertex<CfLongId, V, FloatWritable> vertex,
+      Iterable<FloatMatrixMessage> messages) {
+    for (FloatMatrixMessage msg : messages) {
+      CfLongId sender = msg.getSenderId();
+      if (!isMirror(sender) || vertex.getEdgeValue(sender) != null) {
+        continue;
+      }
+      CfLongId master = masterId(sender);
+      FloatWritable rating = vertex.getEdgeValue(master);
+      if (rating != null) {
+        float value = rating.get();
+        vertex.removeEdges(master);
+        vertex.addEdge(EdgeFactory.create(
+            new CfLongId(sender.getType(), sender.getId()),
+            new FloatWritable(value)));
+      }
+    }
+  }
+
+  /**
+   * Removes the mirrors once the training stops. A mirror removes itself and
+   * wakes up its master, a master removes its mirrors and drops its edges to
+   * them. The removals are only resolved at the start of the next superstep,
+   * so a master stays active for one more superstep, or the job could end
+   * with the removals still pending.
+   *
+   * @param <V> vertex value
+   * @param <M> message
+   */
+  public abstract static class DropMirrorsComputation<V extends Writable,
+      M extends Writable> extends BasicComputation<CfLongId, V,
+      FloatWritable, M> {
+
+    /**
+     * @param vertex
+     * @return any message, its content is ignored
+     */
+    protected abstract M wakeUpMessage(
+        Vertex<CfLongId, V, FloatWritable> vertex);
+
+    @Override
+    public void compute(Vertex<CfLongId, V, FloatWritable> vertex,
+        Iterable<M> messages) throws IOException {
+      if (isMirror(vertex.getId())) {
+        removeVertexRequest(vertex.getId());
+        sendMessage(masterId(vertex.getId()), wakeUpMessage(vertex));
+      } else if (isMaster(vertex)) {
+        for (Edge<CfLongId, FloatWritable> edge : vertex.getEdges()) {
+          removeVertexRequest(new CfLongId(edge.getTargetVertexId().getType(),
+              edge.getTargetVertexId().getId()));
+        }
+        vertex.setEdges(
+            Collections.<Edge<CfLongId, FloatWritable>>emptyList());
+        return;
+      }
+      vertex.voteToHalt();
+    }
+  }
+}
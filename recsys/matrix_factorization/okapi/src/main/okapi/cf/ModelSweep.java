@@ -0,0 +1,235 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package main.okapi.cf;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ml.grafos.okapi.utils.Counters;
+
+import org.apache.giraph.aggregators.AggregatorUsage;
+import org.apache.giraph.aggregators.BooleanOverwriteAggregator;
+import org.apache.giraph.aggregators.DoubleSumAggregator;
+import org.apache.giraph.master.MasterCompute;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.DoubleWritable;
+
+/**
+ * Trains several models of the same rating graph in one job, so that the
+ * input is read and the graph is built only once for a whole sweep of
+ * hyper-parameters.
+ *
+ * The models are given in the MODELS parameter, separated by ';'. Each one
+ * is a list of parameter overrides separated by ',', parameters that are not
+ * overridden take the value of the job. For instance:
+ * <pre>
+ * -ca cf.models=dim=10,lambda=0.01;dim=50,lambda=0.1;dim=50,lambda=1
+ * </pre>
+ *
+ * The vertex value holds the factors of all the models one after the other,
+ * and every message carries all of them. Every model has its own RMSE
+ * aggregator and counter, and stops on its own iterations or rmse target.
+ * The factors of a stopped model are not updated any more, and the job halts
+ * when every model has stopped.
+ */
+public class ModelSweep {
+
+  /** Keyword for the list of models. */
+  public static final String MODELS = "cf.models";
+  /** Aggregators through which the master tells that a model stopped. */
+  public static final String STOPPED_AGGREGATOR = "cf.models.stopped";
+
+  private final Configuration conf;
+  private final List<Map<String, String>> overrides;
+  /** Start of the factors of each model, and the total size at the end. */
+  private final int[] offsets;
+
+  private ModelSweep(Configuration conf, List<Map<String, String>> overrides,
+      String vectorSizeParameter, int vectorSizeDefault) {
+    this.conf = conf;
+    this.overrides = overrides;
+    offsets = new int[overrides.size()+1];
+    for (int k=0; k<overrides.size(); k++) {
+      offsets[k+1] = offsets[k] +
+          getInt(k, vectorSizeParameter, vectorSizeDefault);
+    }
+  }
+
+  /**
+   * @param conf
+   * @param vectorSizeParameter name of the parameter of the vector size
+   * @param vectorSizeDefault
+   * @return the models of the job, or null if MODELS is not set
+   */
+  public static ModelSweep get(Configuration conf, String vectorSizeParameter,
+      int vectorSizeDefault) {
+    String models = conf.get(MODELS);
+    if (models == null || models.trim().isEmpty()) {
+      return null;
+    }
+    List<Map<String, String>> overrides = new ArrayList<Map<String, String>>();
+    for (String model : models.split(";")) {
+      Map<String, String> parameters = new HashMap<String, String>();
+      for (String parameter : model.split(",")) {
+        if (parameter.trim().isEmpty()) {
+          continue;
+        }
+        String[] tokens = parameter.split("=", 2);
+        if (tokens.length != 2) {
+          throw new IllegalArgumentException("Wrong model parameter "+
+              parameter+" in "+MODELS);
+        }
+        parameters.put(tokens[0].trim(), tokens[1].trim());
+      }
+      overrides.add(parameters);
+    }
+    return new ModelSweep(conf, overrides, vectorSizeParameter,
+        vectorSizeDefault);
+  }
+
+  /**
+   * @param conf
+   * @param vectorSizeParameter
+   * @param vectorSizeDefault
+   * @return the length of the vertex values, the sum of the vector sizes of
+   * all the models, or the vector size of the job if MODELS is not set
+   */
+  public static int getTotalVectorSize(Configuration conf,
+      String vectorSizeParameter, int vectorSizeDefault) {
+    ModelSweep sweep = get(conf, vectorSizeParameter, vectorSizeDefault);
+    if (sweep == null) {
+      return conf.getInt(vectorSizeParameter, vectorSizeDefault);
+    }
+    return sweep.getTotalVectorSize();
+  }
+
+  public int getNumModels() {
+    return overrides.size();
+  }
+
+  public int getOffset(int model) {
+    return offsets[model];
+  }
+
+  public int getVectorSize(int model) {
+    return offsets[model+1]-offsets[model];
+  }
+
+  public int getTotalVectorSize() {
+    return offsets[offsets.length-1];
+  }
+
+  public float getFloat(int model, String name, float defaultValue) {
+    String value = overrides.get(model).get(name);
+    return value == null ? conf.getFloat(name, defaultValue) :
+      Float.parseFloat(value);
+  }
+
+  /**
+   * Resolves a parameter for every model at once, so that the vertices read
+   * an array instead of parsing the configuration.
+   *
+   * @param name
+   * @param defaultValue
+   * @return the value of the parameter in every model
+   */
+  public float[] getFloats(String name, float defaultValue) {
+    float[] values = new float[getNumModels()];
+    for (int k=0; k<values.length; k++) {
+      values[k] = getFloat(k, name, defaultValue);
+    }
+    return values;
+  }
+
+  public int getInt(int model, String name, int defaultValue) {
+    String value = overrides.get(model).get(name);
+    return value == null ? conf.getInt(name, defaultValue) :
+      Integer.parseInt(value);
+  }
+
+  /**
+   * @param base name of the aggregator of the single model job
+   * @param model
+   * @return the name of the aggregator of a model
+   */
+  public static String aggregatorName(String base, int model) {
+    return base+"."+model;
+  }
+
+  /**
+   * @param usage
+   * @param model
+   * @return whether the master stopped the model
+   */
+  public static boolean isStopped(AggregatorUsage usage, int model) {
+    BooleanWritable stopped = usage.getAggregatedValue(
+        aggregatorName(STOPPED_AGGREGATOR, model));
+    return stopped != null && stopped.get();
+  }
+
+  /**
+   * Registers the RMSE aggregator and the stop flag of every model.
+   *
+   * @param master
+   * @param rmseAggregator
+   */
+  public void registerAggregators(MasterCompute master,
+      String rmseAggregator) throws InstantiationException,
+      IllegalAccessException {
+    for (int k=0; k<getNumModels(); k++) {
+      master.registerAggregator(aggregatorName(rmseAggregator, k),
+          DoubleSumAggregator.class);
+      master.registerPersistentAggregator(aggregatorName(STOPPED_AGGREGATOR, k),
+          BooleanOverwriteAggregator.class);
+    }
+  }
+
+  /**
+   * Updates the RMSE counters of the models that are still running, and
+   * stops those that reached their rmse target or their iterations.
+   *
+   * @return true if every model has stopped
+   */
+  public boolean updateModels(MasterCompute master, String rmseAggregator,
+      String counterGroup, long numRatings, String iterationsParameter,
+      int iterationsDefault, String rmseTargetParameter,
+      float rmseTargetDefault) {
+    boolean allStopped = true;
+    for (int k=0; k<getNumModels(); k++) {
+      if (isStopped(master, k)) {
+        continue;
+      }
+      double rmse = Math.sqrt(((DoubleWritable)master.getAggregatedValue(
+          aggregatorName(rmseAggregator, k))).get() / numRatings);
+      Counters.updateCounter(master.getContext(), counterGroup,
+          "RMSE model "+k+" (x1000)", (long)(1000*rmse));
+
+      float rmseTarget = getFloat(k, rmseTargetParameter, rmseTargetDefault);
+      if ((rmseTarget>0f && rmse<rmseTarget) ||
+          master.getSuperstep()>getInt(k, iterationsParameter,
+              iterationsDefault)) {
+        master.setAggregatedValue(aggregatorName(STOPPED_AGGREGATOR, k),
+            new BooleanWritable(true));
+      } else {
+        allStopped = false;
+      }
+    }
+    return allStopped;
+  }
+}
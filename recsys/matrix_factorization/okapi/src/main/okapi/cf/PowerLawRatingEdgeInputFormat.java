@@ -0,0 +1,123 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package main.okapi.cf;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.giraph.bsp.BspInputSplit;
+import org.apache.giraph.edge.Edge;
+import org.apache.giraph.edge.EdgeFactory;
+import org.apache.giraph.io.EdgeInputFormat;
+import org.apache.giraph.io.EdgeReader;
+import org.apache.giraph.io.formats.PseudoRandomUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+/**
+ * Generates the user-item ratings of a synthetic rating graph, see
+ * {@link PowerLawRatings}, as the input of the CF algorithms instead of
+ * {@link CfLongIdFloatTextInputFormat}. Every rating is an edge from a user
+ * (type 0) to an item (type 1).
+ */
+public class PowerLawRatingEdgeInputFormat extends
+  EdgeInputFormat<CfLongId, FloatWritable> {
+
+  @Override
+  public void checkInputSpecs(Configuration conf) { }
+
+  @Override
+  public final List<InputSplit> getSplits(final JobContext context,
+      final int minSplitCountHint) throws IOException, InterruptedException {
+    return PseudoRandomUtils.getSplits(minSplitCountHint);
+  }
+
+  @Override
+  public EdgeReader<CfLongId, FloatWritable> createEdgeReader(
+      InputSplit split, TaskAttemptContext context) throws IOException {
+    return new PowerLawRatingEdgeReader();
+  }
+
+  /**
+   * Edge reader that generates the ratings of the users of a split.
+   */
+  private static class PowerLawRatingEdgeReader extends
+    EdgeReader<CfLongId, FloatWritable> {
+    /** The generator */
+    private PowerLawRatings generator;
+    /** The first user of the split */
+    private long firstUser;
+    /** The number of users of the split */
+    private long splitUsers;
+    /** The users generated so far */
+    private long usersRead = 0;
+    /** The ratings of the current user */
+    private int degree = 0;
+    /** The next rating of the current user */
+    private int next = 0;
+    private CfLongId user;
+
+    @Override
+    public void initialize(InputSplit inputSplit,
+        TaskAttemptContext context) throws IOException {
+      generator = new PowerLawRatings(getConf());
+      BspInputSplit bspInputSplit = (BspInputSplit) inputSplit;
+      firstUser = generator.getFirstUser(bspInputSplit);
+      splitUsers = generator.getNumUsers(bspInputSplit);
+    }
+
+    @Override
+    public boolean nextEdge() throws IOException, InterruptedException {
+      next++;
+      while (next >= degree) {
+        if (usersRead >= splitUsers) {
+          return false;
+        }
+        long id = firstUser + usersRead;
+        user = new CfLongId((byte)0, id);
+        degree = generator.generate(id);
+        next = 0;
+        usersRead++;
+      }
+      return true;
+    }
+
+    @Override
+    public CfLongId getCurrentSourceId() throws IOException,
+        InterruptedException {
+      return user;
+    }
+
+    @Override
+    public Edge<CfLongId, FloatWritable> getCurrentEdge() throws IOException,
+        InterruptedException {
+      return EdgeFactory.create(
+          new CfLongId((byte)1, generator.getItems()[next]),
+          new FloatWritable(generator.getRatings()[next]));
+    }
+
+    @Override
+    public void close() throws IOException { }
+
+    @Override
+    public float getProgress() throws IOException {
+      return usersRead * 100.0f / splitUsers;
+    }
+  }
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package main.okapi.cf;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.giraph.bsp.BspInputSplit;
+import org.apache.giraph.edge.EdgeFactory;
+import org.apache.giraph.edge.OutEdges;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.io.VertexInputFormat;
+import org.apache.giraph.io.VertexReader;
+import org.apache.giraph.io.formats.PseudoRandomUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+/**
+ * Generates the users of a synthetic rating graph, see
+ * {@link PowerLawRatings}, with their ratings as out-edges to the items. The
+ * graph is the same as the one of {@link PowerLawRatingEdgeInputFormat} for
+ * the same configuration, and the users start with the default value of the
+ * computation.
+ *
+ * @param <V> vertex value
+ */
+public class PowerLawRatingVertexInputFormat<V extends Writable> extends
+  VertexInputFormat<CfLongId, V, FloatWritable> {
+
+  @Override
+  public void checkInputSpecs(Configuration conf) { }
+
+  @Override
+  public final List<InputSplit> getSplits(final JobContext context,
+      final int minSplitCountHint) throws IOException, InterruptedException {
+    return PseudoRandomUtils.getSplits(minSplitCountHint);
+  }
+
+  @Override
+  public VertexReader<CfLongId, V, FloatWritable> createVertexReader(
+      InputSplit split, TaskAttemptContext context) throws IOException {
+    return new PowerLawRatingVertexReader<V>();
+  }
+
+  /**
+   * Vertex reader that generates the users of a split.
+   */
+  private static class PowerLawRatingVertexReader<V extends Writable> extends
+    VertexReader<CfLongId, V, FloatWritable> {
+    /** The generator */
+    private PowerLawRatings generator;
+    /** The first user of the split */
+    private long firstUser;
+    /** The number of users of the split */
+    private long splitUsers;
+    /** The users generated so far */
+    private long usersRead = 0;
+
+    @Override
+    public void initialize(InputSplit inputSplit,
+        TaskAttemptContext context) throws IOException {
+      generator = new PowerLawRatings(getConf());
+      BspInputSplit bspInputSplit = (BspInputSplit) inputSplit;
+      firstUser = generator.getFirstUser(bspInputSplit);
+      splitUsers = generator.getNumUsers(bspInputSplit);
+    }
+
+    @Override
+    public boolean nextVertex() throws IOException, InterruptedException {
+      return splitUsers > usersRead;
+    }
+
+    @Override
+    public Vertex<CfLongId, V, FloatWritable> getCurrentVertex()
+        throws IOException, InterruptedException {
+      long id = firstUser + usersRead;
+      int degree = generator.generate(id);
+      OutEdges<CfLongId, FloatWritable> edges = getConf().createOutEdges();
+      edges.initialize(degree);
+      for (int i=0; i<degree; i++) {
+        edges.add(EdgeFactory.create(
+            new CfLongId((byte)1, generator.getItems()[i]),
+            new FloatWritable(generator.getRatings()[i])));
+      }
+      Vertex<CfLongId, V, FloatWritable> vertex = getConf().createVertex();
+      vertex.initialize(new CfLongId((byte)0, id),
+          getConf().createVertexValue(), edges);
+      ++usersRead;
+      return vertex;
+    }
+
+    @Override
+    public void close() throws IOException { }
+
+    @Override
+    public float getProgress() throws IOException {
+      return usersRead * 100.0f / splitUsers;
+    }
+  }
+}
@@ -0,0 +1,235 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package main.okapi.cf;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+
+import ml.grafos.okapi.common.CounterRandom;
+
+import org.apache.giraph.bsp.BspInputSplit;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Generates a synthetic user-item rating graph that looks like real rating
+ * data, for benchmarks and RMSE regression checks without input files.
+ *
+ * <ul>
+ * <li>The number of ratings of a user is log-normal, with mean
+ * RATINGS_PER_USER and log-scale deviation ACTIVITY_SIGMA.</li>
+ * <li>The items are drawn with a Zipfian popularity of exponent
+ * POPULARITY_EXPONENT, item 0 being the most popular one. The rank is drawn
+ * with the continuous inverse of the distribution, which is close enough to
+ * the discrete one for this purpose and needs no table.</li>
+ * <li>The ratings come from a planted model of rank RANK: the middle of the
+ * rating scale, plus the dot product of Gaussian user and item factors whose
+ * deviation is SIGNAL, plus Gaussian noise of deviation NOISE, clamped to the
+ * rating scale. NOISE is about the RMSE a perfect trainer reaches.</li>
+ * </ul>
+ *
+ * Everything a user or an item draws comes from a {@link CounterRandom}
+ * stream keyed by the seed of the job and the id, so the graph depends on the
+ * seed only, and not on the number of splits or workers.
+ */
+public class PowerLawRatings {
+
+  /** Number of users. */
+  public static final String USERS = "ratingGraph.users";
+  public static final long USERS_DEFAULT = 1000;
+  /** Number of items. */
+  public static final String ITEMS = "ratingGraph.items";
+  public static final long ITEMS_DEFAULT = 1000;
+  /** Mean number of ratings of a user. */
+  public static final String RATINGS_PER_USER = "ratingGraph.ratingsPerUser";
+  public static final float RATINGS_PER_USER_DEFAULT = 20f;
+  /** Deviation of the logarithm of the number of ratings of a user. */
+  public static final String ACTIVITY_SIGMA = "ratingGraph.activitySigma";
+  public static final float ACTIVITY_SIGMA_DEFAULT = 1f;
+  /** Exponent of the Zipfian item popularity. */
+  public static final String POPULARITY_EXPONENT =
+      "ratingGraph.popularityExponent";
+  public static final float POPULARITY_EXPONENT_DEFAULT = 1f;
+  /** Rank of the planted model. */
+  public static final String RANK = "ratingGraph.rank";
+  public static final int RANK_DEFAULT = 5;
+  /** Deviation of the dot product of the planted factors. */
+  public static final String SIGNAL = "ratingGraph.signal";
+  public static final float SIGNAL_DEFAULT = 1f;
+  /** Deviation of the noise added to the ratings. */
+  public static final String NOISE = "ratingGraph.noise";
+  public static final float NOISE_DEFAULT = 0.5f;
+  /** Lowest rating. */
+  public static final String MIN_RATING = "ratingGraph.minRating";
+  public static final float MIN_RATING_DEFAULT = 1f;
+  /** Highest rating. */
+  public static final String MAX_RATING = "ratingGraph.maxRating";
+  public static final float MAX_RATING_DEFAULT = 5f;
+
+  /** Streams of a user or an item. */
+  private static final long ACTIVITY_STREAM = 0;
+  private static final long FACTOR_STREAM = 1;
+  /** Draws per rating before a user gives up on finding a new item. */
+  private static final int MAX_DRAWS = 32;
+
+  private final long numUsers;
+  private final long numItems;
+  private final float mu;
+  private final float sigma;
+  private final float exponent;
+  private final int rank;
+  private final float factorDeviation;
+  private final float noise;
+  private final float minRating;
+  private final float maxRating;
+
+  private final CounterRandom random;
+  private final CounterRandom itemRandom;
+  private final float[] userFactors;
+  private final float[] itemFactors;
+  private final LongSet seen = new LongOpenHashSet();
+  private long[] items = new long[16];
+  private float[] ratings = new float[16];
+
+  public PowerLawRatings(Configuration conf) {
+    numUsers = conf.getLong(USERS, USERS_DEFAULT);
+    numItems = conf.getLong(ITEMS, ITEMS_DEFAULT);
+    sigma = conf.getFloat(ACTIVITY_SIGMA, ACTIVITY_SIGMA_DEFAULT);
+    // The mean of a log-normal is exp(mu+sigma^2/2)
+    mu = (float)Math.log(conf.getFloat(RATINGS_PER_USER,
+        RATINGS_PER_USER_DEFAULT)) - sigma*sigma/2;
+    exponent = conf.getFloat(POPULARITY_EXPONENT,
+        POPULARITY_EXPONENT_DEFAULT);
+    rank = conf.getInt(RANK, RANK_DEFAULT);
+    // The dot product of two vectors of rank coordinates of variance v has
+    // the variance rank*v^2
+    factorDeviation = (float)Math.sqrt(conf.getFloat(SIGNAL, SIGNAL_DEFAULT)
+        / Math.sqrt(rank));
+    noise = conf.getFloat(NOISE, NOISE_DEFAULT);
+    minRating = conf.getFloat(MIN_RATING, MIN_RATING_DEFAULT);
+    maxRating = conf.getFloat(MAX_RATING, MAX_RATING_DEFAULT);
+    if (numUsers <= 0 || numItems <= 0 || rank <= 0) {
+      throw new IllegalArgumentException(USERS + ", " + ITEMS + " and " +
+          RANK + " must be positive");
+    }
+    long seed = CounterRandom.getSeed(conf);
+    random = new CounterRandom(seed);
+    itemRandom = new CounterRandom(seed);
+    userFactors = new float[rank];
+    itemFactors = new float[rank];
+  }
+
+  public long getNumUsers() {
+    return numUsers;
+  }
+
+  public long getNumItems() {
+    return numItems;
+  }
+
+  /**
+   * @param split
+   * @return the first user of a split, the users are shared out evenly
+   */
+  public long getFirstUser(BspInputSplit split) {
+    long extra = numUsers % split.getNumSplits();
+    return split.getSplitIndex() * (numUsers / split.getNumSplits()) +
+        Math.min(split.getSplitIndex(), extra);
+  }
+
+  /**
+   * @param split
+   * @return the number of users of a split
+   */
+  public long getNumUsers(BspInputSplit split) {
+    long users = numUsers / split.getNumSplits();
+    return split.getSplitIndex() < numUsers % split.getNumSplits() ?
+        users+1 : users;
+  }
+
+  /**
+   * Draws the ratings of a user, see {@link #getItems()} and
+   * {@link #getRatings()}.
+   *
+   * @param user
+   * @return the number of ratings of the user
+   */
+  public int generate(long user) {
+    factors(random.reset(CounterRandom.key(user, 0), FACTOR_STREAM),
+        userFactors);
+    random.reset(CounterRandom.key(user, 0), ACTIVITY_STREAM);
+    long degree = Math.round(Math.exp(mu + sigma*random.nextGaussian()));
+    int maxDegree = (int)Math.min(numItems, Integer.MAX_VALUE/2);
+    int wanted = (int)Math.max(1, Math.min(degree, maxDegree));
+    if (items.length < wanted) {
+      items = new long[wanted];
+      ratings = new float[wanted];
+    }
+
+    seen.clear();
+    int n = 0;
+    // The popular items are drawn again and again for the heavy users, so
+    // the draws are bounded and such a user gets fewer ratings
+    for (long draws = 0; n < wanted && draws < (long)MAX_DRAWS*wanted;
+        draws++) {
+      long item = nextItem();
+      if (seen.add(item)) {
+        items[n] = item;
+        ratings[n] = rating(item);
+        n++;
+      }
+    }
+    return n;
+  }
+
+  public long[] getItems() {
+    return items;
+  }
+
+  public float[] getRatings() {
+    return ratings;
+  }
+
+  /**
+   * @return a Zipfian item rank in [0, numItems)
+   */
+  private long nextItem() {
+    double u = random.nextDouble();
+    double x;
+    if (Math.abs(exponent - 1f) < 1e-6f) {
+      x = Math.pow(numItems+1, u);
+    } else {
+      double a = 1d - exponent;
+      x = Math.pow(1d + u*(Math.pow(numItems+1, a) - 1d), 1d/a);
+    }
+    return Math.min(numItems-1, Math.max(0, (long)x - 1));
+  }
+
+  private float rating(long item) {
+    factors(itemRandom.reset(CounterRandom.key(item, 1), FACTOR_STREAM),
+        itemFactors);
+    float r = (minRating+maxRating)/2 + noise*(float)random.nextGaussian();
+    for (int f=0; f<rank; f++) {
+      r += userFactors[f]*itemFactors[f];
+    }
+    return Math.min(maxRating, Math.max(minRating, r));
+  }
+
+  private void factors(CounterRandom stream, float[] factors) {
+    for (int f=0; f<rank; f++) {
+      factors[f] = factorDeviation*(float)stream.nextGaussian();
+    }
+  }
+}
@@ -19,8 +19,17 @@ import java.io.IOException;
 import java.util.Random;
 
 import main.okapi.cf.CfLongId;
+import main.okapi.cf.EarlyStopping;
 import main.okapi.cf.FloatMatrixMessage;
+import main.okapi.cf.HotVertices;
+import main.okapi.cf.ModelSweep;
+import main.okapi.cf.annotations.HyperParameter;
+import main.okapi.cf.annotations.HyperParameterBinder;
+import main.okapi.common.CounterRandom;
 import main.okapi.common.Parameters;
+import main.okapi.common.jblas.FactorArena;
+import main.okapi.common.jblas.FactorHandleWritable;
+import main.okapi.common.jblas.FloatKernels;
 import main.okapi.common.jblas.FloatMatrixWritable;
 import main.okapi.examples.SimpleMasterComputeVertex;
 import main.okapi.utils.Counters;
@@ -35,6 +44,7 @@ import org.apache.giraph.graph.Vertex;
 import org.apache.giraph.master.DefaultMasterCompute;
 import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.LongWritable;
 
 //jblas is a package for linear algebra
 import org.jblas.FloatMatrix;
@@ -44,6 +54,14 @@ import org.jblas.Solve;
 
 /**
  * Alternating Least Squares (ALS) implementation.
+ *
+ * Several models can be trained in the same job, see {@link ModelSweep}.
+ * Items with a very high degree can be split, see {@link HotVertices}; the
+ * mirrors then send the partial sums of A and V to the item.
+ * A fraction of the ratings can be held out to stop on the validation error,
+ * see {@link EarlyStopping}.
+ * With FactorHandleWritable.OFF_HEAP set, the factors are kept off the heap
+ * between supersteps, see {@link FactorHandleWritable}.
  */
 @Algorithm(
   name = "Alternating Least Squares (ALS)",
@@ -78,14 +96,29 @@ public class Als extends BasicComputation<CfLongId, FloatMatrixWritable,
   private static final String NUM_RATINGS_COUNTER = "# ratings";
   private static final String RMSE_COUNTER_GROUP = "RMSE Counters";
   
+  @HyperParameter(parameterName=LAMBDA, description="regularization parameter",
+      defaultValue=LAMBDA_DEFAULT, minimumValue=0.0001f, maximumValue=10)
   private float lambda;
+  @HyperParameter(parameterName=VECTOR_SIZE, description="latent vector size",
+      defaultValue=VECTOR_SIZE_DEFAULT, minimumValue=1, maximumValue=1000)
   private int vectorSize;
+  private ModelSweep sweep;
+  /** Lambda of every model of the sweep. */
+  private float[] modelLambdas;
+  private int hotDegree;
+  private EarlyStopping validation;
+  private boolean offHeap;
   
   @Override
   public void preSuperstep() {
-    lambda = getContext().getConfiguration().getFloat(LAMBDA, LAMBDA_DEFAULT);
-    vectorSize = getContext().getConfiguration().getInt(VECTOR_SIZE, 
-        VECTOR_SIZE_DEFAULT);
+    HyperParameterBinder.forClass(getClass()).bind(this, getConf());
+    sweep = ModelSweep.get(getConf(), VECTOR_SIZE, VECTOR_SIZE_DEFAULT);
+    if (sweep != null) {
+      modelLambdas = sweep.getFloats(LAMBDA, LAMBDA_DEFAULT);
+    }
+    hotDegree = HotVertices.getHotDegree(getConf());
+    validation = EarlyStopping.get(getConf());
+    offHeap = FactorHandleWritable.isEnabled(getConf());
   }
   
   /**
@@ -108,7 +141,43 @@ public class Als extends BasicComputation<CfLongId, FloatMatrixWritable,
   public final void compute(
       Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex, 
       final Iterable<FloatMatrixMessage> messages) {
+    if (offHeap) {
+      FactorHandleWritable handle = FactorHandleWritable.unpark(vertex);
+      computeFactors(vertex, messages);
+      FactorHandleWritable.park(vertex, handle);
+    } else {
+      computeFactors(vertex, messages);
+    }
+  }
+
+  private void computeFactors(
+      Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex, 
+      final Iterable<FloatMatrixMessage> messages) {
     
+    if (hotDegree > 0) {
+      if (HotVertices.isMirror(vertex.getId())) {
+        computeMirror(vertex, messages);
+        return;
+      }
+      if (HotVertices.isMaster(vertex)) {
+        computeMaster(vertex, messages);
+        return;
+      }
+      if (getSuperstep() == 2) {
+        HotVertices.retargetEdges(vertex, messages);
+      }
+    }
+
+    if (sweep != null) {
+      computeModels(vertex, messages);
+      return;
+    }
+
+    if (validation != null) {
+      computeWithValidation(vertex, messages);
+      return;
+    }
+
     FloatMatrix mat_M = new FloatMatrix(vectorSize, vertex.getNumEdges());
     FloatMatrix mat_R = new FloatMatrix(vertex.getNumEdges(), 1);
     
@@ -139,6 +208,214 @@ public class Als extends BasicComputation<CfLongId, FloatMatrixWritable,
     vertex.voteToHalt();
   } 
 
+  /**
+   * Same as compute, but the held-out ratings are left out of the linear
+   * system and scored in the validation aggregators, see
+   * {@link EarlyStopping}.
+   */
+  private void computeWithValidation(
+      Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex, 
+      final Iterable<FloatMatrixMessage> messages) {
+
+    EarlyStopping.snapshotIfBest(this, vertex);
+
+    int numTraining = 0;
+    for (FloatMatrixMessage msg : messages) {
+      if (!validation.isHeldOut(vertex.getId(), msg.getSenderId())) {
+        numTraining++;
+      }
+    }
+
+    FloatMatrix mat_M = new FloatMatrix(vectorSize, numTraining);
+    FloatMatrix mat_R = new FloatMatrix(numTraining, 1);
+    int i=0;
+    for (FloatMatrixMessage msg : messages) {
+      if (!validation.isHeldOut(vertex.getId(), msg.getSenderId())) {
+        mat_M.putColumn(i, msg.getFactors());
+        mat_R.put(i, 0, vertex.getEdgeValue(msg.getSenderId()).get());
+        i++;
+      }
+    }
+
+    if (numTraining > 0) {
+      updateValue(vertex.getValue(), mat_M, mat_R, lambda);
+    }
+
+    double rmsePartialSum = 0d;
+    double validationPartialSum = 0d;
+    long numValidation = 0;
+    for (FloatMatrixMessage msg : messages) {
+      float prediction = vertex.getValue().dot(msg.getFactors());
+      double error = prediction - 
+          vertex.getEdgeValue(msg.getSenderId()).get();
+      if (validation.isHeldOut(vertex.getId(), msg.getSenderId())) {
+        validationPartialSum += (error*error);
+        numValidation++;
+      } else {
+        rmsePartialSum += (error*error);
+      }
+    }
+
+    aggregate(RMSE_AGGREGATOR, new DoubleWritable(rmsePartialSum));
+    aggregate(EarlyStopping.VALIDATION_AGGREGATOR, 
+        new DoubleWritable(validationPartialSum));
+    aggregate(EarlyStopping.VALIDATION_COUNT_AGGREGATOR, 
+        new LongWritable(numValidation));
+
+    sendMessageToAllEdges(vertex, 
+        new FloatMatrixMessage(vertex.getId(), vertex.getValue(), 0.0f));
+    vertex.voteToHalt();
+  }
+
+  /**
+   * Same as compute, for every model of the sweep that is still running.
+   */
+  private void computeModels(
+      Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex, 
+      final Iterable<FloatMatrixMessage> messages) {
+
+    FloatMatrix mat_R = new FloatMatrix(vertex.getNumEdges(), 1);
+    int i=0;
+    for (FloatMatrixMessage msg : messages) {
+      mat_R.put(i, 0, vertex.getEdgeValue(msg.getSenderId()).get());
+      i++;
+    }
+
+    for (int k=0; k<sweep.getNumModels(); k++) {
+      if (ModelSweep.isStopped(this, k)) {
+        continue;
+      }
+      int offset = sweep.getOffset(k);
+      int size = sweep.getVectorSize(k);
+
+      // The factors of model k of every message
+      FloatMatrix mat_M = new FloatMatrix(size, vertex.getNumEdges());
+      i=0;
+      for (FloatMatrixMessage msg : messages) {
+        System.arraycopy(msg.getFactors().data, offset, mat_M.data, i*size,
+            size);
+        i++;
+      }
+
+      FloatMatrix model = new FloatMatrix(size, 1);
+      updateValue(model, mat_M, mat_R, modelLambdas[k]);
+      System.arraycopy(model.data, 0, vertex.getValue().data, offset, size);
+
+      double rmsePartialSum = 0d;
+      for (int j=0; j<mat_M.columns; j++) {
+        float prediction = FloatKernels.dot(model.data, 0, mat_M.data, j*size,
+            size);
+        double error = prediction - mat_R.get(j, 0);
+        rmsePartialSum += (error*error);
+      }
+      aggregate(ModelSweep.aggregatorName(RMSE_AGGREGATOR, k),
+          new DoubleWritable(rmsePartialSum));
+    }
+
+    sendMessageToAllEdges(vertex, 
+        new FloatMatrixMessage(vertex.getId(), vertex.getValue(), 0.0f));
+    
+    vertex.voteToHalt();
+  }
+
+  /**
+   * A mirror of a split item: sends the partial sums M * M^T and M * R of its
+   * users to the item, and forwards the value of the item to its users. The
+   * partial sums are packed as the columns of a |F|x(|F|+1) matrix, the
+   * number of ratings is the score.
+   */
+  private void computeMirror(
+      Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex, 
+      final Iterable<FloatMatrixMessage> messages) {
+
+    CfLongId master = HotVertices.masterId(vertex.getId());
+    FloatMatrixWritable value = vertex.getValue();
+    int numRatings = 0;
+    boolean received = false;
+    for (FloatMatrixMessage msg : messages) {
+      received = true;
+      if (msg.getSenderId().equals(master)) {
+        JavaBlas.rcopy(value.length, msg.getFactors().data, 0, 1, 
+            value.data, 0, 1);
+      } else {
+        numRatings++;
+      }
+    }
+    if (!received) {
+      vertex.voteToHalt();
+      return;
+    }
+
+    if (numRatings > 0) {
+      FloatMatrix mat_M = new FloatMatrix(vectorSize, numRatings);
+      FloatMatrix mat_R = new FloatMatrix(numRatings, 1);
+      int i=0;
+      for (FloatMatrixMessage msg : messages) {
+        if (!msg.getSenderId().equals(master)) {
+          mat_M.putColumn(i, msg.getFactors());
+          mat_R.put(i, 0, vertex.getEdgeValue(msg.getSenderId()).get());
+          i++;
+        }
+      }
+
+      FloatMatrixWritable partial = 
+          new FloatMatrixWritable(vectorSize, vectorSize+1);
+      FloatMatrix mat_A = mat_M.mmul(mat_M.transpose());
+      FloatMatrix mat_V = mat_M.mmul(mat_R);
+      System.arraycopy(mat_A.data, 0, partial.data, 0, mat_A.length);
+      System.arraycopy(mat_V.data, 0, partial.data, mat_A.length, 
+          mat_V.length);
+      sendMessage(master, 
+          new FloatMatrixMessage(vertex.getId(), partial, numRatings));
+
+      double rmsePartialSum = 0d;
+      for (int j=0; j<mat_M.columns; j++) {
+        float prediction = value.dot(mat_M.getColumn(j));
+        double error = prediction - mat_R.get(j, 0);
+        rmsePartialSum += (error*error);
+      }
+      aggregate(RMSE_AGGREGATOR, new DoubleWritable(rmsePartialSum));
+    }
+
+    sendMessageToAllEdges(vertex, 
+        new FloatMatrixMessage(vertex.getId(), value, 0.0f));
+    vertex.voteToHalt();
+  }
+
+  /**
+   * A split item: solves the system made of the partial sums of its mirrors,
+   * and sends the new value to them.
+   */
+  private void computeMaster(
+      Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex, 
+      final Iterable<FloatMatrixMessage> messages) {
+
+    FloatMatrix mat_A = new FloatMatrix(vectorSize, vectorSize);
+    FloatMatrix mat_V = new FloatMatrix(vectorSize, 1);
+    float numRatings = 0f;
+    for (FloatMatrixMessage msg : messages) {
+      float[] partial = msg.getFactors().data;
+      for (int j=0; j<mat_A.length; j++) {
+        mat_A.data[j] += partial[j];
+      }
+      for (int j=0; j<mat_V.length; j++) {
+        mat_V.data[j] += partial[mat_A.length+j];
+      }
+      numRatings += msg.getScore();
+    }
+
+    if (numRatings > 0) {
+      mat_A.addi(FloatMatrix.eye(vectorSize).muli(lambda*numRatings));
+      FloatMatrix mat_U = Solve.solve(mat_A, mat_V);
+      JavaBlas.rcopy(mat_U.length, mat_U.data, 0, 1, 
+          vertex.getValue().data, 0, 1);
+    }
+
+    sendMessageToAllEdges(vertex, 
+        new FloatMatrixMessage(vertex.getId(), vertex.getValue(), 0.0f));
+    vertex.voteToHalt();
+  }
+
   protected void updateValue(FloatMatrix value, FloatMatrix mat_M, 
       FloatMatrix mat_R, final float lambda) {
     
@@ -161,14 +438,26 @@ public class Als extends BasicComputation<CfLongId, FloatMatrixWritable,
   public static class InitUsersComputation extends BasicComputation<CfLongId, 
   FloatMatrixWritable, FloatWritable, FloatMatrixMessage> {
 
+    private CounterRandom random;
+
+    @Override
+    public void preSuperstep() {
+      random = CounterRandom.fromConf(getConf());
+      EarlyStopping.clear();
+      if (FactorHandleWritable.isEnabled(getConf())) {
+        FactorArena.clear();
+      }
+    }
+
     @Override
     public void compute(Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex,
         Iterable<FloatMatrixMessage> messages) throws IOException {
       
       FloatMatrixWritable vector = 
-          new FloatMatrixWritable(getContext().getConfiguration().getInt(
-          VECTOR_SIZE, VECTOR_SIZE_DEFAULT));
-      Random randGen = new Random();
+          new FloatMatrixWritable(ModelSweep.getTotalVectorSize(
+          getContext().getConfiguration(), VECTOR_SIZE, VECTOR_SIZE_DEFAULT));
+      Random randGen = random.reset(CounterRandom.key(
+          vertex.getId().getId(), vertex.getId().getType()), getSuperstep());
       for (int i=0; i<vector.length; i++) {
         vector.put(i, 0.01f*randGen.nextFloat());
       }
@@ -194,14 +483,22 @@ public class Als extends BasicComputation<CfLongId, FloatMatrixWritable,
   FloatMatrixWritable, FloatWritable, FloatMatrixMessage,
   FloatMatrixMessage> {
 
+    private CounterRandom random;
+
+    @Override
+    public void preSuperstep() {
+      random = CounterRandom.fromConf(getConf());
+    }
+
     @Override
     public void compute(Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex,
         Iterable<FloatMatrixMessage> messages) throws IOException {
       
       FloatMatrixWritable vector = 
-          new FloatMatrixWritable(getContext().getConfiguration().getInt(
-          VECTOR_SIZE, VECTOR_SIZE_DEFAULT));
-      Random randGen = new Random();
+          new FloatMatrixWritable(ModelSweep.getTotalVectorSize(
+          getContext().getConfiguration(), VECTOR_SIZE, VECTOR_SIZE_DEFAULT));
+      Random randGen = random.reset(CounterRandom.key(
+          vertex.getId().getId(), vertex.getId().getType()), getSuperstep());
       for (int i=0; i<vector.length; i++) {
         vector.put(i, 0.01f*randGen.nextFloat());
       }
@@ -216,25 +513,83 @@ public class Als extends BasicComputation<CfLongId, FloatMatrixWritable,
       }
       
       // The score does not matter at this point.
-      sendMessageToAllEdges(vertex, 
-          new FloatMatrixMessage(vertex.getId(), vertex.getValue(), 0.0f));
+      int hotDegree = HotVertices.getHotDegree(getConf());
+      if (hotDegree > 0 && vertex.getNumEdges() > hotDegree) {
+        HotVertices.split(this, vertex, hotDegree, vertex.getValue(), 0.0f);
+      } else {
+        sendMessageToAllEdges(vertex, 
+            new FloatMatrixMessage(vertex.getId(), vertex.getValue(), 0.0f));
+      }
       
       vertex.voteToHalt();
     }
   }
   
+  /**
+   * Puts back the factors of the best superstep when the job stops on the
+   * validation error, see {@link EarlyStopping}.
+   */
+  public static class RestoreComputation extends 
+  EarlyStopping.RestoreComputation<FloatMatrixWritable, FloatMatrixMessage> {
+
+    @Override
+    protected FloatMatrixMessage wakeUpMessage(
+        Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex) {
+      return new FloatMatrixMessage(vertex.getId(), vertex.getValue(), 0.0f);
+    }
+  }
+
+  /**
+   * Removes the mirrors of the split items when the job stops, see
+   * {@link HotVertices}.
+   */
+  public static class DropMirrorsComputation extends 
+  HotVertices.DropMirrorsComputation<FloatMatrixWritable, FloatMatrixMessage> {
+
+    @Override
+    protected FloatMatrixMessage wakeUpMessage(
+        Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex) {
+      return new FloatMatrixMessage(vertex.getId(), vertex.getValue(), 0.0f);
+    }
+  }
+
   /**
    * MasterCompute used with {@link SimpleMasterComputeVertex}.
    */
   public static class MasterCompute extends DefaultMasterCompute {
     private int maxIterations;
     private float rmseTarget;
+    private ModelSweep sweep;
+    private EarlyStopping validation;
+    private int hotDegree;
+    private long dropSuperstep = -1;
 
     @Override
     public final void initialize() throws InstantiationException,
         IllegalAccessException {
 
       registerAggregator(RMSE_AGGREGATOR, DoubleSumAggregator.class);
+      HotVertices.registerAggregators(this);
+      hotDegree = HotVertices.getHotDegree(getContext().getConfiguration());
+      sweep = ModelSweep.get(getContext().getConfiguration(), VECTOR_SIZE,
+          VECTOR_SIZE_DEFAULT);
+      if (sweep != null) {
+        if (HotVertices.getHotDegree(getContext().getConfiguration()) > 0) {
+          throw new IllegalArgumentException(ModelSweep.MODELS + 
+              " cannot be combined with " + HotVertices.HOT_DEGREE);
+        }
+        sweep.registerAggregators(this, RMSE_AGGREGATOR);
+      }
+      validation = EarlyStopping.get(getContext().getConfiguration());
+      if (validation != null) {
+        if (sweep != null ||
+            HotVertices.getHotDegree(getContext().getConfiguration()) > 0) {
+          throw new IllegalArgumentException(
+              EarlyStopping.VALIDATION_FRACTION + " cannot be combined with " +
+              ModelSweep.MODELS + " or " + HotVertices.HOT_DEGREE);
+        }
+        validation.registerAggregators(this);
+      }
       maxIterations = getContext().getConfiguration().getInt(ITERATIONS,
           ITERATIONS_DEFAULT);
       rmseTarget = getContext().getConfiguration().getFloat(RMSE_TARGET,
@@ -244,6 +599,20 @@ public class Als extends BasicComputation<CfLongId, FloatMatrixWritable,
     @Override
     public final void compute() {
       long superstep = getSuperstep();
+      if (validation != null && validation.isRestoring()) {
+        setComputation(RestoreComputation.class);
+        if (validation.isRestored(this)) {
+          haltComputation();
+        }
+        return;
+      }
+      if (dropSuperstep >= 0) {
+        setComputation(DropMirrorsComputation.class);
+        if (superstep >= dropSuperstep+3) {
+          haltComputation();
+        }
+        return;
+      }
       if (superstep == 0) {
         setComputation(InitUsersComputation.class);
       } else if (superstep == 1) {
@@ -259,7 +628,24 @@ public class Als extends BasicComputation<CfLongId, FloatMatrixWritable,
       if (getSuperstep() <= 2) {
         numRatings = getTotalNumEdges();
       } else {
-        numRatings = getTotalNumEdges() / 2;
+        numRatings = HotVertices.getNumRatings(this);
+      }
+
+      if (sweep != null) {
+        Counters.updateCounter(getContext(), 
+            COUNTER_GROUP, NUM_RATINGS_COUNTER, numRatings);
+        if (superstep>2 && sweep.updateModels(this, RMSE_AGGREGATOR,
+            COUNTER_GROUP, numRatings, ITERATIONS, ITERATIONS_DEFAULT,
+            RMSE_TARGET, RMSE_TARGET_DEFAULT)) {
+          haltComputation();
+        }
+        return;
+      }
+
+      boolean stop = false;
+      if (validation != null) {
+        stop = validation.update(this, COUNTER_GROUP);
+        numRatings -= validation.getNumHeldOut();
       }
 
       rmse = Math.sqrt(((DoubleWritable)getAggregatedValue(RMSE_AGGREGATOR))
@@ -278,8 +664,18 @@ public class Als extends BasicComputation<CfLongId, FloatMatrixWritable,
           COUNTER_GROUP, NUM_RATINGS_COUNTER, numRatings);
 
       if (rmseTarget>0f && rmse<rmseTarget) {
-        haltComputation();
+        stop = true;
       } else if (getSuperstep()>maxIterations) {
+        stop = true;
+      }
+
+      if (stop && validation != null) {
+        validation.startRestore(this);
+        setComputation(RestoreComputation.class);
+      } else if (stop && hotDegree > 0) {
+        dropSuperstep = superstep;
+        setComputation(DropMirrorsComputation.class);
+      } else if (stop) {
         haltComputation();
       }
     }
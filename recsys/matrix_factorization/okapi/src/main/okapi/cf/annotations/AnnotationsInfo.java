@@ -98,6 +98,7 @@ public class AnnotationsInfo {
 							parJSON.put("defaultValue", hp.defaultValue());
 							parJSON.put("minimumValue", hp.minimumValue());
 							parJSON.put("maximumValue", hp.maximumValue());
+							parJSON.put("tunable", hp.tunable());
 							parameters.add(parJSON);
 					}
 				}
@@ -25,4 +25,5 @@ public @interface HyperParameter {
 	float defaultValue(); //default parameter value
 	float minimumValue(); //minimum value parameter can take (for automatic search)
 	float maximumValue(); //maximum value parameter can take (for automatic search)
+	boolean tunable() default true; //false for settings of the data (e.g. rating bounds) that automatic search must not touch
 }
@@ -0,0 +1,192 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package main.okapi.cf.annotations;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.log4j.Logger;
+
+/**
+ * Sets the fields annotated with {@link HyperParameter} from the job
+ * configuration.
+ *
+ * The class hierarchy is walked with reflection only once per class, the
+ * result is a plan of method handles kept in a static cache. The configuration
+ * strings are parsed only once per configuration object, so binding a
+ * computation in every preSuperstep() costs a few field writes.
+ *
+ * Supported field types are int, float and double (or their boxed types).
+ */
+public final class HyperParameterBinder {
+
+  private static final Logger logger =
+      Logger.getLogger(HyperParameterBinder.class);
+
+  private static final ConcurrentHashMap<Class<?>, HyperParameterBinder>
+  BINDERS = new ConcurrentHashMap<Class<?>, HyperParameterBinder>();
+
+  private static final int INT = 0;
+  private static final int FLOAT = 1;
+  private static final int DOUBLE = 2;
+
+  private final HyperParameter[] parameters;
+  private final MethodHandle[] setters;
+  private final int[] types;
+
+  /** Values parsed for the last configuration seen. */
+  private volatile ParsedValues parsed;
+
+  private static final class ParsedValues {
+    private final Configuration conf;
+    private final double[] values;
+
+    private ParsedValues(Configuration conf, double[] values) {
+      this.conf = conf;
+      this.values = values;
+    }
+  }
+
+  private HyperParameterBinder(Class<?> cl) {
+    List<HyperParameter> parameterList = new ArrayList<HyperParameter>();
+    List<MethodHandle> setterList = new ArrayList<MethodHandle>();
+    List<Integer> typeList = new ArrayList<Integer>();
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    //traverse through all the class hierarchy
+    for (Class<?> c = cl; c != null; c = c.getSuperclass()) {
+      for (Field field : c.getDeclaredFields()) {
+        HyperParameter hp = field.getAnnotation(HyperParameter.class);
+        if (hp == null) {
+          continue;
+        }
+        int type;
+        Class<?> primitive;
+        if (field.getType() == int.class || field.getType() == Integer.class) {
+          type = INT;
+          primitive = int.class;
+        } else if (field.getType() == float.class ||
+            field.getType() == Float.class) {
+          type = FLOAT;
+          primitive = float.class;
+        } else if (field.getType() == double.class ||
+            field.getType() == Double.class) {
+          type = DOUBLE;
+          primitive = double.class;
+        } else {
+          throw new IllegalArgumentException(
+              "We support ints, floats and doubles as the parameters");
+        }
+        try {
+          field.setAccessible(true);
+          setterList.add(lookup.unreflectSetter(field).asType(
+              MethodType.methodType(void.class, Object.class, primitive)));
+        } catch (IllegalAccessException e) {
+          throw new IllegalArgumentException(e);
+        }
+        parameterList.add(hp);
+        typeList.add(type);
+      }
+    }
+    parameters = parameterList.toArray(new HyperParameter[0]);
+    setters = setterList.toArray(new MethodHandle[0]);
+    types = new int[typeList.size()];
+    for (int i=0; i<types.length; i++) {
+      types[i] = typeList.get(i);
+    }
+  }
+
+  /**
+   * @param cl
+   * @return the cached binder of the class
+   */
+  public static HyperParameterBinder forClass(Class<?> cl) {
+    HyperParameterBinder binder = BINDERS.get(cl);
+    if (binder == null) {
+      binder = new HyperParameterBinder(cl);
+      HyperParameterBinder previous = BINDERS.putIfAbsent(cl, binder);
+      if (previous != null) {
+        binder = previous;
+      }
+    }
+    return binder;
+  }
+
+  /**
+   * Sets the annotated fields of the target from the configuration, or to
+   * their default value when the configuration does not define them.
+   *
+   * @param target
+   * @param conf
+   */
+  public void bind(Object target, Configuration conf) {
+    double[] values = values(conf);
+    try {
+      for (int i=0; i<setters.length; i++) {
+        switch (types[i]) {
+        case INT:
+          setters[i].invokeExact(target, (int)values[i]);
+          break;
+        case FLOAT:
+          setters[i].invokeExact(target, (float)values[i]);
+          break;
+        default:
+          setters[i].invokeExact(target, values[i]);
+        }
+      }
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  private double[] values(Configuration conf) {
+    ParsedValues current = parsed;
+    if (current != null && current.conf == conf) {
+      return current.values;
+    }
+    double[] values = new double[parameters.length];
+    for (int i=0; i<parameters.length; i++) {
+      HyperParameter hp = parameters[i];
+      String param = conf.get(hp.parameterName());
+      if (null == param) {
+        values[i] = hp.defaultValue();
+        logger.debug("Could not get parameter "+hp.parameterName()+
+            " from the custom arguments, setting to default."+
+            hp.defaultValue());
+      } else {
+        try {
+          values[i] = types[i] == DOUBLE ?
+              Double.parseDouble(param) : Float.parseFloat(param);
+        } catch (NumberFormatException e) {
+          throw new IllegalArgumentException(e);
+        }
+      }
+      if (types[i] == INT) {
+        values[i] = (int)values[i];
+      }
+      logger.info(hp.parameterName()+"="+values[i]);
+    }
+    parsed = new ParsedValues(conf, values);
+    return values;
+  }
+}
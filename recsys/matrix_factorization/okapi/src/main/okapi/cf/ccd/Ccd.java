@@ -0,0 +1,366 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package main.okapi.cf.ccd;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Random;
+
+import ml.grafos.okapi.cf.CfLongId;
+import ml.grafos.okapi.cf.annotations.HyperParameter;
+import ml.grafos.okapi.cf.annotations.HyperParameterBinder;
+import ml.grafos.okapi.common.CounterRandom;
+import ml.grafos.okapi.common.Parameters;
+import ml.grafos.okapi.common.jblas.FloatMatrixWritable;
+import ml.grafos.okapi.utils.Counters;
+
+import org.apache.giraph.Algorithm;
+import org.apache.giraph.aggregators.DoubleSumAggregator;
+import org.apache.giraph.edge.DefaultEdge;
+import org.apache.giraph.edge.Edge;
+import org.apache.giraph.graph.BasicComputation;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.master.DefaultMasterCompute;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * Cyclic Coordinate Descent (CCD++) implementation.
+ *
+ * H.-F. Yu, C.-J. Hsieh, S. Si, I. Dhillon. Scalable Coordinate Descent
+ * Approaches to Parallel Matrix Factorization for Recommender Systems.
+ * ICDM 2012.
+ *
+ * The factors are updated one feature at a time, as a sequence of rank-one
+ * problems. Every rating edge keeps the residual R = A - U*V^T instead of the
+ * rating, so that updating feature t of a vertex costs O(#edges) scalar
+ * operations:<br>
+ *  R' = R + u_t * v_t (the residual without feature t)<br>
+ *  u_t = sum(R' * v_t) / (LAMBDA * N + sum(v_t^2))<br>
+ *  R = R' - u_t * v_t<br>
+ * <br>
+ * The regularization is weighted by the number of ratings N as in
+ * {@link ml.grafos.okapi.cf.als.Als}, so the same LAMBDA gives the same model.
+ *
+ * Users update feature t in one superstep and items in the next, so an
+ * iteration over all the features takes 2*dim supersteps. Every message
+ * carries two floats: the old and the new value of the feature of the user,
+ * or the new value of the feature of the item and the current value of its
+ * next feature. Users start from zero factors, so the initial residual is the
+ * rating itself.
+ *
+ * The residuals are looked up by sender, so with high degree vertices an
+ * out-edges class with random access, such as
+ * {@link org.apache.giraph.edge.HashMapEdges}, should be used.
+ */
+@Algorithm(
+  name = "Cyclic Coordinate Descent (CCD++)",
+  description = "Matrix Factorization Algorithm: "
+    + "It Minimizes the error in users preferences predictions")
+public class Ccd extends BasicComputation<CfLongId, FloatMatrixWritable,
+  FloatWritable, Ccd.CcdMessage> {
+
+  /** RMSE target to reach. */
+  public static final String RMSE_TARGET = "rmse";
+  /** Default value of RMSE target. */
+  public static final float RMSE_TARGET_DEFAULT = -1f;
+  /** Keyword for parameter setting the number of iterations. */
+  public static final String ITERATIONS = "iterations";
+  /** Default value for ITERATIONS. */
+  public static final int ITERATIONS_DEFAULT = 10;
+  /** Keyword for parameter setting the regularization parameter LAMBDA. */
+  public static final String LAMBDA = "lambda";
+  /** Default value for LABDA. */
+  public static final float LAMBDA_DEFAULT = 0.01f;
+  /** Keyword for parameter setting the Latent Vector Size. */
+  public static final String VECTOR_SIZE = "dim";
+  /** Default value for vector size. */
+  public static final int VECTOR_SIZE_DEFAULT = 50;
+
+  /** Aggregator used to compute the RMSE */
+  public static final String RMSE_AGGREGATOR = "ccd.rmse.aggregator";
+
+  private static final String COUNTER_GROUP = "CCD Counters";
+  private static final String RMSE_COUNTER = "RMSE (x1000)";
+  private static final String NUM_RATINGS_COUNTER = "# ratings";
+  private static final String RMSE_COUNTER_GROUP = "RMSE Counters";
+
+  @HyperParameter(parameterName=LAMBDA, description="regularization parameter",
+      defaultValue=LAMBDA_DEFAULT, minimumValue=0.0001f, maximumValue=10)
+  private float lambda;
+  @HyperParameter(parameterName=VECTOR_SIZE, description="latent vector size",
+      defaultValue=VECTOR_SIZE_DEFAULT, minimumValue=1, maximumValue=1000)
+  private int vectorSize;
+
+  /**
+   * The message of an update: the sender and two values of its factors.
+   */
+  public static class CcdMessage implements Writable {
+    private CfLongId senderId = new CfLongId();
+    private float first;
+    private float second;
+
+    public CcdMessage() {}
+
+    public CcdMessage(CfLongId senderId, float first, float second) {
+      this.senderId = senderId;
+      this.first = first;
+      this.second = second;
+    }
+
+    public CfLongId getSenderId() { return senderId; }
+    public float getFirst() { return first; }
+    public float getSecond() { return second; }
+
+    @Override
+    public void readFields(DataInput input) throws IOException {
+      senderId.readFields(input);
+      first = input.readFloat();
+      second = input.readFloat();
+    }
+
+    @Override
+    public void write(DataOutput output) throws IOException {
+      senderId.write(output);
+      output.writeFloat(first);
+      output.writeFloat(second);
+    }
+
+    @Override
+    public String toString() {
+      return "[" + senderId + "] " + first + " " + second;
+    }
+  }
+
+  @Override
+  public void preSuperstep() {
+    HyperParameterBinder.forClass(getClass()).bind(this, getConf());
+  }
+
+  /**
+   * Main CCD++ compute method. Users and items take turns, each superstep
+   * updates one feature of one side.
+   *
+   * @param messages Messages received
+   */
+  public final void compute(
+      Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex,
+      final Iterable<CcdMessage> messages) {
+    long phase = getSuperstep()-2;
+    int feature = (int)((phase/2) % vectorSize);
+    float[] factors = vertex.getValue().data;
+
+    if (vertex.getId().getType() == 0) {
+      // Users: the edges hold R', the residual without the previous feature,
+      // until the new item values of that feature arrive.
+      int previous = (feature+vectorSize-1) % vectorSize;
+      float oldValue = factors[feature];
+      float numerator = 0f;
+      float denominator = 0f;
+      for (CcdMessage msg : messages) {
+        float residual = vertex.getEdgeValue(msg.getSenderId()).get();
+        if (phase > 0) {
+          residual -= factors[previous]*msg.getFirst();
+        }
+        float v = msg.getSecond();
+        residual += oldValue*v;
+        vertex.setEdgeValue(msg.getSenderId(), new FloatWritable(residual));
+        numerator += residual*v;
+        denominator += v*v;
+      }
+      factors[feature] = updateFeature(numerator, denominator,
+          vertex.getNumEdges(), lambda);
+      sendMessageToAllEdges(vertex,
+          new CcdMessage(vertex.getId(), oldValue, factors[feature]));
+    } else {
+      // Items: the edges hold the residual R.
+      float oldValue = factors[feature];
+      float numerator = 0f;
+      float denominator = 0f;
+      for (CcdMessage msg : messages) {
+        float residual = vertex.getEdgeValue(msg.getSenderId()).get() +
+            msg.getFirst()*oldValue;
+        float u = msg.getSecond();
+        numerator += residual*u;
+        denominator += u*u;
+      }
+      float newValue = updateFeature(numerator, denominator,
+          vertex.getNumEdges(), lambda);
+      factors[feature] = newValue;
+
+      double rmsePartialSum = 0d;
+      for (CcdMessage msg : messages) {
+        float residual = vertex.getEdgeValue(msg.getSenderId()).get() +
+            msg.getFirst()*oldValue - msg.getSecond()*newValue;
+        vertex.setEdgeValue(msg.getSenderId(), new FloatWritable(residual));
+        rmsePartialSum += residual*residual;
+      }
+      // The residual is exact after the last feature of an iteration
+      if (feature == vectorSize-1) {
+        aggregate(RMSE_AGGREGATOR, new DoubleWritable(rmsePartialSum));
+      }
+
+      sendMessageToAllEdges(vertex, new CcdMessage(vertex.getId(), newValue,
+          factors[(feature+1) % vectorSize]));
+    }
+    vertex.voteToHalt();
+  }
+
+  /**
+   * Solves the one variable least squares problem of a feature.
+   *
+   * @param numerator sum of the residuals times the factors of the neighbors
+   * @param denominator sum of the squared factors of the neighbors
+   * @param numRatings
+   * @param lambda
+   * @return the new value of the feature
+   */
+  protected float updateFeature(float numerator, float denominator,
+      int numRatings, float lambda) {
+    return numerator / (lambda*numRatings + denominator);
+  }
+
+  /**
+   * This computation class is used to initialize the factors of the user nodes
+   * to zero in the very first superstep, and send the ratings to the items.
+   */
+  public static class InitUsersComputation extends BasicComputation<CfLongId,
+  FloatMatrixWritable, FloatWritable, CcdMessage> {
+
+    @Override
+    public void compute(Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex,
+        Iterable<CcdMessage> messages) throws IOException {
+      vertex.setValue(new FloatMatrixWritable(getContext().getConfiguration()
+          .getInt(VECTOR_SIZE, VECTOR_SIZE_DEFAULT)));
+
+      for (Edge<CfLongId, FloatWritable> edge : vertex.getEdges()) {
+        sendMessage(edge.getTargetVertexId(),
+            new CcdMessage(vertex.getId(), edge.getValue().get(), 0f));
+      }
+      vertex.voteToHalt();
+    }
+  }
+
+  /**
+   * This computation class is used to initialize the factors of the item nodes
+   * in the second superstep. Every item also creates the edges that point to
+   * the users that have rated the item, and sends the value of its first
+   * feature.
+   */
+  public static class InitItemsComputation extends BasicComputation<CfLongId,
+  FloatMatrixWritable, FloatWritable, CcdMessage> {
+
+    private CounterRandom random;
+
+    @Override
+    public void preSuperstep() {
+      random = CounterRandom.fromConf(getConf());
+    }
+
+    @Override
+    public void compute(Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex,
+        Iterable<CcdMessage> messages) throws IOException {
+      FloatMatrixWritable vector =
+          new FloatMatrixWritable(getContext().getConfiguration().getInt(
+          VECTOR_SIZE, VECTOR_SIZE_DEFAULT));
+      Random randGen = random.reset(CounterRandom.key(
+          vertex.getId().getId(), vertex.getId().getType()), getSuperstep());
+      for (int i=0; i<vector.length; i++) {
+        vector.put(i, 0.01f*randGen.nextFloat());
+      }
+      vertex.setValue(vector);
+
+      for (CcdMessage msg : messages) {
+        DefaultEdge<CfLongId, FloatWritable> edge =
+            new DefaultEdge<CfLongId, FloatWritable>();
+        edge.setTargetVertexId(msg.getSenderId());
+        // The user factors are zero, the residual is the rating.
+        edge.setValue(new FloatWritable(msg.getFirst()));
+        vertex.addEdge(edge);
+      }
+
+      // There is no previous feature to correct yet.
+      sendMessageToAllEdges(vertex,
+          new CcdMessage(vertex.getId(), 0f, vector.get(0)));
+      vertex.voteToHalt();
+    }
+  }
+
+  /**
+   * Coordinates the execution of the algorithm. An iteration updates every
+   * feature once, that is 2*dim supersteps.
+   */
+  public static class MasterCompute extends DefaultMasterCompute {
+    private int maxIterations;
+    private float rmseTarget;
+    private int vectorSize;
+
+    @Override
+    public final void initialize() throws InstantiationException,
+        IllegalAccessException {
+
+      registerAggregator(RMSE_AGGREGATOR, DoubleSumAggregator.class);
+      maxIterations = getContext().getConfiguration().getInt(ITERATIONS,
+          ITERATIONS_DEFAULT);
+      rmseTarget = getContext().getConfiguration().getFloat(RMSE_TARGET,
+          RMSE_TARGET_DEFAULT);
+      vectorSize = getContext().getConfiguration().getInt(VECTOR_SIZE,
+          VECTOR_SIZE_DEFAULT);
+    }
+
+    @Override
+    public final void compute() {
+      long superstep = getSuperstep();
+      if (superstep == 0) {
+        setComputation(InitUsersComputation.class);
+        return;
+      } else if (superstep == 1) {
+        setComputation(InitItemsComputation.class);
+        return;
+      }
+      setComputation(Ccd.class);
+
+      // The RMSE is aggregated by the items after the last feature
+      long phase = superstep-2;
+      if (phase == 0 || phase % (2*vectorSize) != 0) {
+        return;
+      }
+      long iteration = phase / (2*vectorSize);
+      long numRatings = getTotalNumEdges() / 2;
+      double rmse = Math.sqrt(((DoubleWritable)getAggregatedValue(
+          RMSE_AGGREGATOR)).get() / numRatings);
+
+      if (Parameters.DEBUG.get(getContext().getConfiguration())) {
+        Counters.updateCounter(getContext(), RMSE_COUNTER_GROUP,
+            "Iteration "+iteration, (long)(1000*rmse));
+      }
+
+      // Update the Hadoop counters
+      Counters.updateCounter(getContext(),
+          COUNTER_GROUP, RMSE_COUNTER, (long)(1000*rmse));
+      Counters.updateCounter(getContext(),
+          COUNTER_GROUP, NUM_RATINGS_COUNTER, numRatings);
+
+      if (rmseTarget>0f && rmse<rmseTarget) {
+        haltComputation();
+      } else if (iteration>=maxIterations) {
+        haltComputation();
+      }
+    }
+  }
+}
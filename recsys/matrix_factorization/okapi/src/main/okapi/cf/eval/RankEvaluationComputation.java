@@ -24,6 +24,8 @@ import java.util.Random;
 import ml.grafos.okapi.aggregators.FloatAvgAggregator;
 import ml.grafos.okapi.cf.CfLongId;
 import ml.grafos.okapi.cf.FloatMatrixMessage;
+import ml.grafos.okapi.common.CounterRandom;
+import ml.grafos.okapi.common.jblas.FloatKernels;
 import ml.grafos.okapi.common.jblas.FloatMatrixWritable;
 
 import org.apache.giraph.edge.Edge;
@@ -51,6 +53,13 @@ FloatMatrixWritable, BooleanWritable, FloatMatrixMessage>{
 
   private static final String AVG_PRECISION_AGGREGATOR = "precision.avg";
 
+  private CounterRandom random;
+
+  @Override
+  public void preSuperstep() {
+    random = CounterRandom.fromConf(getConf());
+  }
+
   @Override
   public void compute(
       Vertex<CfLongId, FloatMatrixWritable, BooleanWritable> vertex,
@@ -109,7 +118,8 @@ FloatMatrixWritable, BooleanWritable, FloatMatrixMessage>{
       Iterable<FloatMatrixMessage> messages) {
     if (vertex.getId().isItem()){//only items send messages
       for(FloatMatrixMessage msg : messages){
-        float score = msg.getFactors().dot(vertex.getValue());
+        float score = FloatKernels.dot(msg.getFactors().data,
+            vertex.getValue().data, vertex.getValue().length);
         FloatMatrixMessage msgToSendBack = 
             new FloatMatrixMessage(vertex.getId(), emptyList, score);
         sendMessage(msg.getSenderId(), msgToSendBack);
@@ -129,6 +139,8 @@ FloatMatrixWritable, BooleanWritable, FloatMatrixMessage>{
   public void sampleIrrelevantEdges(
       Vertex<CfLongId, FloatMatrixWritable, BooleanWritable> vertex) {
     if (vertex.getId().isUser()){//only users
+      random.reset(CounterRandom.key(vertex.getId().getId(),
+          vertex.getId().getType()), getSuperstep());
       Iterable<Edge<CfLongId, BooleanWritable>> edges = vertex.getEdges();
       HashSet<CfLongId> relevant = new HashSet<CfLongId>();
       for (Edge<CfLongId, BooleanWritable> e : edges) {
@@ -142,7 +154,7 @@ FloatMatrixWritable, BooleanWritable, FloatMatrixMessage>{
   }
 
   protected CfLongId getRandomItemId(HashSet<CfLongId> relevant) {
-    Random r = new Random();
+    Random r = random;
     int top = (int)(maxItemId-minItemId)+1;
     int i = r.nextInt(top)+(int)minItemId;
     CfLongId randId = new CfLongId((byte)1, i);
@@ -16,14 +16,15 @@
 package main.okapi.cf.ranking;
 
 import java.io.IOException;
-import java.lang.annotation.Annotation;
-import java.lang.reflect.Field;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Random;
 
 import ml.grafos.okapi.cf.CfLongId;
 import ml.grafos.okapi.cf.FloatMatrixMessage;
 import ml.grafos.okapi.cf.annotations.HyperParameter;
+import ml.grafos.okapi.cf.annotations.HyperParameterBinder;
+import ml.grafos.okapi.common.CounterRandom;
 import ml.grafos.okapi.common.jblas.FloatMatrixWritable;
 
 import org.apache.giraph.edge.Edge;
@@ -72,8 +73,18 @@ public abstract class AbstractCFRankingComputation
     @HyperParameter(parameterName="reg", description="regularizer", defaultValue=0.01f, minimumValue=0.00011f, maximumValue=2)
     float reg;
 	
-    private boolean parametersParsed = false;
-    
+    //Reusable buffers holding the messages received by a user in a superstep.
+    //A computation object is used by a single thread, so they are safe to reuse.
+    int numBuffered; //number of messages currently buffered
+    int bufferDim; //length of each buffered factor vector
+    float[] bufferFactors = new float[0]; //factors of message k at [k*bufferDim, (k+1)*bufferDim)
+    CfLongId[] bufferIds = new CfLongId[0];
+    boolean[] bufferRelevant = new boolean[0];
+    float[] bufferScores = new float[0]; //U_m.dot(V_k) for every buffered message k
+    float[] bufferCoefficients = new float[0]; //per message scalar weights
+    float[] gradient = new float[0];
+    CounterRandom random; //sampling stream, reset for every user
+
 	/**
 	 * A default constructor that does not do a thing.
 	 */
@@ -101,8 +112,6 @@ public abstract class AbstractCFRankingComputation
 	@Override
     public void compute(Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex, Iterable<FloatMatrixMessage> messages) throws IOException {
 	    long iteration = getSuperstep()/4;
-	    logger.debug("Setting Configuration params");
-        setConfigurationParameters();
         initFactorsIfNeeded(vertex);
 	    if (iteration < iter){
 	        if (getSuperstep() % 4 == 0){ //initial cycle of iteration where user samples and asks for factors
@@ -139,58 +148,21 @@ public abstract class AbstractCFRankingComputation
 		}
 	}
 
-	protected synchronized void setConfigurationParameters()
-	throws IOException {
-		if (this.parametersParsed)
-			return;
+	/**
+	 * Binds the parameters once per superstep instead of in every compute call.
+	 * The reflective walk over the class hierarchy is done once per class by
+	 * {@link HyperParameterBinder}, see {@link HyperParameter}.
+	 */
+	@Override
+	public void preSuperstep() {
 		//required
 		minItemId = Integer.parseInt(getConf().get("minItemId"));
 		maxItemId = Integer.parseInt(getConf().get("maxItemId"));
-		
-		//optional (with defaults), traverse through all the class hierarhy and add parameters
-		Class subclass = this.getClass();
-		Class superclass = subclass.getSuperclass();
-		while (superclass != null) {
-			 setParametersForClass(subclass);
-	         subclass = superclass;
-	         superclass = subclass.getSuperclass();
-	      }
-		this.parametersParsed = true;
+		//optional (with defaults)
+		HyperParameterBinder.forClass(getClass()).bind(this, getConf());
+		random = CounterRandom.fromConf(getConf());
 	}
 
-	private void setParametersForClass(Class cl) {
-		for(Field field : cl.getDeclaredFields()){
-			if (field.isAnnotationPresent(HyperParameter.class)){
-				for(Annotation annotation : field.getDeclaredAnnotations()){
-					if (annotation instanceof HyperParameter){
-							HyperParameter hp = (HyperParameter)annotation;
-							String param = getConf().get(hp.parameterName());
-							if (null == param){
-								param = ""+hp.defaultValue();
-								logger.debug("Could not get parameter "+hp.parameterName()+" from the custom arguments, setting to default."+hp.defaultValue());
-							}
-							try{
-								logger.info(hp.parameterName()+"="+param);
-								if (field.getType() == int.class || field.getType() == Integer.class){
-									field.setInt(this, (int)Float.parseFloat(param));
-								}else if (field.getType() == Float.class || field.getType() == float.class){
-									field.setFloat(this, Float.parseFloat(param));
-								}else if (field.getType() == Double.class || field.getType() == double.class){
-									field.setDouble(this, Double.parseDouble(param));
-								}else{
-									throw new IllegalArgumentException("We support ints, floats and doubles as the parameters");
-								}
-							}catch (Exception e) {
-								throw new IllegalArgumentException(e);
-							}
-							
-					}
-				}
-			}
-		}
-	}
-
-	
 	public int getMinItemId() {
 		return minItemId;
 	}
@@ -266,6 +238,7 @@ public abstract class AbstractCFRankingComputation
 	protected void sampleRelevantAndIrrelevantEdges(
 			Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex) {
 		if (vertex.getId().isUser()) {// only users
+			random.reset(CounterRandom.key(vertex.getId().getId(), vertex.getId().getType()), getSuperstep());
 			Iterable<Edge<CfLongId, FloatWritable>> edges = vertex.getEdges();
 			HashSet<CfLongId> relevant = new HashSet<CfLongId>();
 			
@@ -297,7 +270,7 @@ public abstract class AbstractCFRankingComputation
      * @return
      */
 	protected CfLongId getRandomItemId(HashSet<CfLongId> relevant) {
-	    Random r = new Random();
+	    Random r = random;
 	    int top = (maxItemId-minItemId)+1;
 	    long i = r.nextInt(top)+minItemId;
         CfLongId randId = new CfLongId((byte)1, i);
@@ -313,6 +286,100 @@ public abstract class AbstractCFRankingComputation
 	    return randId;
 	}
 
+    /**
+     * Copies the factors, sender ids and relevance flags of all the messages into the reusable buffers.
+     * The message iterable is traversed only once, afterwards all the pairwise terms of a method
+     * can be derived from the buffered scalars without touching the messages again.
+     * @param messages
+     * @return the number of buffered messages
+     */
+    int bufferMessages(Iterable<FloatMatrixMessage> messages) {
+        numBuffered = 0;
+        for (FloatMatrixMessage msg : messages) {
+            FloatMatrix factors = msg.getFactors();
+            if (numBuffered == 0){
+                bufferDim = factors.length;
+            }
+            ensureBufferCapacity(numBuffered + 1);
+            System.arraycopy(factors.data, 0, bufferFactors, numBuffered * bufferDim, bufferDim);
+            CfLongId sender = msg.getSenderId();
+            bufferIds[numBuffered] = new CfLongId(sender.getType(), sender.getId());
+            bufferRelevant[numBuffered] = isRelevant(msg);
+            numBuffered++;
+        }
+        if (gradient.length < bufferDim){
+            gradient = new float[bufferDim];
+        }
+        return numBuffered;
+    }
+
+    private void ensureBufferCapacity(int size) {
+        if (bufferIds.length >= size && bufferFactors.length >= size * bufferDim){
+            return;
+        }
+        int capacity = Math.max(size, 2 * bufferIds.length);
+        float[] factors = new float[capacity * bufferDim];
+        System.arraycopy(bufferFactors, 0, factors, 0, Math.min(bufferFactors.length, numBuffered * bufferDim));
+        bufferFactors = factors;
+        CfLongId[] ids = new CfLongId[capacity];
+        System.arraycopy(bufferIds, 0, ids, 0, numBuffered);
+        bufferIds = ids;
+        boolean[] relevant = new boolean[capacity];
+        System.arraycopy(bufferRelevant, 0, relevant, 0, numBuffered);
+        bufferRelevant = relevant;
+        bufferScores = new float[capacity];
+        bufferCoefficients = new float[capacity];
+    }
+
+    /**
+     * Computes the score u.dot(V_k) of every buffered message once. O(B*dim).
+     * @param u
+     */
+    void scoreBufferedMessages(FloatMatrix u) {
+        float[] ud = u.data;
+        for (int k = 0; k < numBuffered; k++){
+            int offset = k * bufferDim;
+            float score = 0;
+            for (int f = 0; f < bufferDim; f++){
+                score += ud[f] * bufferFactors[offset + f];
+            }
+            bufferScores[k] = score;
+        }
+    }
+
+    /**
+     * Writes sum_k{bufferCoefficients[k] * V_k} into the gradient buffer. O(B*dim).
+     */
+    void combineBufferedFactors() {
+        Arrays.fill(gradient, 0, bufferDim, 0f);
+        for (int k = 0; k < numBuffered; k++){
+            float c = bufferCoefficients[k];
+            if (c == 0){
+                continue;
+            }
+            int offset = k * bufferDim;
+            for (int f = 0; f < bufferDim; f++){
+                gradient[f] += c * bufferFactors[offset + f];
+            }
+        }
+    }
+
+    /**
+     * Builds the factor update c*u - reg*V_k for the buffered item k.
+     * @param k
+     * @param u
+     * @param c
+     * @return
+     */
+    FloatMatrix itemUpdate(int k, FloatMatrix u, float c) {
+        FloatMatrix update = new FloatMatrix(bufferDim);
+        int offset = k * bufferDim;
+        for (int f = 0; f < bufferDim; f++){
+            update.data[f] = c * u.data[f] - reg * bufferFactors[offset + f];
+        }
+        return update;
+    }
+
     static float logf(double x){
         return 1.0f/(1+(float)Math.exp(-x));
     }
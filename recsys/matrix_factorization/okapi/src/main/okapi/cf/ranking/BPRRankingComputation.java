@@ -21,6 +21,7 @@ import java.util.Iterator;
 import ml.grafos.okapi.cf.CfLongId;
 import ml.grafos.okapi.cf.FloatMatrixMessage;
 import ml.grafos.okapi.cf.annotations.OkapiAutotuning;
+import ml.grafos.okapi.common.jblas.FloatKernels;
 import ml.grafos.okapi.common.jblas.FloatMatrixWritable;
 
 import org.apache.giraph.graph.Vertex;
@@ -116,6 +117,29 @@ public class BPRRankingComputation extends AbstractCFRankingComputation{
                              FloatMatrix j, CfLongId itemJid,
                              Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex) {
 
+        FloatMatrix uDelta = FloatMatrix.zeros(u.rows);
+        FloatMatrix iDelta = FloatMatrix.zeros(u.rows);
+        FloatMatrix jDelta = FloatMatrix.zeros(u.rows);
+        computeUpdates(u, i, j, uDelta, iDelta, jDelta);
+        //do the real update
+        applyUpdate(uDelta, vertex);
+        sendItemFactorsUpdate(itemIid, vertex.getId(), iDelta);
+        sendItemFactorsUpdate(itemJid, vertex.getId(), jDelta);
+    }
+
+    /**
+     * Computes the updates of the user and of the two items for one sampled
+     * triple. The deltas must be zero on entry.
+     * @param u - column vector of user factors
+     * @param i - column vector of item 1 factors
+     * @param j - column vector of item 2 factors
+     * @param uDelta - receives the update of the user
+     * @param iDelta - receives the update of item 1
+     * @param jDelta - receives the update of item 2
+     */
+    void computeUpdates(FloatMatrix u, FloatMatrix i, FloatMatrix j,
+                        FloatMatrix uDelta, FloatMatrix iDelta, FloatMatrix jDelta) {
+
         int ITEM_BIAS_INDEX = 0;
 
         float x_uij = i.get(ITEM_BIAS_INDEX) - j.get(ITEM_BIAS_INDEX) + rowScalarProductWithRowDifference(u, i, j);
@@ -127,29 +151,20 @@ public class BPRRankingComputation extends AbstractCFRankingComputation{
         float newIBias = (learnRate * updateI);
         float newJBias = (learnRate * updateJ);
 
-        FloatMatrix uDelta = FloatMatrix.zeros(u.rows);
-        FloatMatrix iDelta = FloatMatrix.zeros(u.rows);
-        FloatMatrix jDelta = FloatMatrix.zeros(u.rows);
         uDelta.put(ITEM_BIAS_INDEX, 0); //because it is update for user, it should never update 1 into something else. therefore 0.
         iDelta.put(ITEM_BIAS_INDEX, newIBias);
         jDelta.put(ITEM_BIAS_INDEX, newJBias);
 
-        // adjust factors
-        for (int f = 1; f < d+1; f++){
-            float w_uf = u.get(f);
-            float h_if = i.get(f);
-            float h_jf = j.get(f);
-            float update = (h_if - h_jf) * one_over_one_plus_ex - reg * w_uf;
-            uDelta.put(f, learnRate * update);
-            update = w_uf * one_over_one_plus_ex - reg * h_if;
-            iDelta.put(f, learnRate * update);
-            update = -w_uf * one_over_one_plus_ex - reg * h_jf;
-            jDelta.put(f, learnRate * update);
-        }
-        //do the real update
-        applyUpdate(uDelta, vertex);
-        sendItemFactorsUpdate(itemIid, vertex.getId(), iDelta);
-        sendItemFactorsUpdate(itemJid, vertex.getId(), jDelta);
+        // adjust factors 1..d, index 0 holds the biases
+        float step = learnRate * one_over_one_plus_ex;
+        float shrink = -learnRate * reg;
+        FloatKernels.axpy(step, i.data, 1, uDelta.data, 1, d);
+        FloatKernels.axpy(-step, j.data, 1, uDelta.data, 1, d);
+        FloatKernels.axpy(shrink, u.data, 1, uDelta.data, 1, d);
+        FloatKernels.axpy(step, u.data, 1, iDelta.data, 1, d);
+        FloatKernels.axpy(shrink, i.data, 1, iDelta.data, 1, d);
+        FloatKernels.axpy(-step, u.data, 1, jDelta.data, 1, d);
+        FloatKernels.axpy(shrink, j.data, 1, jDelta.data, 1, d);
     }
 
     /**
@@ -164,9 +179,9 @@ public class BPRRankingComputation extends AbstractCFRankingComputation{
      * @return
      */
     private float rowScalarProductWithRowDifference(FloatMatrix u, FloatMatrix i, FloatMatrix j) {
-        FloatMatrix ret = u.mul(i.sub(j));
-        ret.put(0, 0);
-        return ret.sum();
+        int n = u.length - 1;
+        return FloatKernels.dot(u.data, 1, i.data, 1, n)
+            - FloatKernels.dot(u.data, 1, j.data, 1, n);
     }
 
     public static <T> ArrayList<T> copyIterator(Iterable<T> iter) {
@@ -61,6 +61,8 @@ public class
 
     protected static final Logger logger = Logger.getLogger(ClimfRankingComputation.class);
 
+    float[] itemSums = new float[0]; //scalar that multiplies u in each item update
+
     public void computeModelUpdates(
             Vertex<CfLongId,FloatMatrixWritable,FloatWritable> vertex,
             Iterable<FloatMatrixMessage> messages) {
@@ -72,6 +74,11 @@ public class
 
     /**
      * Updates the model based on the factors received.
+     *
+     * All the scores u.dot(V_j) are computed once, the pairwise terms over (j, k) are then
+     * derived from those scalars. The user gradient sum_j sum_k w_jk (V_j - V_k) is expanded
+     * into a coefficient per item, so the factors are combined only once.
+     *
      * @param u   Model parameters for user u
      * @param messages
      * @param vertex  Current user vertex
@@ -79,51 +86,59 @@ public class
     private void updateModel(FloatMatrix u,
                              Iterable<FloatMatrixMessage> messages,
                              Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex) {
-        //Compute User update
-        double tempdiff;
-        FloatMatrix uDelta = FloatMatrix.zeros(u.columns);
-        FloatMatrix partialOneDelta;
-        FloatMatrix partialTwoDelta = FloatMatrix.zeros(u.columns);
-
-        for (FloatMatrixMessage msg : messages) {
-            FloatMatrix V_j = msg.getFactors();
-            float fij = u.dot(V_j);
-            partialOneDelta = V_j.mul(logf(-1.0f*fij));
-            for (FloatMatrixMessage msginner : messages) {
-                FloatMatrix V_k = msginner.getFactors();
-                tempdiff = fij - u.dot(V_k);
-                partialTwoDelta = V_j.sub(V_k).mul(logfd(tempdiff)/(1-logf(tempdiff)));
-            }
-            uDelta.addi(partialOneDelta);
-            uDelta.addi(partialTwoDelta);
+        int n = bufferMessages(messages);
+        computeGradients(u, n);
 
+        //Compute Item Updates
+        for (int j = 0; j < n; j++) {
+            FloatMatrix vDelta = itemUpdate(j, u, itemSums[j]).muli(learnRate);
+            sendItemFactorsUpdate(bufferIds[j], vertex.getId(), vDelta);
         }
-        uDelta.sub(u.mul(reg));
-        uDelta.mul(learnRate);
 
-        //Compute Item Updates
-        for (FloatMatrixMessage msg : messages) {
-            FloatMatrix vDelta = FloatMatrix.zeros(u.columns);
-            FloatMatrix V_j = msg.getFactors();
-            CfLongId Itemid = msg.getSenderId();
-            float fij = u.dot(V_j);
-            float partialSumOne = logf(-1.0*fij);
-            float partialSumTwo = 0;
-            for (FloatMatrixMessage msginner : messages) {
-                FloatMatrix V_k = msginner.getFactors();
-                tempdiff = fij - u.dot(V_k);
-                partialSumTwo += logfd(tempdiff)*(1.0/(1.0-logf(-1.0*tempdiff)) - 1.0/(1.0 - logf(tempdiff) ) );
-            }
+        //do the user update
+        for (int f = 0; f < bufferDim; f++) {
+            u.data[f] += gradient[f];
+        }
+    }
 
-            vDelta.add(u.mul(partialSumTwo + partialSumOne));
-            vDelta.add(V_j.mul(reg));
-            vDelta.mul(learnRate);
+    /**
+     * Computes the user step into the gradient buffer and the scalar of every
+     * item update into itemSums, from the buffered messages.
+     *
+     * @param u   Model parameters for user u
+     * @param n   number of buffered messages
+     */
+    void computeGradients(FloatMatrix u, int n) {
+        scoreBufferedMessages(u);
+        if (itemSums.length < n){
+            itemSums = new float[bufferScores.length];
+        }
 
-            sendItemFactorsUpdate(Itemid, vertex.getId(), vDelta);
+        //Compute the scalar terms of the user and item gradients
+        for (int j = 0; j < n; j++) {
+            float partialSumOne = logf(-1.0*bufferScores[j]);
+            bufferCoefficients[j] = partialSumOne;
+            itemSums[j] = partialSumOne;
+        }
+        for (int j = 0; j < n; j++) {
+            float fij = bufferScores[j];
+            float partialSumTwo = 0;
+            for (int k = 0; k < n; k++) {
+                double tempdiff = fij - bufferScores[k];
+                float gd = logfd(tempdiff);
+                float weight = gd/(1-logf(tempdiff));
+                bufferCoefficients[j] += weight;
+                bufferCoefficients[k] -= weight;
+                partialSumTwo += gd*(1.0/(1.0-logf(-1.0*tempdiff)) - 1.0/(1.0 - logf(tempdiff) ) );
+            }
+            itemSums[j] += partialSumTwo;
         }
 
-        //do the user update
-        applyUpdate(uDelta, vertex);
+        //Compute User update
+        combineBufferedFactors();
+        for (int f = 0; f < bufferDim; f++) {
+            gradient[f] = learnRate * (gradient[f] - reg * u.data[f]);
+        }
     }
 
     @Override
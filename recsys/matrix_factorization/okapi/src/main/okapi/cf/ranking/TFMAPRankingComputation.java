@@ -15,6 +15,8 @@
  */
 package main.okapi.cf.ranking;
 
+import java.util.Arrays;
+
 import ml.grafos.okapi.cf.CfLongId;
 import ml.grafos.okapi.cf.FloatMatrixMessage;
 import ml.grafos.okapi.cf.annotations.OkapiAutotuning;
@@ -53,91 +55,104 @@ public class TFMAPRankingComputation extends AbstractCFRankingComputation{
             Iterable<FloatMatrixMessage> buffer) {
         if (vertex.getId().isUser()){
             //each user should receive exactly 2K messages, where K is the number of relevant items.
+            int n = bufferMessages(buffer);
+            int y_m = 0; //the counter \sum_i^M{y_{mi}}
+            for (int k = 0; k < n; k++){
+                if (bufferRelevant[k]){
+                    y_m++;
+                }
+            }
+            if (y_m == 0){
+                return;
+            }
 
             //1. I will update the user factors using the relevant items.
-            FloatMatrix updateUser = updateUser(buffer, vertex);
-            applyUpdate(updateUser.mul(learnRate), vertex);
+            FloatMatrix U_m = vertex.getValue();
+            scoreBufferedMessages(U_m);
+            updateUser(U_m, n, y_m);
+            float[] u = U_m.data;
+            for (int f = 0; f < bufferDim; f++){
+                u[f] += learnRate * gradient[f];
+            }
 
             //2. I will compute updates for the items and send the updates to the items to update themselves.
-            for (FloatMatrixMessage msg : buffer) {
-                FloatMatrix update = updateItem(msg.getFactors(), vertex.getValue(), buffer);
-                sendItemFactorsUpdate(msg.getSenderId(), vertex.getId(), update);
+            //The items are updated against the new user factors, so the scores are computed again.
+            scoreBufferedMessages(U_m);
+            float sum_g_mj = 0; //\sum_j{y_{mj} g(f_{mj})} does not depend on i
+            for (int j = 0; j < n; j++){
+                if (bufferRelevant[j]){
+                    sum_g_mj += logf(bufferScores[j]);
+                }
             }
-        }
-    }
-
-    private FloatMatrix updateItem(FloatMatrix V_i,
-                                               FloatMatrix U_m,
-                                               Iterable<FloatMatrixMessage> buffer) {
-
-        int y_mi = 0; //replacement for sum{y_{mi}}
-        float f_mi = U_m.dot(V_i);
-        float buffer_sum = 0;
-        for (FloatMatrixMessage msgJ : buffer) {
-            if (isRelevant(msgJ)){
-                y_mi++;
-                FloatMatrix V_j = msgJ.getFactors();
-                buffer_sum += logfd(f_mi) * logf(dot_of_difference(U_m, V_j, V_i)) +
-                        ( logf(U_m.dot(V_j)) - logf(f_mi) * logfd(dot_of_difference(U_m, V_j, V_i)));
+            for (int i = 0; i < n; i++) {
+                FloatMatrix update = itemUpdate(i, U_m, updateItem(i, n, sum_g_mj) / y_m);
+                sendItemFactorsUpdate(bufferIds[i], vertex.getId(), update);
             }
         }
-        FloatMatrix newV_i = U_m.mul(buffer_sum/y_mi).add(V_i.mul(-reg));
-        return newV_i;
     }
 
     /**
+     * Computes the scalar that multiplies U_m in the update of the buffered item i.
+     * Works only on the precomputed scores, therefore it costs O(B).
      *
-     *
-     * @param buffer contains relevant and irrelevant items.
-     * @param vertex
+     * @param i index of the item in the buffer
+     * @param n number of buffered messages
+     * @param sum_g_mj \sum_j{y_{mj} g(f_{mj})}
      * @return
      */
-    private FloatMatrix updateUser(Iterable<FloatMatrixMessage> buffer,
-                                               Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex) {
-        int y_mi = 0; //the counter \sum_i^M{y_{mi}}
-        FloatMatrix U_m = vertex.getValue();//current U_m factors
-        FloatMatrix newU = FloatMatrix.zeros(U_m.columns);//the new U_m factor
-        for (FloatMatrixMessage msgI : buffer) {//first sum;
-            if (isRelevant(msgI)){//replacement of y_{mi}
-                y_mi++;
-                FloatMatrix V_i = msgI.getFactors();
-                FloatMatrix deltaV_i = V_i.mul(computeDelta(U_m, V_i, buffer));//[\delta \elementwise V_i
-                float gf_mi = logf(U_m.dot(V_i)); //g(f_{mi})
-                FloatMatrix V_sum = FloatMatrix.zeros(V_i.columns); //where we store the second sum which runs over j
-                for (FloatMatrixMessage msgJ : buffer) {
-                    if (isRelevant(msgJ)){//replacement of y_{mj}
-                        FloatMatrix V_j = msgJ.getFactors();
-                        V_sum = V_sum.add(V_j.mul(logfd( dot_of_difference(U_m, V_j, V_i)) ));
-                    }
-                }
-                newU = deltaV_i.add(V_sum.add(gf_mi));
+    float updateItem(int i, int n, float sum_g_mj) {
+        float f_mi = bufferScores[i];
+        float gf_mi = logf(f_mi);
+        float gdf_mi = logfd(f_mi);
+        float first = 0;
+        float second = 0;
+        for (int j = 0; j < n; j++) {
+            if (bufferRelevant[j]){
+                double f_mji = bufferScores[j] - f_mi;
+                first += logf(f_mji);
+                second += logfd(f_mji);
             }
         }
-        return newU.mul(1.0f/y_mi).add(U_m.mul(-reg));
+        return gdf_mi * first + sum_g_mj - gf_mi * second;
     }
 
     /**
-     * Substitution for delta abotve eq.8.
-     * @param v_i
-     * @param messages
-     * @return
+     * Computes the gradient of the user factors into the gradient buffer.
+     *
+     * The gradient is \sum_i y_{mi} [g'(f_{mi}) \sum_j y_{mj} g(f_{mji}) V_i
+     *   + g(f_{mi}) \sum_j y_{mj} g'(f_{mji})(V_j-V_i)] / y_m - reg U_m,
+     * where f_{mji} = f_{mj}-f_{mi}. The inner sum over j is expanded into per item
+     * coefficients, so the pairwise work is scalar and the factors are combined once.
+     *
+     * @param U_m current user factors
+     * @param n number of buffered messages, the scores must be already computed
+     * @param y_m number of relevant messages
      */
-    private float computeDelta(FloatMatrix m_i, FloatMatrix v_i, Iterable<FloatMatrixMessage> messages) {
-        float f_mi = m_i.dot(v_i);
-        float first = 0;
-        float second = 0;
-        for (FloatMatrixMessage msgJ : messages) {
-            if(isRelevant(msgJ)){
-                FloatMatrix v_j = msgJ.getFactors();
-                first += logf(dot_of_difference(m_i, v_j, v_i));
-                second += logfd(dot_of_difference(m_i, v_j, v_i));
+    void updateUser(FloatMatrix U_m, int n, int y_m) {
+        Arrays.fill(bufferCoefficients, 0, n, 0f);
+        for (int i = 0; i < n; i++) {//first sum;
+            if (bufferRelevant[i]){//replacement of y_{mi}
+                float f_mi = bufferScores[i];
+                float gf_mi = logf(f_mi); //g(f_{mi})
+                float first = 0;
+                float weights = 0;
+                for (int j = 0; j < n; j++) {
+                    if (bufferRelevant[j]){//replacement of y_{mj}
+                        double f_mji = bufferScores[j] - f_mi;
+                        float gd = logfd(f_mji);
+                        first += logf(f_mji);
+                        bufferCoefficients[j] += gf_mi * gd;
+                        weights += gf_mi * gd;
+                    }
+                }
+                //g'(f_{mi}) first V_i, and the -V_i of the sum over j
+                bufferCoefficients[i] += logfd(f_mi) * first - weights;
             }
         }
-        return logfd(f_mi) * first + logf(f_mi) * second;
-    }
-
-    private double dot_of_difference(FloatMatrix m_i, FloatMatrix v_j, FloatMatrix v_i) {
-        return m_i.dot(v_j) - m_i.dot(v_i);
+        combineBufferedFactors();
+        for (int f = 0; f < bufferDim; f++){
+            gradient[f] = gradient[f] / y_m - reg * U_m.data[f];
+        }
     }
 
     @Override
@@ -0,0 +1,268 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package main.okapi.cf.sgd;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ml.grafos.okapi.cf.CfLongId;
+import ml.grafos.okapi.cf.FloatMatrixMessage;
+import ml.grafos.okapi.cf.HotVertices;
+import ml.grafos.okapi.cf.ModelSweep;
+import ml.grafos.okapi.cf.annotations.HyperParameter;
+import ml.grafos.okapi.cf.annotations.HyperParameterBinder;
+import ml.grafos.okapi.common.Parameters;
+import ml.grafos.okapi.common.computation.Instrumentation;
+import ml.grafos.okapi.common.computation.InstrumentedComputation;
+import ml.grafos.okapi.common.jblas.FloatKernels;
+import ml.grafos.okapi.common.jblas.FloatMatrixWritable;
+import ml.grafos.okapi.utils.Counters;
+
+import org.apache.giraph.Algorithm;
+import org.apache.giraph.aggregators.DoubleSumAggregator;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.edge.Edge;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.master.DefaultMasterCompute;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.FloatWritable;
+
+/**
+ * Stochastic Gradient Descent with in-worker Gauss-Seidel updates.
+ *
+ * Under {@link Sgd} every update uses the factors the neighbors sent in the
+ * previous superstep, and users and items update in alternate supersteps.
+ * Here both sides update in every superstep, and a vertex reads the factors
+ * of the neighbors that live on the same worker directly from their vertex
+ * value, so it sees their latest update, possibly from this very superstep.
+ * Only the neighbors on other workers go through messages: a vertex sends
+ * its factors only to them, and keeps the factors it last received from each
+ * of them. This is the execution of the asynchronous engine of GraphLab,
+ * restricted to the vertices of a worker.
+ *
+ * The values of the vertices of a worker are shared between the compute
+ * threads without locks, as in Hogwild: a vertex may read the factors of a
+ * neighbor while another thread updates them. A vertex is known to be local
+ * once it has computed in this worker, so this assumes that the partitions
+ * stay in memory and that the vertices do not move between workers. The
+ * factors received from the other workers are not part of the checkpoints,
+ * so the master rejects checkpointing.
+ *
+ * The input, the initialization and the output are the ones of {@link Sgd}.
+ * An iteration is one superstep, in which every rating is visited from both
+ * ends.
+ */
+@Algorithm(
+    name = "Asynchronous in-worker SGD",
+    description = "Minimizes the error in users preferences predictions")
+public class AsyncSgd extends InstrumentedComputation<CfLongId,
+  FloatMatrixWritable, FloatWritable, FloatMatrixMessage, FloatMatrixMessage> {
+
+  /** Aggregator used to compute the RMSE */
+  public static final String RMSE_AGGREGATOR = "async.sgd.rmse.aggregator";
+
+  private static final String COUNTER_GROUP = "Async SGD Counters";
+  private static final String RMSE_COUNTER = "RMSE (x1000)";
+  private static final String NUM_RATINGS_COUNTER = "# ratings";
+  private static final String RMSE_COUNTER_GROUP = "RMSE Counters";
+
+  /** The values of the vertices of this worker. */
+  private static final Map<CfLongId, FloatMatrixWritable> LOCAL =
+      new ConcurrentHashMap<CfLongId, FloatMatrixWritable>();
+  /** The factors last received by every vertex of this worker. */
+  private static final Map<CfLongId, Map<CfLongId, FloatMatrixWritable>>
+  REMOTE = new ConcurrentHashMap<CfLongId,
+  Map<CfLongId, FloatMatrixWritable>>();
+
+  @HyperParameter(parameterName=Sgd.LAMBDA,
+      description="regularization parameter",
+      defaultValue=Sgd.LAMBDA_DEFAULT, minimumValue=0.0001f, maximumValue=10)
+  private float lambda;
+  @HyperParameter(parameterName=Sgd.GAMMA, description="learning rate",
+      defaultValue=Sgd.GAMMA_DEFAULT, minimumValue=0.0001f, maximumValue=1)
+  private float gamma;
+  @HyperParameter(parameterName=Sgd.MIN_RATING, description="minimum rating",
+      defaultValue=Sgd.MIN_RATING_DEFAULT, minimumValue=-Float.MAX_VALUE,
+      maximumValue=Float.MAX_VALUE, tunable=false)
+  private float minRating;
+  @HyperParameter(parameterName=Sgd.MAX_RATING, description="maximum rating",
+      defaultValue=Sgd.MAX_RATING_DEFAULT, minimumValue=-Float.MAX_VALUE,
+      maximumValue=Float.MAX_VALUE, tunable=false)
+  private float maxRating;
+
+  @Override
+  public void preSuperstep() {
+    super.preSuperstep();
+    HyperParameterBinder.forClass(getClass()).bind(this, getConf());
+  }
+
+  @Override
+  public void computeVertex(
+      Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex,
+      Iterable<FloatMatrixMessage> messages) throws IOException {
+
+    FloatMatrixWritable value = vertex.getValue();
+    CfLongId id = new CfLongId(vertex.getId().getType(),
+        vertex.getId().getId());
+    if (!LOCAL.containsKey(id)) {
+      LOCAL.put(id, value);
+    }
+    Map<CfLongId, FloatMatrixWritable> remote = REMOTE.get(id);
+    if (remote == null) {
+      remote = new HashMap<CfLongId, FloatMatrixWritable>();
+      REMOTE.put(id, remote);
+    }
+    for (FloatMatrixMessage msg : messages) {
+      remote.put(new CfLongId(msg.getSenderId().getType(),
+          msg.getSenderId().getId()), msg.getFactors());
+    }
+
+    for (Edge<CfLongId, FloatWritable> edge : vertex.getEdges()) {
+      FloatMatrixWritable factors = neighbor(edge.getTargetVertexId(), remote);
+      if (factors == null) {
+        continue;
+      }
+      float predicted = FloatKernels.clamp(FloatKernels.dot(value.data,
+          factors.data, value.length), minRating, maxRating);
+      float err = predicted - edge.getValue().get();
+      FloatKernels.scaledAdd(1f - gamma*lambda, value.data, -gamma*err,
+          factors.data, value.length);
+    }
+
+    // Every rating is counted once, by its user
+    if (vertex.getId().isUser()) {
+      double rmsePartialSum = 0d;
+      for (Edge<CfLongId, FloatWritable> edge : vertex.getEdges()) {
+        FloatMatrixWritable factors = neighbor(edge.getTargetVertexId(),
+            remote);
+        if (factors == null) {
+          continue;
+        }
+        float predicted = FloatKernels.clamp(FloatKernels.dot(value.data,
+            factors.data, value.length), minRating, maxRating);
+        float err = predicted - edge.getValue().get();
+        rmsePartialSum += err*err;
+      }
+      aggregate(RMSE_AGGREGATOR, new DoubleWritable(rmsePartialSum));
+    }
+
+    // The local neighbors read the value directly
+    FloatMatrixMessage msg = new FloatMatrixMessage(id, value, 0.0f);
+    for (Edge<CfLongId, FloatWritable> edge : vertex.getEdges()) {
+      if (!LOCAL.containsKey(edge.getTargetVertexId())) {
+        sendMessage(edge.getTargetVertexId(), msg);
+      }
+    }
+    // The vertex stays active, the master stops the job
+  }
+
+  /**
+   * @param neighbor
+   * @param remote the factors received by the vertex
+   * @return the current factors of a local neighbor, or the last received
+   * ones of a remote neighbor
+   */
+  private static FloatMatrixWritable neighbor(CfLongId neighbor,
+      Map<CfLongId, FloatMatrixWritable> remote) {
+    FloatMatrixWritable factors = LOCAL.get(neighbor);
+    return factors != null ? factors : remote.get(neighbor);
+  }
+
+  /**
+   * Initializes the users as {@link Sgd}, and drops the values of a previous
+   * job that ran in the same JVM.
+   */
+  public static class InitUsersComputation extends Sgd.InitUsersComputation {
+
+    @Override
+    public void preSuperstep() {
+      super.preSuperstep();
+      LOCAL.clear();
+      REMOTE.clear();
+    }
+  }
+
+  /**
+   * Coordinates the execution of the algorithm.
+   */
+  public static class MasterCompute extends DefaultMasterCompute {
+    private int maxIterations;
+    private float rmseTarget;
+
+    @Override
+    public final void initialize() throws InstantiationException,
+        IllegalAccessException {
+      registerAggregator(RMSE_AGGREGATOR, DoubleSumAggregator.class);
+      Instrumentation.registerAggregators(this);
+      if (ModelSweep.get(getContext().getConfiguration(), Sgd.VECTOR_SIZE,
+          Sgd.VECTOR_SIZE_DEFAULT) != null ||
+          HotVertices.getHotDegree(getContext().getConfiguration()) > 0) {
+        throw new IllegalArgumentException(AsyncSgd.class.getSimpleName() +
+            " cannot be combined with " + ModelSweep.MODELS + " or " +
+            HotVertices.HOT_DEGREE);
+      }
+      if (GiraphConstants.CHECKPOINT_FREQUENCY.get(
+          getContext().getConfiguration()) > 0) {
+        throw new IllegalArgumentException(AsyncSgd.class.getSimpleName() +
+            " cannot be combined with " +
+            GiraphConstants.CHECKPOINT_FREQUENCY.getKey());
+      }
+      maxIterations = getContext().getConfiguration().getInt(Sgd.ITERATIONS,
+          Sgd.ITERATIONS_DEFAULT);
+      rmseTarget = getContext().getConfiguration().getFloat(Sgd.RMSE_TARGET,
+          Sgd.RMSE_TARGET_DEFAULT);
+    }
+
+    @Override
+    public final void compute() {
+      long superstep = getSuperstep();
+      Instrumentation.update(this);
+      if (superstep == 0) {
+        setComputation(InitUsersComputation.class);
+        return;
+      } else if (superstep == 1) {
+        setComputation(Sgd.InitItemsComputation.class);
+        return;
+      }
+      setComputation(AsyncSgd.class);
+      if (superstep == 2) {
+        // Only the users update in the first superstep, the items wake up
+        // with their messages
+        return;
+      }
+
+      long numRatings = getTotalNumEdges() / 2;
+      double rmse = Math.sqrt(((DoubleWritable)getAggregatedValue(
+          RMSE_AGGREGATOR)).get() / numRatings);
+      long iteration = superstep-2;
+
+      if (Parameters.DEBUG.get(getContext().getConfiguration())) {
+        Counters.updateCounter(getContext(), RMSE_COUNTER_GROUP,
+            "Iteration "+iteration, (long)(1000*rmse));
+      }
+      Counters.updateCounter(getContext(),
+          COUNTER_GROUP, RMSE_COUNTER, (long)(1000*rmse));
+      Counters.updateCounter(getContext(),
+          COUNTER_GROUP, NUM_RATINGS_COUNTER, numRatings);
+
+      if ((rmseTarget>0f && rmse<rmseTarget) || iteration>maxIterations) {
+        haltComputation();
+      }
+    }
+  }
+}
@@ -0,0 +1,687 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package main.okapi.cf.sgd;
+
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import ml.grafos.okapi.cf.CfLongId;
+import ml.grafos.okapi.cf.annotations.HyperParameter;
+import ml.grafos.okapi.cf.annotations.HyperParameterBinder;
+import ml.grafos.okapi.common.CounterRandom;
+import ml.grafos.okapi.common.Parameters;
+import ml.grafos.okapi.utils.Counters;
+
+import org.apache.giraph.Algorithm;
+import org.apache.giraph.aggregators.DoubleSumAggregator;
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.edge.Edge;
+import org.apache.giraph.graph.BasicComputation;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.master.DefaultMasterCompute;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * Distributed Stratified Stochastic Gradient Descent (DSGD).
+ *
+ * R. Gemulla, E. Nijkamp, P. J. Haas, Y. Sismanis. Large-scale matrix
+ * factorization with distributed stochastic gradient descent. KDD 2011.
+ *
+ * Users and items are hashed into W blocks each, which splits the rating
+ * matrix into a WxW grid. A stratum is a set of W blocks that share no user
+ * and no item: in sub-epoch t, user block b works on item block (b+t) mod W.
+ * Every user block is a vertex that owns the factors and the ratings of its
+ * users. It receives one item block as a message, runs plain sequential SGD
+ * over the ratings of that block, updating user and item factors in place,
+ * and passes the item block on to the next user block. After W sub-epochs
+ * (supersteps) every rating has been visited once, which is one epoch.
+ *
+ * Because no two blocks of a stratum touch the same factors, the updates do
+ * not conflict and the convergence per epoch is close to serial SGD, unlike
+ * {@link Sgd} which updates users and items from stale messages.
+ *
+ * The input is the same as for {@link Sgd}. At the end the factors are sent
+ * back to the user and item vertices, and the block vertices are removed, so
+ * the output has the same shape as the one of the other CF trainers.
+ */
+@Algorithm(
+    name = "Distributed Stratified SGD (DSGD)",
+    description = "Minimizes the error in users preferences predictions")
+public class Dsgd {
+
+  /** Number of blocks W per dimension of the rating matrix. */
+  public static final String NUM_BLOCKS = "dsgd.blocks";
+  /**
+   * Default value for NUM_BLOCKS, non-positive means one block per compute
+   * thread of the job.
+   */
+  public static final int NUM_BLOCKS_DEFAULT = -1;
+
+  /** Aggregator used to compute the RMSE */
+  public static final String RMSE_AGGREGATOR = "dsgd.rmse.aggregator";
+
+  /** Vertex type of the block vertices, users are 0 and items are 1. */
+  static final byte BLOCK_TYPE = 2;
+
+  private static final String COUNTER_GROUP = "DSGD Counters";
+  private static final String RMSE_COUNTER = "RMSE (x1000)";
+  private static final String NUM_RATINGS_COUNTER = "# ratings";
+  private static final String RMSE_COUNTER_GROUP = "RMSE Counters";
+
+  /**
+   * @param conf
+   * @return the number of blocks W of the job
+   */
+  public static int getNumBlocks(GiraphConfiguration conf) {
+    int blocks = conf.getInt(NUM_BLOCKS, NUM_BLOCKS_DEFAULT);
+    if (blocks <= 0) {
+      blocks = Math.max(1, conf.getMaxWorkers()) *
+          Math.max(1, conf.getNumComputeThreads());
+    }
+    return blocks;
+  }
+
+  /**
+   * Maps a user or an item id to its block.
+   *
+   * @param id
+   * @param numBlocks
+   * @return
+   */
+  static int blockOf(long id, int numBlocks) {
+    long h = id * 0x9E3779B97F4A7C15L;
+    return (int)((h >>> 33) % numBlocks);
+  }
+
+  static CfLongId blockId(int block) {
+    return new CfLongId(BLOCK_TYPE, block);
+  }
+
+  /**
+   * The value of a vertex. User and item vertices hold their factors, block
+   * vertices hold the factors of their users and the ratings of those users,
+   * grouped by item block.
+   */
+  public static class DsgdValue implements Writable {
+    private float[] factors = new float[0];
+
+    // Block state, only set for block vertices
+    private boolean block;
+    private int dim;
+    private long[] userIds = new long[0];
+    private float[] userFactors = new float[0];
+    /** For every item block: the user index of each rating. */
+    private int[][] ratingUsers = new int[0][];
+    /** For every item block: the item of each rating. */
+    private long[][] ratingItems = new long[0][];
+    /** For every item block: the value of each rating. */
+    private float[][] ratingValues = new float[0][];
+    /**
+     * For every item block: the position of the item of each rating inside
+     * the item block, -1 until it is resolved. Item blocks only grow, so a
+     * resolved position stays valid.
+     */
+    private int[][] ratingSlots = new int[0][];
+
+    public DsgdValue() {}
+
+    public DsgdValue(float[] factors) {
+      this.factors = factors;
+    }
+
+    public float[] getFactors() { return factors; }
+    public boolean isBlock() { return block; }
+    public int getNumUsers() { return userIds.length; }
+
+    /**
+     * Turns this value into the state of a block vertex.
+     *
+     * @param users ratings received from the users of this block
+     * @param numBlocks
+     * @param dim
+     * @param random used to initialize the user factors
+     */
+    void initBlock(Iterable<DsgdMessage> users, int numBlocks, int dim,
+        Random random) {
+      this.block = true;
+      this.dim = dim;
+      LongArrayList ids = new LongArrayList();
+      IntArrayList[] blockUsers = new IntArrayList[numBlocks];
+      LongArrayList[] blockItems = new LongArrayList[numBlocks];
+      FloatArrayList[] blockValues = new FloatArrayList[numBlocks];
+      for (int b=0; b<numBlocks; b++) {
+        blockUsers[b] = new IntArrayList();
+        blockItems[b] = new LongArrayList();
+        blockValues[b] = new FloatArrayList();
+      }
+      for (DsgdMessage msg : users) {
+        if (msg.getSize() == 0) {
+          continue;
+        }
+        int user = ids.size();
+        ids.add(msg.getId());
+        long[] items = msg.getIds();
+        float[] ratings = msg.getValues();
+        for (int r=0; r<items.length; r++) {
+          int b = blockOf(items[r], numBlocks);
+          blockUsers[b].add(user);
+          blockItems[b].add(items[r]);
+          blockValues[b].add(ratings[r]);
+        }
+      }
+      userIds = ids.toLongArray();
+      userFactors = new float[userIds.length*dim];
+      for (int i=0; i<userFactors.length; i++) {
+        userFactors[i] = 0.01f*random.nextFloat();
+      }
+      ratingUsers = new int[numBlocks][];
+      ratingItems = new long[numBlocks][];
+      ratingValues = new float[numBlocks][];
+      ratingSlots = new int[numBlocks][];
+      for (int b=0; b<numBlocks; b++) {
+        ratingUsers[b] = blockUsers[b].toIntArray();
+        ratingItems[b] = blockItems[b].toLongArray();
+        ratingValues[b] = blockValues[b].toFloatArray();
+        ratingSlots[b] = new int[ratingUsers[b].length];
+        Arrays.fill(ratingSlots[b], -1);
+      }
+    }
+
+    /**
+     * Runs sequential SGD over the ratings of this block that fall into the
+     * given item block. Updates the user and the item factors in place.
+     *
+     * @return the sum of squared errors before each update
+     */
+    double train(DsgdMessage items, float lambda, float gamma,
+        float minRating, float maxRating, Random random) {
+      int b = (int)items.getId();
+      int[] users = ratingUsers[b];
+      long[] itemIds = ratingItems[b];
+      float[] ratings = ratingValues[b];
+      int[] slots = ratingSlots[b];
+      float[] u = userFactors;
+      double sumSquaredErrors = 0d;
+      for (int r=0; r<users.length; r++) {
+        if (slots[r] < 0) {
+          slots[r] = items.slotOf(itemIds[r], dim, random);
+        }
+        // read after slotOf, which can grow the array
+        float[] v = items.getValues();
+        int uOffset = users[r]*dim;
+        int vOffset = slots[r]*dim;
+        float predicted = 0f;
+        for (int f=0; f<dim; f++) {
+          predicted += u[uOffset+f]*v[vOffset+f];
+        }
+        predicted = Math.min(predicted, maxRating);
+        predicted = Math.max(predicted, minRating);
+        float err = predicted - ratings[r];
+        sumSquaredErrors += err*err;
+        for (int f=0; f<dim; f++) {
+          float uf = u[uOffset+f];
+          float vf = v[vOffset+f];
+          u[uOffset+f] = uf - gamma*(lambda*uf + err*vf);
+          v[vOffset+f] = vf - gamma*(lambda*vf + err*uf);
+        }
+      }
+      return sumSquaredErrors;
+    }
+
+    /**
+     * Copies the factors of one user of the block.
+     */
+    float[] getUserFactors(int user) {
+      return Arrays.copyOfRange(userFactors, user*dim, (user+1)*dim);
+    }
+
+    long getUserId(int user) {
+      return userIds[user];
+    }
+
+    @Override
+    public void readFields(DataInput input) throws IOException {
+      block = input.readBoolean();
+      if (!block) {
+        factors = readFloats(input);
+        return;
+      }
+      dim = input.readInt();
+      userIds = readLongs(input);
+      userFactors = readFloats(input);
+      int numBlocks = input.readInt();
+      ratingUsers = new int[numBlocks][];
+      ratingItems = new long[numBlocks][];
+      ratingValues = new float[numBlocks][];
+      ratingSlots = new int[numBlocks][];
+      for (int b=0; b<numBlocks; b++) {
+        int n = input.readInt();
+        ratingUsers[b] = new int[n];
+        ratingItems[b] = new long[n];
+        ratingValues[b] = new float[n];
+        ratingSlots[b] = new int[n];
+        for (int r=0; r<n; r++) {
+          ratingUsers[b][r] = input.readInt();
+          ratingItems[b][r] = input.readLong();
+          ratingValues[b][r] = input.readFloat();
+          ratingSlots[b][r] = input.readInt();
+        }
+      }
+    }
+
+    @Override
+    public void write(DataOutput output) throws IOException {
+      output.writeBoolean(block);
+      if (!block) {
+        writeFloats(output, factors);
+        return;
+      }
+      output.writeInt(dim);
+      writeLongs(output, userIds);
+      writeFloats(output, userFactors);
+      output.writeInt(ratingUsers.length);
+      for (int b=0; b<ratingUsers.length; b++) {
+        output.writeInt(ratingUsers[b].length);
+        for (int r=0; r<ratingUsers[b].length; r++) {
+          output.writeInt(ratingUsers[b][r]);
+          output.writeLong(ratingItems[b][r]);
+          output.writeFloat(ratingValues[b][r]);
+          output.writeInt(ratingSlots[b][r]);
+        }
+      }
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder("[");
+      for (int f=0; f<factors.length; f++) {
+        if (f > 0) {
+          sb.append("; ");
+        }
+        sb.append(factors[f]);
+      }
+      return sb.append("]").toString();
+    }
+  }
+
+  /**
+   * Message of the algorithm. Depending on its type it carries the ratings
+   * of a user, a whole item block, or the final factors of a user or item.
+   */
+  public static class DsgdMessage implements Writable {
+    static final byte USER_RATINGS = 0;
+    static final byte ITEM_BLOCK = 1;
+    static final byte FACTORS = 2;
+
+    private byte type;
+    /** User id, or item block index. */
+    private long id;
+    /** Rated items, or the items of the block. */
+    private long[] ids = new long[0];
+    /** Ratings, or the factors of the items one after the other. */
+    private float[] values = new float[0];
+    /** Number of items in use, ids and values grow like array lists. */
+    private int size;
+    /** Position of each item of the block, built only when needed. */
+    private Long2IntOpenHashMap slots;
+
+    public DsgdMessage() {}
+
+    DsgdMessage(byte type, long id, long[] ids, float[] values) {
+      this.type = type;
+      this.id = id;
+      this.ids = ids;
+      this.values = values;
+      this.size = ids.length;
+    }
+
+    static DsgdMessage emptyItemBlock(int block) {
+      return new DsgdMessage(ITEM_BLOCK, block, new long[0], new float[0]);
+    }
+
+    public byte getType() { return type; }
+    public long getId() { return id; }
+    public long[] getIds() { return ids; }
+    public float[] getValues() { return values; }
+    public int getSize() { return size; }
+
+    /**
+     * Finds the position of an item in this item block. Items seen for the
+     * first time are appended with random factors.
+     */
+    int slotOf(long item, int dim, Random random) {
+      if (slots == null) {
+        slots = new Long2IntOpenHashMap(Math.max(16, size));
+        slots.defaultReturnValue(-1);
+        for (int i=0; i<size; i++) {
+          slots.put(ids[i], i);
+        }
+      }
+      int slot = slots.get(item);
+      if (slot < 0) {
+        slot = size++;
+        if (ids.length < size) {
+          ids = Arrays.copyOf(ids, Math.max(16, 2*ids.length));
+        }
+        if (values.length < size*dim) {
+          values = Arrays.copyOf(values, ids.length*dim);
+        }
+        ids[slot] = item;
+        for (int f=0; f<dim; f++) {
+          values[slot*dim+f] = 0.01f*random.nextFloat();
+        }
+        slots.put(item, slot);
+      }
+      return slot;
+    }
+
+    @Override
+    public void readFields(DataInput input) throws IOException {
+      type = input.readByte();
+      id = input.readLong();
+      ids = readLongs(input);
+      values = readFloats(input);
+      size = ids.length;
+      slots = null;
+    }
+
+    @Override
+    public void write(DataOutput output) throws IOException {
+      output.writeByte(type);
+      output.writeLong(id);
+      output.writeInt(size);
+      for (int i=0; i<size; i++) {
+        output.writeLong(ids[i]);
+      }
+      int length = type == ITEM_BLOCK && size > 0 ?
+          values.length/ids.length*size : values.length;
+      output.writeInt(length);
+      for (int i=0; i<length; i++) {
+        output.writeFloat(values[i]);
+      }
+    }
+  }
+
+  private static long[] readLongs(DataInput input) throws IOException {
+    long[] array = new long[input.readInt()];
+    for (int i=0; i<array.length; i++) {
+      array[i] = input.readLong();
+    }
+    return array;
+  }
+
+  private static float[] readFloats(DataInput input) throws IOException {
+    float[] array = new float[input.readInt()];
+    for (int i=0; i<array.length; i++) {
+      array[i] = input.readFloat();
+    }
+    return array;
+  }
+
+  private static void writeLongs(DataOutput output, long[] array)
+      throws IOException {
+    output.writeInt(array.length);
+    for (int i=0; i<array.length; i++) {
+      output.writeLong(array[i]);
+    }
+  }
+
+  private static void writeFloats(DataOutput output, float[] array)
+      throws IOException {
+    output.writeInt(array.length);
+    for (int i=0; i<array.length; i++) {
+      output.writeFloat(array[i]);
+    }
+  }
+
+  /**
+   * First superstep: every user sends its ratings to its block, which creates
+   * the block vertex. Every block also gets an empty message, so that it
+   * exists even if no user hashes to it.
+   */
+  public static class DistributeRatingsComputation extends BasicComputation<
+  CfLongId, DsgdValue, FloatWritable, DsgdMessage> {
+
+    @Override
+    public void preSuperstep() {
+      // Once per compute thread, the extra empty messages are ignored.
+      int numBlocks = getNumBlocks(getConf());
+      for (int b=0; b<numBlocks; b++) {
+        sendMessage(blockId(b), new DsgdMessage(DsgdMessage.USER_RATINGS, -1,
+            new long[0], new float[0]));
+      }
+    }
+
+    @Override
+    public void compute(Vertex<CfLongId, DsgdValue, FloatWritable> vertex,
+        Iterable<DsgdMessage> messages) throws IOException {
+      long[] items = new long[vertex.getNumEdges()];
+      float[] ratings = new float[vertex.getNumEdges()];
+      int i = 0;
+      for (Edge<CfLongId, FloatWritable> edge : vertex.getEdges()) {
+        items[i] = edge.getTargetVertexId().getId();
+        ratings[i] = edge.getValue().get();
+        i++;
+      }
+      long user = vertex.getId().getId();
+      sendMessage(blockId(blockOf(user, getNumBlocks(getConf()))),
+          new DsgdMessage(DsgdMessage.USER_RATINGS, user, items, ratings));
+      vertex.voteToHalt();
+    }
+  }
+
+  /**
+   * One sub-epoch: every block trains on the item block it received and
+   * passes it on to the previous user block, which works on it in the next
+   * sub-epoch.
+   */
+  public static class BlockComputation extends BasicComputation<
+  CfLongId, DsgdValue, FloatWritable, DsgdMessage> {
+
+    @HyperParameter(parameterName=Sgd.LAMBDA,
+        description="regularization parameter",
+        defaultValue=Sgd.LAMBDA_DEFAULT, minimumValue=0.0001f, maximumValue=10)
+    private float lambda;
+    @HyperParameter(parameterName=Sgd.GAMMA, description="learning rate",
+        defaultValue=Sgd.GAMMA_DEFAULT, minimumValue=0.0001f, maximumValue=1)
+    private float gamma;
+    @HyperParameter(parameterName=Sgd.VECTOR_SIZE,
+        description="latent vector size", defaultValue=Sgd.VECTOR_SIZE_DEFAULT,
+        minimumValue=1, maximumValue=1000)
+    private int vectorSize;
+    @HyperParameter(parameterName=Sgd.MIN_RATING, description="minimum rating",
+        defaultValue=Sgd.MIN_RATING_DEFAULT, minimumValue=-Float.MAX_VALUE,
+        maximumValue=Float.MAX_VALUE, tunable=false)
+    private float minRating;
+    @HyperParameter(parameterName=Sgd.MAX_RATING, description="maximum rating",
+        defaultValue=Sgd.MAX_RATING_DEFAULT, minimumValue=-Float.MAX_VALUE,
+        maximumValue=Float.MAX_VALUE, tunable=false)
+    private float maxRating;
+    private int numBlocks;
+    private CounterRandom random;
+
+    @Override
+    public void preSuperstep() {
+      HyperParameterBinder.forClass(getClass()).bind(this, getConf());
+      numBlocks = getNumBlocks(getConf());
+      random = CounterRandom.fromConf(getConf());
+    }
+
+    @Override
+    public void compute(Vertex<CfLongId, DsgdValue, FloatWritable> vertex,
+        Iterable<DsgdMessage> messages) throws IOException {
+      if (vertex.getId().getType() != BLOCK_TYPE) {
+        vertex.voteToHalt();
+        return;
+      }
+      int b = (int)(long)vertex.getId().getId();
+      random.reset(CounterRandom.key(b, BLOCK_TYPE), getSuperstep());
+      DsgdValue value = vertex.getValue();
+      DsgdMessage items = null;
+      if (!value.isBlock()) {
+        // First sub-epoch: the messages are the ratings of the users and the
+        // block starts with its own, still empty, item block.
+        value.initBlock(messages, numBlocks, vectorSize, random);
+        items = DsgdMessage.emptyItemBlock(b);
+      } else {
+        for (DsgdMessage msg : messages) {
+          items = msg;
+        }
+      }
+
+      double sumSquaredErrors = value.train(items, lambda, gamma, minRating,
+          maxRating, random);
+      aggregate(RMSE_AGGREGATOR, new DoubleWritable(sumSquaredErrors));
+
+      // Rotate the item block: block b-1 works on it in the next sub-epoch
+      sendMessage(blockId((b+numBlocks-1) % numBlocks), items);
+      vertex.voteToHalt();
+    }
+  }
+
+  /**
+   * Sends the factors back to the user and item vertices, and removes the
+   * block vertices.
+   */
+  public static class WriteBackComputation extends BasicComputation<
+  CfLongId, DsgdValue, FloatWritable, DsgdMessage> {
+
+    @Override
+    public void compute(Vertex<CfLongId, DsgdValue, FloatWritable> vertex,
+        Iterable<DsgdMessage> messages) throws IOException {
+      if (vertex.getId().getType() != BLOCK_TYPE) {
+        vertex.voteToHalt();
+        return;
+      }
+      DsgdValue value = vertex.getValue();
+      int dim = 0;
+      for (DsgdMessage items : messages) {
+        long[] ids = items.getIds();
+        float[] factors = items.getValues();
+        dim = items.getSize() > 0 ? factors.length/items.getSize() : 0;
+        for (int i=0; i<items.getSize(); i++) {
+          sendMessage(new CfLongId((byte)1, ids[i]), new DsgdMessage(
+              DsgdMessage.FACTORS, ids[i], new long[0],
+              Arrays.copyOfRange(factors, i*dim, (i+1)*dim)));
+        }
+      }
+      for (int u=0; u<value.getNumUsers(); u++) {
+        long user = value.getUserId(u);
+        sendMessage(new CfLongId((byte)0, user), new DsgdMessage(
+            DsgdMessage.FACTORS, user, new long[0], value.getUserFactors(u)));
+      }
+      removeVertexRequest(vertex.getId());
+    }
+  }
+
+  /**
+   * Last superstep: users and items store their factors.
+   */
+  public static class StoreFactorsComputation extends BasicComputation<
+  CfLongId, DsgdValue, FloatWritable, DsgdMessage> {
+
+    @Override
+    public void compute(Vertex<CfLongId, DsgdValue, FloatWritable> vertex,
+        Iterable<DsgdMessage> messages) throws IOException {
+      for (DsgdMessage msg : messages) {
+        vertex.setValue(new DsgdValue(msg.getValues()));
+      }
+      vertex.voteToHalt();
+    }
+  }
+
+  /**
+   * Coordinates the execution of the algorithm. An iteration is one epoch,
+   * that is W sub-epochs.
+   */
+  public static class MasterCompute extends DefaultMasterCompute {
+    private int maxIterations;
+    private float rmseTarget;
+    private int numBlocks;
+    private long numRatings;
+    private double epochSquaredErrors;
+    private long finishSuperstep = -1;
+
+    @Override
+    public final void initialize() throws InstantiationException,
+        IllegalAccessException {
+      registerAggregator(RMSE_AGGREGATOR, DoubleSumAggregator.class);
+      maxIterations = getContext().getConfiguration().getInt(Sgd.ITERATIONS,
+          Sgd.ITERATIONS_DEFAULT);
+      rmseTarget = getContext().getConfiguration().getFloat(Sgd.RMSE_TARGET,
+          Sgd.RMSE_TARGET_DEFAULT);
+      numBlocks = getNumBlocks(getConf());
+    }
+
+    @Override
+    public final void compute() {
+      long superstep = getSuperstep();
+      if (superstep == 0) {
+        setComputation(DistributeRatingsComputation.class);
+        return;
+      }
+      if (finishSuperstep >= 0) {
+        if (superstep == finishSuperstep+1) {
+          setComputation(StoreFactorsComputation.class);
+        } else {
+          haltComputation();
+        }
+        return;
+      }
+      if (superstep == 1) {
+        // Only the users have edges, one per rating
+        numRatings = getTotalNumEdges();
+        setComputation(BlockComputation.class);
+        return;
+      }
+
+      epochSquaredErrors += ((DoubleWritable)getAggregatedValue(
+          RMSE_AGGREGATOR)).get();
+      long subEpochs = superstep-1;
+      if (subEpochs % numBlocks == 0) {
+        long epoch = subEpochs / numBlocks;
+        double rmse = Math.sqrt(epochSquaredErrors / numRatings);
+        epochSquaredErrors = 0d;
+
+        if (Parameters.DEBUG.get(getContext().getConfiguration())) {
+          Counters.updateCounter(getContext(), RMSE_COUNTER_GROUP,
+              "Iteration "+epoch, (long)(1000*rmse));
+        }
+        Counters.updateCounter(getContext(),
+            COUNTER_GROUP, RMSE_COUNTER, (long)(1000*rmse));
+        Counters.updateCounter(getContext(),
+            COUNTER_GROUP, NUM_RATINGS_COUNTER, numRatings);
+
+        if ((rmseTarget>0f && rmse<rmseTarget) || epoch>=maxIterations) {
+          finishSuperstep = superstep;
+          setComputation(WriteBackComputation.class);
+          return;
+        }
+      }
+      setComputation(BlockComputation.class);
+    }
+  }
+}
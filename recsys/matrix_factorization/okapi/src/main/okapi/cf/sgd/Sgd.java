@@ -16,12 +16,27 @@
 package main.okapi.cf.sgd;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
 import java.util.Random;
 
+import ml.grafos.okapi.cf.ActiveSet;
+import ml.grafos.okapi.cf.AdaptiveRate;
 import ml.grafos.okapi.cf.CfLongId;
+import ml.grafos.okapi.cf.EarlyStopping;
 import ml.grafos.okapi.cf.FloatMatrixMessage;
+import ml.grafos.okapi.cf.HotVertices;
+import ml.grafos.okapi.cf.ModelSweep;
+import ml.grafos.okapi.cf.annotations.HyperParameter;
+import ml.grafos.okapi.cf.annotations.HyperParameterBinder;
+import ml.grafos.okapi.common.CounterRandom;
+import ml.grafos.okapi.common.jblas.FactorArena;
+import ml.grafos.okapi.common.jblas.FactorHandleWritable;
+import ml.grafos.okapi.common.jblas.FloatKernels;
 import ml.grafos.okapi.common.jblas.FloatMatrixWritable;
 import ml.grafos.okapi.common.Parameters;
+import ml.grafos.okapi.common.computation.Instrumentation;
+import ml.grafos.okapi.common.computation.InstrumentedComputation;
 import ml.grafos.okapi.utils.Counters;
 
 import org.apache.giraph.Algorithm;
@@ -34,16 +49,31 @@ import org.apache.giraph.graph.Vertex;
 import org.apache.giraph.master.DefaultMasterCompute;
 import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.LongWritable;
 import org.jblas.FloatMatrix;
 
 /**
  * Stochastic Gradient Descent (SGD) implementation.
+ *
+ * Several models can be trained in the same job, see {@link ModelSweep}. In
+ * that case the tolerance must not be used and the vectors are always sent.
+ * Items with a very high degree can be split, see {@link HotVertices}; every
+ * mirror then runs SGD over its users and the item adds up their changes.
+ * A fraction of the ratings can be held out to stop on the validation error,
+ * see {@link EarlyStopping}; the tolerance must not be used with it.
+ * The fixed learning rate can be replaced by per-coordinate rates, see
+ * {@link AdaptiveRate}; their state is kept in the vertex value after the
+ * factors and is dropped when the job stops.
+ * With a positive tolerance, only the vertices whose neighbors moved by more
+ * than the tolerance compute, see {@link ActiveSet}.
+ * With FactorHandleWritable.OFF_HEAP set, the factors are kept off the heap
+ * between supersteps, see {@link FactorHandleWritable}.
  */
 @Algorithm(
     name = "Stochastic Gradient Descent (SGD)", 
     description = "Minimizes the error in users preferences predictions")
-public class Sgd extends BasicComputation<CfLongId, FloatMatrixWritable, 
-  FloatWritable, FloatMatrixMessage> {
+public class Sgd extends InstrumentedComputation<CfLongId, FloatMatrixWritable, 
+  FloatWritable, FloatMatrixMessage, FloatMatrixMessage> {
   
   /** Keyword for RMSE aggregator tolerance. */
   public static final String RMSE_TARGET = "rmse";
@@ -86,23 +116,58 @@ public class Sgd extends BasicComputation<CfLongId, FloatMatrixWritable,
   private static final String NUM_RATINGS_COUNTER = "# ratings";
   private static final String RMSE_COUNTER_GROUP = "RMSE Counters";
 
+  @HyperParameter(parameterName=TOLERANCE, description="convergence tolerance",
+      defaultValue=TOLERANCE_DEFAULT, minimumValue=-1, maximumValue=1,
+      tunable=false)
   private float tolerance;
+  @HyperParameter(parameterName=LAMBDA, description="regularization parameter",
+      defaultValue=LAMBDA_DEFAULT, minimumValue=0.0001f, maximumValue=10)
   private float lambda;
+  @HyperParameter(parameterName=GAMMA, description="learning rate",
+      defaultValue=GAMMA_DEFAULT, minimumValue=0.0001f, maximumValue=1)
   private float gamma;
+  @HyperParameter(parameterName=MIN_RATING, description="minimum rating",
+      defaultValue=MIN_RATING_DEFAULT, minimumValue=-Float.MAX_VALUE,
+      maximumValue=Float.MAX_VALUE, tunable=false)
   protected float minRating;
+  @HyperParameter(parameterName=MAX_RATING, description="maximum rating",
+      defaultValue=MAX_RATING_DEFAULT, minimumValue=-Float.MAX_VALUE,
+      maximumValue=Float.MAX_VALUE, tunable=false)
   protected float maxRating;
-  private FloatMatrixWritable oldValue;
+  private ModelSweep sweep;
+  /** Parameters of every model of the sweep. */
+  private float[] modelLambdas;
+  private float[] modelGammas;
+  private float[] modelMinRatings;
+  private float[] modelMaxRatings;
+  /** Ratings of the messages of a vertex, in the order of the messages. */
+  private float[] ratings;
+  private int hotDegree;
+  private EarlyStopping validation;
+  private AdaptiveRate optimizer;
+  private int vectorSize;
+  private ActiveSet activeSet;
+  /** Factors of the vertex before its update, in the active set mode. */
+  private float[] previous;
+  private boolean offHeap;
 
   @Override
   public void preSuperstep() {
-    lambda = getContext().getConfiguration().getFloat(LAMBDA, LAMBDA_DEFAULT);
-    gamma = getContext().getConfiguration().getFloat(GAMMA, GAMMA_DEFAULT);
-    tolerance = getContext().getConfiguration().getFloat(TOLERANCE,
-        TOLERANCE_DEFAULT);
-    minRating = getContext().getConfiguration().getFloat(MIN_RATING, 
-        MIN_RATING_DEFAULT);
-    maxRating = getContext().getConfiguration().getFloat(MAX_RATING, 
-        MAX_RATING_DEFAULT);
+    super.preSuperstep();
+    HyperParameterBinder.forClass(getClass()).bind(this, getConf());
+    sweep = ModelSweep.get(getConf(), VECTOR_SIZE, VECTOR_SIZE_DEFAULT);
+    if (sweep != null) {
+      modelLambdas = sweep.getFloats(LAMBDA, LAMBDA_DEFAULT);
+      modelGammas = sweep.getFloats(GAMMA, GAMMA_DEFAULT);
+      modelMinRatings = sweep.getFloats(MIN_RATING, minRating);
+      modelMaxRatings = sweep.getFloats(MAX_RATING, maxRating);
+    }
+    hotDegree = HotVertices.getHotDegree(getConf());
+    validation = EarlyStopping.get(getConf());
+    optimizer = AdaptiveRate.get(getConf());
+    vectorSize = getConf().getInt(VECTOR_SIZE, VECTOR_SIZE_DEFAULT);
+    activeSet = ActiveSet.get(tolerance);
+    offHeap = FactorHandleWritable.isEnabled(getConf());
   }
 
   /**
@@ -111,53 +176,315 @@ public class Sgd extends BasicComputation<CfLongId, FloatMatrixWritable,
    * @param messages
    *          Messages received
    */
-  public final void compute(
+  public final void computeVertex(
+      Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex,
+      final Iterable<FloatMatrixMessage> messages) {
+    if (offHeap) {
+      FactorHandleWritable handle = FactorHandleWritable.unpark(vertex);
+      computeFactors(vertex, messages);
+      FactorHandleWritable.park(vertex, handle);
+    } else {
+      computeFactors(vertex, messages);
+    }
+  }
+
+  private void computeFactors(
       Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex,
       final Iterable<FloatMatrixMessage> messages) {
     
+    if (hotDegree > 0) {
+      if (HotVertices.isMirror(vertex.getId())) {
+        computeMirror(vertex, messages);
+        return;
+      }
+      if (HotVertices.isMaster(vertex)) {
+        computeMaster(vertex, messages);
+        return;
+      }
+      if (getSuperstep() == 2) {
+        HotVertices.retargetEdges(vertex, messages);
+      }
+    }
+
+    if (sweep != null) {
+      computeModels(vertex, messages);
+      return;
+    }
+
+    if (activeSet != null) {
+      computeActive(vertex, messages);
+      return;
+    }
+
     double rmsePartialSum = 0d;
-    float l2norm = 0f;
+    double validationPartialSum = 0d;
+    long numValidation = 0;
 
-    if (tolerance>0) {
-      // Create new object because we're going to operate on the old one.
-      oldValue = new FloatMatrixWritable(vertex.getValue().getRows(), 
-          vertex.getValue().getColumns(), vertex.getValue().data);
+    if (optimizer != null && vertex.getValue().length == vectorSize) {
+      // The state of the optimizer is kept after the factors
+      FloatMatrixWritable value = new FloatMatrixWritable(
+          vectorSize + optimizer.getStateSize(vectorSize), 1);
+      System.arraycopy(vertex.getValue().data, 0, value.data, 0, vectorSize);
+      vertex.setValue(value);
+    }
+
+    if (validation != null) {
+      EarlyStopping.snapshotIfBest(this, vertex);
     }
 
     for (FloatMatrixMessage msg : messages) {
+      if (validation != null && 
+          validation.isHeldOut(vertex.getId(), msg.getSenderId())) {
+        continue;
+      }
       // Get rating for the item that this message came from
       float rating = vertex.getEdgeValue(msg.getSenderId()).get();
       
       // Update the factors,
       // this process do exactly what Stochastic Gradient Descent do.
       // Iterate samples and update parameters one at a time.
-      updateValue(vertex.getValue(), msg.getFactors(), rating, 
-          minRating, maxRating, lambda, gamma);
+      if (optimizer != null) {
+        updateValueAdaptive(vertex.getValue(), msg.getFactors(), rating);
+      } else {
+        updateValue(vertex.getValue(), msg.getFactors(), rating, 
+            minRating, maxRating, lambda, gamma);
+      }
     }
       
     // Calculate new error for RMSE calculation
     for (FloatMatrixMessage msg : messages) {
-      float predicted = vertex.getValue().dot(msg.getFactors());
+      float predicted = FloatKernels.dot(vertex.getValue().data,
+          msg.getFactors().data, msg.getFactors().length);
       float rating = vertex.getEdgeValue(msg.getSenderId()).get();
-      predicted = Math.min(predicted, maxRating);
-      predicted = Math.max(predicted, minRating);
+      predicted = FloatKernels.clamp(predicted, minRating, maxRating);
       float err = predicted - rating;
-      rmsePartialSum += (err*err);
+      if (validation != null && 
+          validation.isHeldOut(vertex.getId(), msg.getSenderId())) {
+        validationPartialSum += (err*err);
+        numValidation++;
+      } else {
+        rmsePartialSum += (err*err);
+      }
     }
 
     aggregate(RMSE_AGGREGATOR, new DoubleWritable(rmsePartialSum));
-
-    // Calculate difference with previous value
-    if (tolerance>0) {
-      l2norm = vertex.getValue().distance2(oldValue);
+    if (validation != null) {
+      aggregate(EarlyStopping.VALIDATION_AGGREGATOR, 
+          new DoubleWritable(validationPartialSum));
+      aggregate(EarlyStopping.VALIDATION_COUNT_AGGREGATOR, 
+          new LongWritable(numValidation));
     }
-    
+
     // Broadcast the new vector
-    if (tolerance<0 || (tolerance>0 && l2norm>tolerance)) {
+    sendMessageToAllEdges(vertex, new FloatMatrixMessage(vertex.getId(), 
+        factorsOf(vertex.getValue(), vectorSize), 0.0f));
+    
+    vertex.voteToHalt();
+  }
+
+  /**
+   * Same as compute, over the factors of all the neighbors that the vertex
+   * keeps in its cache, see {@link ActiveSet}. The vertex broadcasts only if
+   * its factors moved by more than the tolerance.
+   */
+  private void computeActive(
+      Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex,
+      Iterable<FloatMatrixMessage> messages) {
+
+    ActiveSet.NeighborCache cache = ActiveSet.getCache(vertex.getId());
+    cache.receive(messages);
+
+    FloatMatrixWritable value = vertex.getValue();
+    if (previous == null || previous.length != value.length) {
+      previous = new float[value.length];
+    }
+    System.arraycopy(value.data, 0, previous, 0, value.length);
+
+    for (Map.Entry<CfLongId, FloatMatrixWritable> neighbor : 
+        cache.getFactors()) {
+      float rating = vertex.getEdgeValue(neighbor.getKey()).get();
+      updateValue(value, neighbor.getValue(), rating, minRating, maxRating, 
+          lambda, gamma);
+    }
+
+    double error = 0d;
+    for (Map.Entry<CfLongId, FloatMatrixWritable> neighbor : 
+        cache.getFactors()) {
+      float predicted = FloatKernels.dot(value.data, 
+          neighbor.getValue().data, value.length);
+      predicted = FloatKernels.clamp(predicted, minRating, maxRating);
+      float err = predicted - vertex.getEdgeValue(neighbor.getKey()).get();
+      error += err*err;
+    }
+
+    // All the users broadcast in the first round, so that every item computes
+    // and aggregates its error at least once
+    boolean changed = getSuperstep() == 2 || 
+        activeSet.isChanged(previous, value.data, value.length);
+    ActiveSet.aggregate(this, vertex.getId(), cache, error, changed);
+    if (changed) {
       sendMessageToAllEdges(vertex, 
-          new FloatMatrixMessage(vertex.getId(), vertex.getValue(), 0.0f));
+          new FloatMatrixMessage(vertex.getId(), value, 0.0f));
     }
-    
+    vertex.voteToHalt();
+  }
+
+  /**
+   * Same as updateValue, with the per-coordinate rates of the optimizer. The
+   * state of the optimizer follows the factors in the value.
+   */
+  private void updateValueAdaptive(FloatMatrixWritable value, 
+      FloatMatrix update, final float rating) {
+    float predicted = FloatKernels.dot(value.data, update.data, vectorSize);
+    predicted = FloatKernels.clamp(predicted, minRating, maxRating);
+    float err = predicted - rating;
+    optimizer.update(value.data, 0, err, update.data, 0, lambda, 
+        value.data, vectorSize, vectorSize, gamma);
+  }
+
+  /**
+   * @param value
+   * @param vectorSize
+   * @return the factors of a value, without the state of the optimizer
+   */
+  static FloatMatrixWritable factorsOf(FloatMatrixWritable value, 
+      int vectorSize) {
+    if (value.length == vectorSize) {
+      return value;
+    }
+    return new FloatMatrixWritable(vectorSize, 1, 
+        Arrays.copyOf(value.data, vectorSize));
+  }
+
+  /**
+   * Same as compute, for every model of the sweep that is still running.
+   */
+  private void computeModels(
+      Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex,
+      final Iterable<FloatMatrixMessage> messages) {
+
+    if (ratings == null || ratings.length < vertex.getNumEdges()) {
+      ratings = new float[vertex.getNumEdges()];
+    }
+    int numRatings = 0;
+    for (FloatMatrixMessage msg : messages) {
+      ratings[numRatings++] = vertex.getEdgeValue(msg.getSenderId()).get();
+    }
+
+    // The models are updated in place, in the slices of the packed value
+    float[] value = vertex.getValue().data;
+    for (int k=0; k<sweep.getNumModels(); k++) {
+      if (ModelSweep.isStopped(this, k)) {
+        continue;
+      }
+      int offset = sweep.getOffset(k);
+      int size = sweep.getVectorSize(k);
+      float modelLambda = modelLambdas[k];
+      float modelGamma = modelGammas[k];
+      float modelMinRating = modelMinRatings[k];
+      float modelMaxRating = modelMaxRatings[k];
+
+      int i=0;
+      for (FloatMatrixMessage msg : messages) {
+        float[] update = msg.getFactors().data;
+        float predicted = FloatKernels.dot(value, offset, update, offset,
+            size);
+        predicted = FloatKernels.clamp(predicted, modelMinRating,
+            modelMaxRating);
+        float err = predicted - ratings[i++];
+        FloatKernels.scaledAdd(1f - modelGamma*modelLambda, value, offset,
+            -modelGamma*err, update, offset, size);
+      }
+
+      double rmsePartialSum = 0d;
+      i=0;
+      for (FloatMatrixMessage msg : messages) {
+        float predicted = FloatKernels.dot(value, offset,
+            msg.getFactors().data, offset, size);
+        predicted = FloatKernels.clamp(predicted, modelMinRating,
+            modelMaxRating);
+        float err = predicted - ratings[i++];
+        rmsePartialSum += (err*err);
+      }
+      aggregate(ModelSweep.aggregatorName(RMSE_AGGREGATOR, k),
+          new DoubleWritable(rmsePartialSum));
+    }
+
+    sendMessageToAllEdges(vertex,
+        new FloatMatrixMessage(vertex.getId(), vertex.getValue(), 0.0f));
+    vertex.voteToHalt();
+  }
+
+  /**
+   * A mirror of a split item: runs SGD over its users starting from the value
+   * of the item, sends the change to the item, and forwards the value of the
+   * item to its users. The number of ratings is the score.
+   */
+  private void computeMirror(
+      Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex,
+      final Iterable<FloatMatrixMessage> messages) {
+
+    CfLongId master = HotVertices.masterId(vertex.getId());
+    FloatMatrixWritable value = vertex.getValue();
+    boolean received = false;
+    for (FloatMatrixMessage msg : messages) {
+      received = true;
+      if (msg.getSenderId().equals(master)) {
+        value.copy(msg.getFactors());
+      }
+    }
+    if (!received) {
+      vertex.voteToHalt();
+      return;
+    }
+
+    FloatMatrix updated = value.dup();
+    int numRatings = 0;
+    for (FloatMatrixMessage msg : messages) {
+      if (!msg.getSenderId().equals(master)) {
+        float rating = vertex.getEdgeValue(msg.getSenderId()).get();
+        updateValue(updated, msg.getFactors(), rating, 
+            minRating, maxRating, lambda, gamma);
+        numRatings++;
+      }
+    }
+
+    if (numRatings > 0) {
+      double rmsePartialSum = 0d;
+      for (FloatMatrixMessage msg : messages) {
+        if (!msg.getSenderId().equals(master)) {
+          float predicted = FloatKernels.dot(updated.data,
+              msg.getFactors().data, updated.length);
+          float rating = vertex.getEdgeValue(msg.getSenderId()).get();
+          predicted = FloatKernels.clamp(predicted, minRating, maxRating);
+          float err = predicted - rating;
+          rmsePartialSum += (err*err);
+        }
+      }
+      aggregate(RMSE_AGGREGATOR, new DoubleWritable(rmsePartialSum));
+
+      sendMessage(master, new FloatMatrixMessage(vertex.getId(), 
+          new FloatMatrixWritable(updated.subi(value)), numRatings));
+    }
+
+    sendMessageToAllEdges(vertex,
+        new FloatMatrixMessage(vertex.getId(), value, 0.0f));
+    vertex.voteToHalt();
+  }
+
+  /**
+   * A split item: adds up the changes of its mirrors, and sends the new value
+   * to them.
+   */
+  private void computeMaster(
+      Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex,
+      final Iterable<FloatMatrixMessage> messages) {
+
+    for (FloatMatrixMessage msg : messages) {
+      vertex.getValue().addi(msg.getFactors());
+    }
+    sendMessageToAllEdges(vertex,
+        new FloatMatrixMessage(vertex.getId(), vertex.getValue(), 0.0f));
     vertex.voteToHalt();
   }
 
@@ -179,18 +506,15 @@ public class Sgd extends BasicComputation<CfLongId, FloatMatrixWritable,
       FloatMatrix update, final float rating, final float minRatings, 
       final float maxRating, final float lambda, final float gamma) {
     
-    float predicted = value.dot(update);
+    float predicted = FloatKernels.dot(value.data, update.data, value.length);
     
     // Correct the predicted rating
-    predicted = Math.min(predicted, maxRating);
-    predicted = Math.max(predicted, minRating);
+    predicted = FloatKernels.clamp(predicted, minRatings, maxRating);
     
     float err = predicted - rating;
     
-    FloatMatrix part1 = value.mul(lambda);
-    FloatMatrix part2 = update.mul(err);
-    FloatMatrix part3 = (part1.add(part2)).mul(-gamma);
-    value.addi(part3);
+    FloatKernels.scaledAdd(1f - gamma*lambda, value.data, -gamma*err,
+        update.data, value.length);
   }
   
 
@@ -203,14 +527,27 @@ public class Sgd extends BasicComputation<CfLongId, FloatMatrixWritable,
   public static class InitUsersComputation extends BasicComputation<CfLongId, 
   FloatMatrixWritable, FloatWritable, FloatMatrixMessage> {
 
+    private CounterRandom random;
+
+    @Override
+    public void preSuperstep() {
+      random = CounterRandom.fromConf(getConf());
+      ActiveSet.clear();
+      EarlyStopping.clear();
+      if (FactorHandleWritable.isEnabled(getConf())) {
+        FactorArena.clear();
+      }
+    }
+
     @Override
     public void compute(Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex,
         Iterable<FloatMatrixMessage> messages) throws IOException {
       
       FloatMatrixWritable vector = 
-          new FloatMatrixWritable(getContext().getConfiguration().getInt(
-          VECTOR_SIZE, VECTOR_SIZE_DEFAULT));
-      Random randGen = new Random();
+          new FloatMatrixWritable(ModelSweep.getTotalVectorSize(
+          getContext().getConfiguration(), VECTOR_SIZE, VECTOR_SIZE_DEFAULT));
+      Random randGen = random.reset(CounterRandom.key(
+          vertex.getId().getId(), vertex.getId().getType()), getSuperstep());
       for (int i=0; i<vector.length; i++) {
         vector.put(i, 0.01f*randGen.nextFloat());
       }
@@ -236,15 +573,23 @@ public class Sgd extends BasicComputation<CfLongId, FloatMatrixWritable,
   FloatMatrixWritable, FloatWritable, FloatMatrixMessage,
   FloatMatrixMessage> {
 
+    private CounterRandom random;
+
+    @Override
+    public void preSuperstep() {
+      random = CounterRandom.fromConf(getConf());
+    }
+
     @Override
     public void compute(Vertex<CfLongId, FloatMatrixWritable, 
         FloatWritable> vertex, Iterable<FloatMatrixMessage> messages) 
             throws IOException {
       
       FloatMatrixWritable vector = 
-          new FloatMatrixWritable(getContext().getConfiguration().getInt(
-          VECTOR_SIZE, VECTOR_SIZE_DEFAULT));
-      Random randGen = new Random();
+          new FloatMatrixWritable(ModelSweep.getTotalVectorSize(
+          getContext().getConfiguration(), VECTOR_SIZE, VECTOR_SIZE_DEFAULT));
+      Random randGen = random.reset(CounterRandom.key(
+          vertex.getId().getId(), vertex.getId().getType()), getSuperstep());
       for (int i=0; i<vector.length; i++) {
         vector.put(i, 0.01f*randGen.nextFloat());
       }
@@ -257,27 +602,143 @@ public class Sgd extends BasicComputation<CfLongId, FloatMatrixWritable,
         edge.setValue(new FloatWritable(msg.getScore()));
         vertex.addEdge(edge);
       }
+      if (ActiveSet.get(getConf().getFloat(TOLERANCE, TOLERANCE_DEFAULT)) 
+          != null) {
+        // The users sent their first factors with the ratings
+        ActiveSet.getCache(vertex.getId()).receive(messages);
+      }
       
       // The score does not matter at this point.
-      sendMessageToAllEdges(vertex, 
-          new FloatMatrixMessage(vertex.getId(), vertex.getValue(), 0.0f));
+      int hotDegree = HotVertices.getHotDegree(getConf());
+      if (hotDegree > 0 && vertex.getNumEdges() > hotDegree) {
+        HotVertices.split(this, vertex, hotDegree, vertex.getValue(), 0.0f);
+      } else {
+        sendMessageToAllEdges(vertex, 
+            new FloatMatrixMessage(vertex.getId(), vertex.getValue(), 0.0f));
+      }
       
       vertex.voteToHalt();
     }
   }
   
+  /**
+   * Puts back the factors of the best superstep when the job stops on the
+   * validation error, see {@link EarlyStopping}.
+   */
+  public static class RestoreComputation extends 
+  EarlyStopping.RestoreComputation<FloatMatrixWritable, FloatMatrixMessage> {
+
+    @Override
+    protected void finish(
+        Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex) {
+      vertex.setValue(factorsOf(vertex.getValue(), 
+          getConf().getInt(VECTOR_SIZE, VECTOR_SIZE_DEFAULT)));
+    }
+
+    @Override
+    protected FloatMatrixMessage wakeUpMessage(
+        Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex) {
+      return new FloatMatrixMessage(vertex.getId(), vertex.getValue(), 0.0f);
+    }
+  }
+
+  /**
+   * Drops the state of the optimizer from the vertex values when the job
+   * stops, see {@link AdaptiveRate}. The vertices that computed last are woken
+   * up by messages and wake up the other side in the next superstep.
+   */
+  public static class FinishComputation extends BasicComputation<CfLongId, 
+  FloatMatrixWritable, FloatWritable, FloatMatrixMessage> {
+
+    @Override
+    public void compute(
+        Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex,
+        Iterable<FloatMatrixMessage> messages) throws IOException {
+      FactorHandleWritable.release(vertex);
+      int vectorSize = getConf().getInt(VECTOR_SIZE, VECTOR_SIZE_DEFAULT);
+      if (vertex.getValue().length > vectorSize) {
+        vertex.setValue(factorsOf(vertex.getValue(), vectorSize));
+        sendMessageToAllEdges(vertex, 
+            new FloatMatrixMessage(vertex.getId(), vertex.getValue(), 0.0f));
+      }
+      vertex.voteToHalt();
+    }
+  }
+
+  /**
+   * Removes the mirrors of the split items when the job stops, see
+   * {@link HotVertices}.
+   */
+  public static class DropMirrorsComputation extends 
+  HotVertices.DropMirrorsComputation<FloatMatrixWritable, FloatMatrixMessage> {
+
+    @Override
+    protected FloatMatrixMessage wakeUpMessage(
+        Vertex<CfLongId, FloatMatrixWritable, FloatWritable> vertex) {
+      return new FloatMatrixMessage(vertex.getId(), vertex.getValue(), 0.0f);
+    }
+  }
+
   /**
    * Coordinates the execution of the algorithm.
    */
   public static class MasterCompute extends DefaultMasterCompute {
     private int maxIterations;
     private float rmseTarget;
+    private ModelSweep sweep;
+    private EarlyStopping validation;
+    private AdaptiveRate optimizer;
+    private ActiveSet activeSet;
+    private long finishSuperstep = -1;
+    private int hotDegree;
+    private long dropSuperstep = -1;
 
     @Override
     public final void initialize() throws InstantiationException,
         IllegalAccessException {
 
       registerAggregator(RMSE_AGGREGATOR, DoubleSumAggregator.class);
+      Instrumentation.registerAggregators(this);
+      HotVertices.registerAggregators(this);
+      hotDegree = HotVertices.getHotDegree(getContext().getConfiguration());
+      sweep = ModelSweep.get(getContext().getConfiguration(), VECTOR_SIZE,
+          VECTOR_SIZE_DEFAULT);
+      if (sweep != null) {
+        if (HotVertices.getHotDegree(getContext().getConfiguration()) > 0) {
+          throw new IllegalArgumentException(ModelSweep.MODELS + 
+              " cannot be combined with " + HotVertices.HOT_DEGREE);
+        }
+        sweep.registerAggregators(this, RMSE_AGGREGATOR);
+      }
+      validation = EarlyStopping.get(getContext().getConfiguration());
+      if (validation != null) {
+        if (sweep != null ||
+            HotVertices.getHotDegree(getContext().getConfiguration()) > 0) {
+          throw new IllegalArgumentException(
+              EarlyStopping.VALIDATION_FRACTION + " cannot be combined with " +
+              ModelSweep.MODELS + " or " + HotVertices.HOT_DEGREE);
+        }
+        validation.registerAggregators(this);
+      }
+      optimizer = AdaptiveRate.get(getContext().getConfiguration());
+      if (optimizer != null && (sweep != null ||
+          HotVertices.getHotDegree(getContext().getConfiguration()) > 0)) {
+        throw new IllegalArgumentException(AdaptiveRate.OPTIMIZER + 
+            " cannot be combined with " + ModelSweep.MODELS + " or " + 
+            HotVertices.HOT_DEGREE);
+      }
+      activeSet = ActiveSet.get(getContext().getConfiguration().getFloat(
+          TOLERANCE, TOLERANCE_DEFAULT));
+      if (activeSet != null) {
+        if (sweep != null || validation != null || optimizer != null ||
+            HotVertices.getHotDegree(getContext().getConfiguration()) > 0) {
+          throw new IllegalArgumentException(TOLERANCE + 
+              " cannot be combined with " + ModelSweep.MODELS + ", " + 
+              EarlyStopping.VALIDATION_FRACTION + ", " + 
+              AdaptiveRate.OPTIMIZER + " or " + HotVertices.HOT_DEGREE);
+        }
+        activeSet.registerAggregators(this);
+      }
       maxIterations = getContext().getConfiguration().getInt(ITERATIONS,
           ITERATIONS_DEFAULT);
       rmseTarget = getContext().getConfiguration().getFloat(RMSE_TARGET,
@@ -287,6 +748,28 @@ public class Sgd extends BasicComputation<CfLongId, FloatMatrixWritable,
     @Override
     public final void compute() {
       long superstep = getSuperstep();
+      Instrumentation.update(this);
+      if (validation != null && validation.isRestoring()) {
+        setComputation(RestoreComputation.class);
+        if (validation.isRestored(this)) {
+          haltComputation();
+        }
+        return;
+      }
+      if (finishSuperstep >= 0) {
+        setComputation(FinishComputation.class);
+        if (superstep >= finishSuperstep+2) {
+          haltComputation();
+        }
+        return;
+      }
+      if (dropSuperstep >= 0) {
+        setComputation(DropMirrorsComputation.class);
+        if (superstep >= dropSuperstep+3) {
+          haltComputation();
+        }
+        return;
+      }
       if (superstep == 0) {
         setComputation(InitUsersComputation.class);
       } else if (superstep == 1) {
@@ -302,11 +785,33 @@ public class Sgd extends BasicComputation<CfLongId, FloatMatrixWritable,
       if (superstep <= 2) {
         numRatings = getTotalNumEdges();
       } else {
-        numRatings = getTotalNumEdges() / 2;
+        numRatings = HotVertices.getNumRatings(this);
+      }
+
+      if (sweep != null) {
+        Counters.updateCounter(getContext(), 
+            COUNTER_GROUP, NUM_RATINGS_COUNTER, numRatings);
+        if (superstep>2 && sweep.updateModels(this, RMSE_AGGREGATOR,
+            COUNTER_GROUP, numRatings, ITERATIONS, ITERATIONS_DEFAULT,
+            RMSE_TARGET, RMSE_TARGET_DEFAULT)) {
+          haltComputation();
+        }
+        return;
+      }
+
+      boolean stop = false;
+      if (validation != null) {
+        stop = validation.update(this, COUNTER_GROUP);
+        numRatings -= validation.getNumHeldOut();
       }
 
-      rmse = Math.sqrt(((DoubleWritable)getAggregatedValue(RMSE_AGGREGATOR))
-          .get() / numRatings);
+      double sse = ((DoubleWritable)getAggregatedValue(RMSE_AGGREGATOR)).get();
+      if (activeSet != null && superstep > 2) {
+        // Users compute in the even supersteps, items in the odd ones
+        stop = activeSet.update(this, COUNTER_GROUP);
+        sse = activeSet.getError(this, (int)((superstep-1)%2));
+      }
+      rmse = Math.sqrt(sse / numRatings);
 
       if (Parameters.DEBUG.get(getContext().getConfiguration()) 
           && superstep>2) {
@@ -321,8 +826,21 @@ public class Sgd extends BasicComputation<CfLongId, FloatMatrixWritable,
           COUNTER_GROUP, NUM_RATINGS_COUNTER, numRatings);
 
       if (rmseTarget>0f && rmse<rmseTarget) {
-        haltComputation();
+        stop = true;
       } else if (superstep>maxIterations) {
+        stop = true;
+      }
+
+      if (stop && validation != null) {
+        validation.startRestore(this);
+        setComputation(RestoreComputation.class);
+      } else if (stop && optimizer != null) {
+        finishSuperstep = superstep;
+        setComputation(FinishComputation.class);
+      } else if (stop && hotDegree > 0) {
+        dropSuperstep = superstep;
+        setComputation(DropMirrorsComputation.class);
+      } else if (stop) {
         haltComputation();
       }
     }
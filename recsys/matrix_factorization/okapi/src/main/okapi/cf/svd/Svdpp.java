@@ -20,9 +20,16 @@ import java.io.DataOutput;
 import java.io.IOException;
 import java.util.Random;
 
+import ml.grafos.okapi.cf.AdaptiveRate;
 import ml.grafos.okapi.cf.CfLongId;
+import ml.grafos.okapi.cf.EarlyStopping;
 import ml.grafos.okapi.cf.FloatMatrixMessage;
+import ml.grafos.okapi.cf.HotVertices;
+import ml.grafos.okapi.cf.annotations.HyperParameter;
+import ml.grafos.okapi.cf.annotations.HyperParameterBinder;
+import ml.grafos.okapi.common.CounterRandom;
 import ml.grafos.okapi.common.Parameters;
+import ml.grafos.okapi.common.jblas.FloatKernels;
 import ml.grafos.okapi.common.jblas.FloatMatrixWritable;
 import ml.grafos.okapi.utils.Counters;
 
@@ -35,12 +42,22 @@ import org.apache.giraph.graph.Vertex;
 import org.apache.giraph.master.DefaultMasterCompute;
 import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Writable;
 import org.jblas.FloatMatrix;
 
 
 /**
  * Singular Value Decomposition (SVD) implementation.
+ *
+ * Items with a very high degree can be split, see {@link HotVertices}. The
+ * mirrors apply the steps of their users to a copy of the item and send the
+ * change to the item, which adds up the changes in the next user superstep.
+ * A fraction of the ratings can be held out to stop on the validation error,
+ * see {@link EarlyStopping}. The held-out items still count in the implicit
+ * feedback of the users. The fixed learning rate of the factors and weights
+ * can be replaced by per-coordinate rates, see {@link AdaptiveRate}; the
+ * baselines keep their fixed rate.
  */
 @Algorithm(
   name = "SVD++",
@@ -121,8 +138,12 @@ public class Svdpp {
       FloatMatrix item, final int numRatings, FloatMatrix sumWeights, 
       final float minRating, final float maxRating ) {
     
+    // item holds the factors in its first user.length elements
+    int n = user.length;
     float predicted = meanRating + userBaseline+ itemBaseline +
-        item.dot(user.add(sumWeights.mul(1.0f/(float)(Math.sqrt(numRatings)))));
+        FloatKernels.dot(item.data, user.data, n) +
+        FloatKernels.dot(item.data, sumWeights.data, n) /
+        (float)(Math.sqrt(numRatings));
     
     // Correct the predicted rating to be between the min and max ratings
     predicted = Math.min(predicted, maxRating);
@@ -178,12 +199,40 @@ public class Svdpp {
    */
   protected static void incrementValue(FloatMatrix value, FloatMatrix step, 
       final float gamma, final float lambda) {
-    value.addi(value.mul(-gamma*lambda).addi(step));
+    incrementValue(value, step.data, 0, gamma, lambda);
+  }
+
+  /**
+   * Same as {@link #incrementValue(FloatMatrix, FloatMatrix, float, float)},
+   * with the step at an offset of an array.
+   */
+  protected static void incrementValue(FloatMatrix value, float[] step, 
+      int stepOffset, final float gamma, final float lambda) {
+    FloatKernels.scaledAdd(1f-gamma*lambda, value.data, 0, 1f, step, 
+        stepOffset, value.length);
+  }
+
+  /**
+   * Packs the factors and the weights of an item in the matrix of a message,
+   * as two columns, so that both are contiguous.
+   * 
+   * @param factors
+   * @param weights
+   * @return a vectorSize x 2 matrix
+   */
+  protected static FloatMatrixWritable pack(FloatMatrix factors, 
+      FloatMatrix weights) {
+    int n = factors.length;
+    FloatMatrixWritable packedVectors = new FloatMatrixWritable(n, 2);
+    System.arraycopy(factors.data, 0, packedVectors.data, 0, n);
+    System.arraycopy(weights.data, 0, packedVectors.data, n, n);
+    return packedVectors;
   }
 
   /**
    * A value in the Svdpp algorithm consists of (i) the baseline estimate, (ii)
-   * the latent vector, and (iii) the weight vector.
+   * the latent vector, and (iii) the weight vector. With an adaptive rate it
+   * also holds the state of the optimizer, which is not part of the output.
    * 
    * @author dl
    *
@@ -192,6 +241,7 @@ public class Svdpp {
     private float baseline;
     private FloatMatrixWritable factors;
     private FloatMatrixWritable weight;
+    private FloatMatrixWritable state;
 
     public SvdppValue() {}
  
@@ -200,6 +250,17 @@ public class Svdpp {
     public FloatMatrixWritable getFactors() { return factors; }
     public FloatMatrixWritable getWeight() { return weight; }
 
+    /**
+     * @param size
+     * @return the state of the optimizer, zeroed if it did not have this size
+     */
+    public FloatMatrixWritable getState(int size) {
+      if (state == null || state.length != size) {
+        state = new FloatMatrixWritable(size, 1);
+      }
+      return state;
+    }
+
     public SvdppValue(float baseline, FloatMatrixWritable factors, 
         FloatMatrixWritable weight) {
       this.baseline = baseline;
@@ -214,6 +275,8 @@ public class Svdpp {
       factors.readFields(input);
       weight = new FloatMatrixWritable();
       weight.readFields(input);
+      state = new FloatMatrixWritable();
+      state.readFields(input);
     }
 
     @Override
@@ -221,6 +284,7 @@ public class Svdpp {
       output.writeFloat(baseline);
       factors.write(output);
       weight.write(output);
+      (state == null ? new FloatMatrixWritable(0) : state).write(output);
     }
 
     @Override
@@ -238,6 +302,14 @@ public class Svdpp {
   public static class InitUsersComputation extends BasicComputation<CfLongId, 
   SvdppValue, FloatWritable, FloatMatrixMessage> {
 
+    private CounterRandom random;
+
+    @Override
+    public void preSuperstep() {
+      random = CounterRandom.fromConf(getConf());
+      EarlyStopping.clear();
+    }
+
     @Override
     public void compute(Vertex<CfLongId, SvdppValue, 
         FloatWritable> vertex, Iterable<FloatMatrixMessage> messages) 
@@ -257,7 +329,8 @@ public class Svdpp {
 
       FloatMatrixWritable factors = new FloatMatrixWritable(1, vectorSize);
       
-      Random randGen = new Random();
+      Random randGen = random.reset(CounterRandom.key(
+          vertex.getId().getId(), vertex.getId().getType()), getSuperstep());
       for (int i=0; i<factors.length; i++) {
         factors.put(i, 0.01f*randGen.nextFloat());
       }
@@ -282,6 +355,13 @@ public class Svdpp {
   public static class InitItemsComputation extends BasicComputation<CfLongId, 
   SvdppValue, FloatWritable, FloatMatrixMessage> {
 
+    private CounterRandom random;
+
+    @Override
+    public void preSuperstep() {
+      random = CounterRandom.fromConf(getConf());
+    }
+
     @Override
     public void compute(
         Vertex<CfLongId, SvdppValue, FloatWritable> vertex,
@@ -304,7 +384,8 @@ public class Svdpp {
       FloatMatrixWritable factors = new FloatMatrixWritable(1, vectorSize);
       FloatMatrixWritable weight = new FloatMatrixWritable(1, vectorSize);
 
-      Random randGen = new Random();
+      Random randGen = random.reset(CounterRandom.key(
+          vertex.getId().getId(), vertex.getId().getType()), getSuperstep());
       for (int i=0; i<factors.length; i++) {
         factors.put(i, 0.01f*randGen.nextFloat());
         weight.put(i, 0.01f*randGen.nextFloat());
@@ -314,13 +395,15 @@ public class Svdpp {
       vertex.setValue(new SvdppValue(baseline, factors, weight));
       
       // Start iterations by sending vectors to users
-      FloatMatrixWritable packedVectors = 
-          new FloatMatrixWritable(2, vectorSize);
-      packedVectors.putRow(0, factors);
-      packedVectors.putRow(1, weight);
+      FloatMatrixWritable packedVectors = pack(factors, weight);
 
-      sendMessageToAllEdges(vertex, 
-          new FloatMatrixMessage(vertex.getId(), packedVectors, baseline));
+      int hotDegree = HotVertices.getHotDegree(getConf());
+      if (hotDegree > 0 && vertex.getNumEdges() > hotDegree) {
+        HotVertices.split(this, vertex, hotDegree, packedVectors, baseline);
+      } else {
+        sendMessageToAllEdges(vertex, 
+            new FloatMatrixMessage(vertex.getId(), packedVectors, baseline));
+      }
 
       vertex.voteToHalt();
     }
@@ -329,39 +412,57 @@ public class Svdpp {
   public static class UserComputation extends BasicComputation<CfLongId, 
   SvdppValue, FloatWritable, FloatMatrixMessage> {
 
+    @HyperParameter(parameterName=BIAS_LAMBDA, description="bias regularization",
+        defaultValue=BIAS_LAMBDA_DEFAULT, minimumValue=0.0001f, maximumValue=10)
     private float biasLambda;
+    @HyperParameter(parameterName=BIAS_GAMMA, description="bias learning rate",
+        defaultValue=BIAS_GAMMA_DEFAULT, minimumValue=0.0001f, maximumValue=1)
     private float biasGamma;
+    @HyperParameter(parameterName=FACTOR_LAMBDA, 
+        description="factor regularization", defaultValue=FACTOR_LAMBDA_DEFAULT,
+        minimumValue=0.0001f, maximumValue=10)
     private float factorLambda;
+    @HyperParameter(parameterName=FACTOR_GAMMA, 
+        description="factor learning rate", defaultValue=FACTOR_GAMMA_DEFAULT,
+        minimumValue=0.0001f, maximumValue=1)
     private float factorGamma;
+    @HyperParameter(parameterName=MIN_RATING, description="minimum rating",
+        defaultValue=MIN_RATING_DEFAULT, minimumValue=-Float.MAX_VALUE,
+        maximumValue=Float.MAX_VALUE, tunable=false)
     private float minRating;
+    @HyperParameter(parameterName=MAX_RATING, description="maximum rating",
+        defaultValue=MAX_RATING_DEFAULT, minimumValue=-Float.MAX_VALUE,
+        maximumValue=Float.MAX_VALUE, tunable=false)
     private float maxRating;
+    @HyperParameter(parameterName=VECTOR_SIZE, description="latent vector size",
+        defaultValue=VECTOR_SIZE_DEFAULT, minimumValue=1, maximumValue=1000)
     private int vectorSize;
     private float meanRating;
+    private int hotDegree;
+    private EarlyStopping validation;
+    private AdaptiveRate optimizer;
     
     protected void updateValue(FloatMatrix user, FloatMatrix item, 
         final float error, final float gamma, final float lambda) {
       
-      user.addi(user.mul(-lambda*gamma).addi(item.mul(error*gamma)));
+      FloatKernels.scaledAdd(1f-lambda*gamma, user.data, error*gamma, 
+          item.data, user.length);
     }
     
     @Override
     public void preSuperstep() {
-      factorLambda = getContext().getConfiguration().getFloat(FACTOR_LAMBDA, 
-          FACTOR_LAMBDA_DEFAULT);
-      factorGamma = getContext().getConfiguration().getFloat(FACTOR_GAMMA, 
-          FACTOR_GAMMA_DEFAULT);
-      biasLambda = getContext().getConfiguration().getFloat(BIAS_LAMBDA, 
-          BIAS_LAMBDA_DEFAULT);
-      biasGamma = getContext().getConfiguration().getFloat(BIAS_GAMMA, 
-          BIAS_GAMMA_DEFAULT);
-      minRating = getContext().getConfiguration().getFloat(MIN_RATING, 
-          MIN_RATING_DEFAULT);
-      maxRating = getContext().getConfiguration().getFloat(MAX_RATING, 
-          MAX_RATING_DEFAULT);
-      vectorSize = getContext().getConfiguration().getInt(VECTOR_SIZE, 
-          VECTOR_SIZE_DEFAULT);
+      HyperParameterBinder.forClass(getClass()).bind(this, getConf());
+      hotDegree = HotVertices.getHotDegree(getConf());
+      long numEdges = getTotalNumEdges();
+      if (hotDegree > 0) {
+        // The edges from the split items to their mirrors are not ratings
+        numEdges -= ((LongWritable)getAggregatedValue(
+            HotVertices.MIRROR_EDGES_AGGREGATOR)).get();
+      }
       meanRating = (float) (((DoubleWritable)getAggregatedValue(
-          OVERALL_RATING_AGGREGATOR)).get()/getTotalNumEdges());
+          OVERALL_RATING_AGGREGATOR)).get()/numEdges);
+      validation = EarlyStopping.get(getConf());
+      optimizer = AdaptiveRate.get(getConf());
     }
     
     @Override
@@ -369,23 +470,51 @@ public class Svdpp {
         Vertex<CfLongId, SvdppValue, FloatWritable> vertex,
         Iterable<FloatMatrixMessage> messages) throws IOException {
       
+      if (hotDegree > 0) {
+        if (HotVertices.isMirror(vertex.getId())) {
+          // Mirrors compute with the items
+          vertex.voteToHalt();
+          return;
+        }
+        if (HotVertices.isMaster(vertex)) {
+          computeMaster(vertex, messages);
+          return;
+        }
+        if (getSuperstep() == 2) {
+          HotVertices.retargetEdges(vertex, messages);
+        }
+      }
+
       double rmsePartialSum = 0d;
+      double validationPartialSum = 0d;
+      long numValidation = 0;
+
+      if (validation != null) {
+        EarlyStopping.snapshotIfBest(this, vertex);
+      }
       
       float userBaseline = vertex.getValue().getBaseline();
       int numRatings = vertex.getNumEdges();
       FloatMatrixWritable userFactors = vertex.getValue().getFactors();
+      FloatMatrixWritable state = optimizer == null ? null : 
+        vertex.getValue().getState(optimizer.getStateSize(vectorSize));
       
       FloatMatrix sumWeights = new FloatMatrix(1,vectorSize);
       for (FloatMatrixMessage msg : messages) {
-        // The weights are in the 2nd row of the matrix
-        sumWeights.addi(msg.getFactors().getRow(1));
+        // The weights are in the 2nd column of the matrix
+        FloatKernels.axpy(1f, msg.getFactors().data, vectorSize, 
+            sumWeights.data, 0, vectorSize);
       }
       
       FloatMatrix itemWeightStep = new FloatMatrix(1,vectorSize);
 
       for (FloatMatrixMessage msg : messages) {
-         // row 1 of the matrix in the message holds the item factors
-        FloatMatrix itemFactors = msg.getFactors().getRow(0);
+        if (validation != null && 
+            validation.isHeldOut(vertex.getId(), msg.getSenderId())) {
+          continue;
+        }
+        // the 1st column of the matrix in the message holds the item factors
+        FloatMatrix itemFactors = msg.getFactors();
         // score holds the item baseline estimate
         float itemBaseline = msg.getScore();
 
@@ -401,9 +530,16 @@ public class Svdpp {
             observed, biasGamma, biasLambda);
         
         // Update the value
-        updateValue(userFactors, itemFactors, error, factorGamma, factorLambda);
+        if (optimizer != null) {
+          optimizer.update(userFactors.data, 0, -error, itemFactors.data, 0,
+              factorLambda, state.data, 0, vectorSize, factorGamma);
+        } else {
+          updateValue(userFactors, itemFactors, error, factorGamma, 
+              factorLambda);
+        }
         
-        itemWeightStep.addi(itemFactors.mul(error));
+        FloatKernels.axpy(error, itemFactors.data, itemWeightStep.data, 
+            vectorSize);
       }
       
       vertex.getValue().setBaseline(userBaseline);
@@ -413,7 +549,7 @@ public class Svdpp {
       // Now we iterate again to get the new predictions and send the updates
       // to each item.
       for (FloatMatrixMessage msg : messages) {
-        FloatMatrix itemFactors = msg.getFactors().getRow(0);
+        FloatMatrix itemFactors = msg.getFactors();
         float itemBaseline = msg.getScore();
         float observed = vertex.getEdgeValue(msg.getSenderId()).get();
         float predicted = computePredictedRating(
@@ -421,15 +557,29 @@ public class Svdpp {
             userFactors, itemFactors,
             numRatings, sumWeights, minRating, maxRating);
         float error = predicted - observed;
+
+        if (validation != null && 
+            validation.isHeldOut(vertex.getId(), msg.getSenderId())) {
+          // The item ignores the steps of its held-out ratings, but the
+          // message keeps it active.
+          validationPartialSum += (error*error);
+          numValidation++;
+          sendMessage(msg.getSenderId(), new FloatMatrixMessage(
+              vertex.getId(), new FloatMatrixWritable(0), 0f));
+          continue;
+        }
+
         float itemBiasStep = biasGamma*error;
-        FloatMatrix itemFactorStep = 
-            sumWeights.mul(1f/(float)Math.sqrt(numRatings)).add(
-                userFactors).mul(factorGamma*error);
-        
+        // The factor step is gamma*error*(p + |N|^-1/2 * sum(y_j)), the
+        // weight step comes after it
         FloatMatrixWritable packedVectors = 
-            new FloatMatrixWritable(2, vectorSize);
-        packedVectors.putRow(0, itemFactorStep);
-        packedVectors.putRow(1, itemWeightStep); 
+            new FloatMatrixWritable(vectorSize, 2);
+        FloatKernels.axpy(factorGamma*error, userFactors.data, 
+            packedVectors.data, vectorSize);
+        FloatKernels.axpy(factorGamma*error/(float)Math.sqrt(numRatings), 
+            sumWeights.data, packedVectors.data, vectorSize);
+        System.arraycopy(itemWeightStep.data, 0, packedVectors.data, 
+            vectorSize, vectorSize);
         
         rmsePartialSum += (error*error);
 
@@ -439,7 +589,40 @@ public class Svdpp {
       }
 
       aggregate(RMSE_AGGREGATOR, new DoubleWritable(rmsePartialSum));
+      if (validation != null) {
+        aggregate(EarlyStopping.VALIDATION_AGGREGATOR, 
+            new DoubleWritable(validationPartialSum));
+        aggregate(EarlyStopping.VALIDATION_COUNT_AGGREGATOR, 
+            new LongWritable(numValidation));
+      }
+
+      vertex.voteToHalt();
+    }
 
+    /**
+     * A split item: adds up the changes of its mirrors, and sends the new
+     * value to them.
+     */
+    private void computeMaster(
+        Vertex<CfLongId, SvdppValue, FloatWritable> vertex,
+        Iterable<FloatMatrixMessage> messages) {
+
+      SvdppValue value = vertex.getValue();
+      float itemBaseline = value.getBaseline();
+      for (FloatMatrixMessage msg : messages) {
+        itemBaseline += msg.getScore();
+        float[] changes = msg.getFactors().data;
+        FloatKernels.axpy(1f, changes, 0, value.getFactors().data, 0, 
+            vectorSize);
+        FloatKernels.axpy(1f, changes, vectorSize, value.getWeight().data, 0,
+            vectorSize);
+      }
+      value.setBaseline(itemBaseline);
+
+      FloatMatrixWritable packedVectors = 
+          pack(value.getFactors(), value.getWeight());
+      sendMessageToAllEdges(vertex, 
+          new FloatMatrixMessage(vertex.getId(), packedVectors, itemBaseline));
       vertex.voteToHalt();
     }
   }
@@ -447,24 +630,33 @@ public class Svdpp {
   public static class ItemComputation extends BasicComputation<CfLongId, 
   SvdppValue, FloatWritable, FloatMatrixMessage> {
     
+    @HyperParameter(parameterName=BIAS_LAMBDA, description="bias regularization",
+        defaultValue=BIAS_LAMBDA_DEFAULT, minimumValue=0.0001f, maximumValue=10)
     private float biasLambda;
+    @HyperParameter(parameterName=BIAS_GAMMA, description="bias learning rate",
+        defaultValue=BIAS_GAMMA_DEFAULT, minimumValue=0.0001f, maximumValue=1)
     private float biasGamma;
+    @HyperParameter(parameterName=FACTOR_LAMBDA, 
+        description="factor regularization", defaultValue=FACTOR_LAMBDA_DEFAULT,
+        minimumValue=0.0001f, maximumValue=10)
     private float factorLambda;
+    @HyperParameter(parameterName=FACTOR_GAMMA, 
+        description="factor learning rate", defaultValue=FACTOR_GAMMA_DEFAULT,
+        minimumValue=0.0001f, maximumValue=1)
     private float factorGamma;
+    @HyperParameter(parameterName=VECTOR_SIZE, description="latent vector size",
+        defaultValue=VECTOR_SIZE_DEFAULT, minimumValue=1, maximumValue=1000)
     private int vectorSize;
+    private int hotDegree;
+    private EarlyStopping validation;
+    private AdaptiveRate optimizer;
 
     @Override
     public void preSuperstep() {
-      biasLambda = getContext().getConfiguration().getFloat(BIAS_LAMBDA, 
-          BIAS_LAMBDA_DEFAULT);
-      biasGamma = getContext().getConfiguration().getFloat(BIAS_GAMMA, 
-          BIAS_GAMMA_DEFAULT);  
-      factorLambda = getContext().getConfiguration().getFloat(FACTOR_LAMBDA, 
-          FACTOR_LAMBDA_DEFAULT);
-      factorGamma = getContext().getConfiguration().getFloat(FACTOR_GAMMA, 
-          FACTOR_GAMMA_DEFAULT);
-      vectorSize = getContext().getConfiguration().getInt(VECTOR_SIZE, 
-          VECTOR_SIZE_DEFAULT);
+      HyperParameterBinder.forClass(getClass()).bind(this, getConf());
+      hotDegree = HotVertices.getHotDegree(getConf());
+      validation = EarlyStopping.get(getConf());
+      optimizer = AdaptiveRate.get(getConf());
     }
     
     @Override
@@ -472,25 +664,52 @@ public class Svdpp {
         Vertex<CfLongId, SvdppValue, FloatWritable> vertex,
         Iterable<FloatMatrixMessage> messages) throws IOException {
       
+      if (hotDegree > 0 && HotVertices.isMirror(vertex.getId())) {
+        computeMirror(vertex, messages);
+        return;
+      }
+
+      if (validation != null) {
+        EarlyStopping.snapshotIfBest(this, vertex);
+      }
+
       float itemBaseline = vertex.getValue().getBaseline();
       FloatMatrix itemFactors = vertex.getValue().getFactors();
       FloatMatrix itemWeights = vertex.getValue().getWeight();
+      // The state of the factors is followed by the state of the weights
+      int stateSize = optimizer == null ? 0 : 
+        optimizer.getStateSize(vectorSize);
+      FloatMatrixWritable state = optimizer == null ? null : 
+        vertex.getValue().getState(2*stateSize);
       
       for (FloatMatrixMessage msg : messages) {
+        if (validation != null && 
+            validation.isHeldOut(vertex.getId(), msg.getSenderId())) {
+          continue;
+        }
         float itemBiasStep = msg.getScore();
-        FloatMatrix itemFactorStep = msg.getFactors().getRow(0);
-        FloatMatrix itemWeightStep = msg.getFactors().getRow(1);
+        // The factor step is followed by the weight step
+        float[] steps = msg.getFactors().data;
         
         itemBaseline = incrementValue(itemBaseline, itemBiasStep, biasGamma, 
             biasLambda);
-        incrementValue(itemFactors, itemFactorStep, factorGamma, factorLambda);
-        incrementValue(itemWeights, itemWeightStep, factorGamma, factorLambda);
+        if (optimizer != null) {
+          // The steps are already scaled by the rate, the gradients are
+          // lambda*v - step/gamma
+          optimizer.update(itemFactors.data, 0, -1f/factorGamma, 
+              steps, 0, factorLambda, state.data, 0, 
+              vectorSize, factorGamma);
+          optimizer.update(itemWeights.data, 0, -1f/factorGamma, 
+              steps, vectorSize, factorLambda, state.data, stateSize, 
+              vectorSize, factorGamma);
+        } else {
+          incrementValue(itemFactors, steps, 0, factorGamma, factorLambda);
+          incrementValue(itemWeights, steps, vectorSize, factorGamma, 
+              factorLambda);
+        }
       }
       
-      FloatMatrixWritable packedVectors = 
-          new FloatMatrixWritable(2, vectorSize);
-      packedVectors.putRow(0, itemFactors);
-      packedVectors.putRow(1, itemWeights); 
+      FloatMatrixWritable packedVectors = pack(itemFactors, itemWeights);
 
       sendMessageToAllEdges(vertex, 
           new FloatMatrixMessage(vertex.getId(), packedVectors, itemBaseline));
@@ -498,14 +717,100 @@ public class Svdpp {
       vertex.getValue().setBaseline(itemBaseline);
       vertex.voteToHalt();
     }
+
+    /**
+     * A mirror of a split item: applies the steps of its users to a copy of
+     * the value of the item, sends the change to the item, and forwards the
+     * value of the item to its users.
+     */
+    private void computeMirror(
+        Vertex<CfLongId, SvdppValue, FloatWritable> vertex,
+        Iterable<FloatMatrixMessage> messages) {
+
+      CfLongId master = HotVertices.masterId(vertex.getId());
+      SvdppValue value = vertex.getValue();
+      for (FloatMatrixMessage msg : messages) {
+        if (msg.getSenderId().equals(master)) {
+          value.setBaseline(msg.getScore());
+          float[] packed = msg.getFactors().data;
+          System.arraycopy(packed, 0, value.getFactors().data, 0, vectorSize);
+          System.arraycopy(packed, vectorSize, value.getWeight().data, 0, 
+              vectorSize);
+        }
+      }
+
+      float itemBaseline = value.getBaseline();
+      FloatMatrix itemFactors = value.getFactors().dup();
+      FloatMatrix itemWeights = value.getWeight().dup();
+      boolean updated = false;
+      for (FloatMatrixMessage msg : messages) {
+        if (msg.getSenderId().equals(master)) {
+          continue;
+        }
+        itemBaseline = incrementValue(itemBaseline, msg.getScore(), biasGamma, 
+            biasLambda);
+        incrementValue(itemFactors, msg.getFactors().data, 0, factorGamma, 
+            factorLambda);
+        incrementValue(itemWeights, msg.getFactors().data, vectorSize, 
+            factorGamma, factorLambda);
+        updated = true;
+      }
+
+      if (updated) {
+        FloatMatrixWritable changes = pack(
+            itemFactors.subi(value.getFactors()), 
+            itemWeights.subi(value.getWeight()));
+        sendMessage(master, new FloatMatrixMessage(vertex.getId(), changes, 
+            itemBaseline - value.getBaseline()));
+      }
+
+      FloatMatrixWritable packedVectors = 
+          pack(value.getFactors(), value.getWeight());
+      sendMessageToAllEdges(vertex, new FloatMatrixMessage(vertex.getId(), 
+          packedVectors, value.getBaseline()));
+      vertex.voteToHalt();
+    }
   }
   
+  /**
+   * Puts back the values of the best superstep when the job stops on the
+   * validation error, see {@link EarlyStopping}.
+   */
+  public static class RestoreComputation extends 
+  EarlyStopping.RestoreComputation<SvdppValue, FloatMatrixMessage> {
+
+    @Override
+    protected FloatMatrixMessage wakeUpMessage(
+        Vertex<CfLongId, SvdppValue, FloatWritable> vertex) {
+      return new FloatMatrixMessage(vertex.getId(), 
+          new FloatMatrixWritable(0), 0f);
+    }
+  }
+
+  /**
+   * Removes the mirrors of the split items when the job stops, see
+   * {@link HotVertices}.
+   */
+  public static class DropMirrorsComputation extends 
+  HotVertices.DropMirrorsComputation<SvdppValue, FloatMatrixMessage> {
+
+    @Override
+    protected FloatMatrixMessage wakeUpMessage(
+        Vertex<CfLongId, SvdppValue, FloatWritable> vertex) {
+      return new FloatMatrixMessage(vertex.getId(), 
+          new FloatMatrixWritable(0), 0f);
+    }
+  }
+
   /**
    * Coordinates the execution of the algorithm.
    */
   public static class MasterCompute extends DefaultMasterCompute {
     private int maxIterations;
     private float rmseTarget;
+    private EarlyStopping validation;
+    private int hotDegree;
+    private long dropSuperstep = -1;
 
     @Override
     public final void initialize() throws InstantiationException,
@@ -513,6 +818,22 @@ public class Svdpp {
       registerAggregator(RMSE_AGGREGATOR, DoubleSumAggregator.class);
       registerPersistentAggregator(OVERALL_RATING_AGGREGATOR,
         DoubleSumAggregator.class);
+      HotVertices.registerAggregators(this);
+      hotDegree = HotVertices.getHotDegree(getContext().getConfiguration());
+      validation = EarlyStopping.get(getContext().getConfiguration());
+      if (validation != null) {
+        if (HotVertices.getHotDegree(getContext().getConfiguration()) > 0) {
+          throw new IllegalArgumentException(
+              EarlyStopping.VALIDATION_FRACTION + " cannot be combined with " +
+              HotVertices.HOT_DEGREE);
+        }
+        validation.registerAggregators(this);
+      }
+      if (AdaptiveRate.get(getContext().getConfiguration()) != null &&
+          HotVertices.getHotDegree(getContext().getConfiguration()) > 0) {
+        throw new IllegalArgumentException(AdaptiveRate.OPTIMIZER + 
+            " cannot be combined with " + HotVertices.HOT_DEGREE);
+      }
       maxIterations = getContext().getConfiguration().getInt(ITERATIONS,
           ITERATIONS_DEFAULT);
       rmseTarget = getContext().getConfiguration().getFloat(RMSE_TARGET,
@@ -522,6 +843,20 @@ public class Svdpp {
     @Override
     public final void compute() {
       long superstep = getSuperstep();
+      if (validation != null && validation.isRestoring()) {
+        setComputation(RestoreComputation.class);
+        if (validation.isRestored(this)) {
+          haltComputation();
+        }
+        return;
+      }
+      if (dropSuperstep >= 0) {
+        setComputation(DropMirrorsComputation.class);
+        if (superstep >= dropSuperstep+3) {
+          haltComputation();
+        }
+        return;
+      }
       if (superstep == 0) {
         setComputation(InitUsersComputation.class);
       } else if (superstep == 1) {
@@ -538,7 +873,13 @@ public class Svdpp {
       if (superstep <= 2) {
         numRatings = getTotalNumEdges();
       } else {
-        numRatings = getTotalNumEdges() / 2;
+        numRatings = HotVertices.getNumRatings(this);
+      }
+      
+      boolean stop = false;
+      if (validation != null) {
+        stop = validation.update(this, COUNTER_GROUP);
+        numRatings -= validation.getNumHeldOut();
       }
       
       rmse = Math.sqrt(((DoubleWritable)getAggregatedValue(RMSE_AGGREGATOR))
@@ -558,8 +899,18 @@ public class Svdpp {
           COUNTER_GROUP, NUM_RATINGS_COUNTER, numRatings);
 
       if (rmseTarget>0f && rmse<rmseTarget) {
-        haltComputation();
+        stop = true;
       } else if (superstep>maxIterations) {
+        stop = true;
+      }
+
+      if (stop && validation != null) {
+        validation.startRestore(this);
+        setComputation(RestoreComputation.class);
+      } else if (stop && hotDegree > 0) {
+        dropSuperstep = superstep;
+        setComputation(DropMirrorsComputation.class);
+      } else if (stop) {
         haltComputation();
       }
     }
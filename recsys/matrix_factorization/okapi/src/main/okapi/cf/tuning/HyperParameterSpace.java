@@ -0,0 +1,124 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package main.okapi.cf.tuning;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import ml.grafos.okapi.cf.annotations.HyperParameter;
+
+/**
+ * The search space of a computation, as declared by the {@link HyperParameter}
+ * annotations on its fields and on the fields of its super classes.
+ *
+ * Parameters whose range spans at least two orders of magnitude (learning
+ * rates, regularizers) are sampled uniformly in log scale, the rest uniformly.
+ * Integer fields are rounded. Parameters that are not
+ * {@link HyperParameter#tunable()} are left out.
+ */
+public class HyperParameterSpace {
+
+  /** Ratio max/min above which a range is sampled in log scale. */
+  private static final float LOG_SCALE_RATIO = 100f;
+
+  private final List<HyperParameter> parameters =
+      new ArrayList<HyperParameter>();
+  private final List<Boolean> integer = new ArrayList<Boolean>();
+
+  /**
+   * Collects the hyper-parameters declared by the class hierarchy.
+   *
+   * @param computationClass
+   * @param fixed names of the parameters that must not be searched, for
+   * instance the one used as the iteration budget
+   */
+  public HyperParameterSpace(Class<?> computationClass, Set<String> fixed) {
+    Class<?> cl = computationClass;
+    while (cl != null) {
+      for (Field field : cl.getDeclaredFields()) {
+        HyperParameter hp = field.getAnnotation(HyperParameter.class);
+        if (hp != null && hp.tunable() &&
+            !fixed.contains(hp.parameterName())) {
+          parameters.add(hp);
+          integer.add(field.getType() == int.class ||
+              field.getType() == Integer.class);
+        }
+      }
+      cl = cl.getSuperclass();
+    }
+  }
+
+  public HyperParameterSpace(Class<?> computationClass) {
+    this(computationClass, Collections.<String>emptySet());
+  }
+
+  public List<HyperParameter> getParameters() {
+    return Collections.unmodifiableList(parameters);
+  }
+
+  /**
+   * Draws a random configuration from the space.
+   *
+   * @param random
+   * @return parameter name to value, formatted as it is passed to Giraph
+   */
+  public Map<String, String> sample(Random random) {
+    Map<String, String> configuration = new LinkedHashMap<String, String>();
+    for (int p=0; p<parameters.size(); p++) {
+      HyperParameter hp = parameters.get(p);
+      float min = hp.minimumValue();
+      float max = hp.maximumValue();
+      double value;
+      if (min > 0 && max/min >= LOG_SCALE_RATIO) {
+        value = Math.exp(Math.log(min) +
+            random.nextDouble()*(Math.log(max)-Math.log(min)));
+      } else {
+        value = min + random.nextDouble()*(max-min);
+      }
+      if (integer.get(p)) {
+        configuration.put(hp.parameterName(),
+            Long.toString(Math.round(value)));
+      } else {
+        configuration.put(hp.parameterName(), Float.toString((float)value));
+      }
+    }
+    return configuration;
+  }
+
+  /**
+   * @return the configuration made of the declared default values
+   */
+  public Map<String, String> defaults() {
+    Map<String, String> configuration = new LinkedHashMap<String, String>();
+    for (int p=0; p<parameters.size(); p++) {
+      HyperParameter hp = parameters.get(p);
+      if (integer.get(p)) {
+        configuration.put(hp.parameterName(),
+            Integer.toString((int)hp.defaultValue()));
+      } else {
+        configuration.put(hp.parameterName(),
+            Float.toString(hp.defaultValue()));
+      }
+    }
+    return configuration;
+  }
+}
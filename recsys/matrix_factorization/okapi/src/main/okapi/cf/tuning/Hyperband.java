@@ -0,0 +1,214 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package main.okapi.cf.tuning;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Hyperband search over the space declared with
+ * {@link ml.grafos.okapi.cf.annotations.HyperParameter}.
+ *
+ * The budget of a trial is the number of iterations of the algorithm. Every
+ * bracket runs successive halving: n random configurations are run for r
+ * iterations concurrently, only the best 1/eta survive and are run again with
+ * eta times more iterations. Losing configurations are therefore stopped after
+ * a few iterations and most of the cores are spent on the promising ones.
+ *
+ * L. Li, K. Jamieson, G. DeSalvo, A. Rostamizadeh, A. Talwalkar.
+ * Hyperband: A Novel Bandit-Based Approach to Hyperparameter Optimization.
+ * JMLR 2018.
+ */
+public class Hyperband {
+
+  private static final Logger logger = Logger.getLogger(Hyperband.class);
+
+  /**
+   * Runs a single configuration for a given number of iterations.
+   */
+  public interface Trial {
+    /**
+     * @param configuration parameter name to value
+     * @param budget number of iterations to run
+     * @return the loss reached, lower is better
+     */
+    float evaluate(Map<String, String> configuration, int budget)
+        throws Exception;
+  }
+
+  /**
+   * Outcome of a trial.
+   */
+  public static class Result implements Comparable<Result> {
+    private final Map<String, String> configuration;
+    private final int budget;
+    private final float loss;
+
+    public Result(Map<String, String> configuration, int budget, float loss) {
+      this.configuration = configuration;
+      this.budget = budget;
+      this.loss = loss;
+    }
+
+    public Map<String, String> getConfiguration() { return configuration; }
+    public int getBudget() { return budget; }
+    public float getLoss() { return loss; }
+
+    @Override
+    public int compareTo(Result other) {
+      return Float.compare(loss, other.loss);
+    }
+
+    @Override
+    public String toString() {
+      return loss+" "+budget+" "+configuration;
+    }
+  }
+
+  private final HyperParameterSpace space;
+  private final Trial trial;
+  private final int maxBudget;
+  private final int eta;
+  private final int threads;
+  private final Random random;
+
+  /**
+   * @param space search space
+   * @param trial runs one configuration
+   * @param maxBudget maximum number of iterations given to a configuration
+   * @param eta halving rate, 3 is the usual choice
+   * @param threads number of trials run concurrently
+   * @param seed seed of the configuration sampler
+   */
+  public Hyperband(HyperParameterSpace space, Trial trial, int maxBudget,
+      int eta, int threads, long seed) {
+    if (maxBudget < 1 || eta < 2 || threads < 1) {
+      throw new IllegalArgumentException("Hyperband requires maxBudget>=1, "
+          + "eta>=2 and threads>=1");
+    }
+    this.space = space;
+    this.trial = trial;
+    this.maxBudget = maxBudget;
+    this.eta = eta;
+    this.threads = threads;
+    this.random = new Random(seed);
+  }
+
+  /**
+   * Runs all the brackets and returns the best configuration found among the
+   * ones that were given the full budget.
+   */
+  public Result run() throws InterruptedException, ExecutionException {
+    int sMax = 0;
+    while (pow(eta, sMax+1) <= maxBudget) {
+      sMax++;
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      Result best = null;
+      for (int s=sMax; s>=0; s--) {
+        int n = (int)Math.ceil((double)(sMax+1)/(s+1)*pow(eta, s));
+        List<Map<String, String>> configurations =
+            new ArrayList<Map<String, String>>();
+        for (int i=0; i<n; i++) {
+          configurations.add(space.sample(random));
+        }
+        Result result = successiveHalving(executor, configurations, s);
+        logger.info("Bracket "+s+" best: "+result);
+        if (best == null || result.compareTo(best) < 0) {
+          best = result;
+        }
+      }
+      return best;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Runs one bracket.
+   *
+   * @param executor
+   * @param configurations the initial configurations
+   * @param s number of halvings of the bracket
+   * @return the best result of the last rung
+   */
+  Result successiveHalving(ExecutorService executor,
+      List<Map<String, String>> configurations, int s)
+          throws InterruptedException, ExecutionException {
+    List<Result> results = null;
+    for (int i=0; i<=s; i++) {
+      int budget = Math.max(1, maxBudget / pow(eta, s-i));
+      results = evaluate(executor, configurations, budget);
+      Collections.sort(results);
+      int survivors = Math.max(1, results.size() / eta);
+      configurations = new ArrayList<Map<String, String>>();
+      for (Result result : results.subList(0, survivors)) {
+        configurations.add(result.getConfiguration());
+      }
+      logger.info("Rung "+i+": "+results.size()+" configurations with "+
+          budget+" iterations, best "+results.get(0));
+    }
+    return results.get(0);
+  }
+
+  private List<Result> evaluate(ExecutorService executor,
+      List<Map<String, String>> configurations, final int budget)
+          throws InterruptedException, ExecutionException {
+    List<Future<Result>> futures = new ArrayList<Future<Result>>();
+    for (final Map<String, String> configuration : configurations) {
+      futures.add(executor.submit(new Callable<Result>() {
+        @Override
+        public Result call() throws Exception {
+          float loss;
+          try {
+            loss = trial.evaluate(configuration, budget);
+          } catch (Exception e) {
+            logger.warn("Trial "+configuration+" failed", e);
+            loss = Float.POSITIVE_INFINITY;
+          }
+          if (Float.isNaN(loss)) {
+            loss = Float.POSITIVE_INFINITY;
+          }
+          return new Result(configuration, budget, loss);
+        }
+      }));
+    }
+    List<Result> results = new ArrayList<Result>();
+    for (Future<Result> future : futures) {
+      results.add(future.get());
+    }
+    return results;
+  }
+
+  private static int pow(int base, int exponent) {
+    int result = 1;
+    for (int i=0; i<exponent; i++) {
+      result *= base;
+    }
+    return result;
+  }
+}
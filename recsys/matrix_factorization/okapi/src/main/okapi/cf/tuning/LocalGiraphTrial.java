@@ -0,0 +1,160 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package main.okapi.cf.tuning;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.log4j.Logger;
+
+/**
+ * Runs a trial as a Giraph job on the local engine, in a child JVM.
+ *
+ * Every trial gets its own ZooKeeper port and output directory, so that many
+ * of them can run concurrently on the cores of one machine.
+ * {@link org.apache.giraph.utils.InternalVertexRunner} cannot be used for this
+ * because it always binds the same ZooKeeper port.
+ *
+ * The loss of a trial is the last value of a Hadoop counter printed by the
+ * job, for instance "RMSE (x1000)" for {@code Als}, {@code Sgd} and
+ * {@code Svdpp}.
+ *
+ * Usage:
+ * <pre>
+ * LocalGiraphTrial &lt;annotated class&gt; &lt;budget parameter&gt; &lt;max budget&gt;
+ *   &lt;eta&gt; &lt;threads&gt; &lt;counter name&gt; &lt;GiraphRunner arguments...&gt;
+ * </pre>
+ */
+public class LocalGiraphTrial implements Hyperband.Trial {
+
+  private static final Logger logger = Logger.getLogger(LocalGiraphTrial.class);
+
+  /** First ZooKeeper port handed to the trials. */
+  private static final int ZOOKEEPER_PORT_BASE = 23000;
+
+  private final List<String> runnerArguments;
+  private final String budgetParameter;
+  private final Pattern counterPattern;
+  private final AtomicInteger trialCounter = new AtomicInteger();
+
+  /**
+   * @param runnerArguments arguments passed to GiraphRunner, they should not
+   * include the output path
+   * @param budgetParameter name of the parameter holding the iterations
+   * @param counterName counter holding the loss
+   */
+  public LocalGiraphTrial(List<String> runnerArguments, String budgetParameter,
+      String counterName) {
+    this.runnerArguments = runnerArguments;
+    this.budgetParameter = budgetParameter;
+    this.counterPattern = Pattern.compile(
+        "^\\s*"+Pattern.quote(counterName)+"=(-?\\d+)\\s*$");
+  }
+
+  @Override
+  public float evaluate(Map<String, String> configuration, int budget)
+      throws Exception {
+    int trial = trialCounter.getAndIncrement();
+    File output = File.createTempFile("okapi-trial-"+trial+"-", "");
+    output.delete();
+
+    List<String> command = new ArrayList<String>();
+    command.add(System.getProperty("java.home")+File.separator+"bin"+
+        File.separator+"java");
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add("org.apache.giraph.GiraphRunner");
+    command.addAll(runnerArguments);
+    command.add("-op");
+    command.add(output.getAbsolutePath());
+    command.add("-w");
+    command.add("1");
+    addCustomArgument(command, "giraph.SplitMasterWorker", "false");
+    addCustomArgument(command, "giraph.localTestMode", "true");
+    addCustomArgument(command, "giraph.zkServerPort",
+        Integer.toString(ZOOKEEPER_PORT_BASE + trial));
+    addCustomArgument(command, "mapreduce.framework.name", "local");
+    addCustomArgument(command, budgetParameter, Integer.toString(budget));
+    for (Map.Entry<String, String> parameter : configuration.entrySet()) {
+      addCustomArgument(command, parameter.getKey(), parameter.getValue());
+    }
+
+    Process process = new ProcessBuilder(command).redirectErrorStream(true)
+        .start();
+    Long value = null;
+    BufferedReader reader = new BufferedReader(
+        new InputStreamReader(process.getInputStream()));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        Matcher matcher = counterPattern.matcher(line);
+        if (matcher.matches()) {
+          value = Long.parseLong(matcher.group(1));
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    int exitCode = process.waitFor();
+    FileUtil.fullyDelete(output);
+    if (exitCode != 0 || value == null) {
+      throw new IOException("Trial "+trial+" "+configuration+
+          " exited with code "+exitCode+" without reporting the counter");
+    }
+    logger.info("Trial "+trial+" "+configuration+" budget "+budget+": "+value);
+    return value;
+  }
+
+  private static void addCustomArgument(List<String> command, String key,
+      String value) {
+    command.add("-ca");
+    command.add(key+"="+value);
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 7) {
+      System.err.println("Usage: LocalGiraphTrial <annotated class> "
+          + "<budget parameter> <max budget> <eta> <threads> <counter name> "
+          + "<GiraphRunner arguments...>");
+      System.exit(1);
+    }
+    Class<?> annotated = Class.forName(args[0]);
+    String budgetParameter = args[1];
+    int maxBudget = Integer.parseInt(args[2]);
+    int eta = Integer.parseInt(args[3]);
+    int threads = Integer.parseInt(args[4]);
+    String counterName = args[5];
+    List<String> runnerArguments = Arrays.asList(args).subList(6, args.length);
+
+    HyperParameterSpace space = new HyperParameterSpace(annotated,
+        Collections.singleton(budgetParameter));
+    Hyperband hyperband = new Hyperband(space,
+        new LocalGiraphTrial(runnerArguments, budgetParameter, counterName),
+        maxBudget, eta, threads, System.currentTimeMillis());
+    System.out.println(hyperband.run());
+  }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package main.okapi.common;
+
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Counter-based random generator, whose stream is a function of the seed of
+ * the job, a key of the vertex and the superstep only.
+ *
+ * A computation keeps one instance and calls {@link #reset(long, long)} for
+ * every vertex, so that no generator is allocated per vertex, and the numbers
+ * a vertex draws do not depend on the partitioning, the number of threads or
+ * the order in which the vertices are computed. The n-th number of a stream
+ * is the SplitMix64 finalizer of the stream key plus n times the golden
+ * gamma.
+ *
+ * It extends {@link Random}, so it can be passed to any code that takes one.
+ * It is not thread-safe, every computation thread uses its own instance.
+ */
+public class CounterRandom extends Random {
+
+  private static final long serialVersionUID = 1L;
+
+  /** Seed used when {@link Parameters#RANDOM_SEED} is not set. */
+  public static final long DEFAULT_SEED = 0x2545F4914F6CDD1DL;
+
+  private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+  private final long seed;
+  private long stream;
+  private long counter;
+
+  public CounterRandom(long seed) {
+    this.seed = seed;
+    reset(0, 0);
+  }
+
+  /**
+   * @param conf
+   * @return a generator seeded with {@link Parameters#RANDOM_SEED}, or with
+   * DEFAULT_SEED if it is not set, so that runs are reproducible
+   */
+  public static CounterRandom fromConf(Configuration conf) {
+    return new CounterRandom(getSeed(conf));
+  }
+
+  /**
+   * @param conf
+   * @return {@link Parameters#RANDOM_SEED}, or DEFAULT_SEED if it is not set
+   */
+  public static long getSeed(Configuration conf) {
+    long seed = Parameters.RANDOM_SEED.get(conf);
+    return seed < 0 ? DEFAULT_SEED : seed;
+  }
+
+  /**
+   * @param seed
+   * @param key
+   * @param superstep
+   * @return the first float of a stream, without a generator instance
+   */
+  public static float uniform(long seed, long key, long superstep) {
+    long stream = mix(mix(seed ^ mix(key)) + superstep);
+    return (mix(stream + GOLDEN_GAMMA) >>> 40) * 0x1.0p-24f;
+  }
+
+  /**
+   * @param id
+   * @param type
+   * @return a key for a vertex whose id is made of a number and a type
+   */
+  public static long key(long id, long type) {
+    return mix(id) ^ type;
+  }
+
+  /**
+   * Starts the stream of a vertex in a superstep.
+   *
+   * @param key of the vertex
+   * @param superstep
+   * @return this
+   */
+  public CounterRandom reset(long key, long superstep) {
+    stream = mix(mix(seed ^ mix(key)) + superstep);
+    setSeed(stream);
+    return this;
+  }
+
+  private static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  @Override
+  public long nextLong() {
+    return mix(stream + (++counter)*GOLDEN_GAMMA);
+  }
+
+  @Override
+  protected int next(int bits) {
+    return (int)(nextLong() >>> (64-bits));
+  }
+
+  /**
+   * Only rewinds the current stream, the seed of the job is fixed.
+   */
+  @Override
+  public synchronized void setSeed(long seed) {
+    super.setSeed(seed);
+    counter = 0;
+  }
+}
@@ -0,0 +1,227 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package main.okapi.common.computation;
+
+import ml.grafos.okapi.aggregators.SlowVerticesAggregator;
+import ml.grafos.okapi.aggregators.SlowVerticesAggregator.SlowVertices;
+import ml.grafos.okapi.utils.Counters;
+
+import org.apache.giraph.aggregators.DoubleOverwriteAggregator;
+import org.apache.giraph.aggregators.LongMaxAggregator;
+import org.apache.giraph.aggregators.LongOverwriteAggregator;
+import org.apache.giraph.aggregators.LongSumAggregator;
+import org.apache.giraph.master.DefaultMasterCompute;
+import org.apache.giraph.master.MasterCompute;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.LongWritable;
+
+/**
+ * The aggregators and counters of the computations that extend
+ * {@link InstrumentedComputation}.
+ *
+ * With INSTRUMENTATION enabled, every superstep aggregates:
+ * <ul>
+ * <li>the number of vertices that computed, and a histogram of their compute
+ * times, where bucket b counts the times in [2^b, 2^(b+1)) microseconds,</li>
+ * <li>the messages and message bytes sent, in total and by the vertex that
+ * sent the most,</li>
+ * <li>the compute time of every worker, from which the master derives the
+ * straggler ratio, the busiest worker against the average of the workers
+ * that computed, and the index of the busiest worker,</li>
+ * <li>the ids of the {@link SlowVerticesAggregator#SIZE} slowest vertices.
+ * </li>
+ * </ul>
+ * The aggregators are written by any AggregatorWriter, for instance with
+ * -ca textAggregatorWriter.frequency=always, or by the more compact
+ * BinaryAggregatorWriter with -ca binaryAggregatorWriter.frequency=always.
+ * The aggregated values of a superstep are visible to the master, and
+ * written, in the next one. The INSTRUMENTATION_COUNTER_GROUP counters keep
+ * the totals and maxima over the whole job.
+ *
+ * The master of the job registers the aggregators with
+ * {@link #registerAggregators(MasterCompute)} and publishes them with
+ * {@link #update(MasterCompute)} in every superstep. Jobs without their own
+ * master use {@link InstrumentedMasterCompute}.
+ */
+public class Instrumentation {
+
+  /** Enables the instrumentation. */
+  public static final String INSTRUMENTATION = "instrumentation.enabled";
+  /** Default value for INSTRUMENTATION. */
+  public static final boolean INSTRUMENTATION_DEFAULT = false;
+
+  /** Number of buckets of the compute time histogram. */
+  public static final int HISTOGRAM_BUCKETS = 24;
+
+  /** Vertices that computed. */
+  public static final String VERTICES_AGGREGATOR = "instrumentation.vertices";
+  /** Compute time of all the vertices, in microseconds. */
+  public static final String TIME_AGGREGATOR = "instrumentation.time";
+  /** Bucket of the compute time histogram, followed by the bucket. */
+  public static final String HISTOGRAM_AGGREGATOR = "instrumentation.time.";
+  /** Messages sent. */
+  public static final String MESSAGES_AGGREGATOR = "instrumentation.messages";
+  /** Messages sent by the vertex that sent the most. */
+  public static final String MAX_MESSAGES_AGGREGATOR =
+      "instrumentation.messages.max";
+  /** Serialized size of the messages sent. */
+  public static final String BYTES_AGGREGATOR = "instrumentation.bytes";
+  /** Message bytes sent by the vertex that sent the most. */
+  public static final String MAX_BYTES_AGGREGATOR =
+      "instrumentation.bytes.max";
+  /**
+   * Compute time of a worker, in microseconds, followed by the index of the
+   * worker.
+   */
+  public static final String WORKER_TIME_AGGREGATOR =
+      "instrumentation.worker.time.";
+  /** Busiest worker against the average one, set by the master. */
+  public static final String STRAGGLER_AGGREGATOR =
+      "instrumentation.straggler";
+  /** Index of the busiest worker, set by the master. */
+  public static final String STRAGGLER_WORKER_AGGREGATOR =
+      "instrumentation.straggler.worker";
+  /** Slowest vertices, see {@link SlowVerticesAggregator}. */
+  public static final String SLOWEST_AGGREGATOR = "instrumentation.slowest";
+
+  public static final String INSTRUMENTATION_COUNTER_GROUP = "Instrumentation";
+  private static final String TIME_COUNTER = "Vertex compute time (ms)";
+  private static final String STRAGGLER_COUNTER =
+      "Max straggler ratio (x1000)";
+  private static final String SLOWEST_COUNTER = "Slowest vertex (us)";
+  private static final String MAX_MESSAGES_COUNTER =
+      "Max messages per vertex";
+  private static final String MAX_BYTES_COUNTER =
+      "Max message bytes per vertex";
+
+  public static boolean isEnabled(Configuration conf) {
+    return conf.getBoolean(INSTRUMENTATION, INSTRUMENTATION_DEFAULT);
+  }
+
+  /**
+   * @param micros compute time of a vertex
+   * @return the bucket of the compute time histogram
+   */
+  public static int getBucket(long micros) {
+    int bucket = 63 - Long.numberOfLeadingZeros(Math.max(1, micros));
+    return Math.min(bucket, HISTOGRAM_BUCKETS-1);
+  }
+
+  /**
+   * Registers the aggregators, if the instrumentation is enabled.
+   *
+   * @param master
+   */
+  public static void registerAggregators(MasterCompute master)
+      throws InstantiationException, IllegalAccessException {
+    if (!isEnabled(master.getConf())) {
+      return;
+    }
+    master.registerAggregator(VERTICES_AGGREGATOR, LongSumAggregator.class);
+    master.registerAggregator(TIME_AGGREGATOR, LongSumAggregator.class);
+    for (int b=0; b<HISTOGRAM_BUCKETS; b++) {
+      master.registerAggregator(HISTOGRAM_AGGREGATOR+b,
+          LongSumAggregator.class);
+    }
+    master.registerAggregator(MESSAGES_AGGREGATOR, LongSumAggregator.class);
+    master.registerAggregator(MAX_MESSAGES_AGGREGATOR,
+        LongMaxAggregator.class);
+    master.registerAggregator(BYTES_AGGREGATOR, LongSumAggregator.class);
+    master.registerAggregator(MAX_BYTES_AGGREGATOR, LongMaxAggregator.class);
+    for (int w=0; w<master.getConf().getMaxWorkers(); w++) {
+      master.registerAggregator(WORKER_TIME_AGGREGATOR+w,
+          LongSumAggregator.class);
+    }
+    master.registerAggregator(STRAGGLER_AGGREGATOR,
+        DoubleOverwriteAggregator.class);
+    master.registerAggregator(STRAGGLER_WORKER_AGGREGATOR,
+        LongOverwriteAggregator.class);
+    master.registerAggregator(SLOWEST_AGGREGATOR,
+        SlowVerticesAggregator.class);
+  }
+
+  /**
+   * Sets the straggler ratio of the previous superstep and updates the
+   * counters, if the instrumentation is enabled.
+   *
+   * @param master
+   */
+  public static void update(MasterCompute master) {
+    if (!isEnabled(master.getConf()) || master.getSuperstep() == 0) {
+      return;
+    }
+    if (getLong(master, VERTICES_AGGREGATOR) == 0) {
+      return;
+    }
+    long time = 0;
+    int workers = 0;
+    int busiest = 0;
+    long maxWorkerTime = 0;
+    for (int w=0; w<master.getConf().getMaxWorkers(); w++) {
+      long workerTime = getLong(master, WORKER_TIME_AGGREGATOR+w);
+      if (workerTime > 0) {
+        time += workerTime;
+        workers++;
+      }
+      if (workerTime > maxWorkerTime) {
+        maxWorkerTime = workerTime;
+        busiest = w;
+      }
+    }
+    double straggler = time == 0 ? 1d : (double) maxWorkerTime * workers / time;
+    master.setAggregatedValue(STRAGGLER_AGGREGATOR,
+        new DoubleWritable(straggler));
+    master.setAggregatedValue(STRAGGLER_WORKER_AGGREGATOR,
+        new LongWritable(busiest));
+    time = getLong(master, TIME_AGGREGATOR);
+
+    Counters.incrementCounter(master.getContext(),
+        INSTRUMENTATION_COUNTER_GROUP, TIME_COUNTER, time / 1000);
+    Counters.maxCounter(master.getContext(), INSTRUMENTATION_COUNTER_GROUP,
+        STRAGGLER_COUNTER, (long) (1000*straggler));
+    Counters.maxCounter(master.getContext(), INSTRUMENTATION_COUNTER_GROUP,
+        MAX_MESSAGES_COUNTER, getLong(master, MAX_MESSAGES_AGGREGATOR));
+    Counters.maxCounter(master.getContext(), INSTRUMENTATION_COUNTER_GROUP,
+        MAX_BYTES_COUNTER, getLong(master, MAX_BYTES_AGGREGATOR));
+    SlowVertices slowest = master.getAggregatedValue(SLOWEST_AGGREGATOR);
+    if (slowest.size() > 0) {
+      Counters.maxCounter(master.getContext(), INSTRUMENTATION_COUNTER_GROUP,
+          SLOWEST_COUNTER, slowest.getTime(0));
+    }
+  }
+
+  private static long getLong(MasterCompute master, String aggregator) {
+    return ((LongWritable) master.getAggregatedValue(aggregator)).get();
+  }
+
+  /**
+   * Master for the jobs that have none of their own.
+   */
+  public static class InstrumentedMasterCompute extends DefaultMasterCompute {
+
+    @Override
+    public void initialize() throws InstantiationException,
+        IllegalAccessException {
+      registerAggregators(this);
+    }
+
+    @Override
+    public void compute() {
+      update(this);
+    }
+  }
+}
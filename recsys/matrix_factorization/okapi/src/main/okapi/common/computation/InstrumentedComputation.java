@@ -0,0 +1,214 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package main.okapi.common.computation;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import ml.grafos.okapi.aggregators.SlowVerticesAggregator.SlowVertices;
+
+import org.apache.giraph.graph.AbstractComputation;
+import org.apache.giraph.graph.Vertex;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+
+/**
+ * A computation that measures its vertices, see {@link Instrumentation}.
+ *
+ * Subclasses implement {@link #computeVertex(Vertex, Iterable)} instead of
+ * compute(), and call the super methods when they override preSuperstep()
+ * or postSuperstep(). Without the instrumentation, compute() only calls
+ * computeVertex(). With it, compute() times every vertex and the send
+ * methods count the messages, and serialize them once more to count their
+ * bytes. Giraph creates a computation for every partition, whose statistics
+ * are aggregated in postSuperstep().
+ *
+ * @param <I> Vertex id
+ * @param <V> Vertex value
+ * @param <E> Edge value
+ * @param <M1> Incoming message type
+ * @param <M2> Outgoing message type
+ */
+public abstract class InstrumentedComputation<I extends WritableComparable,
+    V extends Writable, E extends Writable, M1 extends Writable,
+    M2 extends Writable> extends AbstractComputation<I, V, E, M1, M2> {
+
+  private boolean enabled;
+  private final ByteCounter byteCounter = new ByteCounter();
+  private final long[] histogram = new long[Instrumentation.HISTOGRAM_BUCKETS];
+  private final SlowVertices slowest = new SlowVertices();
+  private long vertices;
+  private long time;
+  private long messages;
+  private long bytes;
+  private long maxMessages;
+  private long maxBytes;
+  /** Messages and bytes of the vertex being computed. */
+  private long vertexMessages;
+  private long vertexBytes;
+
+  /**
+   * Computes a vertex, as {@link #compute(Vertex, Iterable)} does in other
+   * computations.
+   *
+   * @param vertex
+   * @param messages
+   * @throws IOException
+   */
+  public abstract void computeVertex(Vertex<I, V, E> vertex,
+      Iterable<M1> messages) throws IOException;
+
+  @Override
+  public void preSuperstep() {
+    enabled = Instrumentation.isEnabled(getConf());
+    Arrays.fill(histogram, 0);
+    slowest.clear();
+    vertices = 0;
+    time = 0;
+    messages = 0;
+    bytes = 0;
+    maxMessages = 0;
+    maxBytes = 0;
+  }
+
+  @Override
+  public final void compute(Vertex<I, V, E> vertex, Iterable<M1> messages)
+      throws IOException {
+    if (!enabled) {
+      computeVertex(vertex, messages);
+      return;
+    }
+    vertexMessages = 0;
+    vertexBytes = 0;
+    long start = System.nanoTime();
+    computeVertex(vertex, messages);
+    long micros = (System.nanoTime() - start) / 1000;
+
+    vertices++;
+    time += micros;
+    histogram[Instrumentation.getBucket(micros)]++;
+    if (slowest.accepts(micros)) {
+      slowest.add(vertex.getId().toString(), micros);
+    }
+    this.messages += vertexMessages;
+    bytes += vertexBytes;
+    maxMessages = Math.max(maxMessages, vertexMessages);
+    maxBytes = Math.max(maxBytes, vertexBytes);
+  }
+
+  @Override
+  public void postSuperstep() {
+    if (!enabled || vertices == 0) {
+      return;
+    }
+    aggregate(Instrumentation.VERTICES_AGGREGATOR, new LongWritable(vertices));
+    aggregate(Instrumentation.TIME_AGGREGATOR, new LongWritable(time));
+    for (int b=0; b<histogram.length; b++) {
+      if (histogram[b] > 0) {
+        aggregate(Instrumentation.HISTOGRAM_AGGREGATOR+b,
+            new LongWritable(histogram[b]));
+      }
+    }
+    aggregate(Instrumentation.MESSAGES_AGGREGATOR, new LongWritable(messages));
+    aggregate(Instrumentation.MAX_MESSAGES_AGGREGATOR,
+        new LongWritable(maxMessages));
+    aggregate(Instrumentation.BYTES_AGGREGATOR, new LongWritable(bytes));
+    aggregate(Instrumentation.MAX_BYTES_AGGREGATOR,
+        new LongWritable(maxBytes));
+    aggregate(Instrumentation.WORKER_TIME_AGGREGATOR +
+        getWorkerContext().getMyWorkerIndex(), new LongWritable(time));
+    aggregate(Instrumentation.SLOWEST_AGGREGATOR, slowest);
+  }
+
+  @Override
+  public void sendMessage(I id, M2 message) {
+    if (enabled) {
+      vertexMessages++;
+      vertexBytes += byteCounter.measure(message);
+    }
+    super.sendMessage(id, message);
+  }
+
+  @Override
+  public void sendMessageToAllEdges(Vertex<I, V, E> vertex, M2 message) {
+    if (enabled) {
+      vertexMessages += vertex.getNumEdges();
+      vertexBytes += (long) vertex.getNumEdges() * byteCounter.measure(message);
+    }
+    super.sendMessageToAllEdges(vertex, message);
+  }
+
+  @Override
+  public void sendMessageToMultipleEdges(final Iterator<I> vertexIdIterator,
+      M2 message) {
+    if (!enabled) {
+      super.sendMessageToMultipleEdges(vertexIdIterator, message);
+      return;
+    }
+    final int size = byteCounter.measure(message);
+    super.sendMessageToMultipleEdges(new Iterator<I>() {
+      @Override
+      public boolean hasNext() {
+        return vertexIdIterator.hasNext();
+      }
+
+      @Override
+      public I next() {
+        vertexMessages++;
+        vertexBytes += size;
+        return vertexIdIterator.next();
+      }
+
+      @Override
+      public void remove() {
+        vertexIdIterator.remove();
+      }
+    }, message);
+  }
+
+  /**
+   * Counts the bytes a Writable writes, without keeping them.
+   */
+  private static class ByteCounter extends DataOutputStream {
+    private static final OutputStream NULL = new OutputStream() {
+      @Override
+      public void write(int b) {
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+      }
+    };
+
+    ByteCounter() {
+      super(NULL);
+    }
+
+    int measure(Writable writable) {
+      written = 0;
+      try {
+        writable.write(this);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      return written;
+    }
+  }
+}
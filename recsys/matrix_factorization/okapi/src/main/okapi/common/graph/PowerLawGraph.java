@@ -0,0 +1,179 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package main.okapi.common.graph;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+
+import ml.grafos.okapi.common.CounterRandom;
+
+import org.apache.giraph.bsp.BspInputSplit;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Generates a synthetic graph with a power-law degree distribution, for
+ * benchmarks of the graph algorithms without input files.
+ *
+ * Vertex u, in [0, VERTICES), draws its edges among the vertices before it,
+ * with a Zipfian preference of exponent ATTACHMENT_EXPONENT for the low ids,
+ * in the style of preferential attachment. The number of edges a vertex draws
+ * is log-normal, with mean EDGES_PER_VERTEX and log-scale deviation
+ * ACTIVITY_SIGMA. Since an edge is only drawn by its endpoint with the higher
+ * id, there are no self-loops and no duplicate edges.
+ *
+ * When UNDIRECTED is set, every edge is given in both directions, which is
+ * what most of the algorithms of okapi expect.
+ *
+ * Everything a vertex draws comes from a {@link CounterRandom} stream keyed by
+ * the seed of the job and the id, so the graph depends on the seed only, and
+ * not on the number of splits or workers.
+ */
+public class PowerLawGraph {
+
+  /** Number of vertices. */
+  public static final String VERTICES = "powerLawGraph.vertices";
+  public static final long VERTICES_DEFAULT = 10000;
+  /** Mean number of edges drawn by a vertex, half the mean degree. */
+  public static final String EDGES_PER_VERTEX =
+      "powerLawGraph.edgesPerVertex";
+  public static final float EDGES_PER_VERTEX_DEFAULT = 5f;
+  /** Deviation of the logarithm of the number of edges drawn by a vertex. */
+  public static final String ACTIVITY_SIGMA = "powerLawGraph.activitySigma";
+  public static final float ACTIVITY_SIGMA_DEFAULT = 1f;
+  /** Exponent of the Zipfian preference for the low ids. */
+  public static final String ATTACHMENT_EXPONENT =
+      "powerLawGraph.attachmentExponent";
+  public static final float ATTACHMENT_EXPONENT_DEFAULT = 1f;
+  /** Whether every edge is given in both directions. */
+  public static final String UNDIRECTED = "powerLawGraph.undirected";
+  public static final boolean UNDIRECTED_DEFAULT = true;
+
+  /** Draws per edge before a vertex gives up on finding a new neighbor. */
+  private static final int MAX_DRAWS = 32;
+
+  private final long numVertices;
+  private final float mu;
+  private final float sigma;
+  private final float exponent;
+  private final boolean undirected;
+
+  private final CounterRandom random;
+  private final LongSet seen = new LongOpenHashSet();
+  private long[] targets = new long[16];
+  private float[] weights = new float[16];
+
+  public PowerLawGraph(Configuration conf) {
+    numVertices = conf.getLong(VERTICES, VERTICES_DEFAULT);
+    sigma = conf.getFloat(ACTIVITY_SIGMA, ACTIVITY_SIGMA_DEFAULT);
+    // The mean of a log-normal is exp(mu+sigma^2/2)
+    mu = (float)Math.log(conf.getFloat(EDGES_PER_VERTEX,
+        EDGES_PER_VERTEX_DEFAULT)) - sigma*sigma/2;
+    exponent = conf.getFloat(ATTACHMENT_EXPONENT,
+        ATTACHMENT_EXPONENT_DEFAULT);
+    undirected = conf.getBoolean(UNDIRECTED, UNDIRECTED_DEFAULT);
+    if (numVertices <= 0) {
+      throw new IllegalArgumentException(VERTICES + " must be positive");
+    }
+    random = new CounterRandom(CounterRandom.getSeed(conf));
+  }
+
+  public long getNumVertices() {
+    return numVertices;
+  }
+
+  public boolean isUndirected() {
+    return undirected;
+  }
+
+  /**
+   * @param split
+   * @return the first vertex of a split, the vertices are shared out evenly
+   */
+  public long getFirstVertex(BspInputSplit split) {
+    long extra = numVertices % split.getNumSplits();
+    return split.getSplitIndex() * (numVertices / split.getNumSplits()) +
+        Math.min(split.getSplitIndex(), extra);
+  }
+
+  /**
+   * @param split
+   * @return the number of vertices of a split
+   */
+  public long getNumVertices(BspInputSplit split) {
+    long vertices = numVertices / split.getNumSplits();
+    return split.getSplitIndex() < numVertices % split.getNumSplits() ?
+        vertices+1 : vertices;
+  }
+
+  /**
+   * Draws the edges of a vertex to the vertices before it, see
+   * {@link #getTargets()} and {@link #getWeights()}.
+   *
+   * @param vertex
+   * @return the number of edges drawn by the vertex
+   */
+  public int generate(long vertex) {
+    if (vertex == 0) {
+      return 0;
+    }
+    random.reset(CounterRandom.key(vertex, 0), 0);
+    long degree = Math.round(Math.exp(mu + sigma*random.nextGaussian()));
+    int wanted = (int)Math.max(1, Math.min(degree,
+        Math.min(vertex, Integer.MAX_VALUE/2)));
+    if (targets.length < wanted) {
+      targets = new long[wanted];
+      weights = new float[wanted];
+    }
+
+    seen.clear();
+    int n = 0;
+    for (long draws = 0; n < wanted && draws < (long)MAX_DRAWS*wanted;
+        draws++) {
+      long target = nextTarget(vertex);
+      if (seen.add(target)) {
+        targets[n] = target;
+        // In (0, 1], so that the weights can be used as distances
+        weights[n] = 1f - random.nextFloat();
+        n++;
+      }
+    }
+    return n;
+  }
+
+  public long[] getTargets() {
+    return targets;
+  }
+
+  public float[] getWeights() {
+    return weights;
+  }
+
+  /**
+   * @param vertex
+   * @return a Zipfian rank in [0, vertex)
+   */
+  private long nextTarget(long vertex) {
+    double u = random.nextDouble();
+    double x;
+    if (Math.abs(exponent - 1f) < 1e-6f) {
+      x = Math.pow(vertex+1, u);
+    } else {
+      double a = 1d - exponent;
+      x = Math.pow(1d + u*(Math.pow(vertex+1, a) - 1d), 1d/a);
+    }
+    return Math.min(vertex-1, Math.max(0, (long)x - 1));
+  }
+}
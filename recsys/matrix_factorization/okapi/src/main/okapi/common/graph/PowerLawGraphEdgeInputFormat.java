@@ -0,0 +1,144 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package main.okapi.common.graph;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.giraph.bsp.BspInputSplit;
+import org.apache.giraph.edge.Edge;
+import org.apache.giraph.edge.EdgeFactory;
+import org.apache.giraph.io.EdgeInputFormat;
+import org.apache.giraph.io.EdgeReader;
+import org.apache.giraph.io.formats.PseudoRandomUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+/**
+ * Generates the edges of a synthetic power-law graph, see
+ * {@link PowerLawGraph}, as the input of the graph algorithms instead of a
+ * text edge input format.
+ *
+ * The edge values are created by the configuration of the job, so the format
+ * fits any algorithm with long ids. A {@link FloatWritable} or
+ * {@link DoubleWritable} edge value gets a weight in (0, 1], the same in both
+ * directions, the other types keep their default value.
+ *
+ * @param <E> Edge value
+ */
+public class PowerLawGraphEdgeInputFormat<E extends Writable> extends
+  EdgeInputFormat<LongWritable, E> {
+
+  @Override
+  public void checkInputSpecs(Configuration conf) { }
+
+  @Override
+  public final List<InputSplit> getSplits(final JobContext context,
+      final int minSplitCountHint) throws IOException, InterruptedException {
+    return PseudoRandomUtils.getSplits(minSplitCountHint);
+  }
+
+  @Override
+  public EdgeReader<LongWritable, E> createEdgeReader(InputSplit split,
+      TaskAttemptContext context) throws IOException {
+    return new PowerLawGraphEdgeReader();
+  }
+
+  /**
+   * Edge reader that generates the edges drawn by the vertices of a split.
+   */
+  private class PowerLawGraphEdgeReader extends EdgeReader<LongWritable, E> {
+    /** The generator */
+    private PowerLawGraph generator;
+    /** The first vertex of the split */
+    private long firstVertex;
+    /** The number of vertices of the split */
+    private long splitVertices;
+    /** The vertices generated so far */
+    private long verticesRead = 0;
+    /** The edges drawn by the current vertex */
+    private int degree = 0;
+    /** The next edge of the current vertex */
+    private int next = 0;
+    /** Whether the next edge is the reverse of the current one */
+    private boolean reverse = false;
+    private long vertex;
+
+    @Override
+    public void initialize(InputSplit inputSplit,
+        TaskAttemptContext context) throws IOException {
+      generator = new PowerLawGraph(getConf());
+      BspInputSplit bspInputSplit = (BspInputSplit) inputSplit;
+      firstVertex = generator.getFirstVertex(bspInputSplit);
+      splitVertices = generator.getNumVertices(bspInputSplit);
+    }
+
+    @Override
+    public boolean nextEdge() throws IOException, InterruptedException {
+      if (generator.isUndirected() && !reverse && next < degree) {
+        reverse = true;
+        return true;
+      }
+      reverse = false;
+      next++;
+      while (next >= degree) {
+        if (verticesRead >= splitVertices) {
+          return false;
+        }
+        vertex = firstVertex + verticesRead;
+        degree = generator.generate(vertex);
+        next = 0;
+        verticesRead++;
+      }
+      return true;
+    }
+
+    @Override
+    public LongWritable getCurrentSourceId() throws IOException,
+        InterruptedException {
+      return new LongWritable(reverse ?
+          generator.getTargets()[next] : vertex);
+    }
+
+    @Override
+    public Edge<LongWritable, E> getCurrentEdge() throws IOException,
+        InterruptedException {
+      E value = getConf().createEdgeValue();
+      float weight = generator.getWeights()[next];
+      if (value instanceof FloatWritable) {
+        ((FloatWritable) value).set(weight);
+      } else if (value instanceof DoubleWritable) {
+        ((DoubleWritable) value).set(weight);
+      }
+      return EdgeFactory.create(new LongWritable(reverse ?
+          vertex : generator.getTargets()[next]), value);
+    }
+
+    @Override
+    public void close() throws IOException { }
+
+    @Override
+    public float getProgress() throws IOException {
+      return verticesRead * 100.0f / splitVertices;
+    }
+  }
+}
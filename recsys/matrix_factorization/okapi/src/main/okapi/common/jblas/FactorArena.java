@@ -0,0 +1,329 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package main.okapi.common.jblas;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jblas.FloatMatrix;
+
+/**
+ * Off-heap store for the factor vectors of the vertices of a worker.
+ *
+ * The factors live in direct buffers of CHUNK_SLOTS vectors each, outside of
+ * the Java heap, so that a vertex value between supersteps only holds an int
+ * handle to its slot instead of its own float[] and header. There is one
+ * arena per vector size in every worker JVM, shared by the compute threads.
+ * Slots are allocated and released under a lock, and reads and writes to
+ * distinct slots do not need one.
+ *
+ * The whole arena can be written and read in bulk with dump and load. The
+ * checkpoints of Giraph do not use them: they store the vertex values by
+ * value, see {@link FactorHandleWritable}, so the arena is not part of a
+ * checkpoint and a restarted job fills a new one.
+ */
+public class FactorArena {
+
+  /**
+   * Number of vectors in every direct buffer, fewer for vectors so long that
+   * the buffer would be larger than MAX_CHUNK_BYTES.
+   */
+  public static final int CHUNK_SLOTS = 1 << 16;
+  /** Largest direct buffer, unless a single vector is larger. */
+  public static final int MAX_CHUNK_BYTES = 1 << 26;
+
+  private static final Map<Integer, FactorArena> ARENAS =
+      new HashMap<Integer, FactorArena>();
+
+  private final int dimension;
+  private final int chunkSlots;
+  private volatile FloatBuffer[] chunks = new FloatBuffer[0];
+  private final IntArrayList free = new IntArrayList();
+  private int numSlots = 0;
+
+  FactorArena(int dimension) {
+    if (dimension <= 0) {
+      throw new IllegalArgumentException("Wrong factor dimension "+dimension);
+    }
+    this.dimension = dimension;
+    if (4L*dimension > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Factor dimension "+dimension+
+          " too large for a direct buffer");
+    }
+    this.chunkSlots = (int) Math.max(1, Math.min(CHUNK_SLOTS,
+        MAX_CHUNK_BYTES / (4L*dimension)));
+  }
+
+  /**
+   * @param dimension
+   * @return the arena of this worker for vectors of the given size
+   */
+  public static FactorArena get(int dimension) {
+    synchronized (ARENAS) {
+      FactorArena arena = ARENAS.get(dimension);
+      if (arena == null) {
+        arena = new FactorArena(dimension);
+        ARENAS.put(dimension, arena);
+      }
+      return arena;
+    }
+  }
+
+  /**
+   * Drops the arenas of this worker, at the start of a job, so that the
+   * slots left by an earlier job in the same JVM are not kept.
+   */
+  public static void clear() {
+    synchronized (ARENAS) {
+      ARENAS.clear();
+    }
+  }
+
+  public int getDimension() {
+    return dimension;
+  }
+
+  /**
+   * @return the number of vectors in every direct buffer of this arena
+   */
+  public int getChunkSlots() {
+    return chunkSlots;
+  }
+
+  /**
+   * @return the number of slots in use
+   */
+  public synchronized int size() {
+    return numSlots - free.size();
+  }
+
+  /**
+   * @return a new slot, whose factors are zero
+   */
+  public synchronized int allocate() {
+    int slot;
+    if (!free.isEmpty()) {
+      slot = free.popInt();
+    } else {
+      slot = numSlots++;
+      if (slot / chunkSlots >= chunks.length) {
+        FloatBuffer[] grown = new FloatBuffer[chunks.length+1];
+        System.arraycopy(chunks, 0, grown, 0, chunks.length);
+        grown[chunks.length] = allocateChunk();
+        chunks = grown;
+      }
+    }
+    FloatBuffer chunk = chunk(slot);
+    int base = base(slot);
+    for (int f=0; f<dimension; f++) {
+      chunk.put(base+f, 0f);
+    }
+    return slot;
+  }
+
+  /**
+   * Gives a slot back to the arena, it must not be used any more.
+   *
+   * @param slot
+   */
+  public synchronized void release(int slot) {
+    free.add(slot);
+  }
+
+  private FloatBuffer chunk(int slot) {
+    return chunks[slot / chunkSlots];
+  }
+
+  private int base(int slot) {
+    return (slot % chunkSlots) * dimension;
+  }
+
+  /**
+   * @return a chunk off the heap, in the native byte order so that its floats
+   * are not swapped on every access
+   */
+  private FloatBuffer allocateChunk() {
+    return ByteBuffer.allocateDirect(chunkBytes(chunkSlots))
+        .order(ByteOrder.nativeOrder()).asFloatBuffer();
+  }
+
+  /**
+   * @param slots at most chunkSlots
+   * @return the bytes of that many vectors
+   */
+  private int chunkBytes(int slots) {
+    long bytes = 4L*slots*dimension;
+    if (bytes > Integer.MAX_VALUE) {
+      throw new IllegalStateException("Chunk of "+bytes+" bytes");
+    }
+    return (int) bytes;
+  }
+
+  public float get(int slot, int f) {
+    return chunk(slot).get(base(slot)+f);
+  }
+
+  public void set(int slot, int f, float value) {
+    chunk(slot).put(base(slot)+f, value);
+  }
+
+  /**
+   * Copies the factors of a slot into an array.
+   *
+   * @param slot
+   * @param dst at least dimension long
+   */
+  public void read(int slot, float[] dst) {
+    FloatBuffer chunk = chunk(slot);
+    int base = base(slot);
+    for (int f=0; f<dimension; f++) {
+      dst[f] = chunk.get(base+f);
+    }
+  }
+
+  /**
+   * Copies an array into the factors of a slot.
+   *
+   * @param slot
+   * @param src at least dimension long
+   */
+  public void write(int slot, float[] src) {
+    FloatBuffer chunk = chunk(slot);
+    int base = base(slot);
+    for (int f=0; f<dimension; f++) {
+      chunk.put(base+f, src[f]);
+    }
+  }
+
+  /**
+   * @param slot
+   * @return a column vector with a copy of the factors of a slot
+   */
+  public FloatMatrixWritable view(int slot) {
+    FloatMatrixWritable m = new FloatMatrixWritable(dimension, 1);
+    read(slot, m.data);
+    return m;
+  }
+
+  /**
+   * @param slot
+   * @param m a vector of dimension elements
+   */
+  public void store(int slot, FloatMatrix m) {
+    if (m.length != dimension) {
+      throw new IllegalArgumentException("Wrong vector length "+m.length+
+          ", the arena holds vectors of "+dimension);
+    }
+    write(slot, m.data);
+  }
+
+  /**
+   * @param slot
+   * @param v
+   * @return the dot product of the factors of a slot with a vector
+   */
+  public float dot(int slot, FloatMatrix v) {
+    FloatBuffer chunk = chunk(slot);
+    int base = base(slot);
+    float sum = 0f;
+    for (int f=0; f<dimension; f++) {
+      sum += chunk.get(base+f)*v.data[f];
+    }
+    return sum;
+  }
+
+  public void writeSlot(int slot, DataOutput output) throws IOException {
+    FloatBuffer chunk = chunk(slot);
+    int base = base(slot);
+    for (int f=0; f<dimension; f++) {
+      output.writeFloat(chunk.get(base+f));
+    }
+  }
+
+  public void readSlot(int slot, DataInput input) throws IOException {
+    FloatBuffer chunk = chunk(slot);
+    int base = base(slot);
+    for (int f=0; f<dimension; f++) {
+      chunk.put(base+f, input.readFloat());
+    }
+  }
+
+  /**
+   * Writes the whole arena, including the free slots, so that the handles
+   * stay valid after {@link #load(DataInput)}. The factors are written in the
+   * big-endian order of DataOutput, whatever the order of the chunks.
+   *
+   * @param output
+   * @throws IOException
+   */
+  public synchronized void dump(DataOutput output) throws IOException {
+    output.writeInt(dimension);
+    output.writeInt(numSlots);
+    output.writeInt(free.size());
+    for (int i=0; i<free.size(); i++) {
+      output.writeInt(free.getInt(i));
+    }
+    byte[] buffer = new byte[chunkBytes(Math.min(chunkSlots, numSlots))];
+    for (int c=0; c<chunks.length; c++) {
+      int length = chunkBytes(Math.min(chunkSlots, numSlots - c*chunkSlots));
+      ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, length);
+      FloatBuffer src = chunks[c].duplicate();
+      src.clear();
+      src.limit(length/4);
+      bytes.asFloatBuffer().put(src);
+      output.write(buffer, 0, length);
+    }
+  }
+
+  /**
+   * Replaces the content of the arena with one written by
+   * {@link #dump(DataOutput)}.
+   *
+   * @param input
+   * @throws IOException
+   */
+  public synchronized void load(DataInput input) throws IOException {
+    int dim = input.readInt();
+    if (dim != dimension) {
+      throw new IOException("Arena of dimension "+dim+" loaded into one of "+
+          dimension);
+    }
+    numSlots = input.readInt();
+    free.clear();
+    int numFree = input.readInt();
+    for (int i=0; i<numFree; i++) {
+      free.add(input.readInt());
+    }
+    int numChunks = (int) ((numSlots + (long) chunkSlots - 1) / chunkSlots);
+    FloatBuffer[] loaded = new FloatBuffer[numChunks];
+    byte[] buffer = new byte[chunkBytes(Math.min(chunkSlots, numSlots))];
+    for (int c=0; c<numChunks; c++) {
+      int length = chunkBytes(Math.min(chunkSlots, numSlots - c*chunkSlots));
+      input.readFully(buffer, 0, length);
+      loaded[c] = allocateChunk();
+      loaded[c].put(ByteBuffer.wrap(buffer, 0, length).asFloatBuffer());
+    }
+    chunks = loaded;
+  }
+}
@@ -0,0 +1,229 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package main.okapi.common.jblas;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.graph.Vertex;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Vertex value of the CF trainers that keeps its factors in the
+ * {@link FactorArena} of the worker between supersteps.
+ *
+ * With OFF_HEAP set, a trainer {@link #park(Vertex, FactorHandleWritable)
+ * parks} the value of a vertex at the end of its computation: the factors are
+ * copied to a slot of the arena and the float[] of the matrix is dropped, so
+ * that the heap only keeps the small matrix object between supersteps. The
+ * next computation of the vertex {@link #unpark(Vertex) unparks} it into a
+ * new float[], which dies young, and parks it again in the same slot.
+ *
+ * The value is serialized by value, in the format of FloatMatrixWritable, so
+ * checkpoints, messages and clones do not depend on the arena of the worker
+ * that wrote them. Reading never takes a slot: the factors are read on the
+ * heap, into the slot the instance already had if any, and only a park takes
+ * a new one. A slot is given back by {@link #release(Vertex)} when the
+ * training ends, the arenas of an earlier job by {@link FactorArena#clear()}.
+ * The value of a vertex that leaves the worker keeps its slot until then, so
+ * OFF_HEAP cannot be used with the out-of-core graph, which moves the
+ * partitions in and out of memory in every superstep.
+ */
+public class FactorHandleWritable extends FloatMatrixWritable {
+
+  /** Keeps the factors of the CF trainers off the heap. */
+  public static final String OFF_HEAP = "cf.offHeapFactors";
+  /** Default value for OFF_HEAP. */
+  public static final boolean OFF_HEAP_DEFAULT = false;
+
+  /** Data of a parked value, whose factors are in the arena. */
+  private static final float[] PARKED = new float[0];
+
+  private FactorArena arena;
+  private int slot = -1;
+
+  public FactorHandleWritable() {
+    super();
+  }
+
+  /**
+   * @param conf
+   * @return whether OFF_HEAP is set
+   */
+  public static boolean isEnabled(Configuration conf) {
+    if (!conf.getBoolean(OFF_HEAP, OFF_HEAP_DEFAULT)) {
+      return false;
+    }
+    if (GiraphConstants.USE_OUT_OF_CORE_GRAPH.get(conf)) {
+      throw new IllegalArgumentException(OFF_HEAP+
+          " cannot be used with the out-of-core graph");
+    }
+    return true;
+  }
+
+  public boolean isParked() {
+    return data == PARKED;
+  }
+
+  /**
+   * @return the slot of the value, or -1 if it has none
+   */
+  public int getSlot() {
+    return slot;
+  }
+
+  public FactorArena getArena() {
+    return arena;
+  }
+
+  /**
+   * Copies the factors to the slot of the value, taking one if it has none
+   * of the right size, and drops them from the heap.
+   */
+  public void park() {
+    if (isParked()) {
+      return;
+    }
+    if (slot >= 0 && arena.getDimension() != length) {
+      releaseSlot();
+    }
+    if (length == 0) {
+      return;
+    }
+    if (slot < 0) {
+      arena = FactorArena.get(length);
+      slot = arena.allocate();
+    }
+    arena.write(slot, data);
+    data = PARKED;
+  }
+
+  /**
+   * Copies the factors back from the arena into a new array. The value keeps
+   * its slot.
+   */
+  public void unpark() {
+    if (isParked()) {
+      float[] factors = new float[length];
+      arena.read(slot, factors);
+      data = factors;
+    }
+  }
+
+  /**
+   * Unparks the value and gives its slot back to the arena.
+   */
+  public void release() {
+    unpark();
+    releaseSlot();
+  }
+
+  private void releaseSlot() {
+    if (slot >= 0) {
+      arena.release(slot);
+      slot = -1;
+    }
+  }
+
+  /**
+   * Unparks the value of a vertex for its computation.
+   *
+   * @param vertex
+   * @return the value of the vertex if it is a FactorHandleWritable, to give
+   * to {@link #park(Vertex, FactorHandleWritable)}, or null
+   */
+  public static FactorHandleWritable unpark(Vertex<?, ?, ?> vertex) {
+    if (!(vertex.getValue() instanceof FactorHandleWritable)) {
+      return null;
+    }
+    FactorHandleWritable handle = (FactorHandleWritable) vertex.getValue();
+    handle.unpark();
+    return handle;
+  }
+
+  /**
+   * Parks the value of a vertex after its computation. A value that the
+   * computation replaced moves into the handle it had, so that the slot is
+   * reused.
+   *
+   * @param vertex
+   * @param handle the result of {@link #unpark(Vertex)}
+   */
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  public static void park(Vertex vertex, FactorHandleWritable handle) {
+    FloatMatrixWritable value = (FloatMatrixWritable) vertex.getValue();
+    if (value != handle) {
+      if (value instanceof FactorHandleWritable) {
+        if (handle != null) {
+          handle.releaseSlot();
+        }
+        handle = (FactorHandleWritable) value;
+      } else {
+        if (handle == null) {
+          handle = new FactorHandleWritable();
+        }
+        handle.rows = value.rows;
+        handle.columns = value.columns;
+        handle.length = value.length;
+        handle.data = value.data;
+        vertex.setValue(handle);
+      }
+    }
+    handle.park();
+  }
+
+  /**
+   * Unparks the value of a vertex and gives its slot back, when the
+   * training ends.
+   *
+   * @param vertex
+   */
+  public static void release(Vertex<?, ?, ?> vertex) {
+    if (vertex.getValue() instanceof FactorHandleWritable) {
+      ((FactorHandleWritable) vertex.getValue()).release();
+    }
+  }
+
+  @Override
+  public void readFields(DataInput input) throws IOException {
+    // on the heap, the slot if any is reused by the next park
+    super.readFields(input);
+  }
+
+  @Override
+  public void write(DataOutput output) throws IOException {
+    if (!isParked()) {
+      super.write(output);
+      return;
+    }
+    output.writeInt(4*length);
+    output.writeInt(rows);
+    output.writeInt(columns);
+    arena.writeSlot(slot, output);
+  }
+
+  @Override
+  public String toString() {
+    if (!isParked()) {
+      return super.toString();
+    }
+    FloatMatrixWritable copy = arena.view(slot);
+    copy.reshape(rows, columns);
+    return copy.toString();
+  }
+}
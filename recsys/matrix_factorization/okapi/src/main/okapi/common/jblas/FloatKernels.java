@@ -0,0 +1,110 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package main.okapi.common.jblas;
+
+/**
+ * Small vector kernels for the inner loops of the CF trainers.
+ *
+ * The factor vectors are short (tens to a few hundreds of floats), so a call
+ * through jblas, which allocates temporaries or crosses JNI, costs more than
+ * the arithmetic. These loops work on the backing arrays in place. The dot
+ * product is unrolled by four, so that the JIT can keep independent partial
+ * sums, which it does not do for a float reduction on its own. The updates
+ * are plain loops, which the JIT vectorizes, and which it no longer does
+ * once they are unrolled by hand.
+ */
+public final class FloatKernels {
+
+  private FloatKernels() {
+  }
+
+  /**
+   * @return the dot product of x[xOff..xOff+n) and y[yOff..yOff+n)
+   */
+  public static float dot(float[] x, int xOff, float[] y, int yOff, int n) {
+    float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+    int i = 0;
+    for (; i+3<n; i+=4) {
+      s0 += x[xOff+i]*y[yOff+i];
+      s1 += x[xOff+i+1]*y[yOff+i+1];
+      s2 += x[xOff+i+2]*y[yOff+i+2];
+      s3 += x[xOff+i+3]*y[yOff+i+3];
+    }
+    for (; i<n; i++) {
+      s0 += x[xOff+i]*y[yOff+i];
+    }
+    return (s0+s1)+(s2+s3);
+  }
+
+  /**
+   * @return the dot product of x[0..n) and y[0..n)
+   */
+  public static float dot(float[] x, float[] y, int n) {
+    return dot(x, 0, y, 0, n);
+  }
+
+  /**
+   * y = y + a*x, in place.
+   */
+  public static void axpy(float a, float[] x, int xOff, float[] y, int yOff,
+      int n) {
+    for (int i=0; i<n; i++) {
+      y[yOff+i] += a*x[xOff+i];
+    }
+  }
+
+  /**
+   * y = y + a*x, in place, over [0..n).
+   */
+  public static void axpy(float a, float[] x, float[] y, int n) {
+    axpy(a, x, 0, y, 0, n);
+  }
+
+  /**
+   * y = b*y + a*x, in place. This is the shape of a regularized gradient
+   * step, y = y - gamma*(lambda*y + err*x) with b = 1-gamma*lambda and
+   * a = -gamma*err.
+   */
+  public static void scaledAdd(float b, float[] y, int yOff, float a,
+      float[] x, int xOff, int n) {
+    for (int i=0; i<n; i++) {
+      y[yOff+i] = b*y[yOff+i] + a*x[xOff+i];
+    }
+  }
+
+  /**
+   * y = b*y + a*x, in place, over [0..n).
+   */
+  public static void scaledAdd(float b, float[] y, float a, float[] x, int n) {
+    scaledAdd(b, y, 0, a, x, 0, n);
+  }
+
+  /**
+   * @return value bounded to [min, max]
+   */
+  public static float clamp(float value, float min, float max) {
+    return Math.max(min, Math.min(value, max));
+  }
+
+  /**
+   * Bounds every element of x[0..n) to [min, max], in place.
+   */
+  public static void clamp(float[] x, int n, float min, float max) {
+    for (int i=0; i<n; i++) {
+      x[i] = clamp(x[i], min, max);
+    }
+  }
+}
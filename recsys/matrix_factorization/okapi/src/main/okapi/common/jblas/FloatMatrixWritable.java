@@ -37,8 +37,12 @@ import org.jblas.JavaBlas;
  */
 public class FloatMatrixWritable extends FloatMatrix implements Writable {
 
+  /**
+   * Creates an empty matrix, which can be written before it is set, for
+   * instance as the default value of a vertex.
+   */
   public FloatMatrixWritable() {
-    super();
+    super(0, 0);
   }
   
   public FloatMatrixWritable(int rows) {
@@ -15,7 +15,9 @@
  */
 package main.okapi.graphs;
 
-import org.apache.giraph.graph.BasicComputation;
+import ml.grafos.okapi.common.computation.Instrumentation;
+import ml.grafos.okapi.common.computation.InstrumentedComputation;
+
 import org.apache.giraph.graph.Vertex;
 import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.FloatWritable;
@@ -29,9 +31,12 @@ import org.apache.log4j.Logger;
  * total number of vertices.
  *
  * The maximum number of supersteps is configurable.
+ *
+ * To measure it, run it with
+ * {@link Instrumentation.InstrumentedMasterCompute} as the master.
  */
-public class SimplePageRank extends BasicComputation<LongWritable,
-  DoubleWritable, FloatWritable, DoubleWritable> {
+public class SimplePageRank extends InstrumentedComputation<LongWritable,
+  DoubleWritable, FloatWritable, DoubleWritable, DoubleWritable> {
   /** Default number of supersteps */
   public static final int MAX_SUPERSTEPS_DEFAULT = 30;
   /** Property name for number of supersteps */
@@ -42,7 +47,7 @@ public class SimplePageRank extends BasicComputation<LongWritable,
     Logger.getLogger(SimplePageRank.class);
 
   @Override
-  public void compute(
+  public void computeVertex(
       Vertex<LongWritable, DoubleWritable, FloatWritable> vertex,
       Iterable<DoubleWritable> messages) {
     if (getSuperstep() == 0) {
@@ -0,0 +1,161 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package main.okapi.spinner;
+
+import ml.grafos.okapi.aggregators.LongArraySumAggregator.LongVector;
+import ml.grafos.okapi.spinner.Spinner.EdgeValue;
+import ml.grafos.okapi.spinner.Spinner.VertexValue;
+
+import org.apache.giraph.graph.Vertex;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
+
+/**
+ * The loads that Spinner balances across the partitions, listed in
+ * spinner.balance:
+ * <ul>
+ * <li>edges, the number of edges of the vertices, the default,</li>
+ * <li>vertices, the number of vertices,</li>
+ * <li>weight, the weights of the vertices, the third column of the vertex
+ * input, 1 by default, for instance the memory of the state of a vertex.</li>
+ * </ul>
+ * Every dimension has its own capacity, its total load over the partitions
+ * plus spinner.additionalCapacity.&lt;dimension&gt;, which defaults to
+ * spinner.additionalCapacity. The penalty of a partition is that of its most
+ * loaded dimension, and a migration to a partition is accepted with the
+ * smallest of the probabilities that the dimensions give, so that no
+ * dimension goes over its capacity.
+ *
+ * The loads of all the dimensions are kept in one vector, where the load of
+ * dimension d on partition p is at {@link #index(int, int)}.
+ */
+public class LoadDimensions {
+	/** The dimensions to balance, separated by commas. */
+	public static final String BALANCE = "spinner.balance";
+	public static final String DEFAULT_BALANCE = "edges";
+	/** Additional capacity of a dimension, followed by its name. */
+	public static final String ADDITIONAL_CAPACITY = "spinner.additionalCapacity.";
+
+	public enum Dimension {
+		EDGES, VERTICES, WEIGHT
+	}
+
+	private final Dimension[] dimensions;
+	private final double[] additionalCapacities;
+	private final int numberOfPartitions;
+
+	/**
+	 * @param conf
+	 *            the configuration of the job
+	 * @param numberOfPartitions
+	 *            the partitions, including those of the repartitioning
+	 * @param additionalCapacity
+	 *            the default additional capacity of the dimensions
+	 */
+	public LoadDimensions(Configuration conf, int numberOfPartitions,
+			double additionalCapacity) {
+		String[] names = conf.get(BALANCE, DEFAULT_BALANCE).split(",");
+		dimensions = new Dimension[names.length];
+		additionalCapacities = new double[names.length];
+		for (int d = 0; d < names.length; d++) {
+			String name = names[d].trim().toLowerCase();
+			dimensions[d] = Dimension.valueOf(name.toUpperCase());
+			additionalCapacities[d] = conf.getFloat(ADDITIONAL_CAPACITY
+					+ name, (float) additionalCapacity);
+		}
+		this.numberOfPartitions = numberOfPartitions;
+	}
+
+	public int size() {
+		return dimensions.length;
+	}
+
+	public Dimension get(int d) {
+		return dimensions[d];
+	}
+
+	/**
+	 * @return the length of the vectors of the loads
+	 */
+	public int length() {
+		return dimensions.length * numberOfPartitions;
+	}
+
+	/**
+	 * @return the position of the load of dimension d on a partition
+	 */
+	public int index(int d, int partition) {
+		return d * numberOfPartitions + partition;
+	}
+
+	/**
+	 * @return the load of a vertex in dimension d
+	 */
+	public long getLoad(int d,
+			Vertex<LongWritable, VertexValue, EdgeValue> vertex) {
+		switch (dimensions[d]) {
+		case EDGES:
+			return vertex.getNumEdges();
+		case VERTICES:
+			return 1;
+		default:
+			return vertex.getValue().getWeight();
+		}
+	}
+
+	/**
+	 * Adds the loads of a vertex on a partition to a vector of loads.
+	 */
+	public void add(LongVector loads, int partition,
+			Vertex<LongWritable, VertexValue, EdgeValue> vertex) {
+		for (int d = 0; d < dimensions.length; d++) {
+			loads.add(index(d, partition), getLoad(d, vertex));
+		}
+	}
+
+	/**
+	 * Removes the loads of a vertex on a partition from a vector of loads.
+	 */
+	public void subtract(LongVector loads, int partition,
+			Vertex<LongWritable, VertexValue, EdgeValue> vertex) {
+		for (int d = 0; d < dimensions.length; d++) {
+			loads.add(index(d, partition), -getLoad(d, vertex));
+		}
+	}
+
+	/**
+	 * @return the load of dimension d over all the partitions
+	 */
+	public long getTotal(LongVector loads, int d) {
+		long total = 0;
+		for (int p = 0; p < numberOfPartitions; p++) {
+			total += loads.get(index(d, p));
+		}
+		return total;
+	}
+
+	/**
+	 * @return the capacity of a partition in every dimension, at least 1
+	 */
+	public long[] getCapacities(LongVector loads) {
+		long[] capacities = new long[dimensions.length];
+		for (int d = 0; d < dimensions.length; d++) {
+			capacities[d] = Math.max(1, Math.round(((double) getTotal(loads,
+					d)) * (1 + additionalCapacities[d]) / numberOfPartitions));
+		}
+		return capacities;
+	}
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package main.okapi.spinner;
+
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+import org.apache.giraph.io.EdgeReader;
+import org.apache.giraph.io.formats.TextEdgeInputFormat;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+/**
+ * Reads the edges written by {@link SpinnerOutputConverter}, one edge per
+ * line with both endpoints as partition_id, so that
+ * {@link PrefixHashPartitionerFactory} places the vertices by partition.
+ */
+public class PartitionedLongTextEdgeInputFormat extends
+		TextEdgeInputFormat<PartitionedLongWritable, NullWritable> {
+	/** Splitter for endpoints */
+	private static final Pattern SEPARATOR = Pattern.compile("[\001\t ]");
+
+	@Override
+	public EdgeReader<PartitionedLongWritable, NullWritable> createEdgeReader(
+			InputSplit split, TaskAttemptContext context) throws IOException {
+		return new PartitionedLongEdgeReader();
+	}
+
+	public class PartitionedLongEdgeReader extends
+			TextEdgeReaderFromEachLineProcessed<String[]> {
+		@Override
+		protected String[] preprocessLine(Text line) throws IOException {
+			return SEPARATOR.split(line.toString());
+		}
+
+		@Override
+		protected PartitionedLongWritable getSourceVertexId(String[] endpoints)
+				throws IOException {
+			return new PartitionedLongWritable(endpoints[0]);
+		}
+
+		@Override
+		protected PartitionedLongWritable getTargetVertexId(String[] endpoints)
+				throws IOException {
+			return new PartitionedLongWritable(endpoints[1]);
+		}
+
+		@Override
+		protected NullWritable getValue(String[] endpoints) throws IOException {
+			return NullWritable.get();
+		}
+	}
+}
@@ -21,6 +21,11 @@ import java.io.IOException;
 
 import org.apache.hadoop.io.WritableComparable;
 
+/**
+ * The id of a vertex with its Spinner partition, written as partition_id in
+ * the text formats. Two ids are equal if both the partition and the id are,
+ * and they are ordered by id.
+ */
 public class PartitionedLongWritable implements WritableComparable {
 	public static final String DELIMITER = "_";
 	private short partition;
@@ -29,6 +34,11 @@ public class PartitionedLongWritable implements WritableComparable {
 	public PartitionedLongWritable() {
 	}
 
+	public PartitionedLongWritable(short partition, long id) {
+		this.partition = partition;
+		this.id = id;
+	}
+
 	public PartitionedLongWritable(String id) {
 		String[] tokens = id.split(DELIMITER);
 		this.partition = Short.parseShort(tokens[0]);
@@ -69,7 +79,7 @@ public class PartitionedLongWritable implements WritableComparable {
 
 	@Override
 	public int hashCode() {
-		return (int) id;
+		return (int) (id ^ (id >>> 32));
 	}
 
 	public short getPartition() {
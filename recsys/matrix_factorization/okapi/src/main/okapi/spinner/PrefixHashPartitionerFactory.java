@@ -24,9 +24,11 @@ import org.apache.giraph.worker.LocalData;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
 
-/*
- * Set it through giraph.graphPartitionerFactoryClass
- * expects I as PrefixIntWritable
+/**
+ * Places the vertices by their Spinner partition, see
+ * {@link PrefixHashWorkerPartitioner}. Set it through
+ * giraph.graphPartitionerFactoryClass, with {@link PartitionedLongWritable}
+ * ids.
  */
 @SuppressWarnings("rawtypes")
 public class PrefixHashPartitionerFactory<I extends WritableComparable, V extends Writable, E extends Writable>
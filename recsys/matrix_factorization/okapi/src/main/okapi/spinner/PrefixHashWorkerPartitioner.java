@@ -20,8 +20,16 @@ import org.apache.giraph.partition.PartitionOwner;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
 
-/*
- * expects I as PrefixIntWritable
+/**
+ * Places a vertex by the Spinner partition in its id instead of by the hash
+ * of its id, so that the vertices of a Spinner partition are on the same
+ * worker. Expects the ids to be {@link PartitionedLongWritable}.
+ * 
+ * The Spinner partition p goes to the Giraph partition p modulo the number of
+ * Giraph partitions, and Giraph gives its partition i to the worker i modulo
+ * the number of workers. When both numbers of partitions are multiples of the
+ * number of workers, the Spinner partition p is then on the worker p modulo
+ * the number of workers, and no Spinner partition is split over two workers.
  */
 @SuppressWarnings("rawtypes")
 public class PrefixHashWorkerPartitioner<I extends WritableComparable, V extends Writable, E extends Writable>
@@ -30,7 +38,18 @@ public class PrefixHashWorkerPartitioner<I extends WritableComparable, V extends
 	@Override
 	public PartitionOwner getPartitionOwner(I vertexId) {
 		PartitionedLongWritable id = (PartitionedLongWritable) vertexId;
-		return partitionOwnerList.get(Math.abs(id.getPartition()
-				% partitionOwnerList.size()));
+		return partitionOwnerList.get(getPartitionIndex(id.getPartition(),
+				partitionOwnerList.size()));
+	}
+
+	/**
+	 * @param partition
+	 *            the Spinner partition of a vertex
+	 * @param numberOfPartitions
+	 *            the number of Giraph partitions
+	 * @return the index of the Giraph partition of the vertex
+	 */
+	public static int getPartitionIndex(short partition, int numberOfPartitions) {
+		return Math.abs(partition % numberOfPartitions);
 	}
 }
@@ -27,6 +27,11 @@ import java.util.LinkedList;
 import java.util.Random;
 import java.util.regex.Pattern;
 
+import ml.grafos.okapi.aggregators.LongArraySumAggregator;
+import ml.grafos.okapi.aggregators.LongArraySumAggregator.LongVector;
+import ml.grafos.okapi.common.computation.Instrumentation;
+import ml.grafos.okapi.common.computation.InstrumentedComputation;
+
 import org.apache.giraph.aggregators.DoubleSumAggregator;
 import org.apache.giraph.aggregators.LongSumAggregator;
 import org.apache.giraph.edge.Edge;
@@ -39,11 +44,13 @@ import org.apache.giraph.io.formats.TextVertexOutputFormat;
 import org.apache.giraph.io.formats.TextVertexValueInputFormat;
 import org.apache.giraph.master.DefaultMasterCompute;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.ByteWritable;
 import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
 
@@ -71,7 +78,22 @@ import com.google.common.collect.Lists;
  * (see paper), (ii) If we are removing partitions: assign vertices belonging to
  * the removed partitions to the other partitions uniformly at random. After the
  * vertices are initialized, they communicate their label to their neighbors,
- * and update the partition loads according to their assignments.
+ * and update the partition loads according to their assignments. With
+ * spinner.initialization set to ldg or fennel, the random partitions of a) and
+ * b-ii) are replaced by the streaming heuristics of {@link StreamingPlacement},
+ * which start from a partitioning with many more local edges, so that fewer
+ * iterations of (2) and (3) are needed.
+ * 
+ * With spinner.incremental, the job adapts the previous partitioning, given
+ * by the vertex input, to a delta of the graph: an edge line ending with + was
+ * added since, and one ending with - was removed, in both directions. The new
+ * vertices take the label most frequent among their neighbors, and only the
+ * vertices within spinner.hops hops of a changed vertex, which is a new
+ * vertex or an endpoint of the delta, may migrate. The other vertices, and
+ * those near the delta whose neighbors did not migrate, do not evaluate the
+ * partitions at all. The partitioning is then refined as in (2) and (3), from
+ * the label messages of the new vertices and the migrations, and usually
+ * converges after the convergence window.
  * 
  * 2) Each vertex computes the score for each label based on loads and the
  * labels from incoming neighbors. If a new partition has higher score (or
@@ -87,11 +109,17 @@ import com.google.common.collect.Lists;
  * hence till the global score of the partitioning does not change for a number
  * of times over a certain threshold.
  * 
+ * The loads of (2) and (3) are counted in edges by default. With
+ * spinner.balance, they can also be counted in vertices or in vertex weights,
+ * each with its own capacity, see {@link LoadDimensions}, so that for instance
+ * the partitions of a CF job balance both the edges and the factor vectors.
+ * 
  * Each vertex stores the position of its neighbors in the edge values, to avoid
  * re-communicating labels at each iteration also for non-migrating vertices.
  * 
  * Due to the random access to edges, this class performs much better when using
- * OpenHashMapEdges class provided with this code.
+ * the SortedArrayEdges or OpenHashMapEdges classes provided with this code.
+ * SortedArrayEdges takes 11 bytes per edge and iterates without allocating.
  * 
  * To use the partitioning computed by this class in Giraph, see
  * {@link PrefixHashPartitionerFactor}, {@link PrefixHashWorkerPartitioner}, and
@@ -101,11 +129,13 @@ import com.google.common.collect.Lists;
  * 
  */
 public class Spinner {
-	private static final String AGGREGATOR_LOAD_PREFIX = "AGG_LOAD_";
-	private static final String AGGREGATOR_DEMAND_PREFIX = "AGG_DEMAND_";
+	private static final String AGGREGATOR_LOAD = "AGG_LOAD";
+	private static final String AGGREGATOR_DEMAND = "AGG_DEMAND";
 	private static final String AGGREGATOR_STATE = "AGG_STATE";
 	private static final String AGGREGATOR_MIGRATIONS = "AGG_MIGRATIONS";
 	private static final String AGGREGATOR_LOCALS = "AGG_LOCALS";
+	/** Vertices that evaluated the partitions in ComputeNewPartition. */
+	static final String AGGREGATOR_EVALUATED = "AGG_EVALUATED";
 	private static final String NUM_PARTITIONS = "spinner.numberOfPartitions";
 	private static final int DEFAULT_NUM_PARTITIONS = 32;
 	private static final String ADDITIONAL_CAPACITY = "spinner.additionalCapacity";
@@ -122,6 +152,13 @@ public class Spinner {
 	private static final short DEFAULT_REPARTITION = 0;
 	private static final String WINDOW_SIZE = "spinner.windowSize";
 	private static final int DEFAULT_WINDOW_SIZE = 5;
+	private static final String INCREMENTAL = "spinner.incremental";
+	private static final boolean DEFAULT_INCREMENTAL = false;
+	private static final String HOPS = "spinner.hops";
+	private static final int DEFAULT_HOPS = 2;
+	/** Marks of the edges of the delta, in the partition of an edge value. */
+	private static final short ADDED_EDGE = -2;
+	private static final short REMOVED_EDGE = -3;
 
 	private static final String COUNTER_GROUP = "Partitioning Counters";
 	private static final String MIGRATIONS_COUNTER = "Migrations";
@@ -133,21 +170,33 @@ public class Spinner {
 
 	public static class ComputeNewPartition
 			extends
-			AbstractComputation<LongWritable, VertexValue, EdgeValue, PartitionMessage, NullWritable> {
+			InstrumentedComputation<LongWritable, VertexValue, EdgeValue, PartitionMessage, NullWritable> {
 		private ShortArrayList maxIndices = new ShortArrayList();
 		private Random rnd = new Random();
-		private String[] demandAggregatorNames;
+		private LongVector demands;
 		private int[] partitionFrequency;
 		private long[] loads;
-		private long totalCapacity;
+		private LoadDimensions dimensions;
+		private long[] capacities;
 		private short numberOfPartitions;
 		private short repartition;
 		private double additionalCapacity;
 		private double lambda;
+		private boolean incremental;
+		private long firstSuperstep;
+		private long evaluated;
 
+		/*
+		 * The load of the most loaded dimension of the partition
+		 */
 		private double computeW(int newPartition) {
-			return new BigDecimal(((double) loads[newPartition])
-					/ totalCapacity).setScale(3, BigDecimal.ROUND_CEILING)
+			double w = 0;
+			for (int d = 0; d < dimensions.size(); d++) {
+				w = Math.max(w,
+						((double) loads[dimensions.index(d, newPartition)])
+								/ capacities[d]);
+			}
+			return new BigDecimal(w).setScale(3, BigDecimal.ROUND_CEILING)
 					.doubleValue();
 		}
 
@@ -156,12 +205,14 @@ public class Spinner {
 		 */
 		private void requestMigration(
 				Vertex<LongWritable, VertexValue, EdgeValue> vertex,
-				int numberOfEdges, short currentPartition, short newPartition) {
+				short currentPartition, short newPartition) {
 			vertex.getValue().setNewPartition(newPartition);
-			aggregate(demandAggregatorNames[newPartition], new LongWritable(
-					numberOfEdges));
-			loads[newPartition] += numberOfEdges;
-			loads[currentPartition] -= numberOfEdges;
+			dimensions.add(demands, newPartition, vertex);
+			for (int d = 0; d < dimensions.size(); d++) {
+				long load = dimensions.getLoad(d, vertex);
+				loads[dimensions.index(d, newPartition)] += load;
+				loads[dimensions.index(d, currentPartition)] -= load;
+			}
 		}
 
 		/*
@@ -289,17 +340,53 @@ public class Spinner {
 			return newPartition;
 		}
 
+		/*
+		 * Update the cut edges and state stats of a vertex that may not
+		 * migrate, from the current partition only
+		 */
+		private void aggregateCurrentState(
+				Vertex<LongWritable, VertexValue, EdgeValue> vertex) {
+			short currentPartition = vertex.getValue().getCurrentPartition();
+			int totalLabels = 0;
+			int localLabels = 0;
+			int localEdges = 0;
+			for (Edge<LongWritable, EdgeValue> e : vertex.getEdges()) {
+				totalLabels += e.getValue().getWeight();
+				if (e.getValue().getPartition() == currentPartition) {
+					localLabels += e.getValue().getWeight();
+					localEdges++;
+				}
+			}
+			aggregate(AGGREGATOR_LOCALS, new LongWritable(localEdges));
+			double LPA = ((double) localLabels) / totalLabels;
+			double PF = lambda * computeW(currentPartition);
+			aggregate(AGGREGATOR_STATE, new DoubleWritable(lambda + LPA - PF));
+		}
+
 		@Override
-		public void compute(
+		public void computeVertex(
 				Vertex<LongWritable, VertexValue, EdgeValue> vertex,
 				Iterable<PartitionMessage> messages) throws IOException {
 			boolean isActive = messages.iterator().hasNext();
+			if (incremental) {
+				// all the vertices near the delta try the first time, then
+				// those whose neighbors migrated
+				isActive = vertex.getValue().getDistance() >= 0
+						&& (isActive || getSuperstep() == firstSuperstep);
+			}
 			short currentPartition = vertex.getValue().getCurrentPartition();
-			int numberOfEdges = vertex.getNumEdges();
 
 			// update neighbors partitions
 			updateNeighborsPartitions(vertex, messages);
 
+			if (incremental && !isActive) {
+				// the far vertices, and those whose neighborhood did not
+				// change, keep their partition
+				aggregateCurrentState(vertex);
+				return;
+			}
+			evaluated++;
+
 			// count labels occurrences in the neighborhood
 			int totalLabels = computeNeighborsLabels(vertex);
 
@@ -308,13 +395,15 @@ public class Spinner {
 
 			// request migration to the new destination
 			if (newPartition != currentPartition && isActive) {
-				requestMigration(vertex, numberOfEdges, currentPartition,
-						newPartition);
+				requestMigration(vertex, currentPartition, newPartition);
 			}
 		}
 
 		@Override
 		public void preSuperstep() {
+			super.preSuperstep();
+			// the labels of the initial placement are on the vertices now
+			StreamingPlacement.release();
 			additionalCapacity = getContext().getConfiguration().getFloat(
 					ADDITIONAL_CAPACITY, DEFAULT_ADDITIONAL_CAPACITY);
 			numberOfPartitions = (short) getContext().getConfiguration()
@@ -323,41 +412,49 @@ public class Spinner {
 					REPARTITION, DEFAULT_REPARTITION);
 			lambda = getContext().getConfiguration().getFloat(LAMBDA,
 					DEFAULT_LAMBDA);
+			incremental = getContext().getConfiguration().getBoolean(
+					INCREMENTAL, DEFAULT_INCREMENTAL);
+			firstSuperstep = getContext().getConfiguration().getInt(HOPS,
+					DEFAULT_HOPS) + 2;
+			dimensions = new LoadDimensions(getContext().getConfiguration(),
+					numberOfPartitions + repartition, additionalCapacity);
 			partitionFrequency = new int[numberOfPartitions + repartition];
-			loads = new long[numberOfPartitions + repartition];
-			demandAggregatorNames = new String[numberOfPartitions + repartition];
-			totalCapacity = (long) Math
-					.round(((double) getTotalNumEdges()
-							* (1 + additionalCapacity) / (numberOfPartitions + repartition)));
+			loads = new long[dimensions.length()];
+			demands = new LongVector(dimensions.length());
+			evaluated = 0;
 			// cache loads for the penalty function
-			for (int i = 0; i < numberOfPartitions + repartition; i++) {
-				demandAggregatorNames[i] = AGGREGATOR_DEMAND_PREFIX + i;
-				loads[i] = ((LongWritable) getAggregatedValue(AGGREGATOR_LOAD_PREFIX
-						+ i)).get();
-			}
+			LongVector aggregatedLoads = getAggregatedValue(AGGREGATOR_LOAD);
+			aggregatedLoads.copyTo(loads);
+			capacities = dimensions.getCapacities(aggregatedLoads);
+		}
+
+		@Override
+		public void postSuperstep() {
+			// the demands of all the vertices of the partition at once
+			aggregate(AGGREGATOR_DEMAND, demands);
+			aggregate(AGGREGATOR_EVALUATED, new LongWritable(evaluated));
+			super.postSuperstep();
 		}
 	}
 
 	public static class ComputeMigration
 			extends
-			AbstractComputation<LongWritable, VertexValue, EdgeValue, NullWritable, PartitionMessage> {
+			InstrumentedComputation<LongWritable, VertexValue, EdgeValue, NullWritable, PartitionMessage> {
 		private Random rnd = new Random();
-		private String[] loadAggregatorNames;
+		private LongVector loadChanges;
 		private double[] migrationProbabilities;
 		private short numberOfPartitions;
 		private short repartition;
 		private double additionalCapacity;
+		private LoadDimensions dimensions;
 
 		private void migrate(
 				Vertex<LongWritable, VertexValue, EdgeValue> vertex,
 				short currentPartition, short newPartition) {
 			vertex.getValue().setCurrentPartition(newPartition);
 			// update partitions loads
-			int numberOfEdges = vertex.getNumEdges();
-			aggregate(loadAggregatorNames[currentPartition], new LongWritable(
-					-numberOfEdges));
-			aggregate(loadAggregatorNames[newPartition], new LongWritable(
-					numberOfEdges));
+			dimensions.subtract(loadChanges, currentPartition, vertex);
+			dimensions.add(loadChanges, newPartition, vertex);
 			aggregate(AGGREGATOR_MIGRATIONS, new LongWritable(1));
 			// inform the neighbors
 			PartitionMessage message = new PartitionMessage(vertex.getId()
@@ -366,7 +463,7 @@ public class Spinner {
 		}
 
 		@Override
-		public void compute(
+		public void computeVertex(
 				Vertex<LongWritable, VertexValue, EdgeValue> vertex,
 				Iterable<NullWritable> messages) throws IOException {
 			if (messages.iterator().hasNext()) {
@@ -387,33 +484,230 @@ public class Spinner {
 
 		@Override
 		public void preSuperstep() {
+			super.preSuperstep();
 			additionalCapacity = getContext().getConfiguration().getFloat(
 					ADDITIONAL_CAPACITY, DEFAULT_ADDITIONAL_CAPACITY);
 			numberOfPartitions = (short) getContext().getConfiguration()
 					.getInt(NUM_PARTITIONS, DEFAULT_NUM_PARTITIONS);
 			repartition = (short) getContext().getConfiguration().getInt(
 					REPARTITION, DEFAULT_REPARTITION);
-			long totalCapacity = (long) Math
-					.round(((double) getTotalNumEdges()
-							* (1 + additionalCapacity) / (numberOfPartitions + repartition)));
+			dimensions = new LoadDimensions(getContext().getConfiguration(),
+					numberOfPartitions + repartition, additionalCapacity);
 			migrationProbabilities = new double[numberOfPartitions
 					+ repartition];
-			loadAggregatorNames = new String[numberOfPartitions + repartition];
-			// cache migration probabilities per destination partition
+			loadChanges = new LongVector(dimensions.length());
+			LongVector loads = getAggregatedValue(AGGREGATOR_LOAD);
+			LongVector demands = getAggregatedValue(AGGREGATOR_DEMAND);
+			long[] capacities = dimensions.getCapacities(loads);
+			// cache migration probabilities per destination partition, the
+			// smallest over the dimensions that the migrations load
 			for (int i = 0; i < numberOfPartitions + repartition; i++) {
-				loadAggregatorNames[i] = AGGREGATOR_LOAD_PREFIX + i;
-				long load = ((LongWritable) getAggregatedValue(loadAggregatorNames[i]))
-						.get();
-				long demand = ((LongWritable) getAggregatedValue(AGGREGATOR_DEMAND_PREFIX
-						+ i)).get();
-				long remainingCapacity = totalCapacity - load;
-				if (demand == 0 || remainingCapacity <= 0) {
-					migrationProbabilities[i] = 0;
+				// -1 until a dimension has demand
+				double migrationProbability = -1;
+				for (int d = 0; d < dimensions.size(); d++) {
+					long load = loads.get(dimensions.index(d, i));
+					long demand = demands.get(dimensions.index(d, i));
+					long remainingCapacity = capacities[d] - load;
+					if (demand == 0) {
+						continue;
+					}
+					double probability = 0;
+					if (remainingCapacity > 0) {
+						probability = ((double) (remainingCapacity)) / demand;
+					}
+					if (migrationProbability < 0
+							|| probability < migrationProbability) {
+						migrationProbability = probability;
+					}
+				}
+				migrationProbabilities[i] = Math.max(0, migrationProbability);
+			}
+		}
+
+		@Override
+		public void postSuperstep() {
+			aggregate(AGGREGATOR_LOAD, loadChanges);
+			super.postSuperstep();
+		}
+	}
+
+	/*
+	 * First superstep of the incremental mode: drop the removed edges, and
+	 * send the id and the previous label of the vertex to its neighbors
+	 */
+	public static class DeltaPropagate
+			extends
+			AbstractComputation<LongWritable, VertexValue, EdgeValue, PartitionMessage, PartitionMessage> {
+
+		@Override
+		public void compute(
+				Vertex<LongWritable, VertexValue, EdgeValue> vertex,
+				Iterable<PartitionMessage> messages) throws IOException {
+			boolean changed = vertex.getValue().getCurrentPartition() == -1;
+			LinkedList<LongWritable> removed = null;
+			for (Edge<LongWritable, EdgeValue> e : vertex.getEdges()) {
+				short mark = e.getValue().getPartition();
+				if (mark == REMOVED_EDGE) {
+					if (removed == null) {
+						removed = new LinkedList<LongWritable>();
+					}
+					removed.add(new LongWritable(e.getTargetVertexId().get()));
+				} else if (mark == ADDED_EDGE) {
+					changed = true;
+				}
+			}
+			if (removed != null) {
+				changed = true;
+				for (LongWritable other : removed) {
+					vertex.removeEdges(other);
+					sendMessage(other, new PartitionMessage(vertex.getId()
+							.get(), REMOVED_EDGE));
+				}
+			}
+			if (changed) {
+				vertex.getValue().setDistance((byte) 0);
+			}
+			sendMessageToAllEdges(vertex, new PartitionMessage(vertex.getId()
+					.get(), vertex.getValue().getCurrentPartition()));
+		}
+	}
+
+	/*
+	 * Make the graph undirected with the labels of the neighbors, give the
+	 * new vertices the most frequent label among their neighbors, and start
+	 * the search of the vertices near the delta, with messages that carry the
+	 * distance of the sender, as the empty NullWritable messages are dropped
+	 * by the message stores
+	 */
+	public static class DeltaUpdateEdges
+			extends
+			AbstractComputation<LongWritable, VertexValue, EdgeValue, PartitionMessage, ByteWritable> {
+		private byte edgeWeight;
+		private int[] partitionFrequency;
+
+		@Override
+		public void compute(
+				Vertex<LongWritable, VertexValue, EdgeValue> vertex,
+				Iterable<PartitionMessage> messages) throws IOException {
+			VertexValue value = vertex.getValue();
+			for (PartitionMessage message : messages) {
+				LongWritable other = new LongWritable(message.getSourceId());
+				if (message.getPartition() == REMOVED_EDGE) {
+					vertex.removeEdges(other);
+					value.setDistance((byte) 0);
+					continue;
+				}
+				EdgeValue edgeValue = vertex.getEdgeValue(other);
+				if (edgeValue == null) {
+					edgeValue = new EdgeValue(message.getPartition(), (byte) 1);
+					vertex.addEdge(EdgeFactory.create(other, edgeValue));
+					// the other does not know the label yet
+					value.setNewPartition((short) -1);
 				} else {
-					migrationProbabilities[i] = ((double) (remainingCapacity))
-							/ demand;
+					vertex.setEdgeValue(other, new EdgeValue(
+							message.getPartition(), edgeWeight));
 				}
 			}
+			if (value.getCurrentPartition() == -1) {
+				// a new vertex, keeps newPartition to -1 to send its label
+				value.setDistance((byte) 0);
+				Arrays.fill(partitionFrequency, 0);
+				short best = -1;
+				for (Edge<LongWritable, EdgeValue> e : vertex.getEdges()) {
+					short partition = e.getValue().getPartition();
+					if (partition >= 0 && partition < partitionFrequency.length) {
+						partitionFrequency[partition] += e.getValue()
+								.getWeight();
+						if (best == -1
+								|| partitionFrequency[partition] > partitionFrequency[best]) {
+							best = partition;
+						}
+					}
+				}
+				value.setCurrentPartition(best);
+			}
+			if (value.getDistance() == 0) {
+				sendMessageToAllEdges(vertex, new ByteWritable((byte) 0));
+			}
+		}
+
+		@Override
+		public void preSuperstep() {
+			edgeWeight = (byte) getContext().getConfiguration().getInt(
+					EDGE_WEIGHT, DEFAULT_EDGE_WEIGHT);
+			partitionFrequency = new int[getContext().getConfiguration()
+					.getInt(NUM_PARTITIONS, DEFAULT_NUM_PARTITIONS)];
+		}
+	}
+
+	/*
+	 * One more hop of the search of the vertices near the delta
+	 */
+	public static class SpreadDelta
+			extends
+			AbstractComputation<LongWritable, VertexValue, EdgeValue, ByteWritable, ByteWritable> {
+
+		@Override
+		public void compute(
+				Vertex<LongWritable, VertexValue, EdgeValue> vertex,
+				Iterable<ByteWritable> messages) throws IOException {
+			if (vertex.getValue().getDistance() == -1
+					&& messages.iterator().hasNext()) {
+				vertex.getValue().setDistance((byte) (getSuperstep() - 1));
+				sendMessageToAllEdges(vertex, new ByteWritable(vertex
+						.getValue().getDistance()));
+			}
+		}
+	}
+
+	/*
+	 * Last hop of the search, then count the loads and send the labels that
+	 * the neighbors do not know, of the new vertices and of the new edges
+	 */
+	public static class IncrementalInitializer
+			extends
+			AbstractComputation<LongWritable, VertexValue, EdgeValue, ByteWritable, PartitionMessage> {
+		private Random rnd = new Random();
+		private LongVector loads;
+		private LoadDimensions dimensions;
+		private int numberOfPartitions;
+
+		@Override
+		public void compute(
+				Vertex<LongWritable, VertexValue, EdgeValue> vertex,
+				Iterable<ByteWritable> messages) throws IOException {
+			VertexValue value = vertex.getValue();
+			if (value.getDistance() == -1 && messages.iterator().hasNext()) {
+				value.setDistance((byte) (getSuperstep() - 1));
+			}
+			short partition = value.getCurrentPartition();
+			if (partition == -1) {
+				// no labelled neighbor
+				partition = (short) rnd.nextInt(numberOfPartitions);
+				value.setCurrentPartition(partition);
+			}
+			dimensions.add(loads, partition, vertex);
+			if (value.getNewPartition() == -1) {
+				sendMessageToAllEdges(vertex, new PartitionMessage(vertex
+						.getId().get(), partition));
+			}
+			value.setNewPartition(partition);
+		}
+
+		@Override
+		public void preSuperstep() {
+			numberOfPartitions = getContext().getConfiguration().getInt(
+					NUM_PARTITIONS, DEFAULT_NUM_PARTITIONS);
+			dimensions = new LoadDimensions(getContext().getConfiguration(),
+					numberOfPartitions, getContext()
+							.getConfiguration().getFloat(ADDITIONAL_CAPACITY,
+									DEFAULT_ADDITIONAL_CAPACITY));
+			loads = new LongVector(dimensions.length());
+		}
+
+		@Override
+		public void postSuperstep() {
+			aggregate(AGGREGATOR_LOAD, loads);
 		}
 	}
 
@@ -421,19 +715,28 @@ public class Spinner {
 			extends
 			AbstractComputation<LongWritable, VertexValue, EdgeValue, PartitionMessage, PartitionMessage> {
 		private Random rnd = new Random();
-		private String[] loadAggregatorNames;
+		private LongVector loads;
+		private LoadDimensions dimensions;
 		private int numberOfPartitions;
+		private StreamingPlacement placement;
 
 		@Override
 		public void compute(
 				Vertex<LongWritable, VertexValue, EdgeValue> vertex,
 				Iterable<PartitionMessage> messages) throws IOException {
 			short partition = vertex.getValue().getCurrentPartition();
-			if (partition == -1) {
-				partition = (short) rnd.nextInt(numberOfPartitions);
+			if (placement == null) {
+				if (partition == -1) {
+					partition = (short) rnd.nextInt(numberOfPartitions);
+				}
+			} else if (partition == -1) {
+				partition = placement.place(vertex.getId().get(),
+						vertex.getEdges(), vertex.getNumEdges());
+			} else {
+				placement.assign(vertex.getId().get(), partition,
+						vertex.getNumEdges());
 			}
-			aggregate(loadAggregatorNames[partition],
-					new LongWritable(vertex.getNumEdges()));
+			dimensions.add(loads, partition, vertex);
 			vertex.getValue().setCurrentPartition(partition);
 			vertex.getValue().setNewPartition(partition);
 			PartitionMessage message = new PartitionMessage(vertex.getId()
@@ -445,11 +748,33 @@ public class Spinner {
 		public void preSuperstep() {
 			numberOfPartitions = getContext().getConfiguration().getInt(
 					NUM_PARTITIONS, DEFAULT_NUM_PARTITIONS);
-			loadAggregatorNames = new String[numberOfPartitions];
-			for (int i = 0; i < numberOfPartitions; i++) {
-				loadAggregatorNames[i] = AGGREGATOR_LOAD_PREFIX + i;
+			dimensions = new LoadDimensions(getContext().getConfiguration(),
+					numberOfPartitions, getContext()
+							.getConfiguration().getFloat(ADDITIONAL_CAPACITY,
+									DEFAULT_ADDITIONAL_CAPACITY));
+			loads = new LongVector(dimensions.length());
+			StreamingPlacement.Heuristic heuristic = StreamingPlacement
+					.getHeuristic(getContext().getConfiguration().get(
+							StreamingPlacement.INITIALIZATION,
+							StreamingPlacement.DEFAULT_INITIALIZATION));
+			if (heuristic != null) {
+				placement = StreamingPlacement.get(getContext().getJobID()
+						.toString(), getSuperstep(), heuristic,
+						numberOfPartitions, getContext().getConfiguration()
+								.getFloat(ADDITIONAL_CAPACITY,
+										DEFAULT_ADDITIONAL_CAPACITY),
+						getTotalNumEdges()
+								/ getWorkerContext().getWorkerCount(),
+						getContext().getConfiguration().getFloat(
+								StreamingPlacement.FENNEL_GAMMA,
+								StreamingPlacement.DEFAULT_FENNEL_GAMMA));
 			}
 		}
+
+		@Override
+		public void postSuperstep() {
+			aggregate(AGGREGATOR_LOAD, loads);
+		}
 	}
 
 	public static class ConverterPropagate
@@ -468,7 +793,8 @@ public class Spinner {
 			extends
 			AbstractComputation<LongWritable, VertexValue, EdgeValue, PartitionMessage, PartitionMessage> {
 		private Random rnd = new Random();
-		private String[] loadAggregatorNames;
+		private LongVector loads;
+		private LoadDimensions dimensions;
 		private int numberOfPartitions;
 		private short repartition;
 		private double migrationProbability;
@@ -499,8 +825,7 @@ public class Spinner {
 				throw new RuntimeException("Repartitioner called with "
 						+ REPARTITION + " set to 0");
 			}
-			aggregate(loadAggregatorNames[partition],
-					new LongWritable(vertex.getNumEdges()));
+			dimensions.add(loads, partition, vertex);
 			vertex.getValue().setCurrentPartition(partition);
 			vertex.getValue().setNewPartition(partition);
 			PartitionMessage message = new PartitionMessage(vertex.getId()
@@ -516,10 +841,16 @@ public class Spinner {
 					REPARTITION, DEFAULT_REPARTITION);
 			migrationProbability = ((double) repartition)
 					/ (repartition + numberOfPartitions);
-			loadAggregatorNames = new String[numberOfPartitions + repartition];
-			for (int i = 0; i < numberOfPartitions + repartition; i++) {
-				loadAggregatorNames[i] = AGGREGATOR_LOAD_PREFIX + i;
-			}
+			dimensions = new LoadDimensions(getContext().getConfiguration(),
+					numberOfPartitions + repartition, getContext()
+							.getConfiguration().getFloat(ADDITIONAL_CAPACITY,
+									DEFAULT_ADDITIONAL_CAPACITY));
+			loads = new LongVector(dimensions.length());
+		}
+
+		@Override
+		public void postSuperstep() {
+			aggregate(AGGREGATOR_LOAD, loads);
 		}
 	}
 
@@ -557,12 +888,15 @@ public class Spinner {
 
 	public static class PartitionerMasterCompute extends DefaultMasterCompute {
 		private LinkedList<Double> states;
-		private String[] loadAggregatorNames;
 		private int maxIterations;
 		private int numberOfPartitions;
 		private double convergenceThreshold;
 		private short repartition;
 		private int windowSize;
+		private boolean incremental;
+		/** Supersteps of the search of the delta after the first hop. */
+		private int offset;
+		private LoadDimensions dimensions;
 
 		private long totalMigrations;
 		private double maxMinLoad;
@@ -582,19 +916,35 @@ public class Spinner {
 					REPARTITION, DEFAULT_REPARTITION);
 			windowSize = (int) getContext().getConfiguration().getInt(
 					WINDOW_SIZE, DEFAULT_WINDOW_SIZE);
-			states = Lists.newLinkedList();
-			// Create aggregators for each partition
-			loadAggregatorNames = new String[numberOfPartitions + repartition];
-			for (int i = 0; i < numberOfPartitions + repartition; i++) {
-				loadAggregatorNames[i] = AGGREGATOR_LOAD_PREFIX + i;
-				registerPersistentAggregator(loadAggregatorNames[i],
-						LongSumAggregator.class);
-				registerAggregator(AGGREGATOR_DEMAND_PREFIX + i,
-						LongSumAggregator.class);
+			dimensions = new LoadDimensions(getContext().getConfiguration(),
+					numberOfPartitions + repartition, getContext()
+							.getConfiguration().getFloat(ADDITIONAL_CAPACITY,
+									DEFAULT_ADDITIONAL_CAPACITY));
+			incremental = getContext().getConfiguration().getBoolean(
+					INCREMENTAL, DEFAULT_INCREMENTAL);
+			if (incremental) {
+				int hops = getContext().getConfiguration().getInt(HOPS,
+						DEFAULT_HOPS);
+				if (hops < 1 || hops > Byte.MAX_VALUE) {
+					throw new IllegalArgumentException(HOPS
+							+ " must be in [1, 127]");
+				}
+				if (repartition != 0) {
+					throw new IllegalArgumentException(INCREMENTAL
+							+ " cannot be used with " + REPARTITION);
+				}
+				offset = hops - 1;
 			}
+			states = Lists.newLinkedList();
+			// The loads and demands of all the partitions, one element each
+			registerPersistentAggregator(AGGREGATOR_LOAD,
+					LongArraySumAggregator.class);
+			registerAggregator(AGGREGATOR_DEMAND, LongArraySumAggregator.class);
 			registerAggregator(AGGREGATOR_STATE, DoubleSumAggregator.class);
 			registerAggregator(AGGREGATOR_LOCALS, LongSumAggregator.class);
 			registerAggregator(AGGREGATOR_MIGRATIONS, LongSumAggregator.class);
+			registerAggregator(AGGREGATOR_EVALUATED, LongSumAggregator.class);
+			Instrumentation.registerAggregators(this);
 		}
 
 		private void printStats(int superstep) {
@@ -608,24 +958,14 @@ public class Spinner {
 				case 0:
 					System.out.println(((double) localEdges)
 							/ getTotalNumEdges() + " local edges");
-					long minLoad = Long.MAX_VALUE;
-					long maxLoad = -Long.MAX_VALUE;
-					for (int i = 0; i < numberOfPartitions + repartition; i++) {
-						long load = ((LongWritable) getAggregatedValue(loadAggregatorNames[i]))
-								.get();
-						if (load < minLoad) {
-							minLoad = load;
-						}
-						if (load > maxLoad) {
-							maxLoad = load;
-						}
+					LongVector loads = getAggregatedValue(AGGREGATOR_LOAD);
+					for (int d = 0; d < dimensions.size(); d++) {
+						String name = dimensions.get(d).name().toLowerCase();
+						System.out.println(getMaxMinLoad(loads, d) + " " + name
+								+ " max-min unbalance");
+						System.out.println(getMaxNormLoad(loads, d) + " "
+								+ name + " maximum normalized load");
 					}
-					double expectedLoad = ((double) getTotalNumEdges())
-							/ (numberOfPartitions + repartition);
-					System.out.println((((double) maxLoad) / minLoad)
-							+ " max-min unbalance");
-					System.out.println((((double) maxLoad) / expectedLoad)
-							+ " maximum normalized load");
 					break;
 				case 1:
 					System.out.println(migrations + " migrations");
@@ -634,6 +974,31 @@ public class Spinner {
 			}
 		}
 
+		private double getMaxMinLoad(LongVector loads, int d) {
+			long minLoad = Long.MAX_VALUE;
+			long maxLoad = -Long.MAX_VALUE;
+			for (int i = 0; i < numberOfPartitions + repartition; i++) {
+				long load = loads.get(dimensions.index(d, i));
+				if (load < minLoad) {
+					minLoad = load;
+				}
+				if (load > maxLoad) {
+					maxLoad = load;
+				}
+			}
+			return ((double) maxLoad) / minLoad;
+		}
+
+		private double getMaxNormLoad(LongVector loads, int d) {
+			long maxLoad = -Long.MAX_VALUE;
+			for (int i = 0; i < numberOfPartitions + repartition; i++) {
+				maxLoad = Math.max(maxLoad, loads.get(dimensions.index(d, i)));
+			}
+			double expectedLoad = ((double) dimensions.getTotal(loads, d))
+					/ (numberOfPartitions + repartition);
+			return ((double) maxLoad) / expectedLoad;
+		}
+
 		private boolean algorithmConverged(int superstep) {
 			double newState = ((DoubleWritable) getAggregatedValue(AGGREGATOR_STATE))
 					.get();
@@ -677,33 +1042,39 @@ public class Spinner {
 			totalMigrations += ((LongWritable) getAggregatedValue(AGGREGATOR_MIGRATIONS))
 					.get();
 
-			long minLoad = Long.MAX_VALUE;
-			long maxLoad = -Long.MAX_VALUE;
-			for (int i = 0; i < numberOfPartitions + repartition; i++) {
-				long load = ((LongWritable) getAggregatedValue(loadAggregatorNames[i]))
-						.get();
-				if (load < minLoad) {
-					minLoad = load;
-				}
-				if (load > maxLoad) {
-					maxLoad = load;
-				}
+			// the unbalance of the most unbalanced dimension
+			LongVector loads = getAggregatedValue(AGGREGATOR_LOAD);
+			maxMinLoad = 0;
+			maxNormLoad = 0;
+			for (int d = 0; d < dimensions.size(); d++) {
+				maxMinLoad = Math.max(maxMinLoad, getMaxMinLoad(loads, d));
+				maxNormLoad = Math.max(maxNormLoad, getMaxNormLoad(loads, d));
 			}
-			maxMinLoad = ((double) maxLoad) / minLoad;
-			double expectedLoad = ((double) getTotalNumEdges())
-					/ (numberOfPartitions + repartition);
-			maxNormLoad = ((double) maxLoad) / expectedLoad;
 			score = ((DoubleWritable) getAggregatedValue(AGGREGATOR_STATE))
 					.get();
 		}
 
 		@Override
 		public void compute() {
-			int superstep = (int) getSuperstep();
+			Instrumentation.update(this);
+			if (incremental && getSuperstep() < 2 + offset) {
+				if (getSuperstep() == 0) {
+					setComputation(DeltaPropagate.class);
+				} else if (getSuperstep() == 1) {
+					setComputation(DeltaUpdateEdges.class);
+				} else {
+					setComputation(SpreadDelta.class);
+				}
+				return;
+			}
+			// the supersteps of the search are not counted
+			int superstep = (int) getSuperstep() - offset;
 			if (superstep == 0) {
 				setComputation(ConverterPropagate.class);
 			} else if (superstep == 1) {
 				setComputation(ConverterUpdateEdges.class);
+			} else if (superstep == 2 && incremental) {
+				setComputation(IncrementalInitializer.class);
 			} else if (superstep == 2) {
 				if (repartition != 0) {
 					setComputation(Repartitioner.class);
@@ -801,6 +1172,10 @@ public class Spinner {
 	public static class VertexValue implements Writable {
 		private short currentPartition = -1;
 		private short newPartition = -1;
+		/** Hops to the delta in the incremental mode, -1 if far. */
+		private byte distance = -1;
+		/** Load of the vertex in the weight dimension of LoadDimensions. */
+		private int weight = 1;
 
 		public VertexValue() {
 		}
@@ -821,16 +1196,36 @@ public class Spinner {
 			newPartition = p;
 		}
 
+		public byte getDistance() {
+			return distance;
+		}
+
+		public void setDistance(byte d) {
+			distance = d;
+		}
+
+		public int getWeight() {
+			return weight;
+		}
+
+		public void setWeight(int w) {
+			weight = w;
+		}
+
 		@Override
 		public void readFields(DataInput in) throws IOException {
 			currentPartition = in.readShort();
 			newPartition = in.readShort();
+			distance = in.readByte();
+			weight = WritableUtils.readVInt(in);
 		}
 
 		@Override
 		public void write(DataOutput out) throws IOException {
 			out.writeShort(currentPartition);
 			out.writeShort(newPartition);
+			out.writeByte(distance);
+			WritableUtils.writeVInt(out, weight);
 		}
 
 		@Override
@@ -843,7 +1238,8 @@ public class Spinner {
 			}
 			VertexValue that = (VertexValue) o;
 			if (currentPartition != that.currentPartition
-					|| newPartition != that.newPartition) {
+					|| newPartition != that.newPartition
+					|| distance != that.distance || weight != that.weight) {
 				return false;
 			}
 			return true;
@@ -944,10 +1340,14 @@ public class Spinner {
 			protected VertexValue getValue(String[] data) throws IOException {
 				VertexValue value = new VertexValue();
 				if (data.length > 1) {
+					// -1 in the second column for no previous partition
 					short partition = Short.parseShort(data[1]);
 					value.setCurrentPartition(partition);
 					value.setNewPartition(partition);
 				}
+				if (data.length > 2) {
+					value.setWeight(Integer.parseInt(data[2]));
+				}
 				return value;
 			}
 		}
@@ -987,8 +1387,15 @@ public class Spinner {
 			@Override
 			protected EdgeValue getValue(String[] endpoints) throws IOException {
 				EdgeValue value = new EdgeValue();
-				if (endpoints.length == 3) {
-					value.setWeight((byte) Byte.parseByte(endpoints[2]));
+				for (int i = 2; i < endpoints.length; i++) {
+					// an edge of the delta of the incremental mode
+					if (endpoints[i].equals("+")) {
+						value.setPartition(ADDED_EDGE);
+					} else if (endpoints[i].equals("-")) {
+						value.setPartition(REMOVED_EDGE);
+					} else {
+						value.setWeight((byte) Byte.parseByte(endpoints[i]));
+					}
 				}
 				return value;
 			}
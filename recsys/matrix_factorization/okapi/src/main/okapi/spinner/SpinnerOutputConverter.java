@@ -0,0 +1,166 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package main.okapi.spinner;
+
+import it.unimi.dsi.fastutil.longs.Long2ShortOpenHashMap;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+
+/**
+ * Turns the output of Spinner into the input of a job placed by partition.
+ * The output of Spinner gives the partition of every vertex, id and partition
+ * on a line, and every edge of an edge list, source and target first on a
+ * line, is rewritten with both endpoints as partition_id, for
+ * {@link PartitionedLongTextEdgeInputFormat} and
+ * {@link PrefixHashPartitionerFactory}. The rest of an edge line is kept.
+ * 
+ * The partitions of all the vertices are kept in memory, about 10 bytes per
+ * vertex. A vertex missing from the output of Spinner gets the partition -1.
+ * 
+ * Usage: SpinnerOutputConverter &lt;spinner output&gt; &lt;edges&gt;
+ * &lt;output&gt;, where the inputs are files or directories of part files.
+ */
+public class SpinnerOutputConverter {
+	private static final Pattern SEPARATOR = Pattern.compile("[\001\t ]");
+
+	private final Long2ShortOpenHashMap partitions = new Long2ShortOpenHashMap();
+
+	public SpinnerOutputConverter() {
+		partitions.defaultReturnValue((short) -1);
+	}
+
+	/**
+	 * Reads a line of the output of Spinner.
+	 * 
+	 * @param line
+	 */
+	public void addPartition(String line) {
+		String[] tokens = SEPARATOR.split(line);
+		if (tokens.length < 2) {
+			return;
+		}
+		partitions.put(Long.parseLong(tokens[0]), Short.parseShort(tokens[1]));
+	}
+
+	/**
+	 * @param id
+	 * @return the partition of a vertex, -1 if unknown
+	 */
+	public short getPartition(long id) {
+		return partitions.get(id);
+	}
+
+	/**
+	 * @param line
+	 *            an edge, source and target first
+	 * @return the edge with its endpoints as partition_id
+	 */
+	public String convertEdge(String line) {
+		String[] tokens = SEPARATOR.split(line);
+		StringBuilder edge = new StringBuilder();
+		for (int i = 0; i < tokens.length; i++) {
+			if (i > 0) {
+				edge.append('\t');
+			}
+			if (i < 2) {
+				long id = Long.parseLong(tokens[i]);
+				edge.append(new PartitionedLongWritable(getPartition(id), id));
+			} else {
+				edge.append(tokens[i]);
+			}
+		}
+		return edge.toString();
+	}
+
+	/**
+	 * @param fs
+	 * @param path
+	 * @return a file, or the part files of a directory
+	 */
+	private static FileStatus[] list(FileSystem fs, Path path)
+			throws IOException {
+		FileStatus status = fs.getFileStatus(path);
+		if (!status.isDirectory()) {
+			return new FileStatus[] { status };
+		}
+		return fs.listStatus(path, new PathFilter() {
+			@Override
+			public boolean accept(Path p) {
+				return !p.getName().startsWith("_")
+						&& !p.getName().startsWith(".");
+			}
+		});
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 3) {
+			System.err.println("Usage: SpinnerOutputConverter "
+					+ "<spinner output> <edges> <output>");
+			System.exit(1);
+		}
+		Configuration conf = new Configuration();
+		SpinnerOutputConverter converter = new SpinnerOutputConverter();
+		Path labels = new Path(args[0]);
+		FileSystem fs = labels.getFileSystem(conf);
+		for (FileStatus file : list(fs, labels)) {
+			BufferedReader in = new BufferedReader(new InputStreamReader(
+					fs.open(file.getPath()), "UTF-8"));
+			try {
+				for (String line = in.readLine(); line != null; line = in
+						.readLine()) {
+					converter.addPartition(line);
+				}
+			} finally {
+				in.close();
+			}
+		}
+
+		Path edges = new Path(args[1]);
+		fs = edges.getFileSystem(conf);
+		Path output = new Path(args[2]);
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(output
+				.getFileSystem(conf).create(output), "UTF-8"));
+		try {
+			for (FileStatus file : list(fs, edges)) {
+				BufferedReader in = new BufferedReader(new InputStreamReader(
+						fs.open(file.getPath()), "UTF-8"));
+				try {
+					for (String line = in.readLine(); line != null; line = in
+							.readLine()) {
+						if (!line.isEmpty()) {
+							out.println(converter.convertEdge(line));
+						}
+					}
+				} finally {
+					in.close();
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,200 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package main.okapi.spinner;
+
+import it.unimi.dsi.fastutil.longs.Long2ShortOpenHashMap;
+
+import java.util.Arrays;
+
+import ml.grafos.okapi.spinner.Spinner.EdgeValue;
+
+import org.apache.giraph.edge.Edge;
+import org.apache.hadoop.io.LongWritable;
+
+/**
+ * Places the vertices of a worker on the partitions one at a time, in the
+ * order they are computed, with the Linear Deterministic Greedy (LDG) or the
+ * Fennel streaming heuristic, so that Spinner starts from a partitioning that
+ * already keeps many edges local instead of a random one.
+ *
+ * A vertex goes to the partition with the most neighbors placed before it,
+ * weighted by the edge weights, against a penalty for the load of the
+ * partition:
+ * <ul>
+ * <li>LDG multiplies the neighbors by 1 - load/C,</li>
+ * <li>Fennel subtracts gamma * alpha * (k*load/L)^(gamma-1), where alpha is
+ * half the average degree, so that the penalty of a balanced partition is
+ * comparable to the number of neighbors.</li>
+ * </ul>
+ * The loads are counted in edges, like the loads of Spinner, and L is the load
+ * placed so far. C is the capacity of a partition, the load expected on the
+ * worker over k plus the additional capacity of Spinner, so that the first
+ * vertices of the stream may still join their neighbors. The partitions that
+ * the vertex would fill beyond C are avoided, and the ties go to the least
+ * loaded partition.
+ *
+ * The labels and the loads are shared by all the partitions of the worker,
+ * and each worker balances its own vertices, so the placement needs no
+ * communication. It only sees the neighbors that were placed on the same
+ * worker earlier in the superstep, which are the more of them, the fewer
+ * workers the job has.
+ */
+public class StreamingPlacement {
+	/** The heuristic of the initial placement: random, ldg or fennel. */
+	public static final String INITIALIZATION = "spinner.initialization";
+	public static final String DEFAULT_INITIALIZATION = "random";
+	/** The exponent of the Fennel penalty. */
+	public static final String FENNEL_GAMMA = "spinner.fennelGamma";
+	public static final float DEFAULT_FENNEL_GAMMA = 1.5f;
+
+	public enum Heuristic {
+		LDG, FENNEL
+	}
+
+	/** The placement of the superstep running on this worker. */
+	private static StreamingPlacement current;
+
+	private final String job;
+	private final long superstep;
+	private final Heuristic heuristic;
+	private final double additionalCapacity;
+	private final long expectedLoad;
+	private final double gamma;
+	private final Long2ShortOpenHashMap labels = new Long2ShortOpenHashMap();
+	private final long[] loads;
+	private final long[] neighbors;
+	private long placedLoad;
+	private long placedVertices;
+
+	private StreamingPlacement(String job, long superstep, Heuristic heuristic,
+			int numberOfPartitions, double additionalCapacity,
+			long expectedLoad, double gamma) {
+		this.job = job;
+		this.superstep = superstep;
+		this.heuristic = heuristic;
+		this.additionalCapacity = additionalCapacity;
+		this.expectedLoad = expectedLoad;
+		this.gamma = gamma;
+		labels.defaultReturnValue((short) -1);
+		loads = new long[numberOfPartitions];
+		neighbors = new long[numberOfPartitions];
+	}
+
+	/**
+	 * @param name
+	 *            the value of {@link #INITIALIZATION}
+	 * @return the heuristic, or null for a random placement
+	 */
+	public static Heuristic getHeuristic(String name) {
+		if (name.equalsIgnoreCase(DEFAULT_INITIALIZATION)) {
+			return null;
+		}
+		return Heuristic.valueOf(name.toUpperCase());
+	}
+
+	/**
+	 * @param expectedLoad
+	 *            the number of edges of the vertices of this worker, an
+	 *            estimate is enough
+	 * @return the placement shared by the partitions of this worker in a
+	 *         superstep, created empty by the first of them
+	 */
+	public static synchronized StreamingPlacement get(String job,
+			long superstep, Heuristic heuristic, int numberOfPartitions,
+			double additionalCapacity, long expectedLoad, double gamma) {
+		if (current == null || !current.job.equals(job)
+				|| current.superstep != superstep) {
+			current = new StreamingPlacement(job, superstep, heuristic,
+					numberOfPartitions, additionalCapacity, expectedLoad,
+					gamma);
+		}
+		return current;
+	}
+
+	/**
+	 * Drops the labels of the placement once the vertices have them.
+	 */
+	public static synchronized void release() {
+		current = null;
+	}
+
+	/**
+	 * Records a vertex that keeps the partition it already had.
+	 * 
+	 * @param id
+	 * @param partition
+	 * @param numberOfEdges
+	 */
+	public synchronized void assign(long id, short partition,
+			int numberOfEdges) {
+		labels.put(id, partition);
+		loads[partition] += numberOfEdges;
+		placedLoad += numberOfEdges;
+		placedVertices++;
+	}
+
+	/**
+	 * Places a vertex given its edges.
+	 * 
+	 * @param id
+	 * @param edges
+	 * @param numberOfEdges
+	 * @return the partition of the vertex
+	 */
+	public synchronized short place(long id,
+			Iterable<Edge<LongWritable, EdgeValue>> edges, int numberOfEdges) {
+		Arrays.fill(neighbors, 0);
+		for (Edge<LongWritable, EdgeValue> e : edges) {
+			short label = labels.get(e.getTargetVertexId().get());
+			if (label >= 0) {
+				neighbors[label] += e.getValue().getWeight();
+			}
+		}
+
+		int k = loads.length;
+		double capacity = (1 + additionalCapacity)
+				* Math.max(expectedLoad, placedLoad + numberOfEdges) / k;
+		// alpha of Fennel, half the average degree
+		double alpha = placedVertices == 0 ? 0 : ((double) placedLoad)
+				/ (2 * placedVertices);
+		short best = -1;
+		double bestScore = 0;
+		boolean bestFits = false;
+		for (short i = 0; i < k; i++) {
+			double score;
+			if (heuristic == Heuristic.LDG) {
+				score = neighbors[i] * (1 - loads[i] / capacity);
+			} else {
+				score = neighbors[i];
+				if (placedLoad > 0) {
+					score -= gamma * alpha
+							* Math.pow(((double) k) * loads[i] / placedLoad,
+									gamma - 1);
+				}
+			}
+			boolean fits = loads[i] + numberOfEdges <= capacity;
+			if (best == -1 || (fits && !bestFits)
+					|| (fits == bestFits && (score > bestScore
+					|| (score == bestScore && loads[i] < loads[best])))) {
+				best = i;
+				bestScore = score;
+				bestFits = fits;
+			}
+		}
+		assign(id, best, numberOfEdges);
+		return best;
+	}
+}
@@ -55,4 +55,21 @@ public class Counters {
     
     context.getCounter(counterGroup, counterName).increment(increment);
   }
+
+  /**
+   * Replaces the value of a counter with a new one, if it is larger.
+   * 
+   * @param context
+   * @param counterGroup
+   * @param counterName
+   * @param newValue
+   */
+  public static void maxCounter(Context context, String counterGroup, 
+      String counterName, long newValue) {
+    
+    Counter counter = context.getCounter(counterGroup, counterName);
+    if (newValue > counter.getValue()) {
+      counter.increment(newValue-counter.getValue());
+    }
+  }
 }
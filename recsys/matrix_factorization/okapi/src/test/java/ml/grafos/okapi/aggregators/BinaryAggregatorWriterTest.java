@@ -0,0 +1,106 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.java.ml.grafos.okapi.aggregators;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.StringWriter;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+
+import ml.grafos.okapi.aggregators.BinaryAggregatorReader;
+import ml.grafos.okapi.aggregators.BinaryAggregatorWriter;
+import ml.grafos.okapi.aggregators.SlowVerticesAggregator.SlowVertices;
+
+import org.apache.giraph.aggregators.AggregatorWriter;
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.junit.Test;
+
+public class BinaryAggregatorWriterTest {
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    File dir = File.createTempFile("binary-aggregators", "");
+    dir.delete();
+    dir.mkdirs();
+    String filename = new File(dir, "aggregators").getPath();
+
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.set(BinaryAggregatorWriter.FILENAME, filename);
+    conf.set(BinaryAggregatorWriter.FREQUENCY, "2");
+    BinaryAggregatorWriter writer = new BinaryAggregatorWriter();
+    writer.setConf(new ImmutableClassesGiraphConfiguration(conf));
+    writer.initialize(null, 0);
+
+    SlowVertices slowest = new SlowVertices();
+    slowest.add("7", 42);
+    for (long superstep=0; superstep<4; superstep++) {
+      List<Entry<String, Writable>> values =
+          new ArrayList<Entry<String, Writable>>();
+      values.add(entry("long", new LongWritable(superstep*1000000L)));
+      values.add(entry("int", new IntWritable(-(int)superstep)));
+      values.add(entry("double", new DoubleWritable(superstep/4d)));
+      values.add(entry("boolean", new BooleanWritable(superstep==2)));
+      values.add(entry("text,quoted", new Text("say \"hi\"")));
+      if (superstep == 2) {
+        values.add(entry("slowest", slowest));
+      }
+      writer.writeAggregator(values, superstep);
+    }
+    writer.writeAggregator(new ArrayList<Entry<String, Writable>>(),
+        AggregatorWriter.LAST_SUPERSTEP);
+    writer.close();
+
+    StringWriter csv = new StringWriter();
+    DataInputStream in = new DataInputStream(
+        new FileInputStream(filename + "_0"));
+    try {
+      new BinaryAggregatorReader(conf).toCsv(in, csv);
+    } finally {
+      in.close();
+    }
+    assertEquals(
+        "superstep,aggregator,value\n" +
+        "0,long,0\n" +
+        "0,int,0\n" +
+        "0,double,0.0\n" +
+        "0,boolean,false\n" +
+        "0,\"text,quoted\",\"say \"\"hi\"\"\"\n" +
+        "2,long,2000000\n" +
+        "2,int,-2\n" +
+        "2,double,0.5\n" +
+        "2,boolean,true\n" +
+        "2,\"text,quoted\",\"say \"\"hi\"\"\"\n" +
+        "2,slowest," + slowest + "\n",
+        csv.toString().replace(System.getProperty("line.separator"), "\n"));
+  }
+
+  private static Entry<String, Writable> entry(String name, Writable value) {
+    return new SimpleEntry<String, Writable>(name, value);
+  }
+}
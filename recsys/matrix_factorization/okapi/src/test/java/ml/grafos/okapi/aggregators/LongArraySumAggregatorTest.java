@@ -0,0 +1,101 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.java.ml.grafos.okapi.aggregators;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import ml.grafos.okapi.aggregators.LongArraySumAggregator;
+import ml.grafos.okapi.aggregators.LongArraySumAggregator.LongVector;
+
+import org.junit.Test;
+
+public class LongArraySumAggregatorTest {
+
+  @Test
+  public void testAggregate() {
+    LongArraySumAggregator aggregator = new LongArraySumAggregator();
+    aggregator.setAggregatedValue(aggregator.createInitialValue());
+
+    LongVector a = new LongVector(2);
+    a.add(0, 5);
+    a.add(1, -3);
+    LongVector b = new LongVector();
+    b.add(3, 7);
+    b.add(0, 1);
+    aggregator.aggregate(a);
+    aggregator.aggregate(b);
+
+    LongVector sum = aggregator.getAggregatedValue();
+    assertEquals(4, sum.size());
+    long[] array = new long[5];
+    array[4] = 9;
+    sum.copyTo(array);
+    assertArrayEquals(new long[] {6, -3, 0, 7, 0}, array);
+    assertEquals(0, sum.get(10));
+  }
+
+  @Test
+  public void testReadWrite() throws Exception {
+    LongVector vector = new LongVector(1000);
+    vector.add(999, Long.MIN_VALUE);
+    vector.add(1, 42);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    vector.write(new DataOutputStream(bytes));
+    // one byte per zero
+    assertTrue(bytes.size() < 1100);
+    LongVector copy = new LongVector(3);
+    copy.add(2, 1);
+    copy.readFields(new DataInputStream(
+        new ByteArrayInputStream(bytes.toByteArray())));
+    assertEquals(1000, copy.size());
+    assertEquals(42, copy.get(1));
+    assertEquals(0, copy.get(2));
+    assertEquals(Long.MIN_VALUE, copy.get(999));
+  }
+
+  @Test
+  public void testGrowAfterShorterRead() throws Exception {
+    LongVector vector = new LongVector(4);
+    vector.add(3, 9);
+    vector.add(2, 8);
+    ByteArrayOutputStream longBytes = new ByteArrayOutputStream();
+    vector.write(new DataOutputStream(longBytes));
+    LongVector shortVector = new LongVector(1);
+    shortVector.add(0, 1);
+    ByteArrayOutputStream shortBytes = new ByteArrayOutputStream();
+    shortVector.write(new DataOutputStream(shortBytes));
+
+    LongVector copy = new LongVector();
+    copy.readFields(new DataInputStream(
+        new ByteArrayInputStream(longBytes.toByteArray())));
+    copy.readFields(new DataInputStream(
+        new ByteArrayInputStream(shortBytes.toByteArray())));
+    assertEquals(1, copy.size());
+    copy.add(3, 5);
+    assertEquals(4, copy.size());
+    long[] array = new long[4];
+    copy.copyTo(array);
+    assertArrayEquals(new long[] {1, 0, 0, 5}, array);
+  }
+}
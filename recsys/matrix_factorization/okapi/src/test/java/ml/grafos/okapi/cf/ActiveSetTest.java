@@ -0,0 +1,72 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.java.ml.grafos.okapi.cf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import ml.grafos.okapi.common.jblas.FloatMatrixWritable;
+
+import org.junit.Test;
+
+public class ActiveSetTest {
+
+  @Test
+  public void testDisabled() {
+    assertNull(ActiveSet.get(-1f));
+    assertNull(ActiveSet.get(0f));
+  }
+
+  @Test
+  public void testIsChanged() {
+    ActiveSet activeSet = ActiveSet.get(0.1f);
+    float[] before = {1f, 1f, 5f};
+    assertFalse(activeSet.isChanged(before, new float[] {1.05f, 0.95f}, 2));
+    assertTrue(activeSet.isChanged(before, new float[] {1.1f, 0.9f}, 2));
+  }
+
+  @Test
+  public void testCache() {
+    CfLongId user = new CfLongId((byte)0, 42);
+    ActiveSet.NeighborCache cache = ActiveSet.getCache(user);
+    assertSame(cache, ActiveSet.getCache(new CfLongId((byte)0, 42)));
+
+    FloatMatrixWritable first = new FloatMatrixWritable(2, 1, 1f, 2f);
+    FloatMatrixWritable second = new FloatMatrixWritable(2, 1, 3f, 4f);
+    FloatMatrixWritable other = new FloatMatrixWritable(2, 1, 5f, 6f);
+    cache.receive(Arrays.asList(
+        new FloatMatrixMessage(new CfLongId((byte)1, 1), first, 0f),
+        new FloatMatrixMessage(new CfLongId((byte)1, 2), other, 0f)));
+    // the second message of item 1 replaces its factors
+    cache.receive(Arrays.asList(
+        new FloatMatrixMessage(new CfLongId((byte)1, 1), second, 0f)));
+    assertEquals(2, cache.size());
+    for (Map.Entry<CfLongId, FloatMatrixWritable> neighbor : 
+        cache.getFactors()) {
+      if (neighbor.getKey().getId() == 1) {
+        assertSame(second, neighbor.getValue());
+      } else {
+        assertSame(other, neighbor.getValue());
+      }
+    }
+  }
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.java.ml.grafos.okapi.cf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+public class AdaptiveRateTest {
+
+  private static AdaptiveRate get(String optimizer) {
+    Configuration conf = new Configuration();
+    conf.set(AdaptiveRate.OPTIMIZER, optimizer);
+    return AdaptiveRate.get(conf);
+  }
+
+  @Test
+  public void testPlainSgd() {
+    assertNull(AdaptiveRate.get(new Configuration()));
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testUnknownOptimizer() {
+    get("rmsprop");
+  }
+
+  @Test
+  public void testAdaGrad() {
+    AdaptiveRate adagrad = get("adagrad");
+    assertEquals(2, adagrad.getStateSize(2));
+    float[] x = {1f, 2f};
+    float[] u = {1f, -1f};
+    float[] state = new float[2];
+    // g = 0.5*x + 1*u = (1.5, 0)
+    adagrad.update(x, 0, 1f, u, 0, 0.5f, state, 0, 2, 0.1f);
+    assertEquals(1.5f*1.5f, state[0], 1e-6f);
+    // the first step has the length of the rate on every moving coordinate
+    assertEquals(0.9f, x[0], 1e-5f);
+    assertEquals(2f, x[1], 1e-6f);
+    adagrad.update(x, 0, 1f, u, 0, 0.5f, state, 0, 2, 0.1f);
+    float g = 0.5f*0.9f + 1f;
+    assertEquals(0.9f - 0.1f*g/(float)Math.sqrt(1.5f*1.5f + g*g), x[0],
+        1e-5f);
+  }
+
+  @Test
+  public void testAdam() {
+    AdaptiveRate adam = get("adam");
+    assertEquals(5, adam.getStateSize(2));
+    float[] x = {0f, 0f, 3f, -3f};
+    float[] u = {2f, -4f};
+    // the state of x[2..4) in state[1..6)
+    float[] state = new float[6];
+    adam.update(x, 2, -1f, u, 0, 0f, state, 1, 2, 0.01f);
+    // after bias correction, the first step is the rate times the sign
+    assertEquals(3.01f, x[2], 1e-5f);
+    assertEquals(-3.01f, x[3], 1e-5f);
+    assertEquals(1f, state[5], 0f);
+    assertEquals(0f, state[0], 0f);
+    assertEquals(0f, x[0], 0f);
+  }
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.java.ml.grafos.okapi.cf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+public class EarlyStoppingTest {
+
+  @Test
+  public void testDisabledByDefault() {
+    assertNull(EarlyStopping.get(new Configuration()));
+  }
+
+  @Test
+  public void testHeldOut() {
+    Configuration conf = new Configuration();
+    conf.setFloat(EarlyStopping.VALIDATION_FRACTION, 0.2f);
+    EarlyStopping validation = EarlyStopping.get(conf);
+    int heldOut = 0;
+    for (long u=0; u<100; u++) {
+      for (long i=0; i<100; i++) {
+        CfLongId user = new CfLongId((byte)0, u);
+        CfLongId item = new CfLongId((byte)1, i);
+        boolean h = validation.isHeldOut(user, item);
+        // both ends of the rating agree
+        assertEquals(h, validation.isHeldOut(item, user));
+        if (h) {
+          heldOut++;
+        }
+      }
+    }
+    assertEquals(2000, heldOut, 200);
+  }
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.java.ml.grafos.okapi.cf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HotVerticesTest {
+
+  @Test
+  public void testMirrorIds() {
+    CfLongId item = new CfLongId((byte)1, 12345L);
+    for (int r=0; r<HotVertices.MAX_MIRRORS; r++) {
+      CfLongId mirror = HotVertices.mirrorId(item, r);
+      assertTrue(HotVertices.isMirror(mirror));
+      assertEquals(item, HotVertices.masterId(mirror));
+    }
+    assertFalse(HotVertices.isMirror(item));
+    assertFalse(HotVertices.mirrorId(item, 0).equals(
+        HotVertices.mirrorId(new CfLongId((byte)0, 12345L), 0)));
+  }
+
+  @Test
+  public void testNumMirrors() {
+    assertEquals(1, HotVertices.getNumMirrors(10, 10));
+    assertEquals(2, HotVertices.getNumMirrors(11, 10));
+    assertEquals(HotVertices.MAX_MIRRORS,
+        HotVertices.getNumMirrors(1000000, 10));
+  }
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.java.ml.grafos.okapi.cf;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+public class ModelSweepTest {
+
+  @Test
+  public void testParse() {
+    Configuration conf = new Configuration(false);
+    conf.setFloat("lambda", 0.5f);
+    conf.set(ModelSweep.MODELS, "dim=3,lambda=0.01; dim=5 ;");
+
+    ModelSweep sweep = ModelSweep.get(conf, "dim", 10);
+    assertEquals(2, sweep.getNumModels());
+    assertEquals(0, sweep.getOffset(0));
+    assertEquals(3, sweep.getOffset(1));
+    assertEquals(5, sweep.getVectorSize(1));
+    assertEquals(8, sweep.getTotalVectorSize());
+    assertEquals(0.01f, sweep.getFloat(0, "lambda", 1f), 0f);
+    // Falls back to the job parameters
+    assertEquals(0.5f, sweep.getFloat(1, "lambda", 1f), 0f);
+    assertArrayEquals(new float[] {0.01f, 0.5f},
+        sweep.getFloats("lambda", 1f), 0f);
+    assertArrayEquals(new float[] {2f, 2f}, sweep.getFloats("gamma", 2f), 0f);
+    assertEquals(8, ModelSweep.getTotalVectorSize(conf, "dim", 10));
+  }
+
+  @Test
+  public void testSingleModel() {
+    Configuration conf = new Configuration(false);
+    conf.setInt("dim", 7);
+    assertNull(ModelSweep.get(conf, "dim", 10));
+    assertEquals(7, ModelSweep.getTotalVectorSize(conf, "dim", 10));
+  }
+}
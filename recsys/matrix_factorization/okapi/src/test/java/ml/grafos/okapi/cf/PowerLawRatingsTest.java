@@ -0,0 +1,147 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.java.ml.grafos.okapi.cf;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import ml.grafos.okapi.cf.sgd.Sgd;
+import ml.grafos.okapi.common.Parameters;
+
+import org.apache.giraph.bsp.BspInputSplit;
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.io.formats.IdWithValueTextOutputFormat;
+import org.apache.giraph.utils.InternalVertexRunner;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+public class PowerLawRatingsTest {
+
+  private static Configuration conf() {
+    Configuration conf = new Configuration();
+    conf.setLong(PowerLawRatings.USERS, 2000);
+    conf.setLong(PowerLawRatings.ITEMS, 500);
+    conf.setFloat(PowerLawRatings.RATINGS_PER_USER, 10f);
+    return conf;
+  }
+
+  @Test
+  public void testDeterministic() {
+    PowerLawRatings first = new PowerLawRatings(conf());
+    PowerLawRatings second = new PowerLawRatings(conf());
+    // the second generator sees the users in another order
+    second.generate(7);
+    for (long user=0; user<5; user++) {
+      int degree = first.generate(user);
+      assertEquals(degree, second.generate(user));
+      assertArrayEquals(Arrays.copyOf(first.getItems(), degree),
+          Arrays.copyOf(second.getItems(), degree));
+      assertArrayEquals(Arrays.copyOf(first.getRatings(), degree),
+          Arrays.copyOf(second.getRatings(), degree), 0f);
+    }
+
+    Configuration conf = conf();
+    conf.setLong(Parameters.RANDOM_SEED.getKey(), 42);
+    PowerLawRatings other = new PowerLawRatings(conf);
+    int degree = first.generate(0);
+    assertTrue(degree != other.generate(0) || !Arrays.equals(
+        Arrays.copyOf(first.getRatings(), degree),
+        Arrays.copyOf(other.getRatings(), degree)));
+  }
+
+  @Test
+  public void testDistributions() {
+    PowerLawRatings generator = new PowerLawRatings(conf());
+    long[] popularity = new long[500];
+    long ratings = 0;
+    for (long user=0; user<2000; user++) {
+      int degree = generator.generate(user);
+      assertTrue(degree >= 1);
+      LongOpenHashSet items = new LongOpenHashSet();
+      for (int i=0; i<degree; i++) {
+        assertTrue(items.add(generator.getItems()[i]));
+        popularity[(int)generator.getItems()[i]]++;
+        float rating = generator.getRatings()[i];
+        assertTrue(rating >= 1f && rating <= 5f);
+      }
+      ratings += degree;
+    }
+    assertEquals(10d, ratings/2000d, 1.5d);
+    // the most popular items take a large share of the ratings
+    long head = 0;
+    for (int i=0; i<10; i++) {
+      head += popularity[i];
+    }
+    assertTrue(head > 10*popularity[250]);
+    assertTrue(head > ratings/10);
+  }
+
+  @Test
+  public void testSplits() {
+    PowerLawRatings generator = new PowerLawRatings(conf());
+    long next = 0;
+    for (int s=0; s<3; s++) {
+      BspInputSplit split = new BspInputSplit(s, 3);
+      assertEquals(next, generator.getFirstUser(split));
+      next += generator.getNumUsers(split);
+    }
+    assertEquals(2000, next);
+  }
+
+  /**
+   * Trains SGD on a generated graph, read once as edges and once as
+   * vertices.
+   * @throws Exception
+   */
+  @Test
+  public void testInputFormats() throws Exception {
+    int[] lines = new int[2];
+    for (int format=0; format<2; format++) {
+      GiraphConfiguration conf = new GiraphConfiguration();
+      conf.setComputationClass(Sgd.InitUsersComputation.class);
+      conf.setMasterComputeClass(Sgd.MasterCompute.class);
+      if (format == 0) {
+        conf.setEdgeInputFormatClass(PowerLawRatingEdgeInputFormat.class);
+      } else {
+        conf.setVertexInputFormatClass(PowerLawRatingVertexInputFormat.class);
+      }
+      conf.setLong(PowerLawRatings.USERS, 50);
+      conf.setLong(PowerLawRatings.ITEMS, 20);
+      conf.setFloat(PowerLawRatings.RATINGS_PER_USER, 4f);
+      conf.setInt(Sgd.VECTOR_SIZE, 2);
+      conf.setInt(Sgd.ITERATIONS, 4);
+      conf.setVertexOutputFormatClass(IdWithValueTextOutputFormat.class);
+      List<String> res = new LinkedList<String>();
+      // the runner wants input data for the format, the generator ignores it
+      String[] none = new String[0];
+      for (String string : InternalVertexRunner.run(conf, 
+          format == 1 ? none : null, format == 0 ? none : null)) {
+        res.add(string);
+      }
+      lines[format] = res.size();
+    }
+    // every user, and the items that were rated
+    assertTrue(lines[0] > 50);
+    assertEquals(lines[0], lines[1]);
+  }
+}
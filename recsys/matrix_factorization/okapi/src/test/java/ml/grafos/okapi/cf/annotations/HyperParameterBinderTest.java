@@ -0,0 +1,68 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.java.ml.grafos.okapi.cf.annotations;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HyperParameterBinderTest {
+
+  static class Base {
+    @HyperParameter(parameterName="dim", description="", defaultValue=10,
+        minimumValue=1, maximumValue=100)
+    int dim;
+  }
+
+  static class Derived extends Base {
+    @HyperParameter(parameterName="gamma", description="",
+        defaultValue=0.5f, minimumValue=0, maximumValue=1)
+    private float gamma;
+    @HyperParameter(parameterName="lambda", description="",
+        defaultValue=0.1f, minimumValue=0, maximumValue=1)
+    private Double lambda;
+  }
+
+  @Test
+  public void testDefaults() {
+    Derived derived = new Derived();
+    HyperParameterBinder.forClass(Derived.class).bind(derived,
+        new Configuration(false));
+    Assert.assertEquals(10, derived.dim);
+    Assert.assertEquals(0.5f, derived.gamma, 1e-6f);
+    Assert.assertEquals(0.1, derived.lambda, 1e-6);
+  }
+
+  @Test
+  public void testConfiguration() {
+    Configuration conf = new Configuration(false);
+    conf.set("dim", "7.0");
+    conf.set("gamma", "0.25");
+    Derived derived = new Derived();
+    HyperParameterBinder binder = HyperParameterBinder.forClass(Derived.class);
+    Assert.assertSame(binder, HyperParameterBinder.forClass(Derived.class));
+    binder.bind(derived, conf);
+    Assert.assertEquals(7, derived.dim);
+    Assert.assertEquals(0.25f, derived.gamma, 1e-6f);
+
+    // A new configuration object is parsed again.
+    Configuration other = new Configuration(false);
+    other.set("dim", "3");
+    binder.bind(derived, other);
+    Assert.assertEquals(3, derived.dim);
+    Assert.assertEquals(0.5f, derived.gamma, 1e-6f);
+  }
+}
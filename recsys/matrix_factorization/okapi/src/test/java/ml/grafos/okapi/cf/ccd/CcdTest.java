@@ -0,0 +1,85 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.java.ml.grafos.okapi.cf.ccd;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.Assert;
+import ml.grafos.okapi.cf.CfLongIdFloatTextInputFormat;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.io.formats.IdWithValueTextOutputFormat;
+import org.apache.giraph.utils.InternalVertexRunner;
+import org.junit.Test;
+
+public class CcdTest {
+
+  @Test
+  public void testUpdateFeature() {
+    // (1*2 + 2*3) / (0.1*2 + 2*2 + 3*3)
+    Assert.assertEquals(8f/13.2f, new Ccd().updateFeature(8f, 13f, 2, 0.1f),
+        1e-6f);
+  }
+
+  /**
+   * Factorizes a rank one matrix and checks that the factors fit the ratings.
+   * @throws Exception
+   */
+  @Test
+  public void testEndToEnd() throws Exception {
+    String[] graph = {
+        "1 1 1.0",
+        "1 2 2.0",
+        "1 3 3.0",
+        "2 1 2.0",
+        "2 2 4.0",
+        "2 3 6.0",
+        "3 1 1.5",
+        "3 2 3.0",
+        "3 3 4.5"
+    };
+
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(Ccd.InitUsersComputation.class);
+    conf.setMasterComputeClass(Ccd.MasterCompute.class);
+    conf.setEdgeInputFormatClass(CfLongIdFloatTextInputFormat.class);
+    conf.setFloat(Ccd.LAMBDA, 0.0001f);
+    conf.setInt(Ccd.VECTOR_SIZE, 2);
+    conf.setInt(Ccd.ITERATIONS, 10);
+    conf.setVertexOutputFormatClass(IdWithValueTextOutputFormat.class);
+    Iterable<String> results = InternalVertexRunner.run(conf, null, graph);
+
+    Map<String, float[]> factors = new HashMap<String, float[]>();
+    for (String line : results) {
+      String[] tokens = line.split("\t");
+      String[] values = tokens[1].replaceAll("[\\[\\]]", "").split("; ");
+      float[] vector = new float[values.length];
+      for (int i=0; i<values.length; i++) {
+        vector[i] = Float.parseFloat(values[i]);
+      }
+      factors.put(tokens[0], vector);
+    }
+    Assert.assertEquals(6, factors.size());
+    for (String rating : graph) {
+      String[] tokens = rating.split(" ");
+      float[] u = factors.get(tokens[0]+" 0");
+      float[] v = factors.get(tokens[1]+" 1");
+      float predicted = u[0]*v[0] + u[1]*v[1];
+      Assert.assertEquals(Float.parseFloat(tokens[2]), predicted, 0.05f);
+    }
+  }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.java.ml.grafos.okapi.cf.ranking;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ml.grafos.okapi.cf.CfLongId;
+import ml.grafos.okapi.cf.FloatMatrixMessage;
+import ml.grafos.okapi.common.jblas.FloatMatrixWritable;
+
+import org.jblas.FloatMatrix;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class ClimfRankingComputationTest {
+
+	static final float[][] FACTORS = {
+		{0.3f, -0.2f, 0.5f},
+		{-0.4f, 0.1f, 0.2f},
+		{0.6f, 0.7f, -0.3f},
+		{0.1f, -0.5f, 0.4f}
+	};
+	static final float[] USER = {0.5f, -0.1f, 0.3f};
+
+	static double g(double x) {
+		return 1 / (1 + Math.exp(-x));
+	}
+
+	static double gd(double x) {
+		return Math.exp(x) / Math.pow(1 + Math.exp(x), 2);
+	}
+
+	static double dot(float[] a, float[] b) {
+		double dot = 0;
+		for (int f = 0; f < a.length; f++) {
+			dot += a[f] * b[f];
+		}
+		return dot;
+	}
+
+	/**
+	 * The buffered gradients against the pairwise sums written out.
+	 */
+	@Test
+	public void testGradients() {
+		ClimfRankingComputation climf = new ClimfRankingComputation();
+		climf.reg = 0.01f;
+		climf.learnRate = 0.1f;
+		List<FloatMatrixMessage> messages = new ArrayList<FloatMatrixMessage>();
+		for (int k = 0; k < FACTORS.length; k++) {
+			messages.add(new FloatMatrixMessage(new CfLongId((byte) 1, k),
+					new FloatMatrixWritable(new FloatMatrix(FACTORS[k])), 1f));
+		}
+		FloatMatrix u = new FloatMatrix(USER.clone());
+		int n = climf.bufferMessages(messages);
+		climf.computeGradients(u, n);
+
+		double[] expected = new double[USER.length];
+		for (int j = 0; j < n; j++) {
+			double f_j = dot(USER, FACTORS[j]);
+			double itemSum = g(-f_j);
+			for (int f = 0; f < USER.length; f++) {
+				expected[f] += g(-f_j) * FACTORS[j][f];
+			}
+			for (int k = 0; k < n; k++) {
+				double f_jk = f_j - dot(USER, FACTORS[k]);
+				for (int f = 0; f < USER.length; f++) {
+					expected[f] += gd(f_jk) / (1 - g(f_jk))
+							* (FACTORS[j][f] - FACTORS[k][f]);
+				}
+				itemSum += gd(f_jk) * (1 / (1 - g(-f_jk)) - 1 / (1 - g(f_jk)));
+			}
+			Assert.assertEquals(itemSum, climf.itemSums[j], 1e-5);
+			FloatMatrix update = climf.itemUpdate(j, u, climf.itemSums[j]);
+			for (int f = 0; f < USER.length; f++) {
+				Assert.assertEquals(itemSum * USER[f] - 0.01 * FACTORS[j][f],
+						update.data[f], 1e-5);
+			}
+		}
+		for (int f = 0; f < USER.length; f++) {
+			Assert.assertEquals(0.1 * (expected[f] - 0.01 * USER[f]),
+					climf.gradient[f], 1e-5);
+		}
+	}
+}
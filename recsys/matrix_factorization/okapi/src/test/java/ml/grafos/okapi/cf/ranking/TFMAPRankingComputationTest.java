@@ -15,8 +15,18 @@
  */
 package test.java.ml.grafos.okapi.cf.ranking;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import ml.grafos.okapi.cf.CfLongId;
+import ml.grafos.okapi.cf.FloatMatrixMessage;
+import ml.grafos.okapi.common.jblas.FloatMatrixWritable;
+
+import org.jblas.FloatMatrix;
 import org.junit.After;
+import org.junit.Assert;
 import org.junit.Before;
+import org.junit.Test;
 
 
 public class TFMAPRankingComputationTest {
@@ -32,6 +42,105 @@ public class TFMAPRankingComputationTest {
 	public void tearDown() throws Exception {
 	}
 
+	static final float[][] FACTORS = {
+		{0.3f, -0.2f, 0.5f},
+		{-0.4f, 0.1f, 0.2f},
+		{0.6f, 0.7f, -0.3f},
+		{0.1f, -0.5f, 0.4f},
+		{-0.2f, 0.3f, 0.9f}
+	};
+	static final boolean[] RELEVANT = {true, false, true, true, false};
+	static final float[] USER = {0.5f, -0.1f, 0.3f};
+
+	static List<FloatMatrixMessage> messages() {
+		List<FloatMatrixMessage> messages = new ArrayList<FloatMatrixMessage>();
+		for (int k = 0; k < FACTORS.length; k++) {
+			messages.add(new FloatMatrixMessage(new CfLongId((byte) 1, k),
+					new FloatMatrixWritable(new FloatMatrix(FACTORS[k])),
+					RELEVANT[k] ? 1f : -1f));
+		}
+		return messages;
+	}
+
+	static double g(double x) {
+		return 1 / (1 + Math.exp(-x));
+	}
+
+	static double gd(double x) {
+		return Math.exp(x) / Math.pow(1 + Math.exp(x), 2);
+	}
+
+	static double dot(float[] a, float[] b) {
+		double dot = 0;
+		for (int f = 0; f < a.length; f++) {
+			dot += a[f] * b[f];
+		}
+		return dot;
+	}
+
+	/**
+	 * The buffered gradient of the user against the pairwise sums written out.
+	 */
+	@Test
+	public void testUserGradient() {
+		tfmap.reg = 0.01f;
+		FloatMatrix u = new FloatMatrix(USER.clone());
+		int n = tfmap.bufferMessages(messages());
+		tfmap.scoreBufferedMessages(u);
+		tfmap.updateUser(u, n, 3);
+
+		double[] expected = new double[USER.length];
+		for (int i = 0; i < n; i++) {
+			if (!RELEVANT[i]) {
+				continue;
+			}
+			double f_i = dot(USER, FACTORS[i]);
+			for (int j = 0; j < n; j++) {
+				if (!RELEVANT[j]) {
+					continue;
+				}
+				double f_ji = dot(USER, FACTORS[j]) - f_i;
+				for (int f = 0; f < USER.length; f++) {
+					expected[f] += gd(f_i) * g(f_ji) * FACTORS[i][f]
+							+ g(f_i) * gd(f_ji) * (FACTORS[j][f] - FACTORS[i][f]);
+				}
+			}
+		}
+		for (int f = 0; f < USER.length; f++) {
+			Assert.assertEquals(expected[f] / 3 - 0.01 * USER[f],
+					tfmap.gradient[f], 1e-5);
+		}
+	}
+
+	/**
+	 * The scalar of the item updates against the sums written out.
+	 */
+	@Test
+	public void testItemUpdate() {
+		FloatMatrix u = new FloatMatrix(USER.clone());
+		int n = tfmap.bufferMessages(messages());
+		tfmap.scoreBufferedMessages(u);
+		float sum_g_mj = 0;
+		for (int j = 0; j < n; j++) {
+			if (RELEVANT[j]) {
+				sum_g_mj += (float) g(dot(USER, FACTORS[j]));
+			}
+		}
+		for (int i = 0; i < n; i++) {
+			double f_i = dot(USER, FACTORS[i]);
+			double expected = 0;
+			for (int j = 0; j < n; j++) {
+				if (RELEVANT[j]) {
+					double f_ji = dot(USER, FACTORS[j]) - f_i;
+					expected += gd(f_i) * g(f_ji) + g(dot(USER, FACTORS[j]))
+							- g(f_i) * gd(f_ji);
+				}
+			}
+			Assert.assertEquals(expected, tfmap.updateItem(i, n, sum_g_mj),
+					1e-5);
+		}
+	}
+
 //	@Test
 //	public void testFull() throws Exception{
 //		String[] graph = {
@@ -17,20 +17,35 @@ package test.java.ml.grafos.okapi.cf.sgd;
 
 import static org.junit.Assert.assertArrayEquals;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import junit.framework.Assert;
+import ml.grafos.okapi.cf.ActiveSet;
+import ml.grafos.okapi.cf.AdaptiveRate;
 import ml.grafos.okapi.cf.CfLongId;
 import ml.grafos.okapi.cf.CfLongIdFloatTextInputFormat;
+import ml.grafos.okapi.cf.EarlyStopping;
+import ml.grafos.okapi.cf.HotVertices;
+import ml.grafos.okapi.cf.ModelSweep;
+import ml.grafos.okapi.common.jblas.FactorArena;
+import ml.grafos.okapi.common.jblas.FactorHandleWritable;
 import ml.grafos.okapi.common.jblas.FloatMatrixWritable;
 
 import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.GiraphConstants;
 import org.apache.giraph.io.formats.IdWithValueTextOutputFormat;
 import org.apache.giraph.utils.InMemoryVertexInputFormat;
 import org.apache.giraph.utils.InternalVertexRunner;
 import org.apache.giraph.utils.TestGraph;
+import org.apache.giraph.worker.DefaultWorkerContext;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.LongWritable;
 import org.jblas.FloatMatrix;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -58,6 +73,39 @@ public class SgdTest {
         new float[]{0.100835f, 0.20041f, 0.301665f}, 0.000001f);
   }
 
+  /** Two users who rated two items. */
+  private static final String[] RATINGS = {
+    "1 1 1.0",
+    "1 2 2.0",
+    "2 1 3.0",
+    "2 2 4.0"
+  };
+
+  /**
+   * Runs Sgd with vectors of size 2 and the given parameters.
+   *
+   * @param graph ratings, one per line
+   * @param overrides parameters of the test
+   * @return the output lines
+   */
+  private static List<String> runSgd(String[] graph, Configuration overrides)
+      throws Exception {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(Sgd.InitUsersComputation.class);
+    conf.setMasterComputeClass(Sgd.MasterCompute.class);
+    conf.setEdgeInputFormatClass(CfLongIdFloatTextInputFormat.class);
+    conf.setVertexOutputFormatClass(IdWithValueTextOutputFormat.class);
+    conf.setInt(Sgd.VECTOR_SIZE, 2);
+    for (Map.Entry<String, String> parameter : overrides) {
+      conf.set(parameter.getKey(), parameter.getValue());
+    }
+    List<String> res = new ArrayList<String>();
+    for (String string : InternalVertexRunner.run(conf, null, graph)) {
+      res.add(string);
+    }
+    return res;
+  }
+
   /**
    * This simply tests whether the number of unique vertices in the graph is 
    * correct.
@@ -65,28 +113,298 @@ public class SgdTest {
    */
   @Test
   public void testEndToEnd() throws Exception {
+    Configuration conf = new Configuration(false);
+    conf.setFloat(Sgd.GAMMA, 0.005f);
+    conf.setFloat(Sgd.LAMBDA, 0.01f);
+    conf.setInt(Sgd.ITERATIONS, 4);
+    Assert.assertEquals(4, runSgd(RATINGS, conf).size());
+  }
+
+  /**
+   * Trains two models with different vector sizes in the same job.
+   * @throws Exception
+   */
+  @Test
+  public void testModelSweep() throws Exception {
+    Configuration conf = new Configuration(false);
+    conf.set(ModelSweep.MODELS, "dim=2,gamma=0.005;dim=3,gamma=0.01");
+    conf.setInt(Sgd.ITERATIONS, 4);
+    List<String> res = runSgd(RATINGS, conf);
+    for (String string : res) {
+      // 2+3 factors
+      Assert.assertEquals(5, string.split(";").length);
+    }
+    Assert.assertEquals(4, res.size());
+  }
+
+  /** Three users who rated three items. */
+  private static final String[] EARLY_STOPPING_RATINGS = {
+    "1 1 1.0",
+    "1 2 2.0",
+    "1 3 3.0",
+    "2 1 2.0",
+    "2 2 4.0",
+    "2 3 6.0",
+    "3 1 3.0",
+    "3 2 6.0",
+    "3 3 9.0"
+  };
+
+  /**
+   * Holds out part of the ratings, stops on the validation error and puts
+   * back the best factors. Every vertex is still in the output.
+   * @throws Exception
+   */
+  @Test
+  public void testEarlyStopping() throws Exception {
+    Configuration conf = new Configuration(false);
+    conf.setFloat(EarlyStopping.VALIDATION_FRACTION, 0.3f);
+    conf.setInt(EarlyStopping.PATIENCE, 2);
+    conf.setFloat(Sgd.GAMMA, 0.05f);
+    conf.setFloat(Sgd.MAX_RATING, 10f);
+    conf.setInt(Sgd.ITERATIONS, 30);
+    List<String> res = runSgd(EARLY_STOPPING_RATINGS, conf);
+    for (String string : res) {
+      Assert.assertEquals(2, string.split(";").length);
+    }
+    Assert.assertEquals(6, res.size());
+  }
+
+  /**
+   * Takes steps large enough that the validation error gets worse and stops
+   * the job, so that the factors of an earlier superstep are put back.
+   * @throws Exception
+   */
+  @Test
+  public void testEarlyStoppingRestore() throws Exception {
+    Configuration conf = new Configuration(false);
+    conf.setFloat(EarlyStopping.VALIDATION_FRACTION, 0.3f);
+    conf.setInt(EarlyStopping.PATIENCE, 2);
+    conf.setFloat(Sgd.GAMMA, 0.2f);
+    conf.setFloat(Sgd.MAX_RATING, 10f);
+    conf.setInt(Sgd.ITERATIONS, 30);
+    GiraphConstants.WORKER_CONTEXT_CLASS.set(conf, RestoreRecorder.class);
+    List<String> res = runSgd(EARLY_STOPPING_RATINGS, conf);
+    Assert.assertEquals(6, res.size());
+    // The workers still see the best superstep when they restore
+    Assert.assertEquals(RestoreRecorder.maxBest, RestoreRecorder.best);
+    Assert.assertTrue(RestoreRecorder.best < RestoreRecorder.restore-2);
+  }
+
+  /**
+   * Records the best and restore supersteps that the workers read in the
+   * last superstep, and the latest best superstep they read.
+   */
+  public static class RestoreRecorder extends DefaultWorkerContext {
+    static long best;
+    static long maxBest;
+    static long restore;
+
+    @Override
+    public void preApplication() {
+      maxBest = -1;
+    }
+
+    @Override
+    public void preSuperstep() {
+      best = ((LongWritable)getAggregatedValue(
+          EarlyStopping.BEST_AGGREGATOR)).get();
+      maxBest = Math.max(maxBest, best);
+      restore = ((LongWritable)getAggregatedValue(
+          EarlyStopping.RESTORE_AGGREGATOR)).get();
+    }
+  }
+
+  /**
+   * Trains with Adam. The state of the optimizer is not in the output.
+   * @throws Exception
+   */
+  @Test
+  public void testAdaptiveRate() throws Exception {
+    Configuration conf = new Configuration(false);
+    conf.set(AdaptiveRate.OPTIMIZER, "adam");
+    conf.setFloat(Sgd.GAMMA, 0.05f);
+    conf.setInt(Sgd.ITERATIONS, 6);
+    List<String> res = runSgd(RATINGS, conf);
+    for (String string : res) {
+      Assert.assertEquals(2, string.split(";").length);
+    }
+    Assert.assertEquals(4, res.size());
+  }
+
+  /**
+   * Keeps the factors off the heap. The output is the same as on the heap.
+   * @throws Exception
+   */
+  @Test
+  public void testOffHeap() throws Exception {
+    Configuration conf = new Configuration(false);
+    conf.set(AdaptiveRate.OPTIMIZER, "adam");
+    conf.setFloat(Sgd.GAMMA, 0.05f);
+    conf.setInt(Sgd.ITERATIONS, 6);
+    Set<String> onHeap = new HashSet<String>(runSgd(RATINGS, conf));
+
+    conf.setBoolean(FactorHandleWritable.OFF_HEAP, true);
+    Set<String> offHeap = new HashSet<String>(runSgd(RATINGS, conf));
+    Assert.assertEquals(4, offHeap.size());
+    Assert.assertEquals(onHeap, offHeap);
+    // The factors share a slot with the state of the optimizer
+    int dimension = 2 + AdaptiveRate.get(conf).getStateSize(2);
+    Assert.assertEquals(0, FactorArena.get(dimension).size());
+  }
+
+  /**
+   * Runs until no vertex moves by more than the tolerance. Every vertex is
+   * still in the output, and the users stop computing one by one before the
+   * job stops, well before ITERATIONS.
+   * @throws Exception
+   */
+  @Test
+  public void testActiveSet() throws Exception {
     String[] graph = { 
         "1 1 1.0",
         "1 2 2.0",
         "2 1 3.0",
-        "2 2 4.0"
+        "2 2 4.0",
+        "3 2 1.0"
     };
 
-    GiraphConfiguration conf = new GiraphConfiguration();
-    conf.setComputationClass(Sgd.InitUsersComputation.class);
-    conf.setMasterComputeClass(Sgd.MasterCompute.class);
-    conf.setEdgeInputFormatClass(CfLongIdFloatTextInputFormat.class);
-    conf.setFloat(Sgd.GAMMA, 0.005f);
-    conf.setFloat(Sgd.LAMBDA, 0.01f);
-    conf.setInt(Sgd.VECTOR_SIZE, 2);
-    conf.setInt(Sgd.ITERATIONS, 4);
-    conf.setVertexOutputFormatClass(IdWithValueTextOutputFormat.class);
-    Iterable<String> results = InternalVertexRunner.run(conf, null, graph);
-    List<String> res = new LinkedList<String>();
-    for (String string : results) {
-      res.add(string);
+    List<String> res = runActiveSet(graph, 0.001f, 100);
+    for (String string : res) {
+      Assert.assertEquals(2, string.split(";").length);
     }
-    Assert.assertEquals(4, res.size());
+    Assert.assertEquals(5, res.size());
+
+    List<Long> active = ActivityRecorder.ACTIVE;
+    Assert.assertTrue(active.size() < 100);
+    // users in the even Sgd supersteps, items in the odd ones
+    Assert.assertEquals(3, (long)active.get(0));
+    Assert.assertEquals(2, (long)active.get(1));
+    long minUsers = 3;
+    for (int i=0; i<active.size(); i+=2) {
+      minUsers = Math.min(minUsers, active.get(i));
+    }
+    Assert.assertTrue(minUsers < 3);
+  }
+
+  /**
+   * An item that stopped computing because none of its users changed
+   * computes again once one of them changes.
+   * @throws Exception
+   */
+  @Test
+  public void testActiveSetWakeUp() throws Exception {
+    String[] graph = { 
+        "1 1 1.0",
+        "1 2 2.0",
+        "2 1 3.0",
+        "2 2 4.0",
+        "3 2 1.0",
+        "3 3 5.0",
+        "4 3 5.0"
+    };
+
+    runActiveSet(graph, 0.003f, 10);
+    List<Long> active = ActivityRecorder.ACTIVE;
+    boolean wokeUp = false;
+    for (int i=1; i<active.size(); i+=2) {
+      for (int j=i+2; j<active.size(); j+=2) {
+        // an item that did not compute in i computes in j
+        if (active.get(i) < 3 && active.get(j) > active.get(i)) {
+          wokeUp = true;
+        }
+      }
+    }
+    Assert.assertTrue(active.toString(), wokeUp);
+  }
+
+  private static List<String> runActiveSet(String[] graph, float tolerance,
+      int iterations) throws Exception {
+    Configuration conf = new Configuration(false);
+    conf.setFloat(Sgd.TOLERANCE, tolerance);
+    conf.setFloat(Sgd.GAMMA, 0.05f);
+    conf.setInt(Sgd.ITERATIONS, iterations);
+    GiraphConstants.WORKER_CONTEXT_CLASS.set(conf, ActivityRecorder.class);
+    // One timer per superstep would exceed the counter limit of Hadoop
+    GiraphConstants.USE_SUPERSTEP_COUNTERS.set(conf, false);
+    return runSgd(graph, conf);
+  }
+
+  /**
+   * Records the number of vertices that computed in every superstep of Sgd,
+   * starting with the superstep 2.
+   */
+  public static class ActivityRecorder extends DefaultWorkerContext {
+    static final List<Long> ACTIVE = new ArrayList<Long>();
+
+    @Override
+    public void preApplication() {
+      ACTIVE.clear();
+    }
+
+    @Override
+    public void preSuperstep() {
+      // The aggregator holds the count of the previous superstep
+      if (getSuperstep() > 2) {
+        ACTIVE.add(((LongWritable)getAggregatedValue(
+            ActiveSet.ACTIVE_AGGREGATOR)).get());
+      }
+    }
+  }
+
+  /**
+   * Splits both items into two mirrors. The mirrors are removed from the
+   * output, and the split only delays the values of the items, so the factors
+   * fit the ratings about as well as without it.
+   * @throws Exception
+   */
+  @Test
+  public void testHotVertexSplitting() throws Exception {
+    Configuration conf = new Configuration(false);
+    conf.setFloat(Sgd.GAMMA, 0.1f);
+    conf.setInt(Sgd.ITERATIONS, 100);
+    // One timer per superstep would exceed the counter limit of Hadoop
+    GiraphConstants.USE_SUPERSTEP_COUNTERS.set(conf, false);
+    List<String> unsplit = runSgd(RATINGS, conf);
+
+    conf.setInt(HotVertices.HOT_DEGREE, 1);
+    List<String> split = runSgd(RATINGS, conf);
+    Assert.assertEquals(4, split.size());
+    for (String string : split) {
+      CfLongId id = new CfLongId(Byte.parseByte(string.split("[ \t]")[1]),
+          Long.parseLong(string.split("[ \t]")[0]));
+      Assert.assertFalse(HotVertices.isMirror(id));
+    }
+    Assert.assertEquals(rmse(unsplit), rmse(split), 0.02);
+  }
+
+  /**
+   * @param output lines of the form "id type\t[factor; factor]"
+   * @return the RMSE of the factors in the output on RATINGS
+   */
+  private static double rmse(List<String> output) {
+    Map<String, float[]> factors = new HashMap<String, float[]>();
+    for (String string : output) {
+      String[] fields = string.split("\t");
+      String[] values = fields[1].replaceAll("[\\[\\] ]", "").split(";");
+      float[] vector = new float[values.length];
+      for (int i=0; i<values.length; i++) {
+        vector[i] = Float.parseFloat(values[i]);
+      }
+      factors.put(fields[0], vector);
+    }
+    double sse = 0d;
+    for (String rating : RATINGS) {
+      String[] fields = rating.split(" ");
+      float[] user = factors.get(fields[0] + " 0");
+      float[] item = factors.get(fields[1] + " 1");
+      double err = Float.parseFloat(fields[2]);
+      for (int i=0; i<user.length; i++) {
+        err -= user[i]*item[i];
+      }
+      sse += err*err;
+    }
+    return Math.sqrt(sse/RATINGS.length);
   }
 
   //FIXME enable!
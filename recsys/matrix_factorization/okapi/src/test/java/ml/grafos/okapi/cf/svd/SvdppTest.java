@@ -24,16 +24,25 @@ import java.io.DataInputStream;
 import java.io.DataOutput;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import junit.framework.Assert;
+import ml.grafos.okapi.cf.AdaptiveRate;
+import ml.grafos.okapi.cf.CfLongId;
 import ml.grafos.okapi.cf.CfLongIdFloatTextInputFormat;
+import ml.grafos.okapi.cf.EarlyStopping;
+import ml.grafos.okapi.cf.HotVertices;
 import ml.grafos.okapi.common.jblas.FloatMatrixWritable;
 
 import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.GiraphConstants;
 import org.apache.giraph.io.formats.IdWithValueTextOutputFormat;
 import org.apache.giraph.utils.InternalVertexRunner;
+import org.apache.giraph.worker.DefaultWorkerContext;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DoubleWritable;
 import org.jblas.FloatMatrix;
 import org.junit.Test;
 
@@ -136,34 +145,140 @@ public class SvdppTest {
     assertEquals(value.getWeight(), valueCopy.getWeight());
   }
 
-  @Test
-  public void testEndtoEnd() throws Exception {
-    String[] graph = { 
-        "1 1 1.0",
-        "1 2 2.0",
-        "2 1 3.0",
-        "2 2 4.0"
-    };
+  /** Two users who rated two items. */
+  private static final String[] RATINGS = {
+    "1 1 1.0",
+    "1 2 2.0",
+    "2 1 3.0",
+    "2 2 4.0"
+  };
 
+  /**
+   * Runs Svdpp with vectors of size 2 and the given parameters.
+   *
+   * @param graph ratings, one per line
+   * @param overrides parameters of the test
+   * @return the output lines
+   */
+  private static List<String> runSvdpp(String[] graph,
+      Configuration overrides) throws Exception {
     GiraphConfiguration conf = new GiraphConfiguration();
     conf.setComputationClass(Svdpp.InitUsersComputation.class);
     conf.setMasterComputeClass(Svdpp.MasterCompute.class);
     conf.setEdgeInputFormatClass(CfLongIdFloatTextInputFormat.class);
+    conf.setVertexOutputFormatClass(IdWithValueTextOutputFormat.class);
+    conf.setInt(Svdpp.VECTOR_SIZE, 2);
+    for (Map.Entry<String, String> parameter : overrides) {
+      conf.set(parameter.getKey(), parameter.getValue());
+    }
+    List<String> res = new ArrayList<String>();
+    for (String string : InternalVertexRunner.run(conf, null, graph)) {
+      res.add(string);
+    }
+    return res;
+  }
+
+  @Test
+  public void testEndtoEnd() throws Exception {
+    Configuration conf = new Configuration(false);
     conf.setFloat(Svdpp.BIAS_LAMBDA, 0.005f);
     conf.setFloat(Svdpp.BIAS_GAMMA, 0.01f);
     conf.setFloat(Svdpp.FACTOR_LAMBDA, 0.005f);
     conf.setFloat(Svdpp.FACTOR_GAMMA, 0.01f);
     conf.setFloat(Svdpp.MIN_RATING, 0);
     conf.setFloat(Svdpp.MAX_RATING, 5);
-    conf.setInt(Svdpp.VECTOR_SIZE, 2);
     conf.setInt(Svdpp.ITERATIONS, 5);
-    conf.setVertexOutputFormatClass(IdWithValueTextOutputFormat.class);
-    Iterable<String> results = InternalVertexRunner.run(conf, null, graph);
-    List<String> res = new LinkedList<String>();
-    for (String string : results) {
-      res.add(string);
+    Assert.assertEquals(4, runSvdpp(RATINGS, conf).size());
+  }
+
+  /**
+   * Holds out part of the ratings and puts back the best values at the end.
+   * @throws Exception
+   */
+  @Test
+  public void testEarlyStopping() throws Exception {
+    String[] graph = { 
+        "1 1 1.0",
+        "1 2 2.0",
+        "1 3 3.0",
+        "2 1 2.0",
+        "2 2 4.0",
+        "2 3 5.0",
+        "3 1 3.0",
+        "3 2 5.0",
+        "3 3 5.0"
+    };
+
+    Configuration conf = new Configuration(false);
+    conf.setFloat(EarlyStopping.VALIDATION_FRACTION, 0.3f);
+    conf.setInt(EarlyStopping.PATIENCE, 2);
+    conf.setInt(Svdpp.ITERATIONS, 20);
+    Assert.assertEquals(6, runSvdpp(graph, conf).size());
+  }
+
+  /**
+   * Trains the factors and weights with AdaGrad.
+   * @throws Exception
+   */
+  @Test
+  public void testAdaptiveRate() throws Exception {
+    Configuration conf = new Configuration(false);
+    conf.set(AdaptiveRate.OPTIMIZER, "adagrad");
+    conf.setInt(Svdpp.ITERATIONS, 6);
+    List<String> res = runSvdpp(RATINGS, conf);
+    for (String string : res) {
+      // a row of 2 factors, without the state of the optimizer
+      Assert.assertEquals(2, string.split(",").length);
     }
     Assert.assertEquals(4, res.size());
-    
+  }
+
+  /**
+   * Splits both items into two mirrors. The mirrors are removed from the
+   * output, and the split only delays the values of the items, so the error
+   * of the users stays close to the one without it.
+   * @throws Exception
+   */
+  @Test
+  public void testHotVertexSplitting() throws Exception {
+    Configuration conf = new Configuration(false);
+    conf.setInt(Svdpp.ITERATIONS, 20);
+    GiraphConstants.WORKER_CONTEXT_CLASS.set(conf, ErrorRecorder.class);
+    // One timer per superstep would exceed the counter limit of Hadoop
+    GiraphConstants.USE_SUPERSTEP_COUNTERS.set(conf, false);
+    runSvdpp(RATINGS, conf);
+    // The error of the users who computed in the superstep 18
+    double unsplit = ErrorRecorder.ERRORS.get(19);
+
+    conf.setInt(HotVertices.HOT_DEGREE, 1);
+    List<String> res = runSvdpp(RATINGS, conf);
+    Assert.assertEquals(4, res.size());
+    for (String string : res) {
+      CfLongId id = new CfLongId(Byte.parseByte(string.split("[ \t]")[1]),
+          Long.parseLong(string.split("[ \t]")[0]));
+      Assert.assertFalse(HotVertices.isMirror(id));
+    }
+    Assert.assertEquals(Math.sqrt(unsplit/RATINGS.length),
+        Math.sqrt(ErrorRecorder.ERRORS.get(19)/RATINGS.length), 0.05);
+  }
+
+  /**
+   * Records the squared error aggregated in every superstep of Svdpp, by
+   * the superstep that reads it.
+   */
+  public static class ErrorRecorder extends DefaultWorkerContext {
+    static final List<Double> ERRORS = new ArrayList<Double>();
+
+    @Override
+    public void preApplication() {
+      ERRORS.clear();
+    }
+
+    @Override
+    public void preSuperstep() {
+      // The aggregator holds the error of the previous superstep
+      ERRORS.add(((DoubleWritable)getAggregatedValue(
+          Svdpp.RMSE_AGGREGATOR)).get());
+    }
   }
 }
@@ -0,0 +1,88 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.java.ml.grafos.okapi.cf.tuning;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ml.grafos.okapi.cf.ranking.BPRRankingComputation;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HyperbandTest {
+
+  @Test
+  public void testSpaceFromAnnotations() {
+    HyperParameterSpace space = new HyperParameterSpace(
+        BPRRankingComputation.class, Collections.singleton("iter"));
+    // dim, learnRate and reg are inherited from the abstract class
+    Assert.assertEquals(3, space.getParameters().size());
+
+    Map<String, String> configuration = space.sample(new Random(1));
+    Assert.assertFalse(configuration.containsKey("iter"));
+    int dim = Integer.parseInt(configuration.get("dim"));
+    Assert.assertTrue(dim >= 1 && dim <= 1000);
+    float learnRate = Float.parseFloat(configuration.get("learnRate"));
+    Assert.assertTrue(learnRate >= 0.0001f && learnRate <= 10f);
+  }
+
+  @Test
+  public void testFindsBestConfiguration() throws Exception {
+    HyperParameterSpace space = new HyperParameterSpace(
+        BPRRankingComputation.class, Collections.singleton("iter"));
+    final AtomicInteger totalBudget = new AtomicInteger();
+
+    // The loss decreases with the budget and is lowest for small learnRate.
+    Hyperband.Trial trial = new Hyperband.Trial() {
+      @Override
+      public float evaluate(Map<String, String> configuration, int budget) {
+        totalBudget.addAndGet(budget);
+        float learnRate = Float.parseFloat(configuration.get("learnRate"));
+        return learnRate + 1f/budget;
+      }
+    };
+
+    Hyperband hyperband = new Hyperband(space, trial, 27, 3, 4, 42);
+    Hyperband.Result best = hyperband.run();
+
+    Assert.assertEquals(27, best.getBudget());
+    Assert.assertTrue(best.getLoss() < 0.1f);
+    // Far less than running every sampled configuration to the end.
+    Assert.assertTrue(totalBudget.get() < 143*27);
+  }
+
+  @Test
+  public void testFailedTrialsLose() throws Exception {
+    HyperParameterSpace space = new HyperParameterSpace(
+        BPRRankingComputation.class, Collections.singleton("iter"));
+    Hyperband.Trial trial = new Hyperband.Trial() {
+      @Override
+      public float evaluate(Map<String, String> configuration, int budget)
+          throws Exception {
+        if (Integer.parseInt(configuration.get("dim")) % 2 == 0) {
+          throw new Exception("diverged");
+        }
+        return 1f/budget;
+      }
+    };
+    Hyperband.Result best = new Hyperband(space, trial, 9, 3, 2, 7).run();
+    Assert.assertEquals(1, Integer.parseInt(
+        best.getConfiguration().get("dim")) % 2);
+  }
+}
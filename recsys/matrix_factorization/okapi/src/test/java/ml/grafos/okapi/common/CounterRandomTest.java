@@ -0,0 +1,74 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.java.ml.grafos.okapi.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+public class CounterRandomTest {
+
+  @Test
+  public void testSameKeySameStream() {
+    CounterRandom a = new CounterRandom(42);
+    CounterRandom b = new CounterRandom(42);
+    // b draws other streams first, as another partitioning would
+    b.reset(CounterRandom.key(7, 1), 3).nextLong();
+    a.reset(CounterRandom.key(5, 0), 2);
+    b.reset(CounterRandom.key(5, 0), 2);
+    for (int i=0; i<10; i++) {
+      assertEquals(a.nextFloat(), b.nextFloat(), 0f);
+    }
+  }
+
+  @Test
+  public void testDifferentKeys() {
+    CounterRandom r = new CounterRandom(42);
+    long user = r.reset(CounterRandom.key(5, 0), 0).nextLong();
+    long item = r.reset(CounterRandom.key(5, 1), 0).nextLong();
+    long later = r.reset(CounterRandom.key(5, 0), 1).nextLong();
+    long otherSeed = new CounterRandom(43).reset(
+        CounterRandom.key(5, 0), 0).nextLong();
+    assertFalse(user == item);
+    assertFalse(user == later);
+    assertFalse(user == otherSeed);
+  }
+
+  @Test
+  public void testRanges() {
+    CounterRandom r = new CounterRandom(1).reset(0, 0);
+    for (int i=0; i<1000; i++) {
+      float f = r.nextFloat();
+      assertTrue(f >= 0f && f < 1f);
+      int n = r.nextInt(10);
+      assertTrue(n >= 0 && n < 10);
+    }
+  }
+
+  @Test
+  public void testSeedFromConf() {
+    Configuration conf = new Configuration();
+    long unset = CounterRandom.fromConf(conf).reset(1, 1).nextLong();
+    assertEquals(unset, new CounterRandom(CounterRandom.DEFAULT_SEED)
+        .reset(1, 1).nextLong());
+    Parameters.RANDOM_SEED.set(conf, 9);
+    assertEquals(new CounterRandom(9).reset(1, 1).nextLong(),
+        CounterRandom.fromConf(conf).reset(1, 1).nextLong());
+  }
+}
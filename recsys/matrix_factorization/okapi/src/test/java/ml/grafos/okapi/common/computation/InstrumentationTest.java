@@ -0,0 +1,172 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.java.ml.grafos.okapi.common.computation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.util.HashMap;
+import java.util.Map;
+
+import ml.grafos.okapi.aggregators.SlowVerticesAggregator;
+import ml.grafos.okapi.aggregators.SlowVerticesAggregator.SlowVertices;
+import ml.grafos.okapi.aggregators.TextAggregatorWriter;
+import ml.grafos.okapi.graphs.SimplePageRank;
+import ml.grafos.okapi.io.formats.LongFloatTextEdgeInputFormat;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.io.formats.IdWithValueTextOutputFormat;
+import org.apache.giraph.utils.InternalVertexRunner;
+import org.junit.Test;
+
+public class InstrumentationTest {
+
+  @Test
+  public void testBuckets() {
+    assertEquals(0, Instrumentation.getBucket(0));
+    assertEquals(0, Instrumentation.getBucket(1));
+    assertEquals(1, Instrumentation.getBucket(2));
+    assertEquals(1, Instrumentation.getBucket(3));
+    assertEquals(10, Instrumentation.getBucket(1024));
+    assertEquals(Instrumentation.HISTOGRAM_BUCKETS-1,
+        Instrumentation.getBucket(Long.MAX_VALUE));
+  }
+
+  @Test
+  public void testSlowVertices() throws Exception {
+    SlowVerticesAggregator aggregator = new SlowVerticesAggregator();
+    aggregator.setAggregatedValue(aggregator.createInitialValue());
+    for (int w=0; w<3; w++) {
+      SlowVertices worker = new SlowVertices();
+      for (int v=0; v<20; v++) {
+        worker.add(w+"."+v, v*3+w);
+      }
+      aggregator.aggregate(worker);
+    }
+
+    SlowVertices slowest = aggregator.getAggregatedValue();
+    assertEquals(SlowVerticesAggregator.SIZE, slowest.size());
+    assertEquals("2.19", slowest.getId(0));
+    assertEquals(59, slowest.getTime(0));
+    assertEquals(50, slowest.getTime(SlowVerticesAggregator.SIZE-1));
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    slowest.write(new DataOutputStream(bytes));
+    SlowVertices copy = new SlowVertices();
+    copy.readFields(new DataInputStream(
+        new ByteArrayInputStream(bytes.toByteArray())));
+    assertEquals(slowest.toString(), copy.toString());
+  }
+
+  @Test
+  public void testPageRank() throws Exception {
+    String[] graph = {
+        "1 2 1.0",
+        "1 3 1.0",
+        "2 3 1.0",
+        "3 1 1.0",
+        "3 4 1.0",
+        "4 1 1.0"
+    };
+    File dir = File.createTempFile("instrumentation", "");
+    dir.delete();
+    dir.mkdirs();
+    String filename = new File(dir, "aggregators").getPath();
+
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(SimplePageRank.class);
+    conf.setMasterComputeClass(
+        Instrumentation.InstrumentedMasterCompute.class);
+    conf.setEdgeInputFormatClass(LongFloatTextEdgeInputFormat.class);
+    conf.setVertexOutputFormatClass(IdWithValueTextOutputFormat.class);
+    conf.setInt(SimplePageRank.MAX_SUPERSTEPS, 5);
+    conf.setBoolean(Instrumentation.INSTRUMENTATION, true);
+    GiraphConstants.AGGREGATOR_WRITER_CLASS.set(conf,
+        TextAggregatorWriter.class);
+    conf.set(TextAggregatorWriter.FREQUENCY, "always");
+    conf.set(TextAggregatorWriter.FILENAME, filename);
+    InternalVertexRunner.run(conf, null, graph);
+
+    // Every superstep where all the vertices computed and sent gives the
+    // same values
+    Map<String, String> values = new HashMap<String, String>();
+    File[] files = dir.listFiles();
+    File output = null;
+    for (File file : files) {
+      // the local file system also writes a checksum file
+      if (!file.getName().endsWith(".crc")) {
+        output = file;
+      }
+    }
+    BufferedReader reader = new BufferedReader(new FileReader(output));
+    for (String line = reader.readLine(); line != null;
+        line = reader.readLine()) {
+      String[] tokens = line.split("\t", 2);
+      String superstep = tokens[0];
+      tokens = tokens[1].split("=", 2);
+      if (values.containsKey(superstep)) {
+        continue;
+      }
+      if (tokens[0].equals(Instrumentation.MESSAGES_AGGREGATOR) &&
+          tokens[1].equals("6")) {
+        values.put(superstep, "");
+      }
+    }
+    reader.close();
+    assertTrue(values.size() > 0);
+    String superstep = values.keySet().iterator().next();
+    values.clear();
+    reader = new BufferedReader(new FileReader(output));
+    for (String line = reader.readLine(); line != null;
+        line = reader.readLine()) {
+      String[] tokens = line.split("\t", 2);
+      if (tokens[0].equals(superstep)) {
+        tokens = tokens[1].split("=", 2);
+        values.put(tokens[0], tokens[1]);
+      }
+    }
+    reader.close();
+    for (File file : files) {
+      file.delete();
+    }
+    dir.delete();
+
+    assertEquals("4", values.get(Instrumentation.VERTICES_AGGREGATOR));
+    // Vertices 1 and 3 send 2 messages of 8 bytes, the others 1
+    assertEquals("2", values.get(Instrumentation.MAX_MESSAGES_AGGREGATOR));
+    assertEquals("48", values.get(Instrumentation.BYTES_AGGREGATOR));
+    assertEquals("16", values.get(Instrumentation.MAX_BYTES_AGGREGATOR));
+    // One worker in the local runner
+    assertTrue(Long.parseLong(
+        values.get(Instrumentation.WORKER_TIME_AGGREGATOR+0)) > 0);
+    long histogram = 0;
+    for (int b=0; b<Instrumentation.HISTOGRAM_BUCKETS; b++) {
+      histogram += Long.parseLong(
+          values.get(Instrumentation.HISTOGRAM_AGGREGATOR+b));
+    }
+    assertEquals(4, histogram);
+    assertEquals(4, values.get(Instrumentation.SLOWEST_AGGREGATOR)
+        .split(" ").length);
+  }
+}
@@ -0,0 +1,183 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.java.ml.grafos.okapi.common.jblas;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.jblas.FloatMatrix;
+import org.junit.Test;
+
+public class FactorArenaTest {
+
+  @Test
+  public void testAllocateAndRelease() {
+    FactorArena arena = new FactorArena(3);
+    int a = arena.allocate();
+    int b = arena.allocate();
+    arena.store(a, new FloatMatrix(3, 1, 1f, 2f, 3f));
+    arena.store(b, new FloatMatrix(3, 1, 4f, 5f, 6f));
+    assertEquals(2, arena.size());
+    assertEquals(32f, arena.dot(a, new FloatMatrix(3, 1, 4f, 5f, 6f)), 1e-6);
+
+    arena.release(a);
+    int c = arena.allocate();
+    assertEquals(a, c);
+    assertArrayEquals(new float[] {0f, 0f, 0f}, arena.view(c).data, 0f);
+    assertArrayEquals(new float[] {4f, 5f, 6f}, arena.view(b).data, 0f);
+  }
+
+  @Test
+  public void testManyChunks() {
+    FactorArena arena = new FactorArena(2);
+    int n = FactorArena.CHUNK_SLOTS + 10;
+    for (int i=0; i<n; i++) {
+      int slot = arena.allocate();
+      arena.set(slot, 0, i);
+      arena.set(slot, 1, -i);
+    }
+    assertEquals(n, arena.size());
+    assertEquals(n-1, arena.get(n-1, 0), 0f);
+    assertEquals(-(n-1), arena.get(n-1, 1), 0f);
+  }
+
+  @Test
+  public void testDumpAndLoad() throws IOException {
+    FactorArena arena = new FactorArena(2);
+    int a = arena.allocate();
+    int b = arena.allocate();
+    arena.store(a, new FloatMatrix(2, 1, 1f, 2f));
+    arena.store(b, new FloatMatrix(2, 1, 3f, 4f));
+    arena.release(a);
+
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    arena.dump(new DataOutputStream(baos));
+    FactorArena copy = new FactorArena(2);
+    copy.load(new DataInputStream(new ByteArrayInputStream(
+        baos.toByteArray())));
+    assertEquals(1, copy.size());
+    assertArrayEquals(new float[] {3f, 4f}, copy.view(b).data, 0f);
+    assertEquals(a, copy.allocate());
+  }
+
+  @Test
+  public void testDumpFormat() throws IOException {
+    FactorArena arena = new FactorArena(2);
+    arena.store(arena.allocate(), new FloatMatrix(2, 1, 1f, 2f));
+    ByteArrayOutputStream dumped = new ByteArrayOutputStream();
+    arena.dump(new DataOutputStream(dumped));
+
+    // The chunks are in the native order, the dump as written by DataOutput
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    DataOutputStream output = new DataOutputStream(expected);
+    output.writeInt(2);
+    output.writeInt(1);
+    output.writeInt(0);
+    output.writeFloat(1f);
+    output.writeFloat(2f);
+    assertArrayEquals(expected.toByteArray(), dumped.toByteArray());
+  }
+
+  @Test
+  public void testLongVectors() {
+    FactorArena arena = new FactorArena(10000);
+    assertEquals(FactorArena.MAX_CHUNK_BYTES / 40000, arena.getChunkSlots());
+    int slot = arena.allocate();
+    arena.set(slot, 9999, 1f);
+    assertEquals(1f, arena.get(slot, 9999), 0f);
+    assertEquals(1, new FactorArena(1 << 25).getChunkSlots());
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testTooLongVectors() {
+    new FactorArena(1 << 29);
+  }
+
+  @Test
+  public void testParkAndUnpark() {
+    FactorHandleWritable handle = new FactorHandleWritable();
+    handle.rows = 3;
+    handle.columns = 1;
+    handle.length = 3;
+    handle.data = new float[] {1f, 2f, 3f};
+    handle.park();
+    assertTrue(handle.isParked());
+    int slot = handle.getSlot();
+    assertArrayEquals(new float[] {1f, 2f, 3f},
+        handle.getArena().view(slot).data, 0f);
+
+    handle.unpark();
+    assertArrayEquals(new float[] {1f, 2f, 3f}, handle.data, 0f);
+    handle.data[0] = 4f;
+    handle.park();
+    assertEquals(slot, handle.getSlot());
+    assertEquals(4f, handle.getArena().get(slot, 0), 0f);
+
+    FactorArena arena = handle.getArena();
+    int size = arena.size();
+    handle.release();
+    assertEquals(-1, handle.getSlot());
+    assertEquals(size-1, arena.size());
+    assertArrayEquals(new float[] {4f, 2f, 3f}, handle.data, 0f);
+  }
+
+  @Test
+  public void testHandleReadWrite() throws IOException {
+    FactorHandleWritable handle = new FactorHandleWritable();
+    handle.readFields(read(new FloatMatrixWritable(3, 1,
+        0.1f, Float.NaN, Float.MAX_VALUE)));
+    handle.park();
+    FactorArena arena = handle.getArena();
+    int size = arena.size();
+
+    // A parked value is written by value, and read on the heap
+    FactorHandleWritable copy = new FactorHandleWritable();
+    copy.readFields(read(handle));
+    assertFalse(copy.isParked());
+    assertEquals(-1, copy.getSlot());
+    assertEquals(size, arena.size());
+    assertArrayEquals(new float[] {0.1f, Float.NaN, Float.MAX_VALUE},
+        copy.data, 0f);
+    assertEquals(3, copy.rows);
+    assertEquals(1, copy.columns);
+
+    // Reading into a parked value keeps its slot for the next park
+    int slot = handle.getSlot();
+    handle.readFields(read(new FloatMatrixWritable(3, 1, 1f, 2f, 3f)));
+    assertFalse(handle.isParked());
+    assertEquals(slot, handle.getSlot());
+    handle.park();
+    assertEquals(slot, handle.getSlot());
+    assertEquals(size, arena.size());
+    assertArrayEquals(new float[] {1f, 2f, 3f}, arena.view(slot).data, 0f);
+    handle.release();
+  }
+
+  private static DataInputStream read(FloatMatrixWritable m)
+      throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    m.write(new DataOutputStream(baos));
+    return new DataInputStream(new ByteArrayInputStream(baos.toByteArray()));
+  }
+}
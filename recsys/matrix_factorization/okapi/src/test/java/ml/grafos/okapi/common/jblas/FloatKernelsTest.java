@@ -0,0 +1,60 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.java.ml.grafos.okapi.common.jblas;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class FloatKernelsTest {
+
+  @Test
+  public void testDot() {
+    float[] x = { 1f, 2f, 3f, 4f, 5f, 6f, 7f };
+    float[] y = { 7f, 6f, 5f, 4f, 3f, 2f, 1f };
+    assertEquals(84f, FloatKernels.dot(x, y, 7), 1e-6);
+    assertEquals(0f, FloatKernels.dot(x, y, 0), 0f);
+    // skips the first element, as for the biases
+    assertEquals(77f, FloatKernels.dot(x, 1, y, 1, 6), 1e-6);
+  }
+
+  @Test
+  public void testAxpy() {
+    float[] x = { 1f, 2f, 3f, 4f, 5f };
+    float[] y = { 1f, 1f, 1f, 1f, 1f };
+    FloatKernels.axpy(2f, x, y, 5);
+    assertArrayEquals(new float[] { 3f, 5f, 7f, 9f, 11f }, y, 1e-6f);
+  }
+
+  @Test
+  public void testScaledAdd() {
+    float[] x = { 1f, 2f, 3f, 4f, 5f };
+    float[] y = { 1f, 1f, 1f, 1f, 1f };
+    FloatKernels.scaledAdd(0.5f, y, -1f, x, 5);
+    assertArrayEquals(new float[] { -0.5f, -1.5f, -2.5f, -3.5f, -4.5f }, y,
+        1e-6f);
+  }
+
+  @Test
+  public void testClamp() {
+    assertEquals(5f, FloatKernels.clamp(7f, 1f, 5f), 0f);
+    assertEquals(1f, FloatKernels.clamp(-7f, 1f, 5f), 0f);
+    float[] x = { -1f, 2f, 9f };
+    FloatKernels.clamp(x, 3, 0f, 5f);
+    assertArrayEquals(new float[] { 0f, 2f, 5f }, x, 0f);
+  }
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.java.ml.grafos.okapi.spinner;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ml.grafos.okapi.aggregators.LongArraySumAggregator.LongVector;
+import ml.grafos.okapi.spinner.LoadDimensions;
+import ml.grafos.okapi.spinner.Spinner;
+import ml.grafos.okapi.spinner.Spinner.EdgeValue;
+import ml.grafos.okapi.spinner.Spinner.VertexValue;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.edge.Edge;
+import org.apache.giraph.edge.EdgeFactory;
+import org.apache.giraph.graph.Vertex;
+import org.apache.hadoop.io.LongWritable;
+import org.junit.Test;
+
+public class LoadDimensionsTest {
+
+  @SuppressWarnings("unchecked")
+  private static Vertex<LongWritable, VertexValue, EdgeValue> createVertex(
+      GiraphConfiguration giraphConf, int numEdges, int weight) {
+    giraphConf.setComputationClass(Spinner.ComputeNewPartition.class);
+    ImmutableClassesGiraphConfiguration<LongWritable, VertexValue, EdgeValue>
+        conf = new ImmutableClassesGiraphConfiguration<LongWritable,
+        VertexValue, EdgeValue>(giraphConf);
+    List<Edge<LongWritable, EdgeValue>> edges =
+        new ArrayList<Edge<LongWritable, EdgeValue>>();
+    for (int i=0; i<numEdges; i++) {
+      edges.add(EdgeFactory.create(new LongWritable(i), new EdgeValue()));
+    }
+    VertexValue value = new VertexValue();
+    value.setWeight(weight);
+    Vertex<LongWritable, VertexValue, EdgeValue> vertex = conf.createVertex();
+    vertex.initialize(new LongWritable(-1), value, edges);
+    return vertex;
+  }
+
+  @Test
+  public void testDefault() {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    LoadDimensions dimensions = new LoadDimensions(conf, 4, 0.05);
+    assertEquals(1, dimensions.size());
+    assertEquals(LoadDimensions.Dimension.EDGES, dimensions.get(0));
+    assertEquals(4, dimensions.length());
+  }
+
+  @Test
+  public void testLoads() {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.set(LoadDimensions.BALANCE, "edges, vertices,weight");
+    LoadDimensions dimensions = new LoadDimensions(conf, 2, 0);
+    assertEquals(6, dimensions.length());
+    assertEquals(5, dimensions.index(2, 1));
+
+    LongVector loads = new LongVector(dimensions.length());
+    dimensions.add(loads, 0, createVertex(conf, 3, 10));
+    dimensions.add(loads, 1, createVertex(conf, 1, 20));
+    dimensions.add(loads, 1, createVertex(conf, 2, 30));
+    long[] values = new long[dimensions.length()];
+    loads.copyTo(values);
+    assertArrayEquals(new long[] {3, 3, 1, 2, 10, 50}, values);
+
+    dimensions.subtract(loads, 1, createVertex(conf, 2, 30));
+    assertEquals(4, dimensions.getTotal(loads, 0));
+    assertEquals(2, dimensions.getTotal(loads, 1));
+    assertEquals(30, dimensions.getTotal(loads, 2));
+  }
+
+  @Test
+  public void testCapacities() {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.set(LoadDimensions.BALANCE, "edges,vertices");
+    conf.setFloat(LoadDimensions.ADDITIONAL_CAPACITY + "vertices", 0.5f);
+    LoadDimensions dimensions = new LoadDimensions(conf, 2, 0.1);
+    LongVector loads = new LongVector(dimensions.length());
+    loads.add(dimensions.index(0, 0), 60);
+    loads.add(dimensions.index(0, 1), 40);
+    loads.add(dimensions.index(1, 0), 3);
+    loads.add(dimensions.index(1, 1), 1);
+    // 100 edges and 4 vertices over 2 partitions
+    assertArrayEquals(new long[] {55, 3}, dimensions.getCapacities(loads));
+  }
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.java.ml.grafos.okapi.spinner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Iterator;
+
+import ml.grafos.okapi.spinner.SortedArrayEdges;
+import ml.grafos.okapi.spinner.Spinner.EdgeValue;
+
+import org.apache.giraph.edge.Edge;
+import org.apache.giraph.edge.EdgeFactory;
+import org.apache.giraph.edge.MutableEdge;
+import org.apache.hadoop.io.LongWritable;
+import org.junit.Test;
+
+public class SortedArrayEdgesTest {
+
+  private static SortedArrayEdges create(long... targets) {
+    SortedArrayEdges edges = new SortedArrayEdges();
+    edges.initialize(2);
+    for (long target : targets) {
+      edges.add(EdgeFactory.create(new LongWritable(target),
+          new EdgeValue((short)(target % 7), (byte)(target % 3 + 1))));
+    }
+    return edges;
+  }
+
+  @Test
+  public void testRandomAccess() {
+    SortedArrayEdges edges = create(50, -3, 12, 50, 7);
+    assertEquals(4, edges.size());
+    assertEquals(5, edges.getEdgeValue(new LongWritable(12)).getPartition());
+    assertEquals(1, edges.getEdgeValue(new LongWritable(12)).getWeight());
+    assertNull(edges.getEdgeValue(new LongWritable(13)));
+
+    edges.setEdgeValue(new LongWritable(7), new EdgeValue((short)3, (byte)9));
+    assertEquals(3, edges.getEdgeValue(new LongWritable(7)).getPartition());
+    assertEquals(9, edges.getEdgeValue(new LongWritable(7)).getWeight());
+
+    edges.remove(new LongWritable(-3));
+    edges.remove(new LongWritable(99));
+    assertEquals(3, edges.size());
+    assertNull(edges.getEdgeValue(new LongWritable(-3)));
+
+    edges.add(EdgeFactory.create(new LongWritable(1),
+        new EdgeValue((short)1, (byte)1)));
+    long previous = Long.MIN_VALUE;
+    int n = 0;
+    for (Edge<LongWritable, EdgeValue> edge : edges) {
+      assertTrue(edge.getTargetVertexId().get() > previous);
+      previous = edge.getTargetVertexId().get();
+      n++;
+    }
+    assertEquals(4, n);
+  }
+
+  @Test
+  public void testDuplicates() {
+    SortedArrayEdges edges = new SortedArrayEdges();
+    edges.initialize(2);
+    for (int i = 0; i < 20; i++) {
+      // 6 edges to target 5, between others in decreasing order
+      long target = i % 5 == 0 || i % 7 == 0 ? 5 : 20 - i;
+      edges.add(EdgeFactory.create(new LongWritable(target),
+          new EdgeValue((short)i, (byte)1)));
+    }
+    edges.add(EdgeFactory.create(new LongWritable(5),
+        new EdgeValue((short)42, (byte)3)));
+    assertEquals(42, edges.getEdgeValue(new LongWritable(5)).getPartition());
+    assertEquals(3, edges.getEdgeValue(new LongWritable(5)).getWeight());
+    assertEquals(15, edges.size());
+  }
+
+  @Test
+  public void testMutableIterator() {
+    SortedArrayEdges edges = create(4, 2, 3);
+    Iterator<MutableEdge<LongWritable, EdgeValue>> it =
+        edges.mutableIterator();
+    while (it.hasNext()) {
+      MutableEdge<LongWritable, EdgeValue> edge = it.next();
+      if (edge.getTargetVertexId().get() == 3) {
+        it.remove();
+      } else {
+        edge.setValue(new EdgeValue((short)6, (byte)2));
+      }
+    }
+    assertEquals(2, edges.size());
+    assertNull(edges.getEdgeValue(new LongWritable(3)));
+    assertEquals(6, edges.getEdgeValue(new LongWritable(2)).getPartition());
+    assertEquals(6, edges.getEdgeValue(new LongWritable(4)).getPartition());
+  }
+
+  @Test
+  public void testReadWrite() throws Exception {
+    SortedArrayEdges edges = create(9, Long.MAX_VALUE, 1, 300);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    edges.write(new DataOutputStream(bytes));
+    assertEquals(4 + 4*11, bytes.size());
+
+    SortedArrayEdges copy = create(5);
+    copy.readFields(new DataInputStream(
+        new ByteArrayInputStream(bytes.toByteArray())));
+    assertEquals(4, copy.size());
+    assertNull(copy.getEdgeValue(new LongWritable(5)));
+    Iterator<Edge<LongWritable, EdgeValue>> expected = edges.iterator();
+    for (Edge<LongWritable, EdgeValue> edge : copy) {
+      Edge<LongWritable, EdgeValue> other = expected.next();
+      assertEquals(other.getTargetVertexId(), edge.getTargetVertexId());
+      assertEquals(other.getValue().getPartition(),
+          edge.getValue().getPartition());
+      assertEquals(other.getValue().getWeight(), edge.getValue().getWeight());
+    }
+  }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.java.ml.grafos.okapi.spinner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import ml.grafos.okapi.spinner.Spinner;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.utils.InternalVertexRunner;
+import org.apache.giraph.worker.DefaultWorkerContext;
+import org.apache.hadoop.io.LongWritable;
+import org.junit.Test;
+
+public class SpinnerIncrementalTest {
+
+  private static Map<Long, Short> run(String[] labels, String[] edges,
+      int hops, float additionalCapacity) throws Exception {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(Spinner.DeltaPropagate.class);
+    conf.setMasterComputeClass(Spinner.PartitionerMasterCompute.class);
+    conf.setVertexInputFormatClass(Spinner.SpinnerVertexValueInputFormat.class);
+    conf.setEdgeInputFormatClass(Spinner.SpinnerEdgeInputFormat.class);
+    conf.setVertexOutputFormatClass(
+        Spinner.SpinnerVertexValueOutputFormat.class);
+    conf.setInt("spinner.numberOfPartitions", 2);
+    conf.setBoolean("spinner.incremental", true);
+    conf.setInt("spinner.hops", hops);
+    conf.setFloat("spinner.additionalCapacity", additionalCapacity);
+    conf.setWorkerContextClass(EvaluationRecorder.class);
+    Iterable<String> results = InternalVertexRunner.run(conf, labels, edges);
+
+    Map<Long, Short> partitions = new TreeMap<Long, Short>();
+    for (String line : results) {
+      String[] tokens = line.split("\t");
+      partitions.put(Long.parseLong(tokens[0]), Short.parseShort(tokens[1]));
+    }
+    return partitions;
+  }
+
+  /**
+   * Two cliques, {1, 2, 3, 4} in 0 and {5, 6, 7, 8} in 1, lose the bridge
+   * between them, and a new vertex 9 links to 6, 7 and 8.
+   */
+  private static String[] labels = {"1 0", "2 0", "3 0", "4 0", "5 1", "6 1",
+      "7 1", "8 1"};
+  private static String[] edges = {"1 2", "1 3", "1 4", "2 3", "2 4", "3 4",
+      "5 6", "5 7", "5 8", "6 7", "6 8", "7 8", "4 5 -", "9 6 +", "9 7 +",
+      "8 9 +"};
+
+  @Test
+  public void testNewVertex() throws Exception {
+    Map<Long, Short> partitions = run(labels, edges, 2, 1f);
+    assertEquals(9, partitions.size());
+    assertEquals("{1=0, 2=0, 3=0, 4=0, 5=1, 6=1, 7=1, 8=1, 9=1}",
+        partitions.toString());
+  }
+
+  /**
+   * The same cliques keep the bridge, so that with one hop only 9 and the
+   * vertices of {5, 6, 7, 8} may migrate.
+   */
+  private static String[] keptBridge = {"1 2", "1 3", "1 4", "2 3", "2 4",
+      "3 4", "5 6", "5 7", "5 8", "6 7", "6 8", "7 8", "4 5", "9 6 +",
+      "9 7 +", "8 9 +"};
+
+  @Test
+  public void testFarVerticesStay() throws Exception {
+    Map<Long, Short> partitions = run(labels, keptBridge, 1, 0.05f);
+    assertEquals(0, (short) partitions.get(1L));
+    assertEquals(0, (short) partitions.get(2L));
+    assertEquals(0, (short) partitions.get(3L));
+    assertEquals(0, (short) partitions.get(4L));
+  }
+
+  @Test
+  public void testFarVerticesNotEvaluated() throws Exception {
+    run(labels, keptBridge, 1, 0.05f);
+    assertTrue(EvaluationRecorder.EVALUATED.contains(5L));
+    for (long evaluated : EvaluationRecorder.EVALUATED) {
+      assertTrue(evaluated <= 5);
+    }
+  }
+
+  /**
+   * Records the number of vertices that evaluated the partitions in every
+   * superstep.
+   */
+  public static class EvaluationRecorder extends DefaultWorkerContext {
+    static final List<Long> EVALUATED = new ArrayList<Long>();
+
+    @Override
+    public void preApplication() {
+      EVALUATED.clear();
+    }
+
+    @Override
+    public void preSuperstep() {
+      // The aggregator holds the count of the previous superstep
+      if (getSuperstep() > 0) {
+        EVALUATED.add(((LongWritable) getAggregatedValue(
+            Spinner.AGGREGATOR_EVALUATED)).get());
+      }
+    }
+  }
+}
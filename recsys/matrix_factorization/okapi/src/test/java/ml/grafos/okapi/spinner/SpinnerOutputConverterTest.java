@@ -0,0 +1,93 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.java.ml.grafos.okapi.spinner;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+import ml.grafos.okapi.common.computation.PropagateId;
+import ml.grafos.okapi.spinner.PartitionedLongTextEdgeInputFormat;
+import ml.grafos.okapi.spinner.PartitionedLongWritable;
+import ml.grafos.okapi.spinner.PrefixHashPartitionerFactory;
+import ml.grafos.okapi.spinner.PrefixHashWorkerPartitioner;
+import ml.grafos.okapi.spinner.SpinnerOutputConverter;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.io.formats.IdWithValueTextOutputFormat;
+import org.apache.giraph.utils.InternalVertexRunner;
+import org.apache.hadoop.io.NullWritable;
+import org.junit.Test;
+
+public class SpinnerOutputConverterTest {
+
+  public static class PropagatePartitionedId extends PropagateId<
+      PartitionedLongWritable, NullWritable, NullWritable,
+      PartitionedLongWritable> {
+  }
+
+  @Test
+  public void testConvert() {
+    SpinnerOutputConverter converter = new SpinnerOutputConverter();
+    converter.addPartition("1\t3");
+    converter.addPartition("2\t0");
+    converter.addPartition("");
+    assertEquals("3_1\t0_2", converter.convertEdge("1 2"));
+    assertEquals("0_2\t-1_7\t4", converter.convertEdge("2\t7\t4"));
+  }
+
+  @Test
+  public void testPartitionIndex() {
+    // With 4 workers and 16 Giraph partitions, the Spinner partitions 1 and
+    // 5 are on the same worker
+    assertEquals(1, PrefixHashWorkerPartitioner.getPartitionIndex(
+        (short)1, 16) % 4);
+    assertEquals(1, PrefixHashWorkerPartitioner.getPartitionIndex(
+        (short)5, 16) % 4);
+    assertEquals(1, PrefixHashWorkerPartitioner.getPartitionIndex(
+        (short)-1, 16));
+  }
+
+  @Test
+  public void testJob() throws Exception {
+    SpinnerOutputConverter converter = new SpinnerOutputConverter();
+    String[] labels = {"1 0", "2 1", "3 1", "4 0"};
+    for (String line : labels) {
+      converter.addPartition(line);
+    }
+    String[] graph = {"1 2", "2 1", "2 3", "3 2", "3 4", "4 3"};
+    String[] edges = new String[graph.length];
+    for (int i=0; i<graph.length; i++) {
+      edges[i] = converter.convertEdge(graph[i]);
+    }
+
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(PropagatePartitionedId.class);
+    conf.setEdgeInputFormatClass(PartitionedLongTextEdgeInputFormat.class);
+    conf.setVertexOutputFormatClass(IdWithValueTextOutputFormat.class);
+    conf.setGraphPartitionerFactoryClass(PrefixHashPartitionerFactory.class);
+    GiraphConstants.MAX_NUMBER_OF_SUPERSTEPS.set(conf, 2);
+    Iterable<String> results = InternalVertexRunner.run(conf, null, edges);
+
+    Set<String> ids = new TreeSet<String>();
+    for (String line : results) {
+      ids.add(line.split("\t")[0]);
+    }
+    assertEquals("[0_1, 0_4, 1_2, 1_3]", ids.toString());
+  }
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.java.ml.grafos.okapi.spinner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import ml.grafos.okapi.spinner.Spinner;
+import ml.grafos.okapi.spinner.Spinner.EdgeValue;
+import ml.grafos.okapi.spinner.StreamingPlacement;
+import ml.grafos.okapi.spinner.StreamingPlacement.Heuristic;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.edge.Edge;
+import org.apache.giraph.edge.EdgeFactory;
+import org.apache.giraph.utils.InternalVertexRunner;
+import org.apache.hadoop.io.LongWritable;
+import org.junit.After;
+import org.junit.Test;
+
+public class StreamingPlacementTest {
+
+  /** Two cliques, {1, 2, 3, 4} and {5, 6, 7, 8}. */
+  private static final long[][] CLIQUES = {{1, 2, 3, 4}, {5, 6, 7, 8}};
+
+  private static List<Edge<LongWritable, EdgeValue>> edges(long id,
+      long[] clique) {
+    List<Edge<LongWritable, EdgeValue>> edges =
+        new ArrayList<Edge<LongWritable, EdgeValue>>();
+    for (long neighbor : clique) {
+      if (neighbor != id) {
+        edges.add(EdgeFactory.create(new LongWritable(neighbor),
+            new EdgeValue()));
+      }
+    }
+    return edges;
+  }
+
+  @After
+  public void release() {
+    StreamingPlacement.release();
+  }
+
+  @Test
+  public void testGetHeuristic() {
+    assertNull(StreamingPlacement.getHeuristic("random"));
+    assertEquals(Heuristic.LDG, StreamingPlacement.getHeuristic("ldg"));
+    assertEquals(Heuristic.FENNEL, StreamingPlacement.getHeuristic("Fennel"));
+  }
+
+  /**
+   * The cliques are streamed one after the other into partitions that hold
+   * one of them, plus a tenth.
+   */
+  @Test
+  public void testCliquesLdg() {
+    StreamingPlacement placement = StreamingPlacement.get("cliques", 2,
+        Heuristic.LDG, 2, 0.1, 24, StreamingPlacement.DEFAULT_FENNEL_GAMMA);
+    short[] partitions = new short[2];
+    for (int c=0; c<CLIQUES.length; c++) {
+      partitions[c] = placement.place(CLIQUES[c][0],
+          edges(CLIQUES[c][0], CLIQUES[c]), 3);
+      for (int v=1; v<CLIQUES[c].length; v++) {
+        assertEquals(partitions[c], placement.place(CLIQUES[c][v],
+            edges(CLIQUES[c][v], CLIQUES[c]), 3));
+      }
+    }
+    assertNotEquals(partitions[0], partitions[1]);
+  }
+
+  /**
+   * Two vertices fill two partitions, so the second vertex of a clique does
+   * not fit with the first one, and goes to the other partition despite its
+   * neighbor.
+   */
+  @Test
+  public void testCapacity() {
+    for (Heuristic heuristic : Heuristic.values()) {
+      StreamingPlacement placement = StreamingPlacement.get(
+          "capacity-" + heuristic, 2, heuristic, 2, 0, 6,
+          StreamingPlacement.DEFAULT_FENNEL_GAMMA);
+      short first = placement.place(1, edges(1, CLIQUES[0]), 3);
+      assertNotEquals(first, placement.place(2, edges(2, CLIQUES[0]), 3));
+    }
+  }
+
+  /**
+   * A vertex that keeps its partition counts in the load and attracts its
+   * neighbors.
+   */
+  @Test
+  public void testAssign() {
+    StreamingPlacement placement = StreamingPlacement.get("assign", 2,
+        Heuristic.LDG, 2, 0.1, 24, StreamingPlacement.DEFAULT_FENNEL_GAMMA);
+    placement.assign(1, (short) 1, 3);
+    assertEquals(1, placement.place(2, edges(2, CLIQUES[0]), 3));
+  }
+
+  /**
+   * Spinner starts from the LDG placement of the two cliques, joined by a
+   * bridge, and keeps every clique in one partition.
+   */
+  @Test
+  public void testLdgInitialization() throws Exception {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(Spinner.ConverterPropagate.class);
+    conf.setMasterComputeClass(Spinner.PartitionerMasterCompute.class);
+    conf.setEdgeInputFormatClass(Spinner.SpinnerEdgeInputFormat.class);
+    conf.setVertexOutputFormatClass(
+        Spinner.SpinnerVertexValueOutputFormat.class);
+    conf.setInt("spinner.numberOfPartitions", 2);
+    conf.setFloat("spinner.additionalCapacity", 0.1f);
+    conf.set(StreamingPlacement.INITIALIZATION, "ldg");
+    String[] graph = {"1 2", "1 3", "1 4", "2 3", "2 4", "3 4", "5 6", "5 7",
+        "5 8", "6 7", "6 8", "7 8", "4 5"};
+    Map<Long, Short> partitions = new TreeMap<Long, Short>();
+    for (String line : InternalVertexRunner.run(conf, null, graph)) {
+      String[] tokens = line.split("\t");
+      partitions.put(Long.parseLong(tokens[0]), Short.parseShort(tokens[1]));
+    }
+    assertEquals(8, partitions.size());
+    for (long[] clique : CLIQUES) {
+      for (long id : clique) {
+        assertEquals(partitions.get(clique[0]), partitions.get(id));
+      }
+    }
+    assertNotEquals(partitions.get(1L), partitions.get(5L));
+  }
+}